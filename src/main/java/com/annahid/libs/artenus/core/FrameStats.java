@@ -0,0 +1,512 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Collects per-frame statistics of the engine over a rolling window of recent frames. The
+ * framework records the number of draw calls, state changes, and entities processed, along with the
+ * time spent in the main phases of each frame. Game code can poll the averages at any time using
+ * the instance returned by {@link Stage#getFrameStats()}, or log {@link #toString()}.
+ * <p/>
+ * Advance ticks and rendered frames are recorded independently, since they happen on different
+ * threads and not necessarily at the same rate. Timings measure the time spent on the CPU, which
+ * for rendering includes submitting commands to OpenGL but not their execution on the GPU.
+ *
+ * @author Hessan Feghhi
+ * @see Stage
+ */
+public final class FrameStats {
+    /**
+     * Counters recorded for each frame.
+     */
+    public enum Counter {
+        /**
+         * Number of OpenGL draw calls issued.
+         */
+        DRAW_CALLS(false),
+        /**
+         * Number of times the active shader program changed.
+         */
+        SHADER_SWITCHES(false),
+        /**
+         * Number of texture binds that were actually sent to OpenGL.
+         */
+        TEXTURE_BINDS(false),
+        /**
+         * Number of frame buffer binds.
+         */
+        TARGET_BINDS(false),
+        /**
+         * Number of entities rendered, not counting entity collections. Entities are rendered when
+         * the advance thread records the scene, once per advance tick, or for each of the last two
+         * steps of a frame with a fixed timestep. Entities are not counted when the scene is
+         * rendered directly.
+         *
+         * @see Stage#setDirectRendering(boolean)
+         */
+        ENTITIES_RENDERED(true),
+        /**
+         * Number of entities advanced, not counting entity collections.
+         */
+        ENTITIES_ADVANCED(true);
+
+        /**
+         * Indicates whether this counter is recorded by the advance thread.
+         */
+        private final boolean advance;
+
+        /**
+         * Creates a new counter.
+         *
+         * @param advance A value indicating whether the counter is recorded by the advance thread
+         */
+        Counter(boolean advance) {
+            this.advance = advance;
+        }
+    }
+
+    /**
+     * Timers recorded for each frame.
+     */
+    public enum Timer {
+        /**
+         * Time spent rendering a frame, including post-processing.
+         */
+        RENDER(false),
+        /**
+         * Time spent applying post-processing filters.
+         */
+        FILTERS(false),
+        /**
+         * Time spent hit-testing touch events against touch buttons.
+         */
+        TOUCH_MAP(true),
+        /**
+         * Time spent advancing the current scene.
+         */
+        ADVANCE(true);
+
+        /**
+         * Indicates whether this timer is recorded by the advance thread.
+         */
+        private final boolean advance;
+
+        /**
+         * Creates a new timer.
+         *
+         * @param advance A value indicating whether the timer is recorded by the advance thread
+         */
+        Timer(boolean advance) {
+            this.advance = advance;
+        }
+    }
+
+    /**
+     * Holds the number of frames in the rolling window.
+     */
+    public static final int WINDOW_SIZE = 60;
+
+    /**
+     * Holds the maximum number of post-processing filters timed individually.
+     */
+    public static final int MAX_FILTERS = 8;
+
+    /**
+     * Contains all counters, cached to avoid allocating a new array for each frame.
+     */
+    private static final Counter[] ALL_COUNTERS = Counter.values();
+
+    /**
+     * Contains all timers, cached to avoid allocating a new array for each frame.
+     */
+    private static final Timer[] ALL_TIMERS = Timer.values();
+
+    /**
+     * Holds the number of counters.
+     */
+    private static final int COUNTERS = ALL_COUNTERS.length;
+
+    /**
+     * Holds the number of timers.
+     */
+    private static final int TIMERS = ALL_TIMERS.length;
+
+    /**
+     * Holds the only instance of this class.
+     */
+    private static final FrameStats instance = new FrameStats();
+
+    /**
+     * Contains counter values of the frame or tick in progress.
+     */
+    private final int[] counters = new int[COUNTERS];
+
+    /**
+     * Contains timer values of the frame or tick in progress, in nanoseconds.
+     */
+    private final long[] timers = new long[TIMERS];
+
+    /**
+     * Contains filter times of the frame in progress, in nanoseconds.
+     */
+    private final long[] filterTimers = new long[MAX_FILTERS];
+
+    /**
+     * Contains counter values in the window, indexed by counter and then by frame.
+     */
+    private final int[][] counterWindow = new int[COUNTERS][WINDOW_SIZE];
+
+    /**
+     * Contains timer values in the window, indexed by timer and then by frame.
+     */
+    private final long[][] timerWindow = new long[TIMERS][WINDOW_SIZE];
+
+    /**
+     * Contains filter times in the window, indexed by filter and then by frame.
+     */
+    private final long[][] filterWindow = new long[MAX_FILTERS][WINDOW_SIZE];
+
+    /**
+     * Contains the sum of each counter over the window.
+     */
+    private final long[] counterSums = new long[COUNTERS];
+
+    /**
+     * Contains the sum of each timer over the window.
+     */
+    private final long[] timerSums = new long[TIMERS];
+
+    /**
+     * Contains the sum of each filter time over the window.
+     */
+    private final long[] filterSums = new long[MAX_FILTERS];
+
+    /**
+     * Contains the time at which each rendered frame in the window was committed.
+     */
+    private final long[] frameTimes = new long[WINDOW_SIZE];
+
+    /**
+     * Holds the window position of the next rendered frame.
+     */
+    private int renderIndex = 0;
+
+    /**
+     * Holds the number of rendered frames in the window.
+     */
+    private int renderCount = 0;
+
+    /**
+     * Holds the window position of the next advance tick.
+     */
+    private int advanceIndex = 0;
+
+    /**
+     * Holds the number of advance ticks in the window.
+     */
+    private int advanceCount = 0;
+
+    /**
+     * Holds the number of filters applied in the most recent frame.
+     */
+    private int filterCount = 0;
+
+    /**
+     * Creates the statistics collector.
+     */
+    private FrameStats() {
+    }
+
+    /**
+     * Gets the statistics collector.
+     *
+     * @return The statistics collector
+     */
+    public static FrameStats getInstance() {
+        return instance;
+    }
+
+    /**
+     * Increments a counter of the frame in progress. This method is called by the framework.
+     *
+     * @param counter The counter
+     */
+    public static void count(Counter counter) {
+        instance.counters[counter.ordinal()]++;
+    }
+
+    /**
+     * Adds the given amount to a counter of the frame in progress. This method is called by the
+     * framework.
+     *
+     * @param counter The counter
+     * @param amount  The amount to add
+     */
+    public static void count(Counter counter, int amount) {
+        instance.counters[counter.ordinal()] += amount;
+    }
+
+    /**
+     * Adds the given time to a timer of the frame in progress. This method is called by the
+     * framework.
+     *
+     * @param timer The timer
+     * @param nanos Time in nanoseconds
+     */
+    public static void time(Timer timer, long nanos) {
+        instance.timers[timer.ordinal()] += nanos;
+    }
+
+    /**
+     * Adds the given time to the time of a post-processing filter in the frame in progress. This
+     * method is called by the framework.
+     *
+     * @param filter Index of the filter in the rendering pipeline
+     * @param nanos  Time in nanoseconds
+     */
+    public static void timeFilter(int filter, long nanos) {
+        instance.timers[Timer.FILTERS.ordinal()] += nanos;
+
+        if (filter < MAX_FILTERS) {
+            instance.filterTimers[filter] += nanos;
+        }
+    }
+
+    /**
+     * Adds the rendered frame in progress to the window and starts a new one. This method is
+     * called by the framework on the rendering thread.
+     *
+     * @param filters Number of post-processing filters applied in the frame
+     */
+    public static void commitRender(int filters) {
+        instance.commit(false, filters);
+    }
+
+    /**
+     * Adds the advance tick in progress to the window and starts a new one. This method is called
+     * by the framework on the advance thread.
+     */
+    public static void commitAdvance() {
+        instance.commit(true, 0);
+    }
+
+    /**
+     * Gets the number of rendered frames currently in the window.
+     *
+     * @return Number of frames
+     */
+    public synchronized int getFrameCount() {
+        return renderCount;
+    }
+
+    /**
+     * Gets the number of post-processing filters applied in the most recent frame.
+     *
+     * @return Number of filters
+     */
+    public synchronized int getFilterCount() {
+        return filterCount;
+    }
+
+    /**
+     * Gets the average rate at which frames were rendered over the window.
+     *
+     * @return Frames per second, or 0 if not enough frames are recorded
+     */
+    public synchronized float getFrameRate() {
+        if (renderCount < 2) {
+            return 0;
+        }
+
+        final int last = (renderIndex + WINDOW_SIZE - 1) % WINDOW_SIZE;
+        final int first = (renderIndex + WINDOW_SIZE - renderCount) % WINDOW_SIZE;
+        final long span = frameTimes[last] - frameTimes[first];
+        return span > 0 ? (renderCount - 1) * 1000000000f / span : 0;
+    }
+
+    /**
+     * Gets the average value of a counter per frame over the window. Counters recorded on the
+     * advance thread are averaged per advance tick.
+     *
+     * @param counter The counter
+     *
+     * @return Average value
+     */
+    public synchronized float getAverage(Counter counter) {
+        final int count = counter.advance ? advanceCount : renderCount;
+        return count == 0 ? 0 : counterSums[counter.ordinal()] / (float) count;
+    }
+
+    /**
+     * Gets the value of a counter in the most recent frame or advance tick.
+     *
+     * @param counter The counter
+     *
+     * @return Counter value
+     */
+    public synchronized int getLast(Counter counter) {
+        final int index = counter.advance ? advanceIndex : renderIndex;
+        return counterWindow[counter.ordinal()][(index + WINDOW_SIZE - 1) % WINDOW_SIZE];
+    }
+
+    /**
+     * Gets the average time of a timer per frame over the window. Timers recorded on the advance
+     * thread are averaged per advance tick.
+     *
+     * @param timer The timer
+     *
+     * @return Average time in milliseconds
+     */
+    public synchronized float getAverageTime(Timer timer) {
+        final int count = timer.advance ? advanceCount : renderCount;
+        return count == 0 ? 0 : timerSums[timer.ordinal()] / (count * 1000000f);
+    }
+
+    /**
+     * Gets the maximum time of a timer in the window.
+     *
+     * @param timer The timer
+     *
+     * @return Maximum time in milliseconds
+     */
+    public synchronized float getMaxTime(Timer timer) {
+        final int count = timer.advance ? advanceCount : renderCount;
+        final long[] window = timerWindow[timer.ordinal()];
+        long max = 0;
+
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, window[i]);
+        }
+
+        return max / 1000000f;
+    }
+
+    /**
+     * Gets the average time spent on one post-processing filter per frame over the window.
+     *
+     * @param filter Index of the filter in the rendering pipeline
+     *
+     * @return Average time in milliseconds, or 0 if the filter is not timed individually
+     */
+    public synchronized float getAverageFilterTime(int filter) {
+        if (filter < 0 || filter >= MAX_FILTERS || renderCount == 0) {
+            return 0;
+        }
+
+        return filterSums[filter] / (renderCount * 1000000f);
+    }
+
+    /**
+     * Clears all statistics in the window.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < COUNTERS; i++) {
+            Arrays.fill(counterWindow[i], 0);
+            counterSums[i] = 0;
+        }
+
+        for (int i = 0; i < TIMERS; i++) {
+            Arrays.fill(timerWindow[i], 0);
+            timerSums[i] = 0;
+        }
+
+        for (int i = 0; i < MAX_FILTERS; i++) {
+            Arrays.fill(filterWindow[i], 0);
+            filterSums[i] = 0;
+        }
+
+        renderIndex = renderCount = advanceIndex = advanceCount = 0;
+    }
+
+    /**
+     * Summarizes the averages over the window in one line, suitable for logging.
+     *
+     * @return The summary
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                Locale.US,
+                "fps=%.1f render=%.2fms advance=%.2fms filters=%.2fms touch=%.2fms " +
+                        "draws=%.1f shaders=%.1f textures=%.1f targets=%.1f " +
+                        "rendered=%.1f advanced=%.1f",
+                getFrameRate(),
+                getAverageTime(Timer.RENDER),
+                getAverageTime(Timer.ADVANCE),
+                getAverageTime(Timer.FILTERS),
+                getAverageTime(Timer.TOUCH_MAP),
+                getAverage(Counter.DRAW_CALLS),
+                getAverage(Counter.SHADER_SWITCHES),
+                getAverage(Counter.TEXTURE_BINDS),
+                getAverage(Counter.TARGET_BINDS),
+                getAverage(Counter.ENTITIES_RENDERED),
+                getAverage(Counter.ENTITIES_ADVANCED)
+        );
+    }
+
+    /**
+     * Moves the values of the frame or tick in progress into the window and clears them. Only the
+     * values recorded by the calling thread are moved.
+     *
+     * @param advance A value indicating whether the advance thread is committing
+     * @param filters Number of post-processing filters applied in the frame
+     */
+    private synchronized void commit(boolean advance, int filters) {
+        final int index = advance ? advanceIndex : renderIndex;
+
+        for (Counter counter : ALL_COUNTERS) {
+            if (counter.advance == advance) {
+                final int i = counter.ordinal();
+                counterSums[i] += counters[i] - counterWindow[i][index];
+                counterWindow[i][index] = counters[i];
+                counters[i] = 0;
+            }
+        }
+
+        for (Timer timer : ALL_TIMERS) {
+            if (timer.advance == advance) {
+                final int i = timer.ordinal();
+                timerSums[i] += timers[i] - timerWindow[i][index];
+                timerWindow[i][index] = timers[i];
+                timers[i] = 0;
+            }
+        }
+
+        if (advance) {
+            advanceIndex = (index + 1) % WINDOW_SIZE;
+            advanceCount = Math.min(advanceCount + 1, WINDOW_SIZE);
+            return;
+        }
+
+        for (int i = 0; i < MAX_FILTERS; i++) {
+            filterSums[i] += filterTimers[i] - filterWindow[i][index];
+            filterWindow[i][index] = filterTimers[i];
+            filterTimers[i] = 0;
+        }
+
+        frameTimes[index] = System.nanoTime();
+        filterCount = filters;
+        renderIndex = (index + 1) % WINDOW_SIZE;
+        renderCount = Math.min(renderCount + 1, WINDOW_SIZE);
+    }
+}
@@ -24,6 +24,7 @@ import com.annahid.libs.artenus.input.TouchMap;
 import com.annahid.libs.artenus.data.RGB;
 import com.annahid.libs.artenus.entities.Entity;
 import com.annahid.libs.artenus.entities.EntityCollection;
+import com.annahid.libs.artenus.entities.SpatialIndex;
 import com.annahid.libs.artenus.input.GameInput;
 import com.annahid.libs.artenus.physics.PhysicsSimulator;
 import com.annahid.libs.artenus.entities.behavior.Touchable;
@@ -71,6 +72,11 @@ public class Scene implements Touchable {
      */
     private TouchMap touchManager;
 
+    /**
+     * Holds the spatial index of the entities in this scene. This value can be {@code null}.
+     */
+    private SpatialIndex spatialIndex;
+
     /**
      * Indicates whether the scene is in a loaded state.
      */
@@ -114,6 +120,25 @@ public class Scene implements Touchable {
         return physics;
     }
 
+    /**
+     * Gets the spatial index of the entities in this scene. The index is originally {@code null},
+     * but it is allocated on the first access, including the invocation of this method. Once
+     * allocated, it is refreshed after every advance, and is also used to find touch buttons under
+     * touch events.
+     *
+     * @return The spatial index
+     *
+     * @see SpatialIndex
+     */
+    public final SpatialIndex getSpatialIndex() {
+        if (spatialIndex == null) {
+            spatialIndex = new SpatialIndex();
+            spatialIndex.update(entities);
+            touchManager.setSpatialIndex(spatialIndex);
+        }
+        return spatialIndex;
+    }
+
     public final TouchMap getTouchMap() {
         return touchManager;
     }
@@ -183,12 +208,22 @@ public class Scene implements Touchable {
             touchManager.dispatch();
         }
         if (!isHalted()) {
-            entities.advance(elapsedTime);
-            if (physics != null) {
-                physics.step(elapsedTime, 6, 4);
+            if (physics != null && physics.isAsynchronous()) {
+                // The world is stepped on the physics worker while entities are advanced
+                physics.stepAsync(elapsedTime, 6, 4);
+                entities.advance(elapsedTime);
                 physics.handleCollisions();
+            } else {
+                entities.advance(elapsedTime);
+                if (physics != null) {
+                    physics.step(elapsedTime, 6, 4);
+                    physics.handleCollisions();
+                }
             }
         }
+        if (spatialIndex != null) {
+            spatialIndex.update(entities);
+        }
     }
 
     /**
@@ -327,6 +362,7 @@ public class Scene implements Touchable {
      */
     public final void render(RenderingContext context) {
         boolean skipRender = false;
+        touchManager.beginFrame();
 
         if (dialog != null) {
             skipRender = dialog.isFull();
@@ -340,6 +376,8 @@ public class Scene implements Touchable {
             }
             dialog.render(context);
         }
+
+        touchManager.endFrame();
     }
 
     /**
@@ -140,4 +140,77 @@ public interface Stage {
      * @param stageManager The stage manager
      */
     void setManager(StageManager stageManager);
+
+    /**
+     * Gets the statistics collected over the most recent frames, such as the number of draw calls
+     * and the time spent advancing and rendering.
+     *
+     * @return Frame statistics
+     */
+    FrameStats getFrameStats();
+
+    /**
+     * Sets a fixed simulation timestep. When set, the current scene is always advanced by exactly
+     * this amount of time, as many times as needed to catch up with the real time, and rendering
+     * interpolates transformations between the last two steps. This makes physics simulation
+     * stable regardless of variations in frame time. By default, the scene is advanced by the real
+     * time elapsed since the previous frame.
+     *
+     * @param step Simulation step in seconds, or 0 to advance by the real elapsed time
+     */
+    void setFixedTimestep(float step);
+
+    /**
+     * Gets the fixed simulation timestep.
+     *
+     * @return Simulation step in seconds, or 0 if the scene is advanced by the real elapsed time
+     *
+     * @see #setFixedTimestep(float)
+     */
+    float getFixedTimestep();
+
+    /**
+     * Sets the maximum number of fixed simulation steps taken in one frame to catch up with the
+     * real time. If the simulation falls further behind, the remaining time is dropped, and the
+     * game slows down instead of spending more and more time catching up. The default is 5.
+     *
+     * @param steps Maximum number of steps per frame
+     *
+     * @see #setFixedTimestep(float)
+     */
+    void setMaxCatchUpSteps(int steps);
+
+    /**
+     * Gets the maximum number of fixed simulation steps taken in one frame.
+     *
+     * @return Maximum number of steps per frame
+     *
+     * @see #setMaxCatchUpSteps(int)
+     */
+    int getMaxCatchUpSteps();
+
+    /**
+     * <p>Sets whether the current scene is rendered directly on the rendering thread. By default,
+     * the scene is recorded on the advance thread after each tick, and the recording is replayed
+     * on the rendering thread. Renderables then run without an OpenGL context, so they can only
+     * draw through the {@link com.annahid.libs.artenus.graphics.rendering.RenderingContext}.</p>
+     * <p>Direct rendering is meant for renderables and shader programs that call OpenGL
+     * themselves. The scene is then rendered on the rendering thread while it is being advanced,
+     * as in earlier versions of the framework, and the fixed timestep does not interpolate between
+     * steps.</p>
+     *
+     * @param direct {@code true} to render the scene directly, {@code false} to record it
+     *
+     * @see com.annahid.libs.artenus.entities.behavior.Renderable#render
+     */
+    void setDirectRendering(boolean direct);
+
+    /**
+     * Indicates whether the current scene is rendered directly on the rendering thread.
+     *
+     * @return {@code true} if the scene is rendered directly, {@code false} if it is recorded
+     *
+     * @see #setDirectRendering(boolean)
+     */
+    boolean isDirectRendering();
 }
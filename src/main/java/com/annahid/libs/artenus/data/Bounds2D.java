@@ -0,0 +1,304 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.data;
+
+/**
+ * Represents an axis-aligned rectangular region in 2-dimensional space. It is used to describe the
+ * area covered by entities, for example to skip rendering of entities that are not visible.
+ *
+ * @author Hessan Feghhi
+ */
+public final class Bounds2D {
+    /**
+     * Represents the x coordinate of the left edge.
+     */
+    public float left;
+
+    /**
+     * Represents the y coordinate of the top edge.
+     */
+    public float top;
+
+    /**
+     * Represents the x coordinate of the right edge.
+     */
+    public float right;
+
+    /**
+     * Represents the y coordinate of the bottom edge.
+     */
+    public float bottom;
+
+    /**
+     * Constructs an empty {@code Bounds2D}.
+     */
+    public Bounds2D() {
+        setEmpty();
+    }
+
+    /**
+     * Constructs a {@code Bounds2D} with the given edges.
+     *
+     * @param left   The x coordinate of the left edge
+     * @param top    The y coordinate of the top edge
+     * @param right  The x coordinate of the right edge
+     * @param bottom The y coordinate of the bottom edge
+     */
+    public Bounds2D(float left, float top, float right, float bottom) {
+        set(left, top, right, bottom);
+    }
+
+    /**
+     * Sets the edges of this region.
+     *
+     * @param left   The x coordinate of the left edge
+     * @param top    The y coordinate of the top edge
+     * @param right  The x coordinate of the right edge
+     * @param bottom The y coordinate of the bottom edge
+     */
+    public void set(float left, float top, float right, float bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Sets the edges of this region to those of another region.
+     *
+     * @param other The other region
+     */
+    public void set(Bounds2D other) {
+        set(other.left, other.top, other.right, other.bottom);
+    }
+
+    /**
+     * Makes this region empty. An empty region contains no points, and extending it with another
+     * region results in the other region.
+     */
+    public void setEmpty() {
+        left = top = Float.POSITIVE_INFINITY;
+        right = bottom = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Determines whether this region is empty.
+     *
+     * @return {@code true} if empty, {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return left > right || top > bottom;
+    }
+
+    /**
+     * Gets the width of this region.
+     *
+     * @return The width, or 0 if the region is empty
+     */
+    public float getWidth() {
+        return isEmpty() ? 0 : right - left;
+    }
+
+    /**
+     * Gets the height of this region.
+     *
+     * @return The height, or 0 if the region is empty
+     */
+    public float getHeight() {
+        return isEmpty() ? 0 : bottom - top;
+    }
+
+    /**
+     * Extends this region to include the given point.
+     *
+     * @param x The x coordinate of the point
+     * @param y The y coordinate of the point
+     */
+    public void union(float x, float y) {
+        if (x < left) left = x;
+        if (x > right) right = x;
+        if (y < top) top = y;
+        if (y > bottom) bottom = y;
+    }
+
+    /**
+     * Extends this region to include another region.
+     *
+     * @param other The other region
+     */
+    public void union(Bounds2D other) {
+        if (other.isEmpty()) {
+            return;
+        }
+
+        if (other.left < left) left = other.left;
+        if (other.right > right) right = other.right;
+        if (other.top < top) top = other.top;
+        if (other.bottom > bottom) bottom = other.bottom;
+    }
+
+    /**
+     * Moves this region by the given amounts.
+     *
+     * @param dx Horizontal offset
+     * @param dy Vertical offset
+     */
+    public void offset(float dx, float dy) {
+        left += dx;
+        right += dx;
+        top += dy;
+        bottom += dy;
+    }
+
+    /**
+     * Determines whether this region contains the given point.
+     *
+     * @param x The x coordinate of the point
+     * @param y The y coordinate of the point
+     *
+     * @return {@code true} if the point is inside this region, {@code false} otherwise
+     */
+    public boolean contains(float x, float y) {
+        return x >= left && x <= right && y >= top && y <= bottom;
+    }
+
+    /**
+     * Determines whether this region overlaps the given rectangle.
+     *
+     * @param left   The x coordinate of the left edge of the rectangle
+     * @param top    The y coordinate of the top edge of the rectangle
+     * @param right  The x coordinate of the right edge of the rectangle
+     * @param bottom The y coordinate of the bottom edge of the rectangle
+     *
+     * @return {@code true} if the regions overlap, {@code false} otherwise
+     */
+    public boolean intersects(float left, float top, float right, float bottom) {
+        return this.left <= right && this.right >= left
+                && this.top <= bottom && this.bottom >= top;
+    }
+
+    /**
+     * Determines whether this region overlaps another region.
+     *
+     * @param other The other region
+     *
+     * @return {@code true} if the regions overlap, {@code false} otherwise
+     */
+    public boolean intersects(Bounds2D other) {
+        return intersects(other.left, other.top, other.right, other.bottom);
+    }
+
+    /**
+     * Sets this region to the bounding box of a rectangle centered at the given point, after
+     * rotating it around its center.
+     *
+     * @param cx       The x coordinate of the center
+     * @param cy       The y coordinate of the center
+     * @param width    Rectangle width
+     * @param height   Rectangle height
+     * @param rotation Rotation angle in degrees
+     */
+    public void setRotatedRect(float cx, float cy, float width, float height, float rotation) {
+        float hw = Math.abs(width) / 2, hh = Math.abs(height) / 2;
+
+        if (rotation != 0) {
+            final double rad = Math.toRadians(rotation);
+            final float cos = Math.abs((float) Math.cos(rad));
+            final float sin = Math.abs((float) Math.sin(rad));
+            final float w = hw * cos + hh * sin;
+            hh = hw * sin + hh * cos;
+            hw = w;
+        }
+
+        set(cx - hw, cy - hh, cx + hw, cy + hh);
+    }
+
+    /**
+     * Transforms this region from the local space of an object into the space of its parent, and
+     * replaces it with the bounding box of the result. The transformation is applied in the same
+     * order the framework uses to render objects: scaling, then rotation, then translation.
+     *
+     * @param position Position of the object
+     * @param rotation Rotation angle of the object in degrees
+     * @param scale    Scaling factors of the object
+     */
+    public void transform(Point2D position, float rotation, Point2D scale) {
+        if (isEmpty()) {
+            return;
+        }
+
+        transform(position.x, position.y, rotation, scale.x, scale.y);
+    }
+
+    /**
+     * Transforms this region from the local space of an object into the space of its parent, and
+     * replaces it with the bounding box of the result. The transformation is applied in the same
+     * order the framework uses to render objects: scaling, then rotation, then translation.
+     *
+     * @param x        The x coordinate of the object position
+     * @param y        The y coordinate of the object position
+     * @param rotation Rotation angle of the object in degrees
+     * @param scaleX   Horizontal scaling factor of the object
+     * @param scaleY   Vertical scaling factor of the object
+     */
+    public void transform(float x, float y, float rotation, float scaleX, float scaleY) {
+        if (isEmpty()) {
+            return;
+        }
+
+        final double rad = Math.toRadians(rotation);
+        final float cos = (float) Math.cos(rad), sin = (float) Math.sin(rad);
+        transform(cos * scaleX, sin * scaleX, -sin * scaleY, cos * scaleY, x, y);
+    }
+
+    /**
+     * Transforms this region using the 2-dimensional affine part of a column-major 4x4
+     * transformation matrix, and replaces it with the bounding box of the result.
+     *
+     * @param mat Transformation matrix
+     */
+    public void transform(float[] mat) {
+        if (isEmpty()) {
+            return;
+        }
+
+        transform(mat[0], mat[1], mat[4], mat[5], mat[12], mat[13]);
+    }
+
+    /**
+     * Transforms this region using the given affine transformation and replaces it with the
+     * bounding box of the result.
+     *
+     * @param a  Horizontal scaling component
+     * @param b  Vertical shearing component
+     * @param c  Horizontal shearing component
+     * @param d  Vertical scaling component
+     * @param tx Horizontal translation
+     * @param ty Vertical translation
+     */
+    private void transform(float a, float b, float c, float d, float tx, float ty) {
+        final float cx = (left + right) / 2, cy = (top + bottom) / 2;
+        final float hw = (right - left) / 2, hh = (bottom - top) / 2;
+        final float x = a * cx + c * cy + tx, y = b * cx + d * cy + ty;
+        final float ex = Math.abs(a) * hw + Math.abs(c) * hh;
+        final float ey = Math.abs(b) * hw + Math.abs(d) * hh;
+        set(x - ex, y - ey, x + ex, y + ey);
+    }
+}
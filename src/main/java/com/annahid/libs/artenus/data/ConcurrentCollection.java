@@ -20,26 +20,26 @@ package com.annahid.libs.artenus.data;
 
 import android.support.annotation.NonNull;
 
+import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * <p>Thread-safe implementation of the {@code Collection} interface. Implements all collection
- * operations, but performance is optimized for iterator-based access and sequential addition (to,
- * both ends of the collection) as it is used as part of the entities and scene logic in Artenus.
- * </p>
- * <p>Java's standard LinkedList implementation is not thread-safe and hence it is programmed to
- * throw exceptions on concurrent modification and access scenarios. There are some alternatives
- * in the standard library, but Artenus uses this minimalistic collection implementation for its
- * internal use. You can use this class if you need a synchronized sequential-access collection.</p>
- * <p>The {@code size}, {@code isEmpty}, {@code iterator}, {@code add}, {@code prepend},
- * {@code getFirst}, and {@code getLast} operations are guaranteed to run in constant time. However,
- * no assumptions should be made about the running time of all the other operations, as this
- * implementation does not guarantee optimized behavior for them. </p>
+ * operations, but performance is optimized for iteration and sequential addition (to both ends of
+ * the collection) as it is used as part of the entities and scene logic in Artenus.</p>
+ * <p>Elements are stored in an array with free space at both ends. Reading is lock-free: the
+ * contents of the collection are published as an immutable {@link Snapshot}, which can be
+ * obtained in constant time using {@link #snapshot()} and iterated without allocation. Writers
+ * are synchronized. Adding an element to either end only extends the range of the array that is
+ * published, so existing snapshots are not affected. Removing elements copies the array.</p>
+ * <p>The {@code size}, {@code isEmpty}, {@code iterator}, {@code snapshot}, {@code getFirst}, and
+ * {@code getLast} operations run in constant time, and {@code add} and {@code prepend} in
+ * amortized constant time. The removal operations run in linear time.</p>
  * <p>Unlike implementations like {@code LinkedList}, iterators returned by this class's iterator
- * and methods are not fail-fast: if the list is structurally modified after the iterator is
- * created, the iterator will not throw any exceptions, and will adapt to the new state of the
- * collection.</p>
+ * and methods are not fail-fast: they iterate over the snapshot of the collection at the time they
+ * were created, and never throw exceptions if the collection is modified in the meantime.</p>
  *
  * @param <T> The type of the elements in this collection
  *
@@ -47,19 +47,19 @@ import java.util.Iterator;
  */
 public class ConcurrentCollection<T> implements Collection<T> {
     /**
-     * Holds the first element in the linked list.
+     * Holds the minimum number of free slots added when the array grows.
      */
-    private Element<T> first;
+    private static final int MIN_GROWTH = 8;
 
     /**
-     * Holds the last element in the linked list.
+     * Holds the snapshot of the collection with no elements.
      */
-    private Element<T> last;
+    private static final Snapshot<Object> EMPTY = new Snapshot<>(new Object[0], 0, 0);
 
     /**
-     * Holds the current collection size.
+     * Holds the current contents of the collection.
      */
-    private int size = 0;
+    private volatile Snapshot<T> current = empty();
 
     /**
      * Inserts an element to the front of the collection.
@@ -67,15 +67,15 @@ public class ConcurrentCollection<T> implements Collection<T> {
      * @param object the element to be added
      */
     public void prepend(@NonNull T object) {
-        final Element<T> newElement = new Element<>(object);
-
         synchronized (this) {
-            if (first != null) {
-                newElement.next = first;
-                first.prev = newElement;
+            Snapshot<T> items = current;
+
+            if (items.start == 0) {
+                items = grow(items);
             }
 
-            first = newElement;
+            items.items[items.start - 1] = object;
+            current = new Snapshot<>(items.items, items.start - 1, items.end);
         }
     }
 
@@ -88,22 +88,15 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean add(T object) {
-        final Element<T> newElement = new Element<>(object);
+        synchronized (this) {
+            Snapshot<T> items = current;
 
-        if (size == 0) {
-            synchronized (this) {
-                first = last = newElement;
-                size = 1;
+            if (items.end == items.items.length) {
+                items = grow(items);
             }
 
-            return true;
-        }
-
-        synchronized (this) {
-            last.next = newElement;
-            newElement.prev = last;
-            last = newElement;
-            size++;
+            items.items[items.end] = object;
+            current = new Snapshot<>(items.items, items.start, items.end + 1);
         }
 
         return true;
@@ -135,8 +128,9 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public void clear() {
-        first = last = null;
-        size = 0;
+        synchronized (this) {
+            current = empty();
+        }
     }
 
     /**
@@ -150,15 +144,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean contains(Object object) {
-        if (first == null)
-            return false;
-
-        Element temp = first;
-
-        while (temp != null && !temp.equals(object))
-            temp = temp.next;
-
-        return temp != null;
+        return indexOf(current, object) >= 0;
     }
 
     /**
@@ -174,13 +160,27 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean containsAll(@NonNull Collection<?> collection) {
+        final Snapshot<T> items = current;
+
         for (Object item : collection) {
-            if (!contains(item))
+            if (indexOf(items, item) < 0)
                 return false;
         }
         return true;
     }
 
+    /**
+     * Gets the current contents of this collection. The snapshot is immutable, and is not affected
+     * by later changes to the collection. This method does not allocate memory, so iterating over
+     * the snapshot is the preferred way to access the elements in performance-critical code.
+     *
+     * @return The snapshot
+     */
+    @NonNull
+    public final Snapshot<T> snapshot() {
+        return current;
+    }
+
     /**
      * Returns an iterator over the elements in this list in proper sequence. The returned iterator
      * supports removal, and will not fail in case of concurrent modification in the collection.
@@ -190,7 +190,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
     @NonNull
     @Override
     public Iterator<T> iterator() {
-        return new It(first);
+        return new It(current);
     }
 
     /**
@@ -206,15 +206,17 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean remove(Object object) {
-        Iterator<T> it = iterator();
-        while (it.hasNext()) {
-            T item = it.next();
-            if (item.equals(object)) {
-                it.remove();
-                return true;
+        synchronized (this) {
+            final Snapshot<T> items = current;
+            final int index = indexOf(items, object);
+
+            if (index < 0) {
+                return false;
             }
+
+            removeAt(items, index);
+            return true;
         }
-        return false;
     }
 
     /**
@@ -227,13 +229,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean removeAll(@NonNull Collection<?> collection) {
-        boolean ret = false;
-
-        for (Object object : collection) {
-            ret = ret || remove(object);
-        }
-
-        return ret;
+        return filter(collection, false);
     }
 
     /**
@@ -247,28 +243,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean retainAll(@NonNull Collection<?> collection) {
-        Element<T> current = first;
-        boolean ret = false;
-
-        while (current != null) {
-            if (!collection.contains(current.value)) {
-                synchronized (this) {
-                    if (current.next != null)
-                        current.next.prev = current.prev;
-                    else last = current;
-
-                    if (current.prev != null)
-                        current.prev.next = current.next;
-                    else first = current;
-                }
-
-                ret = true;
-            }
-
-            current = current.next;
-        }
-
-        return ret;
+        return filter(collection, true);
     }
 
     /**
@@ -278,7 +253,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public int size() {
-        return size;
+        return current.size();
     }
 
     /**
@@ -288,7 +263,7 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     @Override
     public boolean isEmpty() {
-        return size == 0;
+        return current.size() == 0;
     }
 
     /**
@@ -303,29 +278,39 @@ public class ConcurrentCollection<T> implements Collection<T> {
     @NonNull
     @Override
     public Object[] toArray() {
-        Object[] array = new Object[size];
-        int index = 0;
-
-        for (T obj : this)
-            array[index++] = obj;
-
+        final Snapshot<T> items = current;
+        final Object[] array = new Object[items.size()];
+        System.arraycopy(items.items, items.start, array, 0, array.length);
         return array;
     }
 
     /**
-     * This method is not implemented by this class, and should not be called.
-     *
-     * @param array Not used.
-     * @param <T1>  Not used.
+     * Returns an array containing all of the elements in this collection in proper sequence (from
+     * first to last element). If the collection fits in the specified array, it is returned
+     * therein, followed by a {@code null} element if there is room. Otherwise, a new array is
+     * allocated with the runtime type of the specified array.
      *
-     * @return Nothing; it only throws an {@code UnsupportedOperationException}
+     * @param array The array into which the elements of this collection are to be stored, if it is
+     *              big enough
+     * @param <T1>  The runtime type of the array
      *
-     * @throws UnsupportedOperationException
+     * @return An array containing all of the elements in this list in proper sequence
      */
     @NonNull
     @Override
+    @SuppressWarnings("unchecked")
     public <T1> T1[] toArray(@NonNull T1[] array) {
-        throw new UnsupportedOperationException();
+        final Snapshot<T> items = current;
+        final int size = items.size();
+
+        if (array.length < size) {
+            array = (T1[]) Array.newInstance(array.getClass().getComponentType(), size);
+        } else if (array.length > size) {
+            array[size] = null;
+        }
+
+        System.arraycopy(items.items, items.start, array, 0, size);
+        return array;
     }
 
     /**
@@ -334,7 +319,8 @@ public class ConcurrentCollection<T> implements Collection<T> {
      * @return The first element of this collection
      */
     public T getFirst() {
-        return first == null ? null : first.value;
+        final Snapshot<T> items = current;
+        return items.size() == 0 ? null : items.get(0);
     }
 
     /**
@@ -343,22 +329,209 @@ public class ConcurrentCollection<T> implements Collection<T> {
      * @return The last element of this collection
      */
     public T getLast() {
-        return last == null ? null : last.value;
+        final Snapshot<T> items = current;
+        return items.size() == 0 ? null : items.get(items.size() - 1);
     }
 
     /**
-     * Represents an element in the linked list. ConcurrentCollection uses a linked list internally.
+     * Moves the first occurrence of the specified element to the front or back of the collection.
+     * The change is published as a single snapshot, so readers never see the collection without
+     * the element.
+     *
+     * @param object The element to be moved
+     * @param front  {@code true} to move the element to the front, or {@code false} to the back
      *
-     * @param <T> The type of the element in the linked list
+     * @return {@code true} if the element was found, {@code false} otherwise
      */
-    private static final class Element<T> {
-        T value;
+    public boolean move(T object, boolean front) {
+        synchronized (this) {
+            final Snapshot<T> items = current;
+            final int index = indexOf(items, object);
+
+            if (index < 0) {
+                return false;
+            }
+
+            final int position = items.start + index;
+            final Object[] array = new Object[items.size() + MIN_GROWTH * 2];
+            int end = MIN_GROWTH;
+
+            if (front) {
+                array[end++] = items.items[position];
+            }
 
-        Element<T> prev, next;
+            for (int i = items.start; i < items.end; i++) {
+                if (i != position) {
+                    array[end++] = items.items[i];
+                }
+            }
+
+            if (!front) {
+                array[end++] = items.items[position];
+            }
 
-        Element(T value) {
-            this.value = value;
-            prev = next = null;
+            current = new Snapshot<>(array, MIN_GROWTH, end);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the element at the given position of a snapshot, which must be the current one. The
+     * caller must hold the lock on this collection.
+     *
+     * @param items The current snapshot
+     * @param index Index of the element in the snapshot
+     */
+    private void removeAt(Snapshot<T> items, int index) {
+        final int size = items.size();
+
+        if (size == 1) {
+            current = empty();
+            return;
+        }
+
+        // Existing snapshots may share the array, so it is never modified in place
+        final Object[] array = new Object[size - 1 + MIN_GROWTH * 2];
+        System.arraycopy(items.items, items.start, array, MIN_GROWTH, index);
+        System.arraycopy(
+                items.items, items.start + index + 1, array, MIN_GROWTH + index, size - index - 1
+        );
+        current = new Snapshot<>(array, MIN_GROWTH, MIN_GROWTH + size - 1);
+    }
+
+    /**
+     * Removes the elements that are, or are not, contained in the given collection.
+     *
+     * @param collection The collection
+     * @param retain     {@code true} to remove the elements not contained in the collection, or
+     *                   {@code false} to remove the elements contained in it
+     *
+     * @return {@code true} if this collection changed as a result of the call
+     */
+    private boolean filter(Collection<?> collection, boolean retain) {
+        synchronized (this) {
+            final Snapshot<T> items = current;
+            final Object[] array = new Object[items.size() + MIN_GROWTH * 2];
+            int end = MIN_GROWTH;
+
+            for (int i = items.start; i < items.end; i++) {
+                if (collection.contains(items.items[i]) == retain) {
+                    array[end++] = items.items[i];
+                }
+            }
+
+            if (end - MIN_GROWTH == items.size()) {
+                return false;
+            }
+
+            current = new Snapshot<>(array, MIN_GROWTH, end);
+            return true;
+        }
+    }
+
+    /**
+     * Creates a snapshot with the same elements as the given one, in a larger array with free
+     * space at both ends. The caller must hold the lock on this collection.
+     *
+     * @param items The snapshot
+     *
+     * @return The new snapshot
+     */
+    private Snapshot<T> grow(Snapshot<T> items) {
+        final int size = items.size();
+        final int margin = Math.max(MIN_GROWTH, size / 2);
+        final Object[] array = new Object[size + margin * 2];
+        System.arraycopy(items.items, items.start, array, margin, size);
+        return new Snapshot<>(array, margin, margin + size);
+    }
+
+    /**
+     * Finds the position of the first element of a snapshot that is equal to the given object.
+     *
+     * @param items  The snapshot
+     * @param object The object
+     *
+     * @return Index of the element in the snapshot, or -1 if it is not found
+     */
+    private static int indexOf(Snapshot<?> items, Object object) {
+        for (int i = items.start; i < items.end; i++) {
+            final Object item = items.items[i];
+
+            if (object == null ? item == null : object.equals(item)) {
+                return i - items.start;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the snapshot with no elements.
+     *
+     * @param <T> The type of the elements
+     *
+     * @return The empty snapshot
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Snapshot<T> empty() {
+        return (Snapshot<T>) EMPTY;
+    }
+
+    /**
+     * Represents the contents of a {@link ConcurrentCollection} at a point in time. Snapshots are
+     * immutable, and can be accessed from any thread without synchronization.
+     *
+     * @param <T> The type of the elements
+     */
+    public static final class Snapshot<T> {
+        /**
+         * Contains the elements, possibly shared with other snapshots.
+         */
+        private final Object[] items;
+
+        /**
+         * Holds the index of the first element in the array.
+         */
+        private final int start;
+
+        /**
+         * Holds the index after the last element in the array.
+         */
+        private final int end;
+
+        /**
+         * Creates a new snapshot over the given range of an array.
+         *
+         * @param items Array containing the elements
+         * @param start Index of the first element
+         * @param end   Index after the last element
+         */
+        private Snapshot(Object[] items, int start, int end) {
+            this.items = items;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Gets the number of elements in this snapshot.
+         *
+         * @return Number of elements
+         */
+        public int size() {
+            return end - start;
+        }
+
+        /**
+         * Gets the element at the given position. For performance reasons, the index is not
+         * checked, and must be between 0 and {@code size() - 1}.
+         *
+         * @param index Index of the element
+         *
+         * @return The element
+         */
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            return (T) items[start + index];
         }
     }
 
@@ -368,62 +541,65 @@ public class ConcurrentCollection<T> implements Collection<T> {
      */
     private final class It implements Iterator<T> {
         /**
-         * Holds the current element this iterator points to. This element will be returned by the
-         * next call to {@link #next()}.
+         * Holds the snapshot this iterator iterates over.
+         */
+        private final Snapshot<T> items;
+
+        /**
+         * Holds the index of the element that will be returned by the next call to
+         * {@link #next()}.
          */
-        Element<T> current;
+        private int index;
 
         /**
-         * Holds the latest element that was returned by this iterator.
+         * Indicates whether the latest element returned can be removed.
          */
-        Element<T> recent;
+        private boolean canRemove = false;
 
         /**
-         * Creates an iterator starting at the given element.
+         * Creates an iterator over the given snapshot.
          *
-         * @param start Starting element
+         * @param items The snapshot
          */
-        It(Element<T> start) {
-            current = start;
+        It(Snapshot<T> items) {
+            this.items = items;
+            index = items.start;
         }
 
         @Override
         public boolean hasNext() {
-            return current != null;
+            return index < items.end;
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public T next() {
-            recent = current;
-            current = current.next;
-            return recent.value;
+            if (index >= items.end)
+                throw new NoSuchElementException();
+
+            canRemove = true;
+            return (T) items.items[index++];
         }
 
         @Override
         public void remove() {
-            if (recent == null)
+            if (!canRemove)
                 return;
 
-            synchronized (ConcurrentCollection.this) {
-                if (recent.prev == null)
-                    first = recent.next;
-                else recent.prev.next = recent.next;
-
-                if (recent.next == null)
-                    last = recent.prev;
-                else recent.next.prev = recent.prev;
-
-                if (first == recent)
-                    first = recent.next;
+            canRemove = false;
+            final Object recent = items.items[index - 1];
 
-                if (last == recent)
-                    last = recent.prev;
-
-                size--;
+            synchronized (ConcurrentCollection.this) {
+                final Snapshot<T> latest = current;
+
+                // Remove the returned element itself, even if an equal one precedes it
+                for (int i = latest.start; i < latest.end; i++) {
+                    if (latest.items[i] == recent) {
+                        removeAt(latest, i - latest.start);
+                        break;
+                    }
+                }
             }
-
-            current = recent.next;
-            recent = null;
         }
     }
 }
@@ -20,11 +20,16 @@ package com.annahid.libs.artenus.entities;
 
 import android.support.annotation.NonNull;
 
+import com.annahid.libs.artenus.core.FrameStats;
+import com.annahid.libs.artenus.data.Bounds2D;
 import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
 import com.annahid.libs.artenus.graphics.animation.AnimationHandler;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.input.TouchEvent;
 import com.annahid.libs.artenus.data.ConcurrentCollection;
+import com.annahid.libs.artenus.data.ConcurrentCollection.Snapshot;
 import com.annahid.libs.artenus.data.Point2D;
 import com.annahid.libs.artenus.data.RGB;
 import com.annahid.libs.artenus.entities.behavior.Animatable;
@@ -33,6 +38,7 @@ import com.annahid.libs.artenus.entities.behavior.Touchable;
 import com.annahid.libs.artenus.entities.behavior.Renderable;
 import com.annahid.libs.artenus.core.Scene;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Stack;
@@ -45,6 +51,15 @@ import java.util.Stack;
  * of the entities added to a collection are relative to the global transformations of the
  * collection. Effects in an entity collection are also added to the collection, and not to
  * individual entities.</p>
+ * <p>When rendering, entities with the {@link Behaviors#BOUNDED} behavior whose bounding boxes lie
+ * completely outside the viewport are skipped. The collection itself is bounded, and caches the
+ * union of the bounding boxes of its children. By default, the cache is refreshed at most once per
+ * frame. Collections whose contents never move relative to the collection can be marked as static
+ * using {@link #setStaticBounds(boolean)}, in which case the cache is only refreshed when entities
+ * are added or removed, or when {@link #invalidateBounds()} is called.</p>
+ * <p>The collection keeps separate lists of its animatable, renderable and touchable children, so
+ * that advancing, rendering and touch handling only visit relevant entities. The behaviors of an
+ * entity are examined once, when it is added to the collection.</p>
  *
  * @author Hessan Feghhi
  *
@@ -54,7 +69,33 @@ import java.util.Stack;
  */
 public class EntityCollection
         extends ConcurrentCollection<Entity>
-        implements Entity, Animatable, Touchable, Transformable, Renderable {
+        implements Entity, Animatable, Touchable, Transformable, Renderable, Bounded {
+    /**
+     * Holds the number of the current frame, used to refresh cached bounds once per frame.
+     */
+    private static int frame = 0;
+
+    /**
+     * Holds the number of entities skipped because they were outside the viewport in the current
+     * frame. A skipped collection counts as one entity.
+     */
+    private static int culledCount = 0;
+
+    /**
+     * Holds the number of entities (other than collections) rendered in the current frame.
+     */
+    private static int drawnCount = 0;
+
+    /**
+     * Holds the number of entities culled in the last complete frame.
+     */
+    private static int lastCulledCount = 0;
+
+    /**
+     * Holds the number of entities rendered in the last complete frame.
+     */
+    private static int lastDrawnCount = 0;
+
     /**
      * Holds the animation handler responsible for the collection as a whole.
      */
@@ -85,6 +126,58 @@ public class EntityCollection
      */
     private Scene scene = null;
 
+    /**
+     * Contains the children with the {@link Behaviors#ANIMATABLE} behavior, in order.
+     */
+    private final ConcurrentCollection<Entity> animatables = new ConcurrentCollection<>();
+
+    /**
+     * Contains the children with the {@link Behaviors#RENDERABLE} behavior, in order.
+     */
+    private final ConcurrentCollection<Entity> renderables = new ConcurrentCollection<>();
+
+    /**
+     * Contains the children with the {@link Behaviors#TOUCHABLE} behavior, in order.
+     */
+    private final ConcurrentCollection<Entity> touchables = new ConcurrentCollection<>();
+
+    /**
+     * Holds the cached bounding box of the children, in the coordinate space of the collection.
+     */
+    private final Bounds2D localBounds = new Bounds2D();
+
+    /**
+     * Used to retrieve the bounding boxes of individual children.
+     */
+    private final Bounds2D childBounds = new Bounds2D();
+
+    /**
+     * Holds the current transformation matrix while rendering, used to map child bounds to the
+     * viewport.
+     */
+    private final float[] cullMatrix = new float[16];
+
+    /**
+     * Indicates whether the cached bounding box is known. It is unknown if any renderable child
+     * does not provide a bounding box.
+     */
+    private boolean boundsKnown = false;
+
+    /**
+     * Indicates whether the cached bounding box needs to be recomputed regardless of the frame.
+     */
+    private boolean boundsDirty = true;
+
+    /**
+     * Holds the frame in which the cached bounding box was last computed.
+     */
+    private int boundsFrame = -1;
+
+    /**
+     * Indicates whether the children of this collection are static relative to the collection.
+     */
+    private boolean staticBounds = false;
+
     /**
      * Creates an {@code EntityCollection}.
      */
@@ -106,7 +199,14 @@ public class EntityCollection
             }
         }
 
-        super.clear();
+        synchronized (this) {
+            super.clear();
+            animatables.clear();
+            renderables.clear();
+            touchables.clear();
+        }
+
+        boundsDirty = true;
     }
 
     /**
@@ -134,6 +234,63 @@ public class EntityCollection
         return new RecursiveIterator(super.iterator());
     }
 
+    /**
+     * Removes an entity from this collection. Entities in sub-collections are not considered. See
+     * {@link #recursiveRemove(Entity)} for a recursive alternative.
+     *
+     * @param object The entity to be removed
+     *
+     * @return {@code true} if the entity is removed, and {@code false} if it doesn't exist in
+     * this collection
+     */
+    @Override
+    public boolean remove(Object object) {
+        final Entity entity = (Entity) object;
+
+        synchronized (this) {
+            if (!super.remove(object)) {
+                return false;
+            }
+
+            untrack(entity);
+        }
+
+        boundsDirty = true;
+
+        if (scene != null) {
+            entity.onDetach(scene);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(@NonNull Collection<?> collection) {
+        boolean ret = false;
+
+        for (Object object : collection) {
+            ret |= remove(object);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public boolean retainAll(@NonNull Collection<?> collection) {
+        final Snapshot<Entity> entities = snapshot();
+        boolean ret = false;
+
+        for (int i = 0, n = entities.size(); i < n; i++) {
+            final Entity entity = entities.get(i);
+
+            if (!collection.contains(entity)) {
+                ret |= remove(entity);
+            }
+        }
+
+        return ret;
+    }
+
     /**
      * Brings an entity to the end of its collection, causing it to appear above all other
      * entities. Entities in above collection will still cover the entity.
@@ -151,8 +308,7 @@ public class EntityCollection
             Entity temp = it.next();
 
             if (temp == entity) {
-                it.remove();
-                super.add(entity);
+                move(entity, false);
                 return true;
             } else if (temp instanceof EntityCollection &&
                     ((EntityCollection) temp).bringToFront(entity))
@@ -180,8 +336,7 @@ public class EntityCollection
             Entity temp = it.next();
 
             if (temp == entity) {
-                it.remove();
-                super.prepend(entity);
+                move(entity, true);
                 return true;
             } else if (temp instanceof EntityCollection &&
                     ((EntityCollection) temp).sendToBack(entity))
@@ -191,6 +346,100 @@ public class EntityCollection
         return false;
     }
 
+    /**
+     * Marks the children of this collection as static or dynamic. The cached bounding box of a
+     * static collection is only recomputed when entities are added or removed, or when
+     * {@link #invalidateBounds()} is called. Dynamic collections recompute it once per frame.
+     *
+     * @param isStatic A value indicating whether the children are static relative to the
+     *                 collection
+     */
+    @SuppressWarnings("unused")
+    public final void setStaticBounds(boolean isStatic) {
+        staticBounds = isStatic;
+        boundsDirty = true;
+    }
+
+    /**
+     * Determines whether the children of this collection are marked as static.
+     *
+     * @return {@code true} if the children are static, {@code false} otherwise
+     */
+    @SuppressWarnings("unused")
+    public final boolean isStaticBounds() {
+        return staticBounds;
+    }
+
+    /**
+     * Forces the cached bounding box of the children to be recomputed. This method should be
+     * called when a child of a static collection is moved, rotated, or scaled.
+     */
+    @SuppressWarnings("unused")
+    public final void invalidateBounds() {
+        boundsDirty = true;
+    }
+
+    /**
+     * Gets the bounding box of all the entities in this collection, in the coordinate space of the
+     * parent of the collection.
+     *
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the bounding box was computed, {@code false} if any renderable
+     * entity in the collection does not provide a bounding box
+     */
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (boundsDirty || (!staticBounds && boundsFrame != frame)) {
+            updateBounds();
+        }
+
+        if (!boundsKnown) {
+            return false;
+        }
+
+        bounds.set(localBounds);
+
+        if (!bounds.isEmpty()) {
+            bounds.transform(pos, rotation, scale);
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the beginning of a new frame. Cached bounding boxes of dynamic collections expire, and
+     * the culling statistics of the previous frame become available.
+     */
+    public static void beginFrame() {
+        lastCulledCount = culledCount;
+        lastDrawnCount = drawnCount;
+        culledCount = 0;
+        drawnCount = 0;
+        frame++;
+    }
+
+    /**
+     * Gets the number of entities skipped in the last frame because they were outside the
+     * viewport. A skipped collection counts as one entity.
+     *
+     * @return Number of culled entities
+     */
+    @SuppressWarnings("unused")
+    public static int getCulledCount() {
+        return lastCulledCount;
+    }
+
+    /**
+     * Gets the number of entities, other than collections, rendered in the last frame.
+     *
+     * @return Number of rendered entities
+     */
+    @SuppressWarnings("unused")
+    public static int getDrawnCount() {
+        return lastDrawnCount;
+    }
+
     @Override
     public AnimationHandler getAnimation() {
         return anim;
@@ -299,7 +548,8 @@ public class EntityCollection
     }
 
     /**
-     * Renders all the entities in the collection onto the given OpenGL context.
+     * Renders all the entities in the collection onto the given OpenGL context. Entities whose
+     * bounding boxes lie completely outside the viewport are skipped.
      */
     @Override
     public void render(RenderingContext ctx, int flags) {
@@ -308,10 +558,36 @@ public class EntityCollection
             ctx.translate(pos.x, pos.y);
             ctx.rotate(rotation);
             ctx.scale(scale.x, scale.y);
+            ctx.getMatrix(cullMatrix);
 
-            for (Entity entity : this)
-                if (entity.hasBehavior(Behaviors.RENDERABLE))
-                    ((Renderable) entity).render(ctx, flags);
+            final float width = ctx.getWidth(), height = ctx.getHeight();
+            final Snapshot<Entity> entities = renderables.snapshot();
+
+            // Rendered entities are an advance thread statistic, counted while recording
+            final boolean counted = TextureShaderProgram.isRecordingThread();
+
+            for (int i = 0, n = entities.size(); i < n; i++) {
+                final Entity entity = entities.get(i);
+
+                if (entity instanceof Bounded && ((Bounded) entity).getBounds(childBounds)) {
+                    if (!childBounds.isEmpty())
+                        childBounds.transform(cullMatrix);
+
+                    if (childBounds.isEmpty() || !childBounds.intersects(0, 0, width, height)) {
+                        culledCount++;
+                        continue;
+                    }
+                }
+
+                if (!(entity instanceof EntityCollection)) {
+                    drawnCount++;
+
+                    if (counted)
+                        FrameStats.count(FrameStats.Counter.ENTITIES_RENDERED);
+                }
+
+                ((Renderable) entity).render(ctx, flags);
+            }
 
             ctx.popMatrix();
         } catch (Exception ex) {
@@ -321,19 +597,29 @@ public class EntityCollection
 
     @Override
     public boolean add(Entity entity) {
-        if (super.add(entity)) {
-            if (scene != null)
-                entity.onAttach(scene);
+        synchronized (this) {
+            if (!super.add(entity))
+                return false;
 
-            return true;
+            track(entity, false);
         }
 
-        return false;
+        boundsDirty = true;
+
+        if (scene != null)
+            entity.onAttach(scene);
+
+        return true;
     }
 
     @Override
     public void prepend(@NonNull Entity object) {
-        super.prepend(object);
+        synchronized (this) {
+            super.prepend(object);
+            track(object, true);
+        }
+
+        boundsDirty = true;
 
         if (scene != null)
             object.onAttach(scene);
@@ -357,7 +643,12 @@ public class EntityCollection
             final Entity entity = it.next();
 
             if (entity.equals(e)) {
-                it.remove();
+                synchronized (this) {
+                    it.remove();
+                    untrack(entity);
+                }
+
+                boundsDirty = true;
 
                 if (scene != null) {
                     entity.onDetach(scene);
@@ -383,16 +674,23 @@ public class EntityCollection
         if (anim != null)
             anim.advance(this, elapsedTime);
 
-        for (Entity entity : this) {
-            if (entity.hasBehavior(Behaviors.ANIMATABLE))
-                ((Animatable) entity).advance(elapsedTime);
+        final Snapshot<Entity> entities = animatables.snapshot();
+
+        for (int i = 0, n = entities.size(); i < n; i++) {
+            final Entity entity = entities.get(i);
+            ((Animatable) entity).advance(elapsedTime);
+
+            if (!(entity instanceof EntityCollection))
+                FrameStats.count(FrameStats.Counter.ENTITIES_ADVANCED);
         }
     }
 
     @Override
     public boolean handleTouch(TouchEvent event) {
-        for (Entity entity : this) {
-            if (entity.hasBehavior(Behaviors.TOUCHABLE) && ((Touchable) entity).handleTouch(event))
+        final Snapshot<Entity> entities = touchables.snapshot();
+
+        for (int i = 0, n = entities.size(); i < n; i++) {
+            if (((Touchable) entities.get(i)).handleTouch(event))
                 return true;
         }
         return false;
@@ -416,6 +714,94 @@ public class EntityCollection
         return this.scene;
     }
 
+    /**
+     * Moves a direct child, along with its place in the behavior lists, to the front or back of
+     * this collection. Entities in sub-collections are not considered.
+     *
+     * @param entity The entity
+     * @param front  {@code true} to move the entity to the front, or {@code false} to the back
+     *
+     * @return {@code true} if the entity was found, {@code false} otherwise
+     */
+    @Override
+    public boolean move(Entity entity, boolean front) {
+        synchronized (this) {
+            if (!super.move(entity, front))
+                return false;
+
+            animatables.move(entity, front);
+            renderables.move(entity, front);
+            touchables.move(entity, front);
+            return true;
+        }
+    }
+
+    /**
+     * Adds an entity to the behavior lists it belongs to. The caller must hold the lock on this
+     * collection, so that the behavior lists are updated together with the list of children.
+     *
+     * @param entity The entity
+     * @param front  {@code true} to add the entity to the front of the lists, or {@code false} to
+     *               add it to the back
+     */
+    private void track(Entity entity, boolean front) {
+        if (entity.hasBehavior(Behaviors.ANIMATABLE))
+            insert(animatables, entity, front);
+
+        if (entity.hasBehavior(Behaviors.RENDERABLE))
+            insert(renderables, entity, front);
+
+        if (entity.hasBehavior(Behaviors.TOUCHABLE))
+            insert(touchables, entity, front);
+    }
+
+    /**
+     * Removes an entity from all behavior lists. The caller must hold the lock on this collection.
+     *
+     * @param entity The entity
+     */
+    private void untrack(Entity entity) {
+        animatables.remove(entity);
+        renderables.remove(entity);
+        touchables.remove(entity);
+    }
+
+    /**
+     * Adds an entity to the front or back of a behavior list.
+     *
+     * @param list   The behavior list
+     * @param entity The entity
+     * @param front  {@code true} to add the entity to the front, or {@code false} to the back
+     */
+    private static void insert(ConcurrentCollection<Entity> list, Entity entity, boolean front) {
+        if (front)
+            list.prepend(entity);
+        else list.add(entity);
+    }
+
+    /**
+     * Recomputes the cached bounding box of the children of this collection.
+     */
+    private void updateBounds() {
+        localBounds.setEmpty();
+        boundsKnown = true;
+        final Snapshot<Entity> entities = renderables.snapshot();
+
+        for (int i = 0, n = entities.size(); i < n; i++) {
+            final Entity entity = entities.get(i);
+
+            if (!(entity instanceof Bounded) || !((Bounded) entity).getBounds(childBounds)) {
+                boundsKnown = false;
+                break;
+            }
+
+            localBounds.union(childBounds);
+        }
+
+        boundsDirty = false;
+        boundsFrame = frame;
+    }
+
     /**
      * Provides basic iterator functionality for {@code EntityCollection}.
      */
@@ -451,6 +837,8 @@ public class EntityCollection
                 lastReturned.onDetach(scene);
 
             it.remove();
+            untrack(lastReturned);
+            boundsDirty = true;
             lastReturned = null;
         }
     }
@@ -469,7 +857,13 @@ public class EntityCollection
 
         private Stack<Iterator<Entity>> stack = new Stack<>();
 
+        /**
+         * Holds the iterator over the direct children of this collection.
+         */
+        private final Iterator<Entity> rootIterator;
+
         RecursiveIterator(Iterator<Entity> it) {
+            rootIterator = it;
             stack.push(it);
         }
 
@@ -504,6 +898,10 @@ public class EntityCollection
                 lastReturned.onDetach(scene);
 
             lastIterator.remove();
+
+            if (lastIterator == rootIterator)
+                untrack(lastReturned);
+
             lastReturned = null;
             lastIterator = null;
         }
@@ -18,7 +18,9 @@
 
 package com.annahid.libs.artenus.entities;
 
+import com.annahid.libs.artenus.data.Bounds2D;
 import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
 import com.annahid.libs.artenus.graphics.animation.AnimationHandler;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.input.TouchEvent;
@@ -36,12 +38,18 @@ import com.annahid.libs.artenus.core.Scene;
  *
  * @author Hessan Feghhi
  */
-public class EntityPair implements Entity, Animatable, Touchable, Transformable, Renderable {
+public class EntityPair
+        implements Entity, Animatable, Touchable, Transformable, Renderable, Bounded {
     /**
      * Holds the animation handler affecting the entities in the pair.
      */
     protected AnimationHandler anim;
 
+    /**
+     * Used to compute the bounding box of the second entity.
+     */
+    private final Bounds2D scratchBounds = new Bounds2D();
+
     /**
      * Holds the first entity of the pair.
      */
@@ -209,6 +217,37 @@ public class EntityPair implements Entity, Animatable, Touchable, Transformable,
                 || second.hasBehavior(behavior);
     }
 
+    /**
+     * Gets the bounding box of both entities in the pair. The bounding box is only known if all
+     * renderable entities in the pair have the {@link Behaviors#BOUNDED} behavior.
+     *
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the bounding box was computed, {@code false} otherwise
+     */
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        bounds.setEmpty();
+
+        if (first.hasBehavior(Behaviors.RENDERABLE)) {
+            if (!first.hasBehavior(Behaviors.BOUNDED) || !((Bounded) first).getBounds(bounds)) {
+                return false;
+            }
+        }
+
+        if (second.hasBehavior(Behaviors.RENDERABLE)) {
+            if (!second.hasBehavior(Behaviors.BOUNDED)
+                    || !((Bounded) second).getBounds(scratchBounds)) {
+                return false;
+            }
+
+            bounds.union(scratchBounds);
+        }
+
+        bounds.transform(pos, rotation, scale);
+        return true;
+    }
+
     /**
      * Renders both entities in the pair.
      *
@@ -17,7 +17,10 @@
 
 package com.annahid.libs.artenus.entities;
 
+import com.annahid.libs.artenus.data.Bounds2D;
 import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.entities.behavior.HitTestable;
 import com.annahid.libs.artenus.graphics.animation.AnimationHandler;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.data.Point2D;
@@ -33,7 +36,8 @@ import com.annahid.libs.artenus.core.Scene;
  *
  * @author Hessan Feghhi
  */
-public abstract class FilteredEntity implements Entity, Animatable, Transformable, Renderable {
+public abstract class FilteredEntity
+        implements Entity, Animatable, Transformable, Renderable, Bounded, HitTestable {
     /**
      * Holds the underlying entity.
      */
@@ -182,6 +186,24 @@ public abstract class FilteredEntity implements Entity, Animatable, Transformabl
         }
     }
 
+    /**
+     * Gets the bounding box of the underlying entity. Subclasses that render outside the area of
+     * the underlying entity should extend the bounding box accordingly.
+     *
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the bounding box was computed, {@code false} otherwise
+     */
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        return target.hasBehavior(Behaviors.BOUNDED) && ((Bounded) target).getBounds(bounds);
+    }
+
+    @Override
+    public boolean hitTest(float x, float y) {
+        return target.hasBehavior(Behaviors.HIT_TESTABLE) && ((HitTestable) target).hitTest(x, y);
+    }
+
     @Override
     public void onAttach(Scene scene) {
         target.onAttach(scene);
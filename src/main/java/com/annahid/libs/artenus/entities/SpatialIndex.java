@@ -0,0 +1,828 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.entities;
+
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.data.ConcurrentCollection.Snapshot;
+import com.annahid.libs.artenus.data.Point2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.graphics.rendering.MatrixStack;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Indexes the entities of a scene by the area they cover, so that the entities in a region,
+ * under a point, or nearest to a point can be found without walking the whole entity tree. The
+ * index is a dynamic bounding volume tree, and queries take logarithmic time in the number of
+ * entities in most cases.</p>
+ * <p>Every entity with the {@link Behaviors#BOUNDED} behavior that is reachable from the root
+ * collection through entity collections is indexed, using its bounding box in the coordinate space
+ * of the scene. Entity collections themselves are not indexed. Each entity is stored with a
+ * slightly enlarged box, so that small movements do not change the tree. The index is refreshed
+ * by the scene after every advance, and only entities that moved out of their enlarged box are
+ * re-inserted.</p>
+ * <p>Use {@link com.annahid.libs.artenus.core.Scene#getSpatialIndex()} to obtain the index of a
+ * scene. This class is not thread-safe, and should only be used on the advance thread, for
+ * example in {@link com.annahid.libs.artenus.core.Scene#advance(float)} or in touch handlers.</p>
+ *
+ * @author Hessan Feghhi
+ * @see com.annahid.libs.artenus.core.Scene
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class SpatialIndex {
+    /**
+     * Holds the distance by which the stored box of each entity is enlarged on each side.
+     */
+    private static final float MARGIN = 8;
+
+    /**
+     * Holds the value used in place of a node index when there is no node.
+     */
+    private static final int NULL = -1;
+
+    /**
+     * Holds the number of nodes the index can initially hold before growing.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Maps indexed entities to their leaf nodes.
+     */
+    private final Map<Entity, Integer> proxies = new IdentityHashMap<>();
+
+    /**
+     * Holds the transformation matrix stack used to map entity bounds to the scene.
+     */
+    private final MatrixStack matrixStack = new MatrixStack();
+
+    /**
+     * Holds the current transformation matrix while the entity tree is walked.
+     */
+    private final float[] matrix = new float[16];
+
+    /**
+     * Used to retrieve the bounding boxes of individual entities.
+     */
+    private final Bounds2D entityBounds = new Bounds2D();
+
+    /**
+     * Contains the enlarged boxes of leaf nodes and the combined boxes of other nodes, with four
+     * floats per node: left, top, right and bottom.
+     */
+    private float[] boxes = new float[INITIAL_CAPACITY * 4];
+
+    /**
+     * Contains the exact boxes of leaf nodes, in the same format as {@link #boxes}.
+     */
+    private float[] exact = new float[INITIAL_CAPACITY * 4];
+
+    /**
+     * Contains the parent of each node. For free nodes, it holds the next free node.
+     */
+    private int[] parent = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the first child of each node, or {@link #NULL} for leaf nodes.
+     */
+    private int[] child1 = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the second child of each node, or {@link #NULL} for leaf nodes.
+     */
+    private int[] child2 = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the height of each node in the tree. Leaf nodes have a height of 0, and free nodes
+     * a height of -1.
+     */
+    private int[] height = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the update in which each leaf node was last seen in the entity tree.
+     */
+    private int[] stamps = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the entity stored in each leaf node.
+     */
+    private Entity[] entities = new Entity[INITIAL_CAPACITY];
+
+    /**
+     * Holds the stack of nodes to visit during queries.
+     */
+    private int[] stack = new int[32];
+
+    /**
+     * Holds the root node of the tree.
+     */
+    private int root = NULL;
+
+    /**
+     * Holds the first node in the free list.
+     */
+    private int freeList = NULL;
+
+    /**
+     * Holds the number of nodes the arrays can hold.
+     */
+    private int capacity = 0;
+
+    /**
+     * Holds the number of the current update.
+     */
+    private int stamp = 0;
+
+    /**
+     * Creates an empty spatial index.
+     */
+    public SpatialIndex() {
+        grow(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Refreshes the index with the current bounding boxes of the entities reachable from the given
+     * collection. Entities that are no longer reachable or bounded are removed. This method is
+     * called by the scene after every advance.
+     *
+     * @param rootCollection The root entity collection of the scene
+     */
+    public void update(EntityCollection rootCollection) {
+        stamp++;
+        collect(rootCollection);
+
+        for (int i = 0; i < capacity; i++) {
+            if (height[i] == 0 && stamps[i] != stamp) {
+                proxies.remove(entities[i]);
+                removeLeaf(i);
+                freeNode(i);
+            }
+        }
+    }
+
+    /**
+     * Removes all entities from the index.
+     */
+    public void clear() {
+        proxies.clear();
+        root = NULL;
+        freeList = NULL;
+
+        for (int i = capacity - 1; i >= 0; i--) {
+            entities[i] = null;
+            freeNode(i);
+        }
+    }
+
+    /**
+     * Gets the number of entities in the index.
+     *
+     * @return Number of entities
+     */
+    public int size() {
+        return proxies.size();
+    }
+
+    /**
+     * Determines whether the given entity is in the index.
+     *
+     * @param entity The entity
+     *
+     * @return {@code true} if the entity is indexed, {@code false} otherwise
+     */
+    public boolean contains(Entity entity) {
+        return proxies.containsKey(entity);
+    }
+
+    /**
+     * Gets the bounding box of an entity, in the coordinate space of the scene, as of the last
+     * update of the index.
+     *
+     * @param entity The entity
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the entity is indexed, {@code false} otherwise
+     */
+    public boolean getBounds(Entity entity, Bounds2D bounds) {
+        final Integer node = proxies.get(entity);
+
+        if (node == null) {
+            return false;
+        }
+
+        final int o = node * 4;
+        bounds.set(exact[o], exact[o + 1], exact[o + 2], exact[o + 3]);
+        return true;
+    }
+
+    /**
+     * Finds the entities whose bounding boxes intersect the given region, and adds them to a list.
+     * The order of the entities is undefined.
+     *
+     * @param left    Left edge of the region
+     * @param top     Top edge of the region
+     * @param right   Right edge of the region
+     * @param bottom  Bottom edge of the region
+     * @param results The list to receive the entities
+     *
+     * @return Number of entities found
+     */
+    public int query(float left, float top, float right, float bottom, List<Entity> results) {
+        if (root == NULL) {
+            return 0;
+        }
+
+        int count = 0, size = 0;
+        stack[size++] = root;
+
+        while (size > 0) {
+            final int node = stack[--size];
+
+            if (!overlaps(boxes, node, left, top, right, bottom)) {
+                continue;
+            }
+
+            if (height[node] == 0) {
+                if (overlaps(exact, node, left, top, right, bottom)) {
+                    results.add(entities[node]);
+                    count++;
+                }
+            } else {
+                size = push(size, child1[node], child2[node]);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds the entities whose bounding boxes intersect the given region, and adds them to a list.
+     * The order of the entities is undefined.
+     *
+     * @param region  The region
+     * @param results The list to receive the entities
+     *
+     * @return Number of entities found
+     */
+    public int query(Bounds2D region, List<Entity> results) {
+        if (region.isEmpty()) {
+            return 0;
+        }
+
+        return query(region.left, region.top, region.right, region.bottom, results);
+    }
+
+    /**
+     * Finds the entities whose bounding boxes contain the given point, and adds them to a list.
+     * The order of the entities is undefined. Note that the bounding box of an entity may contain
+     * points that are not on its visible area.
+     *
+     * @param x       The x coordinate of the point
+     * @param y       The y coordinate of the point
+     * @param results The list to receive the entities
+     *
+     * @return Number of entities found
+     */
+    public int queryPoint(float x, float y, List<Entity> results) {
+        return query(x, y, x, y, results);
+    }
+
+    /**
+     * Finds the entity whose bounding box is nearest to the given point. The distance of an entity
+     * containing the point is zero.
+     *
+     * @param x           The x coordinate of the point
+     * @param y           The y coordinate of the point
+     * @param maxDistance The maximum distance to search
+     *
+     * @return The nearest entity, or {@code null} if there is no entity within the given distance
+     */
+    public Entity nearest(float x, float y, float maxDistance) {
+        if (root == NULL) {
+            return null;
+        }
+
+        Entity result = null;
+        float best = maxDistance * maxDistance;
+        int size = 0;
+        stack[size++] = root;
+
+        while (size > 0) {
+            final int node = stack[--size];
+
+            if (distanceSquared(boxes, node, x, y) > best) {
+                continue;
+            }
+
+            if (height[node] == 0) {
+                final float distance = distanceSquared(exact, node, x, y);
+
+                if (distance <= best) {
+                    best = distance;
+                    result = entities[node];
+                }
+            } else {
+                final int c1 = child1[node], c2 = child2[node];
+
+                // Visit the closer child first, so that the farther one is more likely pruned
+                if (distanceSquared(boxes, c1, x, y) < distanceSquared(boxes, c2, x, y)) {
+                    size = push(size, c2, c1);
+                } else {
+                    size = push(size, c1, c2);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Walks the given collection recursively, and inserts or moves the entities in it.
+     *
+     * @param collection The entity collection
+     */
+    private void collect(EntityCollection collection) {
+        final Point2D pos = collection.getPosition(), scale = collection.getScale();
+        matrixStack.push();
+        matrixStack.translate(pos.x, pos.y);
+        matrixStack.rotate(collection.getRotation());
+        matrixStack.scale(scale.x, scale.y);
+        matrixStack.get(matrix);
+
+        final Snapshot<Entity> children = collection.snapshot();
+
+        for (int i = 0, n = children.size(); i < n; i++) {
+            final Entity entity = children.get(i);
+
+            if (entity instanceof EntityCollection) {
+                collect((EntityCollection) entity);
+                matrixStack.get(matrix);
+            } else if (entity.hasBehavior(Behaviors.BOUNDED) &&
+                    ((Bounded) entity).getBounds(entityBounds) && !entityBounds.isEmpty()) {
+                entityBounds.transform(matrix);
+                track(entity, entityBounds);
+            }
+        }
+
+        matrixStack.pop();
+    }
+
+    /**
+     * Inserts an entity into the index, or updates its box if it is already indexed.
+     *
+     * @param entity The entity
+     * @param bounds The bounding box of the entity in the coordinate space of the scene
+     */
+    private void track(Entity entity, Bounds2D bounds) {
+        final Integer proxy = proxies.get(entity);
+        int node;
+
+        if (proxy == null) {
+            node = allocateNode();
+            entities[node] = entity;
+            height[node] = 0;
+            setExact(node, bounds);
+            setFat(node, bounds);
+            insertLeaf(node);
+            proxies.put(entity, node);
+        } else {
+            node = proxy;
+            setExact(node, bounds);
+            final int o = node * 4;
+
+            if (bounds.left < boxes[o] || bounds.top < boxes[o + 1] ||
+                    bounds.right > boxes[o + 2] || bounds.bottom > boxes[o + 3]) {
+                removeLeaf(node);
+                setFat(node, bounds);
+                insertLeaf(node);
+            }
+        }
+
+        stamps[node] = stamp;
+    }
+
+    /**
+     * Stores the exact box of a leaf node.
+     *
+     * @param node   The node
+     * @param bounds The box
+     */
+    private void setExact(int node, Bounds2D bounds) {
+        final int o = node * 4;
+        exact[o] = bounds.left;
+        exact[o + 1] = bounds.top;
+        exact[o + 2] = bounds.right;
+        exact[o + 3] = bounds.bottom;
+    }
+
+    /**
+     * Stores the enlarged box of a leaf node.
+     *
+     * @param node   The node
+     * @param bounds The exact box
+     */
+    private void setFat(int node, Bounds2D bounds) {
+        final int o = node * 4;
+        boxes[o] = bounds.left - MARGIN;
+        boxes[o + 1] = bounds.top - MARGIN;
+        boxes[o + 2] = bounds.right + MARGIN;
+        boxes[o + 3] = bounds.bottom + MARGIN;
+    }
+
+    /**
+     * Inserts a leaf node into the tree, next to the sibling that increases the total perimeter of
+     * the tree the least.
+     *
+     * @param leaf The leaf node
+     */
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+
+        final int lo = leaf * 4;
+        final float left = boxes[lo], top = boxes[lo + 1];
+        final float right = boxes[lo + 2], bottom = boxes[lo + 3];
+        int index = root;
+
+        while (height[index] > 0) {
+            final int o = index * 4;
+            final float area = perimeter(boxes[o], boxes[o + 1], boxes[o + 2], boxes[o + 3]);
+            final float combined = perimeter(
+                    Math.min(left, boxes[o]), Math.min(top, boxes[o + 1]),
+                    Math.max(right, boxes[o + 2]), Math.max(bottom, boxes[o + 3])
+            );
+
+            // Cost of creating a new parent for this node and the new leaf
+            final float cost = 2 * combined;
+
+            // Minimum cost of pushing the leaf further down the tree
+            final float inheritance = 2 * (combined - area);
+            final int c1 = child1[index], c2 = child2[index];
+            final float cost1 = descendCost(c1, left, top, right, bottom) + inheritance;
+            final float cost2 = descendCost(c2, left, top, right, bottom) + inheritance;
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+
+            index = cost1 < cost2 ? c1 : c2;
+        }
+
+        final int sibling = index;
+        final int oldParent = parent[sibling];
+        final int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        entities[newParent] = null;
+        height[newParent] = height[sibling] + 1;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+
+        if (oldParent != NULL) {
+            if (child1[oldParent] == sibling) {
+                child1[oldParent] = newParent;
+            } else {
+                child2[oldParent] = newParent;
+            }
+        } else {
+            root = newParent;
+        }
+
+        refit(newParent);
+    }
+
+    /**
+     * Computes the cost of inserting a box below the given node.
+     *
+     * @param node   The node
+     * @param left   Left edge of the box
+     * @param top    Top edge of the box
+     * @param right  Right edge of the box
+     * @param bottom Bottom edge of the box
+     *
+     * @return The cost
+     */
+    private float descendCost(int node, float left, float top, float right, float bottom) {
+        final int o = node * 4;
+        final float combined = perimeter(
+                Math.min(left, boxes[o]), Math.min(top, boxes[o + 1]),
+                Math.max(right, boxes[o + 2]), Math.max(bottom, boxes[o + 3])
+        );
+
+        if (height[node] == 0) {
+            return combined;
+        }
+
+        return combined - perimeter(boxes[o], boxes[o + 1], boxes[o + 2], boxes[o + 3]);
+    }
+
+    /**
+     * Removes a leaf node from the tree. The node itself is not freed.
+     *
+     * @param leaf The leaf node
+     */
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+
+        final int p = parent[leaf];
+        final int grandParent = parent[p];
+        final int sibling = child1[p] == leaf ? child2[p] : child1[p];
+
+        if (grandParent != NULL) {
+            if (child1[grandParent] == p) {
+                child1[grandParent] = sibling;
+            } else {
+                child2[grandParent] = sibling;
+            }
+
+            parent[sibling] = grandParent;
+            freeNode(p);
+            refit(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = NULL;
+            freeNode(p);
+        }
+    }
+
+    /**
+     * Rebalances and recomputes the boxes and heights of the given node and all its ancestors.
+     *
+     * @param node The node
+     */
+    private void refit(int node) {
+        while (node != NULL) {
+            node = balance(node);
+            final int c1 = child1[node], c2 = child2[node];
+            height[node] = 1 + Math.max(height[c1], height[c2]);
+            union(node, c1, c2);
+            node = parent[node];
+        }
+    }
+
+    /**
+     * Performs a left or right rotation if the given node is imbalanced.
+     *
+     * @param a The node
+     *
+     * @return The node that took the place of the given node in the tree
+     */
+    private int balance(int a) {
+        if (height[a] < 2) {
+            return a;
+        }
+
+        final int b = child1[a], c = child2[a];
+        final int difference = height[c] - height[b];
+
+        if (difference > 1) {
+            rotate(a, c, b, false);
+            return c;
+        }
+
+        if (difference < -1) {
+            rotate(a, b, c, true);
+            return b;
+        }
+
+        return a;
+    }
+
+    /**
+     * Rotates a child up to replace its imbalanced parent.
+     *
+     * @param a     The imbalanced node
+     * @param up    The child of {@code a} that replaces it
+     * @param other The other child of {@code a}
+     * @param first A value indicating whether {@code up} is the first child of {@code a}
+     */
+    private void rotate(int a, int up, int other, boolean first) {
+        final int f = child1[up], g = child2[up];
+
+        // Swap a and its child
+        child1[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+
+        if (parent[up] != NULL) {
+            if (child1[parent[up]] == a) {
+                child1[parent[up]] = up;
+            } else {
+                child2[parent[up]] = up;
+            }
+        } else {
+            root = up;
+        }
+
+        // Keep the taller grandchild under the rotated node, and give the other one to a
+        final int keep = height[f] > height[g] ? f : g;
+        final int give = keep == f ? g : f;
+        child2[up] = keep;
+
+        if (first) {
+            child1[a] = give;
+        } else {
+            child2[a] = give;
+        }
+
+        parent[give] = a;
+        union(a, other, give);
+        union(up, a, keep);
+        height[a] = 1 + Math.max(height[other], height[give]);
+        height[up] = 1 + Math.max(height[a], height[keep]);
+    }
+
+    /**
+     * Sets the box of a node to the union of the boxes of two other nodes.
+     *
+     * @param node The node
+     * @param n1   The first node
+     * @param n2   The second node
+     */
+    private void union(int node, int n1, int n2) {
+        final int o = node * 4, o1 = n1 * 4, o2 = n2 * 4;
+        boxes[o] = Math.min(boxes[o1], boxes[o2]);
+        boxes[o + 1] = Math.min(boxes[o1 + 1], boxes[o2 + 1]);
+        boxes[o + 2] = Math.max(boxes[o1 + 2], boxes[o2 + 2]);
+        boxes[o + 3] = Math.max(boxes[o1 + 3], boxes[o2 + 3]);
+    }
+
+    /**
+     * Takes a node from the free list, growing the arrays if necessary.
+     *
+     * @return The node
+     */
+    private int allocateNode() {
+        if (freeList == NULL) {
+            grow(capacity * 2);
+        }
+
+        final int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        return node;
+    }
+
+    /**
+     * Returns a node to the free list.
+     *
+     * @param node The node
+     */
+    private void freeNode(int node) {
+        parent[node] = freeList;
+        height[node] = -1;
+        entities[node] = null;
+        freeList = node;
+    }
+
+    /**
+     * Grows the node arrays to the given capacity, and adds the new nodes to the free list.
+     *
+     * @param newCapacity The new capacity
+     */
+    private void grow(int newCapacity) {
+        if (newCapacity > parent.length) {
+            boxes = copyOf(boxes, newCapacity * 4);
+            exact = copyOf(exact, newCapacity * 4);
+            parent = copyOf(parent, newCapacity);
+            child1 = copyOf(child1, newCapacity);
+            child2 = copyOf(child2, newCapacity);
+            height = copyOf(height, newCapacity);
+            stamps = copyOf(stamps, newCapacity);
+            final Entity[] grown = new Entity[newCapacity];
+            System.arraycopy(entities, 0, grown, 0, capacity);
+            entities = grown;
+        }
+
+        for (int i = newCapacity - 1; i >= capacity; i--) {
+            freeNode(i);
+        }
+
+        capacity = newCapacity;
+    }
+
+    /**
+     * Pushes two nodes on the query stack, growing it if necessary.
+     *
+     * @param size   The current size of the stack
+     * @param first  The node pushed first
+     * @param second The node pushed second, which is visited first
+     *
+     * @return The new size of the stack
+     */
+    private int push(int size, int first, int second) {
+        if (size + 2 > stack.length) {
+            stack = copyOf(stack, stack.length * 2);
+        }
+
+        stack[size] = first;
+        stack[size + 1] = second;
+        return size + 2;
+    }
+
+    /**
+     * Determines whether the box of a node overlaps the given region.
+     *
+     * @param array  The array containing the box
+     * @param node   The node
+     * @param left   Left edge of the region
+     * @param top    Top edge of the region
+     * @param right  Right edge of the region
+     * @param bottom Bottom edge of the region
+     *
+     * @return {@code true} if the box overlaps the region, {@code false} otherwise
+     */
+    private static boolean overlaps(
+            float[] array, int node, float left, float top, float right, float bottom) {
+        final int o = node * 4;
+        return array[o] <= right && array[o + 2] >= left &&
+                array[o + 1] <= bottom && array[o + 3] >= top;
+    }
+
+    /**
+     * Computes the squared distance from a point to the box of a node.
+     *
+     * @param array The array containing the box
+     * @param node  The node
+     * @param x     The x coordinate of the point
+     * @param y     The y coordinate of the point
+     *
+     * @return The squared distance, or zero if the box contains the point
+     */
+    private static float distanceSquared(float[] array, int node, float x, float y) {
+        final int o = node * 4;
+        final float dx = Math.max(Math.max(array[o] - x, x - array[o + 2]), 0);
+        final float dy = Math.max(Math.max(array[o + 1] - y, y - array[o + 3]), 0);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Computes the perimeter of a box, used as the cost metric of the tree.
+     *
+     * @param left   Left edge of the box
+     * @param top    Top edge of the box
+     * @param right  Right edge of the box
+     * @param bottom Bottom edge of the box
+     *
+     * @return The perimeter
+     */
+    private static float perimeter(float left, float top, float right, float bottom) {
+        return 2 * (right - left + bottom - top);
+    }
+
+    /**
+     * Copies a float array into a larger one.
+     *
+     * @param array  The array
+     * @param length The new length
+     *
+     * @return The new array
+     */
+    private static float[] copyOf(float[] array, int length) {
+        final float[] grown = new float[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Copies an integer array into a larger one.
+     *
+     * @param array  The array
+     * @param length The new length
+     *
+     * @return The new array
+     */
+    private static int[] copyOf(int[] array, int length) {
+        final int[] grown = new int[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -44,5 +44,17 @@ public enum Behaviors {
      * Behavior value for entities that can be moved, rotated, or scaled. An entity that declares
      * this behavior must also implement {@link Transformable}.
      */
-    TRANSFORMABLE
+    TRANSFORMABLE,
+
+    /**
+     * Behavior value for entities that can report the area they cover when rendered. An entity
+     * that declares this behavior must also implement {@link Bounded}.
+     */
+    BOUNDED,
+
+    /**
+     * Behavior value for entities that can determine whether a point lies on their visible area.
+     * An entity that declares this behavior must also implement {@link HitTestable}.
+     */
+    HIT_TESTABLE
 }
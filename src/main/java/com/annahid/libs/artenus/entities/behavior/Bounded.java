@@ -0,0 +1,43 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.entities.behavior;
+
+import com.annahid.libs.artenus.data.Bounds2D;
+
+/**
+ * Interface for renderable entities that can report the area they cover. Entity collections use
+ * this information to skip rendering of entities that lie outside the visible area. Entities that
+ * do not have this behavior are always rendered.
+ *
+ * @author Hessan Feghhi
+ * @see com.annahid.libs.artenus.entities.EntityCollection
+ */
+public interface Bounded {
+    /**
+     * Computes the axis-aligned bounding box of the area covered by this entity, in the coordinate
+     * space of its parent. This includes the position, rotation and scaling of the entity itself.
+     *
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the bounding box was computed, or {@code false} if the area covered
+     * by this entity is not known at this time, in which case it should always be rendered
+     */
+    boolean getBounds(Bounds2D bounds);
+}
@@ -0,0 +1,42 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.entities.behavior;
+
+/**
+ * Interface for renderable entities that can determine whether a point lies on their visible area
+ * more precisely than their bounding box. Touch buttons use this information to find the button
+ * under a touch event. Touch buttons around entities that do not have this behavior fall back on
+ * the bounding box, if the entity is {@link Bounded}.
+ *
+ * @author Hessan Feghhi
+ * @see com.annahid.libs.artenus.input.TouchButton
+ */
+public interface HitTestable {
+    /**
+     * Determines whether the given point lies on the visible area of this entity. The point is in
+     * the coordinate space of the parent, and the position, rotation and scaling of the entity
+     * itself must be taken into account.
+     *
+     * @param x The x coordinate of the point
+     * @param y The y coordinate of the point
+     *
+     * @return {@code true} if the point lies on this entity, {@code false} otherwise
+     */
+    boolean hitTest(float x, float y);
+}
@@ -77,9 +77,17 @@ public interface Renderable {
     void setAlpha(float alpha);
 
     /**
-     * Renders the visual content.
+     * <p>Renders the visual content. The scene is normally recorded on the advance thread, and the
+     * recording is replayed on the rendering thread later. This method is then called without an
+     * OpenGL context, and must draw only through the given rendering context. Calls to OpenGL,
+     * including those made by custom shader programs that are fed from this method, have no
+     * effect.</p>
+     * <p>Renderables that need to call OpenGL directly require the stage to be switched to
+     * direct rendering, in which case this method is called on the rendering thread.</p>
      *
      * @param flags Rendering flags
+     *
+     * @see com.annahid.libs.artenus.core.Stage#setDirectRendering(boolean)
      */
     void render(RenderingContext rc, int flags);
 }
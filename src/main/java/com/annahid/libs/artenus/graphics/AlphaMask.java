@@ -0,0 +1,119 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.graphics;
+
+import android.graphics.Bitmap;
+
+/**
+ * Represents a low-resolution map of the opaque areas of a texture image. It is computed when the
+ * texture is loaded, and allows testing whether a point lies on a visible part of the image
+ * without reading the texture back from the graphics hardware.
+ *
+ * @author Hessan Feghhi
+ * @see Texture#getAlphaMask()
+ */
+public final class AlphaMask {
+    /**
+     * Holds the maximum number of cells along each side of the mask.
+     */
+    private static final int MAX_SIZE = 128;
+
+    /**
+     * Holds the minimum alpha value of a pixel, out of 255, for it to be considered opaque.
+     */
+    private static final int THRESHOLD = 64;
+
+    /**
+     * Holds the number of columns of cells.
+     */
+    private final int width;
+
+    /**
+     * Holds the number of rows of cells.
+     */
+    private final int height;
+
+    /**
+     * Contains one bit for each cell, indicating whether it is opaque.
+     */
+    private final long[] bits;
+
+    /**
+     * Creates an empty mask with the given number of cells.
+     *
+     * @param width  Number of columns of cells
+     * @param height Number of rows of cells
+     */
+    private AlphaMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        bits = new long[(width * height + 63) >> 6];
+    }
+
+    /**
+     * Computes the mask of the given image. Each cell covers a block of pixels, and is opaque if
+     * any of four pixels sampled within the block is opaque.
+     *
+     * @param image The image
+     *
+     * @return The mask
+     */
+    static AlphaMask create(Bitmap image) {
+        final int w = image.getWidth(), h = image.getHeight();
+        final AlphaMask mask = new AlphaMask(Math.min(w, MAX_SIZE), Math.min(h, MAX_SIZE));
+        final int[] row = new int[w];
+
+        for (int y = 0; y < mask.height; y++) {
+            for (int sample = 1; sample < 4; sample += 2) {
+                // Sample rows at one quarter and three quarters of the cell
+                image.getPixels(row, 0, w, 0, (y * 4 + sample) * h / (mask.height * 4), w, 1);
+
+                for (int x = 0; x < mask.width; x++) {
+                    final int left = (x * 4 + 1) * w / (mask.width * 4);
+                    final int right = (x * 4 + 3) * w / (mask.width * 4);
+
+                    if ((row[left] >>> 24) >= THRESHOLD || (row[right] >>> 24) >= THRESHOLD) {
+                        final int index = y * mask.width + x;
+                        mask.bits[index >> 6] |= 1L << (index & 63);
+                    }
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Determines whether the given point of the image is opaque.
+     *
+     * @param u The horizontal position of the point, from 0 (left edge) to 1 (right edge)
+     * @param v The vertical position of the point, from 0 (top edge) to 1 (bottom edge)
+     *
+     * @return {@code true} if the point is opaque, or {@code false} if it is transparent or lies
+     * outside the image
+     */
+    public boolean isOpaque(float u, float v) {
+        if (u < 0 || v < 0 || u >= 1 || v >= 1) {
+            return false;
+        }
+
+        final int index = (int) (v * height) * width + (int) (u * width);
+        return (bits[index >> 6] & (1L << (index & 63))) != 0;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.graphics;
+
+import android.opengl.GLES20;
+
+import com.annahid.libs.artenus.data.RGB;
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
+import com.annahid.libs.artenus.graphics.rendering.ShaderManager;
+
+import java.util.Arrays;
+
+/**
+ * <p>Used by the Artenus framework to render distance field fonts. The alpha channel of a distance
+ * field font encodes the distance from the outline of characters, which this shader program turns
+ * into sharp edges at any font size. It can also draw an outline and a shadow around characters
+ * in the same pass.</p>
+ * <p>Each instance of this class represents a style for a specific font, holding its outline and
+ * shadow settings. All instances share the same OpenGL shader program, so any number of styles
+ * can be created without compiling additional shaders. The default style of a font is available
+ * using {@link Font#getDefaultStyle()}.</p>
+ *
+ * @author Hessan Feghhi
+ * @see Font#isDistanceField()
+ */
+public class DistanceFieldShaderProgram extends TextureShaderProgram {
+    /**
+     * Holds vertex shader code.
+     */
+    private static final String VERTEX_SHADER_CODE =
+            "uniform mat4 uMVPMatrix;" +
+            "attribute vec4 vPosition;" +
+            "attribute vec2 aTexCoord;" +
+            "varying vec2 vTexCoord;" +
+            "void main() {" +
+            "  vTexCoord = aTexCoord;" +
+            "  gl_Position = uMVPMatrix * vPosition;" +
+            '}';
+
+    /**
+     * Holds fragment shader code. The smoothing width is substituted for {@code SMOOTHING}. The
+     * parameters are the shadow offset in texture coordinates, the outline width in distance field
+     * units, and the smoothing width used when derivatives are not available.
+     */
+    private static final String FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+            "uniform sampler2D uTex;" +
+            "uniform vec4 vColor;" +
+            "uniform vec4 uOutlineColor;" +
+            "uniform vec4 uShadowColor;" +
+            "uniform vec4 uParams;" +
+            "varying vec2 vTexCoord;" +
+            "void main() {" +
+            "  float d = texture2D( uTex, vTexCoord ).a;" +
+            "  float s = SMOOTHING;" +
+            "  float edge = 0.5 - uParams.z;" +
+            "  float fill = smoothstep(0.5 - s, 0.5 + s, d);" +
+            "  float outer = smoothstep(edge - s, edge + s, d);" +
+            "  vec4 color = mix(uOutlineColor * vColor.a * outer, vColor, fill);" +
+            "  float shadow = smoothstep(edge - s, edge + s," +
+            "      texture2D( uTex, vTexCoord - uParams.xy ).a);" +
+            "  gl_FragColor = color + uShadowColor * vColor.a * shadow * (1.0 - color.a);" +
+            '}';
+
+    /**
+     * Holds the smoothing width used when the device does not support derivatives in shaders.
+     */
+    private static final float FALLBACK_SMOOTHING = 0.06f;
+
+    /**
+     * Holds the instance registered with the shader manager, which tracks the life cycle of the
+     * shared OpenGL shader program.
+     */
+    private static final DistanceFieldShaderProgram instance;
+
+    /**
+     * Holds a number that changes whenever the shared shader program needs to be compiled.
+     */
+    private static volatile int generation = 0;
+
+    /**
+     * Holds the generation of the shared shader program that is currently compiled. It is only
+     * accessed on the rendering thread.
+     */
+    private static int compiledGeneration = -1;
+
+    /**
+     * Holds the handle to the shared OpenGL shader program.
+     */
+    private static int sharedProgram;
+
+    /**
+     * Holds the handle to the outline color variable in the shared shader program.
+     */
+    private static int sharedOutlineHandle;
+
+    /**
+     * Holds the handle to the shadow color variable in the shared shader program.
+     */
+    private static int sharedShadowHandle;
+
+    /**
+     * Holds the handle to the parameters variable in the shared shader program.
+     */
+    private static int sharedParamsHandle;
+
+    /**
+     * Contains the handles of the shared shader program that are inherited from the texture shader
+     * program, in the order of the matrix, color, position, texture coordinates, and sampler.
+     */
+    private static final int[] sharedHandles = new int[5];
+
+    /**
+     * Registers the shared shader program with the shader manager and the state cache.
+     */
+    static {
+        instance = new DistanceFieldShaderProgram(null);
+        ShaderManager.register(instance);
+        GLStateCache.registerClient(DistanceFieldShaderProgram.class);
+    }
+
+    /**
+     * Holds the font this style is intended for.
+     */
+    private final Font font;
+
+    /**
+     * Holds the generation of the shared shader program whose handles this instance holds.
+     */
+    private int handlesGeneration = -1;
+
+    /**
+     * Holds the width of the outline, in the units of the font file.
+     */
+    private float outlineWidth = 0;
+
+    /**
+     * Contains the color of the outline, with pre-multiplied alpha.
+     */
+    private final float[] outlineColor = new float[4];
+
+    /**
+     * Holds the horizontal offset of the shadow, in the units of the font file.
+     */
+    private float shadowX = 0;
+
+    /**
+     * Holds the vertical offset of the shadow, in the units of the font file.
+     */
+    private float shadowY = 0;
+
+    /**
+     * Contains the color of the shadow, with pre-multiplied alpha.
+     */
+    private final float[] shadowColor = new float[4];
+
+    /**
+     * Creates a new style for the given distance field font, without an outline or a shadow.
+     *
+     * @param font The distance field font
+     */
+    public DistanceFieldShaderProgram(Font font) {
+        if (font != null && !font.isDistanceField()) {
+            throw new IllegalArgumentException("Not a distance field font");
+        }
+
+        this.font = font;
+    }
+
+    /**
+     * Gets the font this style is intended for.
+     *
+     * @return The font
+     */
+    public final Font getFont() {
+        return font;
+    }
+
+    /**
+     * Sets the outline drawn around characters. The outline cannot be wider than the distance
+     * field radius of the font.
+     *
+     * @param width The width of the outline in the units of the font file, or 0 for no outline
+     * @param color The color of the outline
+     * @param alpha The transparency of the outline
+     *
+     * @return This instance
+     *
+     * @see Font#getDistanceFieldRadius()
+     */
+    public DistanceFieldShaderProgram setOutline(float width, RGB color, float alpha) {
+        outlineWidth = width;
+        outlineColor[0] = color.r * alpha;
+        outlineColor[1] = color.g * alpha;
+        outlineColor[2] = color.b * alpha;
+        outlineColor[3] = alpha;
+        return this;
+    }
+
+    /**
+     * Sets the shadow drawn behind characters. It includes the outline, if there is any.
+     *
+     * @param dx    Horizontal offset of the shadow in the units of the font file
+     * @param dy    Vertical offset of the shadow in the units of the font file
+     * @param color The color of the shadow
+     * @param alpha The transparency of the shadow, or 0 for no shadow
+     *
+     * @return This instance
+     */
+    public DistanceFieldShaderProgram setShadow(float dx, float dy, RGB color, float alpha) {
+        shadowX = dx;
+        shadowY = dy;
+        shadowColor[0] = color.r * alpha;
+        shadowColor[1] = color.g * alpha;
+        shadowColor[2] = color.b * alpha;
+        shadowColor[3] = alpha;
+        return this;
+    }
+
+    /**
+     * Copies the outline and shadow settings of another style.
+     *
+     * @param other The other style
+     *
+     * @return This instance
+     */
+    public DistanceFieldShaderProgram set(DistanceFieldShaderProgram other) {
+        outlineWidth = other.outlineWidth;
+        shadowX = other.shadowX;
+        shadowY = other.shadowY;
+        System.arraycopy(other.outlineColor, 0, outlineColor, 0, 4);
+        System.arraycopy(other.shadowColor, 0, shadowColor, 0, 4);
+        return this;
+    }
+
+    /**
+     * Captures the current settings of this style, so that they are kept while this style keeps
+     * changing. Rendering contexts that record commands use this method, since a style is only
+     * activated when the recording is replayed. Captured copies must never be modified, so that
+     * they can be shared by several recordings.
+     *
+     * @param previous A copy captured earlier, or {@code null}
+     *
+     * @return The given copy if it has the same font and settings, or a new copy otherwise
+     */
+    public DistanceFieldShaderProgram capture(DistanceFieldShaderProgram previous) {
+        if (previous != null && previous.font == font && previous.outlineWidth == outlineWidth &&
+                previous.shadowX == shadowX && previous.shadowY == shadowY &&
+                Arrays.equals(previous.outlineColor, outlineColor) &&
+                Arrays.equals(previous.shadowColor, shadowColor)) {
+            return previous;
+        }
+
+        return new DistanceFieldShaderProgram(font).set(this);
+    }
+
+    /**
+     * Marks the shared shader program for compiling. The program is compiled when a style is first
+     * activated on the rendering thread, as styles can be created on any thread.
+     */
+    @Override
+    public void compile() {
+        generation++;
+    }
+
+    @Override
+    public void destroy() {
+        if (this == instance && compiledGeneration >= 0) {
+            GLStateCache.deleteProgram(sharedProgram);
+            compiledGeneration = -1;
+        }
+    }
+
+    /**
+     * Activates the shared shader program and feeds the outline and shadow settings of this style.
+     */
+    @Override
+    public void activate() {
+        if (!isDeferred()) {
+            if (compiledGeneration != generation) {
+                compileShared();
+            }
+
+            if (handlesGeneration != compiledGeneration) {
+                mProgram = sharedProgram;
+                mMVPMatrixHandle = sharedHandles[0];
+                mColorHandle = sharedHandles[1];
+                mPositionHandle = sharedHandles[2];
+                mTexCoordsHandle = sharedHandles[3];
+                mSamplerHandle = sharedHandles[4];
+                handlesGeneration = compiledGeneration;
+            }
+        }
+
+        super.activate();
+
+        if (isDeferred() || font == null) {
+            return;
+        }
+
+        final float radius = font.getDistanceFieldRadius();
+        GLStateCache.uniform4f(sharedOutlineHandle,
+                outlineColor[0], outlineColor[1], outlineColor[2], outlineColor[3]);
+        GLStateCache.uniform4f(sharedShadowHandle,
+                shadowColor[0], shadowColor[1], shadowColor[2], shadowColor[3]);
+        GLStateCache.uniform4f(sharedParamsHandle,
+                font.mapU(shadowX) - font.mapU(0),
+                font.mapV(shadowY) - font.mapV(0),
+                Math.min(outlineWidth, radius) / (2 * radius),
+                FALLBACK_SMOOTHING);
+    }
+
+    /**
+     * Compiles the shared shader program on the rendering thread. Edges are smoothed over about
+     * one pixel using derivatives if the device supports them.
+     */
+    private void compileShared() {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        final boolean derivatives = extensions != null
+                && extensions.contains("GL_OES_standard_derivatives");
+        final String fragmentShaderCode = derivatives ?
+                "#extension GL_OES_standard_derivatives : enable\n" +
+                        FRAGMENT_SHADER_CODE.replace("SMOOTHING", "0.7 * fwidth(d)") :
+                FRAGMENT_SHADER_CODE.replace("SMOOTHING", "uParams.w");
+
+        compile(VERTEX_SHADER_CODE, fragmentShaderCode);
+        sharedProgram = mProgram;
+        sharedHandles[0] = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        sharedHandles[1] = GLES20.glGetUniformLocation(mProgram, "vColor");
+        sharedHandles[2] = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        sharedHandles[3] = GLES20.glGetAttribLocation(mProgram, "aTexCoord");
+        sharedHandles[4] = GLES20.glGetUniformLocation(mProgram, "uTex");
+        sharedOutlineHandle = GLES20.glGetUniformLocation(mProgram, "uOutlineColor");
+        sharedShadowHandle = GLES20.glGetUniformLocation(mProgram, "uShadowColor");
+        sharedParamsHandle = GLES20.glGetUniformLocation(mProgram, "uParams");
+        compiledGeneration = generation;
+    }
+}
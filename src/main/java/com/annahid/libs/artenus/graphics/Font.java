@@ -19,7 +19,7 @@
 package com.annahid.libs.artenus.graphics;
 
 import android.content.res.Resources;
-import android.opengl.GLES20;
+import android.graphics.Bitmap;
 import android.util.Pair;
 
 import com.annahid.libs.artenus.Artenus;
@@ -64,6 +64,13 @@ import java.util.regex.Pattern;
  * <p/>
  * This comment block can be placed anywhere within the SVG file, but for best performance it is
  * recommended to appear as high as possible.
+ * <p/>
+ * A fourth parameter of {@code sdf}, as in {@code ARTENUS_FONT 80,-5,0,sdf}, loads the font as a
+ * signed distance field. Instead of being rasterized at screen resolution, the font is rasterized
+ * at a small fixed size and converted into a distance field, which is drawn using a
+ * {@link DistanceFieldShaderProgram}. Such a font stays sharp at any size, and can be drawn with an
+ * outline and a shadow without additional passes. Since outlines and shadows are drawn inside the
+ * character boxes, characters of such fonts should have enough empty space around them.
  *
  * @author Hessan Feghhi
  */
@@ -73,6 +80,18 @@ public final class Font extends Texture {
 
     private static final char basicLetters[] = { 'a', 'e', 'i', 'o', 'u' };
 
+    /**
+     * Holds the height of one line of characters in pixels when a distance field font is
+     * rasterized.
+     */
+    private static final int DISTANCE_FIELD_LINE_HEIGHT = 48;
+
+    /**
+     * Holds the distance in pixels from the outline of characters that is covered by the distance
+     * field, when rasterized.
+     */
+    private static final int DISTANCE_FIELD_RADIUS = 6;
+
     /**
      * Contains x coordinate offset values in the order defined in the SVG font file.
      */
@@ -98,11 +117,35 @@ public final class Font extends Texture {
      */
     private FloatBuffer[] textureBuffers;
 
+    /**
+     * Contains the left, top, right and bottom texture coordinates of each character, in the same
+     * order as {@link #textureBuffers}.
+     */
+    private float[] glyphCoords;
+
+    /**
+     * Holds the region version of the font texture when texture buffers were built.
+     *
+     * @see Texture#getRegionVersion()
+     */
+    private int buffersVersion;
+
     /**
      * Holds character height.
      */
     private float charH;
 
+    /**
+     * Indicates whether this font is loaded as a signed distance field.
+     */
+    private boolean distanceField = false;
+
+    /**
+     * Holds the shader program used to draw this font if no other is specified, when it is a
+     * distance field font.
+     */
+    private DistanceFieldShaderProgram defaultStyle;
+
     /**
      * Creates a font with the information provided.
      *
@@ -145,6 +188,8 @@ public final class Font extends Texture {
                         verSpacing = vs;
                     }
 
+                    distanceField = params.length > 3 && params[3].equalsIgnoreCase("sdf");
+
                     while ((line = reader.readLine()) != null) {
                         line = line.trim();
 
@@ -198,6 +243,48 @@ public final class Font extends Texture {
         firstChar = first;
     }
 
+    /**
+     * Determines whether this font is loaded as a signed distance field.
+     *
+     * @return {@code true} if this is a distance field font, {@code false} otherwise
+     */
+    public final boolean isDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * Gets the height of one line of characters, as defined in the font file.
+     *
+     * @return The character height
+     */
+    public final float getCharHeight() {
+        return charH;
+    }
+
+    /**
+     * Gets the distance from the outline of characters that is covered by the distance field of
+     * this font, in the units of the font file. Outlines and shadows cannot extend further.
+     *
+     * @return The distance field radius, or 0 if this is not a distance field font
+     */
+    public final float getDistanceFieldRadius() {
+        return distanceField ? DISTANCE_FIELD_RADIUS * charH / DISTANCE_FIELD_LINE_HEIGHT : 0;
+    }
+
+    /**
+     * Gets the shader program used to draw this font when no other is specified. It draws the
+     * characters without an outline or a shadow.
+     *
+     * @return The shader program, or {@code null} if this is not a distance field font
+     */
+    public final DistanceFieldShaderProgram getDefaultStyle() {
+        if (distanceField && defaultStyle == null) {
+            defaultStyle = new DistanceFieldShaderProgram(this);
+        }
+
+        return defaultStyle;
+    }
+
     /**
      * Processes a text and conforms it to easily support accent-based characters in the framework
      * without the need to include accented letters in the actual font. You can use this method to
@@ -215,6 +302,10 @@ public final class Font extends Texture {
     public static String processText(String text) {
         String ret = (text == null) ? "" : text;
 
+        if (!hasAccentedLetters(ret)) {
+            return ret;
+        }
+
         for (int i = 0; i < 5; i++) {
             ret = ret.replace(String.valueOf(accentedLetters[i]), "`\r" + basicLetters[i]);
             ret = ret.replace(String.valueOf(accentedLetters[i + 5]), "'\r" + basicLetters[i]);
@@ -247,13 +338,27 @@ public final class Font extends Texture {
      * @return The width of the text
      */
     public final float getTextWidth(char[] ca, float h) {
+        return getTextWidth(ca, ca.length, h);
+    }
+
+    /**
+     * Calculates the width of the given text using this font, considering only the given number of
+     * characters at the beginning of the array.
+     *
+     * @param ca     The text, in the form of a character array
+     * @param length Number of characters to consider
+     * @param h      The font size
+     *
+     * @return The width of the text
+     */
+    public final float getTextWidth(char[] ca, int length, float h) {
         final float sz = h / charH;
         final float hSpacing = horSpacing * sz;
         float maxWidth = 0, currentX = 0, w;
 
         boolean firstLetter = true;
 
-        for (int i = 0; i < ca.length; i++) {
+        for (int i = 0; i < length; i++) {
             char c = ca[i];
 
             if (c == '\n') {
@@ -274,7 +379,7 @@ public final class Font extends Texture {
                 firstLetter = false;
             }
 
-            if (ca.length > i + 1)
+            if (length > i + 1)
                 if (ca[i + 1] == '\r') {
                     w = 0;
                     i++;
@@ -286,6 +391,41 @@ public final class Font extends Texture {
         return Math.max(maxWidth, currentX);
     }
 
+    /**
+     * Calculates the height of a text if drawn with this {@code Font}, based on the font size
+     * specified. The height includes all lines of the text and the vertical spacing between them.
+     *
+     * @param ca The character array representation of the text
+     * @param h  The font height
+     *
+     * @return The height of the text
+     */
+    public final float getTextHeight(char[] ca, float h) {
+        return getTextHeight(ca, ca.length, h);
+    }
+
+    /**
+     * Calculates the height of the given text using this font, considering only the given number
+     * of characters at the beginning of the array.
+     *
+     * @param ca     The text, in the form of a character array
+     * @param length Number of characters to consider
+     * @param h      The font size
+     *
+     * @return The height of the text
+     */
+    public final float getTextHeight(char[] ca, int length, float h) {
+        int lines = 1;
+
+        for (int i = 0; i < length; i++) {
+            if (ca[i] == '\n') {
+                lines++;
+            }
+        }
+
+        return lines * h + (lines - 1) * verSpacing * h / charH;
+    }
+
     /**
      * Draws a text on the OpenGL context using the information provided. This method is internally
      * called by {@code TextSprite} to draw the text.
@@ -310,13 +450,12 @@ public final class Font extends Texture {
             float rot,
             boolean rtl
     ) {
-        if (textureBuffers == null)
+        if (textureBuffers == null || buffersVersion != getRegionVersion())
             buildTextureBuffers();
 
         float y = 0;
         float currentX = 0;
 
-        GLES20.glEnable(GLES20.GL_TEXTURE_2D);
         program.feed(textureId);
 
         final float sz = h / charH;
@@ -367,18 +506,108 @@ public final class Font extends Texture {
         context.popMatrix();
     }
 
+    /**
+     * Builds a mesh for the given text, which can be drawn using
+     * {@link RenderingContext#rects(float[], int, int)} after feeding the texture of this font to
+     * the shader program. Characters are placed the same way as in
+     * {@link #draw(RenderingContext, TextureShaderProgram, char[], float, float, float, float,
+     * boolean)}, relative to the start of the text. The mesh only needs to be rebuilt when the
+     * text, the font size, or the region version of this font changes.
+     *
+     * @param ca     The text, in the form of a character array
+     * @param length Number of characters to consider
+     * @param h      The font size
+     * @param rtl    Whether the text should be laid out in right-to-left order
+     * @param mesh   Array to receive the mesh, which must have at least eight elements per
+     *               character
+     *
+     * @return The number of quads in the mesh
+     *
+     * @see Texture#getRegionVersion()
+     */
+    public final int buildMesh(char[] ca, int length, float h, boolean rtl, float[] mesh) {
+        if (glyphCoords == null || buffersVersion != getRegionVersion())
+            buildTextureBuffers();
+
+        float y = 0;
+        float currentX = 0;
+        int count = 0;
+
+        final float sz = h / charH;
+        final float hSpacing = horSpacing * sz, vSpacing = verSpacing * sz;
+
+        for (int i = 0; i < length; i++) {
+            char c = ca[i];
+
+            if (c == '\n') {
+                currentX = 0;
+                y += (h + vSpacing);
+                continue;
+            } else if (c == ' ') {
+                currentX += h / (rtl ? -3 : 3);
+                continue;
+            }
+
+            c -= firstChar;
+
+            final float w = (offsets[c * 2 + 1] - offsets[c * 2]) * sz;
+            final float left = rtl ? currentX - w : currentX;
+            final int m = count * 8;
+
+            mesh[m] = left;
+            mesh[m + 1] = y - h / 2;
+            mesh[m + 2] = left + w;
+            mesh[m + 3] = y + h / 2;
+            System.arraycopy(glyphCoords, c * 4, mesh, m + 4, 4);
+            count++;
+
+            if (length > i + 1)
+                if (ca[i + 1] == '\r') {
+                    i++;
+                    continue;
+                }
+
+            currentX += rtl ? (-w - hSpacing) : (w + hSpacing);
+        }
+
+        return count;
+    }
+
+    /**
+     * Determines whether the given text contains any of the accented letters replaced by
+     * {@link #processText(String)}.
+     *
+     * @param text The text
+     *
+     * @return {@code true} if the text contains accented letters, or {@code false} otherwise
+     */
+    private static boolean hasAccentedLetters(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            for (char accented : accentedLetters) {
+                if (c == accented) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Builds the required OpenGL texture buffers for the characters.
      */
     final void buildTextureBuffers() {
         float y1 = 0, y2 = charH;
-        final float sw = width, sh = height;
 
+        buffersVersion = getRegionVersion();
         textureBuffers = new FloatBuffer[offsets.length / 2];
+        glyphCoords = new float[textureBuffers.length * 4];
 
         for (int index = 0; index < textureBuffers.length; index++) {
-            final float x1 = offsets[index * 2] / sw;
-            final float x2 = (offsets[index * 2 + 1] - 1f) / sw;
+            final float x1 = mapU(offsets[index * 2]);
+            final float x2 = mapU(offsets[index * 2 + 1] - 1f);
 
             if (index > 0)
                 if (offsets[index * 2] - (offsets[(index - 1) * 2]) < 0) {
@@ -387,12 +616,17 @@ public final class Font extends Texture {
                 }
 
             final float texture[] = {
-                    x1, y1 / sh,
-                    x2, y1 / sh,
-                    x1, y2 / sh,
-                    x2, y2 / sh,
+                    x1, mapV(y1),
+                    x2, mapV(y1),
+                    x1, mapV(y2),
+                    x2, mapV(y2),
             };
 
+            glyphCoords[index * 4] = x1;
+            glyphCoords[index * 4 + 1] = mapV(y1);
+            glyphCoords[index * 4 + 2] = x2;
+            glyphCoords[index * 4 + 3] = mapV(y2);
+
             final ByteBuffer ibb = ByteBuffer.allocateDirect(texture.length * 4);
             ibb.order(ByteOrder.nativeOrder());
             textureBuffers[index] = ibb.asFloatBuffer();
@@ -400,4 +634,74 @@ public final class Font extends Texture {
             textureBuffers[index].position(0);
         }
     }
+
+    @Override
+    float getRasterScale() {
+        return distanceField ? DISTANCE_FIELD_LINE_HEIGHT / charH : super.getRasterScale();
+    }
+
+    @Override
+    Bitmap process(Bitmap image) {
+        return distanceField ? toDistanceField(image, DISTANCE_FIELD_RADIUS) : image;
+    }
+
+    /**
+     * Converts a rasterized image into a signed distance field. The alpha channel of the result
+     * holds 0.5 on the outline of the opaque areas of the original image, increasing towards 1
+     * inside and decreasing towards 0 outside, reaching these values at the given distance. The
+     * original image is recycled.
+     *
+     * @param image  The rasterized image
+     * @param radius Distance covered by the field in pixels
+     *
+     * @return The distance field
+     */
+    private static Bitmap toDistanceField(Bitmap image, int radius) {
+        final int w = image.getWidth(), h = image.getHeight();
+        final int[] pixels = new int[w * h];
+        final boolean[] inside = new boolean[w * h];
+        image.getPixels(pixels, 0, w, 0, 0, w, h);
+        image.recycle();
+
+        for (int i = 0; i < pixels.length; i++) {
+            inside[i] = (pixels[i] >>> 24) >= 128;
+        }
+
+        final int far = (radius + 1) * (radius + 1);
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                final boolean in = inside[y * w + x];
+                int nearest = far;
+
+                // Find the nearest pixel on the other side of the outline. Pixels beyond the edges
+                // of the image are outside.
+                for (int dy = -radius; dy <= radius; dy++) {
+                    final int yy = y + dy;
+
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        final int xx = x + dx, d = dx * dx + dy * dy;
+
+                        if (d < nearest) {
+                            final boolean other = yy >= 0 && yy < h && xx >= 0 && xx < w
+                                    && inside[yy * w + xx];
+
+                            if (other != in) {
+                                nearest = d;
+                            }
+                        }
+                    }
+                }
+
+                final float distance = Math.min((float) Math.sqrt(nearest) - 0.5f, radius);
+                final float value = 0.5f + (in ? distance : -distance) / (2 * radius);
+                final int alpha = Math.round(Math.max(0, Math.min(1, value)) * 255);
+                pixels[y * w + x] = (alpha << 24) | 0xffffff;
+            }
+        }
+
+        final Bitmap field = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        field.setPixels(pixels, 0, w, 0, 0, w, h);
+        return field;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics;
+
+/**
+ * Packs rectangles into a fixed-size area using the bottom-left skyline algorithm. The packer keeps
+ * track of the upper contour (skyline) of the rectangles placed so far as a list of horizontal
+ * segments, and places each new rectangle at the lowest position the skyline permits. It is used by
+ * {@link TextureAtlas} to lay out textures on atlas pages.
+ *
+ * @author Hessan Feghhi
+ */
+final class SkylinePacker {
+    /**
+     * Holds the width of the packing area.
+     */
+    private final int width;
+
+    /**
+     * Holds the height of the packing area.
+     */
+    private final int height;
+
+    /**
+     * Contains the x coordinate of each skyline segment.
+     */
+    private int[] segX = new int[16];
+
+    /**
+     * Contains the y coordinate of each skyline segment.
+     */
+    private int[] segY = new int[16];
+
+    /**
+     * Contains the width of each skyline segment.
+     */
+    private int[] segW = new int[16];
+
+    /**
+     * Holds the number of skyline segments.
+     */
+    private int count;
+
+    /**
+     * Creates a new skyline packer for an empty area of the given dimensions.
+     *
+     * @param width  Width of the packing area
+     * @param height Height of the packing area
+     */
+    SkylinePacker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        segX[0] = 0;
+        segY[0] = 0;
+        segW[0] = width;
+        count = 1;
+    }
+
+    /**
+     * Finds a place for a rectangle of the given dimensions and reserves it.
+     *
+     * @param w   Rectangle width
+     * @param h   Rectangle height
+     * @param out Array to receive the x and y coordinates of the top-left corner of the rectangle
+     *
+     * @return {@code true} if the rectangle was placed, or {@code false} if it does not fit
+     */
+    boolean insert(int w, int h, int[] out) {
+        int bestIndex = -1, bestY = Integer.MAX_VALUE, bestW = Integer.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            final int y = fit(i, w, h);
+
+            if (y >= 0 && (y < bestY || (y == bestY && segW[i] < bestW))) {
+                bestIndex = i;
+                bestY = y;
+                bestW = segW[i];
+            }
+        }
+
+        if (bestIndex < 0) {
+            return false;
+        }
+
+        out[0] = segX[bestIndex];
+        out[1] = bestY;
+        addLevel(bestIndex, out[0], bestY + h, w);
+        return true;
+    }
+
+    /**
+     * Determines the lowest y coordinate at which a rectangle can be placed if its left edge is
+     * aligned with the given skyline segment.
+     *
+     * @param index Segment index
+     * @param w     Rectangle width
+     * @param h     Rectangle height
+     *
+     * @return The y coordinate, or -1 if the rectangle does not fit
+     */
+    private int fit(int index, int w, int h) {
+        final int x = segX[index];
+
+        if (x + w > width) {
+            return -1;
+        }
+
+        int remaining = w, y = 0;
+
+        for (int i = index; remaining > 0; i++) {
+            y = Math.max(y, segY[i]);
+
+            if (y + h > height) {
+                return -1;
+            }
+
+            remaining -= segW[i];
+        }
+
+        return y;
+    }
+
+    /**
+     * Raises the skyline to account for a newly placed rectangle.
+     *
+     * @param index Index of the segment the rectangle is aligned with
+     * @param x     The x coordinate of the rectangle
+     * @param y     The y coordinate of the top of the new segment
+     * @param w     Rectangle width
+     */
+    private void addLevel(int index, int x, int y, int w) {
+        ensureCapacity(count + 1);
+        System.arraycopy(segX, index, segX, index + 1, count - index);
+        System.arraycopy(segY, index, segY, index + 1, count - index);
+        System.arraycopy(segW, index, segW, index + 1, count - index);
+        segX[index] = x;
+        segY[index] = y;
+        segW[index] = w;
+        count++;
+
+        // Shrink or remove the segments now covered by the new one.
+        final int right = x + w;
+
+        for (int i = index + 1; i < count; ) {
+            if (segX[i] >= right) {
+                break;
+            }
+
+            final int overlap = right - segX[i];
+
+            if (overlap < segW[i]) {
+                segX[i] += overlap;
+                segW[i] -= overlap;
+                break;
+            }
+
+            remove(i);
+        }
+
+        // Merge neighbouring segments at the same height.
+        for (int i = 0; i < count - 1; ) {
+            if (segY[i] == segY[i + 1]) {
+                segW[i] += segW[i + 1];
+                remove(i + 1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Removes a skyline segment.
+     *
+     * @param index Segment index
+     */
+    private void remove(int index) {
+        final int length = count - index - 1;
+        System.arraycopy(segX, index + 1, segX, index, length);
+        System.arraycopy(segY, index + 1, segY, index, length);
+        System.arraycopy(segW, index + 1, segW, index, length);
+        count--;
+    }
+
+    /**
+     * Makes sure the segment arrays can hold the given number of segments.
+     *
+     * @param capacity Required number of segments
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= segX.length) {
+            return;
+        }
+
+        final int size = segX.length * 2;
+        final int[] x = new int[size], y = new int[size], w = new int[size];
+        System.arraycopy(segX, 0, x, 0, count);
+        System.arraycopy(segY, 0, y, 0, count);
+        System.arraycopy(segW, 0, w, 0, count);
+        segX = x;
+        segY = y;
+        segW = w;
+    }
+}
@@ -27,6 +27,7 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 
 import com.annahid.libs.artenus.Artenus;
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
 import com.larvalabs.svgandroid.SVG;
@@ -66,11 +67,54 @@ public class Texture {
      */
     boolean loading;
 
+    /**
+     * Indicates whether the texture is local to a scene.
+     *
+     * @see TextureManager#addLocal(int...)
+     */
+    boolean local = false;
+
     /**
      * Holds a temporary bitmap used to store the image before it is loaded into the EGL texture.
      */
     private Bitmap bmp = null;
 
+    /**
+     * Holds the atlas page containing this texture, or {@code null} if the texture has its own
+     * OpenGL texture.
+     */
+    private TextureAtlas.Page page = null;
+
+    /**
+     * Holds the left edge of the region occupied by this texture in texture coordinates.
+     */
+    private float regionLeft = 0;
+
+    /**
+     * Holds the top edge of the region occupied by this texture in texture coordinates.
+     */
+    private float regionTop = 0;
+
+    /**
+     * Holds the right edge of the region occupied by this texture in texture coordinates.
+     */
+    private float regionRight = 1;
+
+    /**
+     * Holds the bottom edge of the region occupied by this texture in texture coordinates.
+     */
+    private float regionBottom = 1;
+
+    /**
+     * Holds a number that changes every time the region occupied by this texture changes.
+     */
+    private int regionVersion = 0;
+
+    /**
+     * Holds the mask of the opaque areas of the image, computed when it is loaded.
+     */
+    private volatile AlphaMask alphaMask = null;
+
     /**
      * Creates a new {@code Texture} with the given image.
      *
@@ -148,9 +192,8 @@ public class Texture {
     }
 
     /**
-     * Gets the width of the {@code Texture}. This will be the processed width, so if you are using
-     * an SVG texture, it will indicate the power-of-two estimation of the
-     * width.
+     * Gets the width of the {@code Texture}. This is the width of the original image in pixels,
+     * regardless of the size of the OpenGL texture it is loaded into.
      *
      * @return The width of the texture
      */
@@ -159,8 +202,8 @@ public class Texture {
     }
 
     /**
-     * Gets the height of the {@code Texture}. This will be the processed height, so if you are
-     * using an SVG texture, it will indicate the power-of-two estimation of the height.
+     * Gets the height of the {@code Texture}. This is the height of the original image in pixels,
+     * regardless of the size of the OpenGL texture it is loaded into.
      *
      * @return The width of the texture
      */
@@ -176,10 +219,87 @@ public class Texture {
      * @see TextureManager
      */
     public final void destroy() {
-        GLES20.glDeleteTextures(1, new int[] { textureId }, 0);
+        if (page != null) {
+            page.release();
+            page = null;
+        } else {
+            GLStateCache.deleteTexture(textureId);
+        }
+
         textureId = -1;
     }
 
+    /**
+     * Converts an x coordinate in the image, in pixels, to the corresponding horizontal texture
+     * coordinate. Textures might share their OpenGL texture with other textures, so this method
+     * should be used to build texture coordinate buffers instead of dividing by the width.
+     *
+     * @param x The x coordinate in pixels, from 0 to {@link #getWidth()}
+     *
+     * @return The horizontal texture coordinate
+     */
+    public final float mapU(float x) {
+        return regionLeft + (regionRight - regionLeft) * x / width;
+    }
+
+    /**
+     * Converts a y coordinate in the image, in pixels, to the corresponding vertical texture
+     * coordinate. Textures might share their OpenGL texture with other textures, so this method
+     * should be used to build texture coordinate buffers instead of dividing by the height.
+     *
+     * @param y The y coordinate in pixels, from 0 to {@link #getHeight()}
+     *
+     * @return The vertical texture coordinate
+     */
+    public final float mapV(float y) {
+        return regionTop + (regionBottom - regionTop) * y / height;
+    }
+
+    /**
+     * Gets a low-resolution mask of the opaque areas of the image. The mask is computed when the
+     * image is loaded, and can be used to test points against the image without reading it back
+     * from the graphics hardware.
+     *
+     * @return The mask, or {@code null} if the image has not been loaded yet
+     */
+    public final AlphaMask getAlphaMask() {
+        return alphaMask;
+    }
+
+    /**
+     * Gets a number that changes every time the texture is placed in a different region of its
+     * OpenGL texture, for example when textures are reloaded. Texture coordinates computed using
+     * {@link #mapU(float)} and {@link #mapV(float)} should be recomputed when this value changes.
+     *
+     * @return The region version
+     */
+    public final int getRegionVersion() {
+        return regionVersion;
+    }
+
+    /**
+     * Assigns a region of an OpenGL texture to this texture.
+     *
+     * @param page   The atlas page, or {@code null} if the texture has its own OpenGL texture
+     * @param left   Left edge of the region in texture coordinates
+     * @param top    Top edge of the region in texture coordinates
+     * @param right  Right edge of the region in texture coordinates
+     * @param bottom Bottom edge of the region in texture coordinates
+     */
+    void setRegion(TextureAtlas.Page page, float left, float top, float right, float bottom) {
+        this.page = page;
+
+        if (page != null) {
+            textureId = page.handle;
+        }
+
+        regionLeft = left;
+        regionTop = top;
+        regionRight = right;
+        regionBottom = bottom;
+        regionVersion++;
+    }
+
     /**
      * Gets the OpenGL ES texture identifier associated with this texture. Applications of this
      * method are rare and it is recommended not to use this method.
@@ -199,11 +319,19 @@ public class Texture {
         if (bmp == null || bmp.isRecycled())
             return false;
 
+        final TextureAtlas atlas = TextureManager.getAtlas(this);
+
+        if (atlas != null && atlas.place(this, bmp)) {
+            bmp.recycle();
+            bmp = null;
+            return true;
+        }
+
         textureId = newTextureID();
+        setRegion(null, 0, 0, 1, 1);
 
         try {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            GLStateCache.bindTexture(0, textureId);
             GLES20.glTexParameterf(
                     GLES20.GL_TEXTURE_2D,
                     GLES20.GL_TEXTURE_MIN_FILTER,
@@ -249,43 +377,32 @@ public class Texture {
         final Resources res = Artenus.getInstance().getResources();
         final boolean isSVG = res.getResourceTypeName(resId).equalsIgnoreCase("raw");
 
-        final float texScale = TextureManager.getTextureScalingFactor();
+        final float texScale = getRasterScale();
 
         if (isSVG) {
             // Load the SVG file from the given resource.
             final SVG svg = SVGParser.getSVGFromResource(res, resId);
             final Picture pic = svg.getPicture();
 
-			/*
-             * If it is the loading texture, keep the original width and height of the texture.
-			 * These values are needed to display the loading texture correctly on the screen,
-			 * and we need to save them now because they will change later on in the method to
-			 * be powers of two.
-			 */
+            width = pic.getWidth();
+            height = pic.getHeight();
+
             if (this == TextureManager.getLoadingTexture()) {
-                TextureManager.loadingTexW = pic.getWidth();
-                TextureManager.loadingTexH = pic.getHeight();
+                TextureManager.loadingTexW = width;
+                TextureManager.loadingTexH = height;
             }
 
-            float scaledWidth =
-                    pic.getWidth() * texScale, scaledHeight = pic.getHeight() * texScale;
-            final float frWidth = (float)
-                    Math.pow(2, Math.ceil(Math.log(scaledWidth) / Math.log(2))) / scaledWidth;
-            final float frHeight = (float)
-                    Math.pow(2, Math.ceil(Math.log(scaledHeight) / Math.log(2))) / scaledHeight;
-
-            scaledWidth *= frWidth;
-            scaledHeight *= frHeight;
-            width = Math.round(scaledWidth / texScale);
-            height = Math.round(scaledHeight / texScale);
+            // Rasterize at screen resolution. No power-of-two padding is needed, as the image is
+            // either placed in an atlas page or loaded with edge clamping.
+            final int scaledWidth = Math.max(1, Math.round(width * texScale));
+            final int scaledHeight = Math.max(1, Math.round(height * texScale));
 
             final Bitmap.Config conf = Bitmap.Config.ARGB_8888;
-            final Bitmap tempBmp =
-                    Bitmap.createBitmap(Math.round(scaledWidth), Math.round(scaledHeight), conf);
+            final Bitmap tempBmp = Bitmap.createBitmap(scaledWidth, scaledHeight, conf);
             final Canvas canvas = new Canvas(tempBmp);
             canvas.scale(texScale, texScale);
             canvas.drawPicture(pic);
-            bmp = tempBmp;
+            bmp = process(tempBmp);
         } else {
             final BitmapFactory.Options opts = new BitmapFactory.Options();
             opts.inScaled = false;
@@ -304,6 +421,34 @@ public class Texture {
             bmp = tempBmp;
         }
 
+        if (bmp != null) {
+            alphaMask = AlphaMask.create(bmp);
+        }
+
         loading = false;
     }
+
+    /**
+     * Gets the factor by which SVG images are scaled when rasterized. By default, images are
+     * rasterized at screen resolution.
+     *
+     * @return The scaling factor
+     *
+     * @see TextureManager#getTextureScalingFactor()
+     */
+    float getRasterScale() {
+        return TextureManager.getTextureScalingFactor();
+    }
+
+    /**
+     * Processes a rasterized SVG image before it is loaded into OpenGL. The default implementation
+     * returns the image unchanged.
+     *
+     * @param image The rasterized image
+     *
+     * @return The processed image, which can be the same instance
+     */
+    Bitmap process(Bitmap image) {
+        return image;
+    }
 }
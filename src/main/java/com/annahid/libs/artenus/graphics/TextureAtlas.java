@@ -0,0 +1,242 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs textures into shared OpenGL textures, called pages, so that sprites using different images
+ * can be drawn without binding a new texture. Each texture occupies a rectangular region of a page,
+ * which it exposes through {@link Texture#mapU(float)} and {@link Texture#mapV(float)}. Regions are
+ * surrounded by a small border, and the outermost pixels of each image are extruded into it to
+ * avoid bleeding between neighbouring images when filtering.
+ *
+ * @author Hessan Feghhi
+ * @see TextureManager
+ */
+final class TextureAtlas {
+    /**
+     * Holds the preferred dimensions of an atlas page. Pages are smaller if the device does not
+     * support textures of this size.
+     */
+    private static final int PAGE_SIZE = 2048;
+
+    /**
+     * Holds the space left around each region in pixels.
+     */
+    private static final int PADDING = 2;
+
+    /**
+     * Holds the dimensions of atlas pages, or 0 if not yet determined.
+     */
+    private static int pageSize = 0;
+
+    /**
+     * Contains the pages currently in use by this atlas.
+     */
+    private final List<Page> pages = new ArrayList<>();
+
+    /**
+     * Used to receive the position of packed regions.
+     */
+    private final int[] position = new int[2];
+
+    /**
+     * Places the given image on a page of this atlas and uploads it. The texture is assigned the
+     * corresponding region if successful. This method must be called on the OpenGL thread.
+     *
+     * @param tex The texture to place
+     * @param bmp The image of the texture
+     *
+     * @return {@code true} if the image was placed, or {@code false} if it is too large to fit in
+     * an atlas page
+     */
+    boolean place(Texture tex, Bitmap bmp) {
+        final int size = getPageSize();
+        final int w = bmp.getWidth(), h = bmp.getHeight();
+        final int pw = w + PADDING * 2, ph = h + PADDING * 2;
+
+        if (pw > size || ph > size) {
+            return false;
+        }
+
+        Page page = null;
+
+        for (Page candidate : pages) {
+            if (candidate.packer.insert(pw, ph, position)) {
+                page = candidate;
+                break;
+            }
+        }
+
+        if (page == null) {
+            page = new Page(this, size);
+            pages.add(page);
+
+            if (!page.packer.insert(pw, ph, position)) {
+                return false;
+            }
+        }
+
+        final int x = position[0] + PADDING, y = position[1] + PADDING;
+
+        GLStateCache.bindTexture(0, page.handle);
+
+        // Extrude the edges of the image by one pixel, then draw the image itself.
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x - 1, y, bmp);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x + 1, y, bmp);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y - 1, bmp);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y + 1, bmp);
+        GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, bmp);
+
+        page.useCount++;
+        tex.setRegion(
+                page,
+                (float) x / size,
+                (float) y / size,
+                (float) (x + w) / size,
+                (float) (y + h) / size
+        );
+        return true;
+    }
+
+    /**
+     * Gets the number of pages currently allocated by this atlas.
+     *
+     * @return Number of pages
+     */
+    int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Determines the dimensions of atlas pages supported by the device.
+     *
+     * @return Page dimensions
+     */
+    private static int getPageSize() {
+        if (pageSize == 0) {
+            final int[] max = new int[1];
+            GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, max, 0);
+            pageSize = max[0] > 0 ? Math.min(PAGE_SIZE, max[0]) : PAGE_SIZE;
+        }
+
+        return pageSize;
+    }
+
+    /**
+     * Represents an OpenGL texture shared by several {@code Texture} objects.
+     */
+    static final class Page {
+        /**
+         * Holds the atlas this page belongs to.
+         */
+        private final TextureAtlas atlas;
+
+        /**
+         * Holds the packer keeping track of free space on this page.
+         */
+        private final SkylinePacker packer;
+
+        /**
+         * Holds the OpenGL texture identifier of this page.
+         */
+        final int handle;
+
+        /**
+         * Holds the number of textures currently placed on this page.
+         */
+        private int useCount = 0;
+
+        /**
+         * Creates a new empty page and its OpenGL texture.
+         *
+         * @param atlas The owner atlas
+         * @param size  Page dimensions
+         */
+        private Page(TextureAtlas atlas, int size) {
+            this.atlas = atlas;
+            packer = new SkylinePacker(size, size);
+
+            final int[] temp = new int[1];
+            GLES20.glGenTextures(1, temp, 0);
+            handle = temp[0];
+            GLStateCache.bindTexture(0, handle);
+            GLES20.glTexParameterf(
+                    GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MIN_FILTER,
+                    GLES20.GL_LINEAR
+            );
+            GLES20.glTexParameterf(
+                    GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_MAG_FILTER,
+                    GLES20.GL_LINEAR
+            );
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_WRAP_S,
+                    GLES20.GL_CLAMP_TO_EDGE
+            );
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D,
+                    GLES20.GL_TEXTURE_WRAP_T,
+                    GLES20.GL_CLAMP_TO_EDGE
+            );
+            GLES20.glTexImage2D(
+                    GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, size, size, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null
+            );
+
+            // The initial contents of the texture are undefined, so clear it through a temporary
+            // frame buffer to keep the padding transparent.
+            GLES20.glGenFramebuffers(1, temp, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, temp[0]);
+            GLES20.glFramebufferTexture2D(
+                    GLES20.GL_FRAMEBUFFER,
+                    GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D,
+                    handle,
+                    0
+            );
+            GLES20.glClearColor(0, 0, 0, 0);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            GLES20.glDeleteFramebuffers(1, temp, 0);
+        }
+
+        /**
+         * Releases a region of this page. The page is destroyed when no textures are placed on it
+         * anymore.
+         */
+        void release() {
+            if (--useCount <= 0) {
+                GLStateCache.deleteTexture(handle);
+                atlas.pages.remove(this);
+            }
+        }
+    }
+}
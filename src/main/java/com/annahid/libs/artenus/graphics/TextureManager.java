@@ -84,6 +84,17 @@ public final class TextureManager {
 
     private static int loadedCount = 0; // For displaying purposes only
 
+    /**
+     * Holds the atlas textures declared using {@link #add(int...)} are packed into.
+     */
+    private static TextureAtlas globalAtlas = new TextureAtlas();
+
+    /**
+     * Holds the atlas textures declared using {@link #addLocal(int...)} are packed into. Local
+     * textures are kept on separate pages so that the pages can be freed when they are unloaded.
+     */
+    private static TextureAtlas localAtlas = new TextureAtlas();
+
     /**
      * Holds the scaling factor used for adapting texture dimensions to screen dimensions.
      */
@@ -202,6 +213,7 @@ public final class TextureManager {
 
         for (int textureId : textureSet) {
             tex = new Texture(textureId);
+            tex.local = true;
             texMap.put(textureId, tex);
             texList.add(tex);
         }
@@ -231,7 +243,10 @@ public final class TextureManager {
     }
 
     /**
-     * Gets the {@code Texture} associated with the given resource identifier.
+     * Gets the {@code Texture} associated with the given resource identifier. Textures are packed
+     * into shared atlas pages when loaded, so the returned texture might only occupy a region of its
+     * OpenGL texture. Use {@link Texture#mapU(float)} and {@link Texture#mapV(float)} to compute
+     * texture coordinates.
      *
      * @param resourceId The resource identifier
      *
@@ -316,6 +331,30 @@ public final class TextureManager {
         state = ret;
     }
 
+    /**
+     * Gets the number of atlas pages currently allocated for managed textures.
+     *
+     * @return Number of atlas pages
+     */
+    public static int getAtlasPageCount() {
+        return globalAtlas.getPageCount() + localAtlas.getPageCount();
+    }
+
+    /**
+     * Gets the atlas the given texture should be packed into.
+     *
+     * @param tex The texture
+     *
+     * @return The atlas, or {@code null} if the texture should have its own OpenGL texture
+     */
+    static TextureAtlas getAtlas(Texture tex) {
+        if (tex == loadingTexture) {
+            return null;
+        }
+
+        return tex.local ? localAtlas : globalAtlas;
+    }
+
     /**
      * Gets the number of textures that are loaded and ready to be displayed.
      *
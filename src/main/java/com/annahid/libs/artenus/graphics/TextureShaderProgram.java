@@ -20,6 +20,7 @@ package com.annahid.libs.artenus.graphics;
 
 import android.opengl.GLES20;
 
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
 import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
 
 import java.nio.ByteBuffer;
@@ -102,6 +103,57 @@ public class TextureShaderProgram implements ShaderProgram {
      */
     private int mFragmentShader;
 
+    /**
+     * Holds the thread that records rendering commands instead of drawing, if any.
+     */
+    private static volatile Thread recordingThread = null;
+
+    /**
+     * Holds the state fed to this shader program on the rendering thread.
+     */
+    private final State state = new State();
+
+    /**
+     * Holds the state fed to this shader program on the recording thread.
+     */
+    private final State recordingState = new State();
+
+    /**
+     * Indicates whether this shader program is in deferred mode.
+     */
+    private boolean deferred = false;
+
+    /**
+     * Registers this shader program class with the state cache.
+     */
+    static {
+        GLStateCache.registerClient(TextureShaderProgram.class);
+    }
+
+    /**
+     * Sets the thread that records rendering commands instead of drawing. On that thread, all
+     * texture shader programs behave as if they were in deferred mode, and keep their state
+     * separate from the state used on the rendering thread. This method is called internally and
+     * you do not need to call it directly.
+     *
+     * @param thread The recording thread, or {@code null} if there is none
+     */
+    public static void setRecordingThread(Thread thread) {
+        recordingThread = thread;
+    }
+
+    /**
+     * Determines whether the calling thread is the recording thread.
+     *
+     * @return {@code true} if the calling thread records rendering commands, {@code false}
+     * otherwise
+     *
+     * @see #setRecordingThread(Thread)
+     */
+    public static boolean isRecordingThread() {
+        return Thread.currentThread() == recordingThread;
+    }
+
     /**
      * Gets the default texture coordinates buffer, which includes the whole area of the texture
      * image.
@@ -142,45 +194,53 @@ public class TextureShaderProgram implements ShaderProgram {
     public void destroy() {
         GLES20.glDeleteShader(mFragmentShader);
         GLES20.glDeleteShader(mVertexShader);
-        GLES20.glDeleteProgram(mProgram);
+        GLStateCache.deleteProgram(mProgram);
     }
 
     @Override
     public void feed(float[] mat) {
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mat, 0);
+        if (isDeferred())
+            return;
+        GLStateCache.uniformMatrix4(mMVPMatrixHandle, mat);
     }
 
     @Override
     public void feed(FloatBuffer vertexBuffer) {
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-        GLES20.glVertexAttribPointer(
-                mPositionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer
-        );
+        if (isDeferred())
+            return;
+        GLStateCache.setAttribArray(mPositionHandle, true);
+        GLStateCache.attribPointer(mPositionHandle, 3, 0, vertexBuffer);
     }
 
     @Override
     public void feed(float r, float g, float b, float a) {
-        GLES20.glUniform4f(mColorHandle, r, g, b, a);
+        final float[] color = state().color;
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        color[3] = a;
+
+        if (!isDeferred())
+            GLStateCache.uniform4f(mColorHandle, r, g, b, a);
     }
 
     @Override
     public void activate() {
-        GLES20.glUseProgram(mProgram);
-        GLES20.glEnableVertexAttribArray(mTexCoordsHandle);
-        GLES20.glVertexAttribPointer(
-                mTexCoordsHandle,
-                2,
-                GLES20.GL_FLOAT,
-                false,
-                0,
-                TextureShaderProgram.getDefaultTextureBuffer()
-        );
+        state().texCoords = TextureShaderProgram.getDefaultTextureBuffer();
+
+        if (isDeferred())
+            return;
+        GLStateCache.useProgram(mProgram);
+        GLStateCache.setAttribArray(mTexCoordsHandle, true);
+        GLStateCache.attribPointer(mTexCoordsHandle, 2, 0, state.texCoords);
     }
 
     @Override
     public void cleanup() {
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
-        GLES20.glDisableVertexAttribArray(mTexCoordsHandle);
+        if (isDeferred())
+            return;
+        GLStateCache.setAttribArray(mPositionHandle, false);
+        GLStateCache.setAttribArray(mTexCoordsHandle, false);
     }
 
     /**
@@ -190,9 +250,13 @@ public class TextureShaderProgram implements ShaderProgram {
      */
     public void feedTexCoords(FloatBuffer buffer) {
         if (buffer == null)
-            buffer = defaultTextureBuffer;
-        GLES20.glEnableVertexAttribArray(mTexCoordsHandle);
-        GLES20.glVertexAttribPointer(mTexCoordsHandle, 2, GLES20.GL_FLOAT, false, 0, buffer);
+            buffer = getDefaultTextureBuffer();
+        state().texCoords = buffer;
+
+        if (isDeferred())
+            return;
+        GLStateCache.setAttribArray(mTexCoordsHandle, true);
+        GLStateCache.attribPointer(mTexCoordsHandle, 2, 0, buffer);
     }
 
     /**
@@ -201,9 +265,65 @@ public class TextureShaderProgram implements ShaderProgram {
      * @param textureDataHandle Texture data handle
      */
     public void feed(int textureDataHandle) {
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle);
-        GLES20.glUniform1i(mSamplerHandle, 0);
+        state().texture = textureDataHandle;
+
+        if (isDeferred())
+            return;
+        GLStateCache.bindTexture(0, textureDataHandle);
+        GLStateCache.uniform1i(mSamplerHandle, 0);
+    }
+
+    /**
+     * Gets the texture handle most recently fed to this shader program.
+     *
+     * @return Texture data handle, or -1 if no texture has been fed
+     */
+    public final int getTextureHandle() {
+        return state().texture;
+    }
+
+    /**
+     * Gets the texture coordinate buffer most recently fed to this shader program.
+     *
+     * @return Texture coordinate buffer, or {@code null} if none has been fed
+     */
+    public final FloatBuffer getTexCoords() {
+        return state().texCoords;
+    }
+
+    /**
+     * Gets the color components most recently fed to this shader program, in the order of red,
+     * green, blue and alpha. The returned array is used internally and must not be modified.
+     *
+     * @return Color components
+     */
+    public final float[] getColor() {
+        return state().color;
+    }
+
+    /**
+     * Indicates whether this shader program is in deferred mode. Shader programs are always
+     * deferred on the recording thread.
+     *
+     * @return {@code true} if deferred, {@code false} otherwise
+     *
+     * @see #setDeferred(boolean)
+     * @see #setRecordingThread(Thread)
+     */
+    public final boolean isDeferred() {
+        return deferred || Thread.currentThread() == recordingThread;
+    }
+
+    /**
+     * Puts this shader program in or out of deferred mode. A deferred shader program only keeps
+     * track of the texture, texture coordinates and color fed to it, without passing them on to
+     * OpenGL. The rendering context uses this mode to batch sprites that are drawn with this
+     * program. This method is called internally and you do not need to call it directly.
+     *
+     * @param deferred {@code true} to defer, {@code false} to feed OpenGL directly
+     */
+    public final void setDeferred(boolean deferred) {
+        this.deferred = deferred;
     }
 
     /**
@@ -235,4 +355,33 @@ public class TextureShaderProgram implements ShaderProgram {
         GLES20.glCompileShader(shader);
         return shader;
     }
+
+    /**
+     * Gets the state of this shader program for the calling thread.
+     *
+     * @return The state
+     */
+    private State state() {
+        return Thread.currentThread() == recordingThread ? recordingState : state;
+    }
+
+    /**
+     * Contains the state fed to a texture shader program on one thread.
+     */
+    private static final class State {
+        /**
+         * Holds the texture handle most recently fed.
+         */
+        int texture = -1;
+
+        /**
+         * Holds the texture coordinate buffer most recently fed.
+         */
+        FloatBuffer texCoords;
+
+        /**
+         * Contains the color components most recently fed.
+         */
+        final float[] color = { 1, 1, 1, 1 };
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.effects;
+
+import com.annahid.libs.artenus.core.Scene;
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.Entity;
+import com.annahid.libs.artenus.entities.FilteredEntity;
+import com.annahid.libs.artenus.entities.behavior.Renderable;
+import com.annahid.libs.artenus.graphics.TextureManager;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.RenderTarget;
+import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
+import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
+import com.annahid.libs.artenus.input.TouchButton;
+import com.annahid.libs.artenus.input.TouchMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Renders the underlying entity once into an off-screen render target, and then draws that
+ * target as a single rectangle in later frames. It is meant for large entity collections that
+ * rarely change, such as backgrounds, decorations, or frames of the user interface, and reduces
+ * them to one draw call.</p>
+ * <p>The cached image is redrawn when {@link #invalidate()} is called, when the transformation the
+ * layer is rendered with changes, or when the bounding box of the underlying entity changes, which
+ * happens when one of its children moves or is added or removed. Other changes, such as changes in
+ * color or transparency of a child, require an explicit call to {@link #invalidate()}.</p>
+ * <p>The cached image has the resolution of the screen, and covers the whole screen. It uses as
+ * much memory as one screen-sized texture.</p>
+ * <p>Touch buttons inside the layer keep responding while the cached image is drawn. The buttons
+ * rendered in the latest redraw are remembered, and they are reported to the touch map of the scene
+ * in every frame with the transformations they were redrawn with.</p>
+ *
+ * @author Hessan Feghhi
+ */
+public class CachedLayer extends FilteredEntity {
+    /**
+     * Holds the render target containing the cached image.
+     */
+    private RenderTarget cache;
+
+    /**
+     * Contains the transformation matrix the cached image was rendered with.
+     */
+    private final float[] cachedMatrix = new float[16];
+
+    /**
+     * Contains the current transformation matrix while rendering.
+     */
+    private final float[] matrix = new float[16];
+
+    /**
+     * Holds the bounding box of the underlying entity when the cached image was rendered.
+     */
+    private final Bounds2D cachedBounds = new Bounds2D();
+
+    /**
+     * Holds the current bounding box of the underlying entity.
+     */
+    private final Bounds2D bounds = new Bounds2D();
+
+    /**
+     * Indicates whether the bounding box of the underlying entity was known when the cached image
+     * was rendered.
+     */
+    private boolean cachedBoundsKnown = false;
+
+    /**
+     * Holds the bind count the render target will reach once the most recent redraw has been
+     * executed. Until then, the image is redrawn in every frame, since the commands may not have
+     * reached the rendering thread.
+     */
+    private int expectedBindCount = Integer.MAX_VALUE;
+
+    /**
+     * Indicates whether the cached image needs to be redrawn.
+     */
+    private volatile boolean invalid = true;
+
+    /**
+     * Holds the touch map of the scene this layer is attached to, or {@code null} if it is
+     * detached.
+     */
+    private TouchMap touchMap = null;
+
+    /**
+     * Contains the touch buttons rendered into the cached image in the latest redraw.
+     */
+    private final List<TouchButton> buttons = new ArrayList<>();
+
+    /**
+     * Creates a new cached layer for the given renderable entity.
+     *
+     * @param target The renderable entity to cache
+     */
+    public CachedLayer(Entity target) {
+        super(target);
+
+        if (!(target instanceof Renderable)) {
+            throw new IllegalArgumentException("Cached layer can only work with renderables.");
+        }
+    }
+
+    /**
+     * Marks the cached image as out of date, so that it is redrawn in the next frame.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    @Override
+    public void render(RenderingContext context, int flags) {
+        final int width = context.getScreenWidth(), height = context.getScreenHeight();
+
+        if (cache == null || cache.getWidth() != width || cache.getHeight() != height) {
+            if (cache != null) {
+                cache.disposeLater();
+            }
+
+            cache = RenderTarget.createLater(width, height);
+            invalid = true;
+        }
+
+        if (!cache.isCreated()) {
+            // The render target is not available yet, so draw directly.
+            super.render(context, flags);
+            return;
+        }
+
+        if (isOutdated(context)) {
+            final RenderTarget output = context.getTarget();
+            invalid = false;
+            expectedBindCount = cache.getBindCount() + 1;
+            context.bindTarget(cache);
+            context.clear(0, 0, 0, 0);
+
+            if (touchMap != null) {
+                final List<TouchButton> previous = touchMap.beginCapture(buttons);
+                super.render(context, flags);
+                touchMap.endCapture(previous);
+            } else {
+                super.render(context, flags);
+            }
+
+            context.bindTarget(output);
+        } else if (touchMap != null) {
+            touchMap.replay(buttons);
+        }
+
+        final ShaderProgram shaderBackup = context.getShader();
+        final TextureShaderProgram program =
+                (TextureShaderProgram) TextureManager.getShaderProgram();
+        final float w = context.getWidth(), h = context.getHeight();
+        context.setShader(program);
+        context.setColorFilter(1, 1, 1, 1);
+        program.feed(cache.getTextureHandle());
+        program.feedTexCoords(cache.getTextureCoords());
+        context.pushMatrix();
+        context.identity();
+        context.translate(w / 2, h / 2);
+        context.scale(w, -h);
+        context.rect();
+        context.popMatrix();
+        context.setShader(shaderBackup);
+    }
+
+    @Override
+    public void onAttach(Scene scene) {
+        super.onAttach(scene);
+        touchMap = scene.getTouchMap();
+        invalid = true;
+    }
+
+    @Override
+    public void onDetach(Scene scene) {
+        super.onDetach(scene);
+        touchMap = null;
+        buttons.clear();
+
+        if (cache != null) {
+            cache.disposeLater();
+            cache = null;
+        }
+    }
+
+    /**
+     * Determines whether the cached image needs to be redrawn, and remembers the state it will be
+     * redrawn with.
+     *
+     * @param context The rendering context
+     *
+     * @return {@code true} if the image needs to be redrawn, {@code false} otherwise
+     */
+    private boolean isOutdated(RenderingContext context) {
+        boolean outdated = invalid || cache.getBindCount() < expectedBindCount;
+        context.getMatrix(matrix);
+
+        if (!Arrays.equals(matrix, cachedMatrix)) {
+            System.arraycopy(matrix, 0, cachedMatrix, 0, matrix.length);
+            outdated = true;
+        }
+
+        final boolean boundsKnown = getBounds(bounds);
+
+        if (boundsKnown != cachedBoundsKnown || (boundsKnown &&
+                (bounds.left != cachedBounds.left || bounds.top != cachedBounds.top ||
+                        bounds.right != cachedBounds.right ||
+                        bounds.bottom != cachedBounds.bottom))) {
+            cachedBounds.set(bounds);
+            cachedBoundsKnown = boundsKnown;
+            outdated = true;
+        }
+
+        return outdated;
+    }
+}
@@ -1,17 +1,28 @@
 package com.annahid.libs.artenus.graphics.effects;
 
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.data.RGB;
 import com.annahid.libs.artenus.entities.Entity;
 import com.annahid.libs.artenus.entities.FilteredEntity;
 import com.annahid.libs.artenus.entities.behavior.Renderable;
+import com.annahid.libs.artenus.graphics.DistanceFieldShaderProgram;
+import com.annahid.libs.artenus.graphics.Font;
+import com.annahid.libs.artenus.graphics.sprites.TextSprite;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
 
 /**
- * Renders the underlying entity with a shadow effect.
+ * Renders the underlying entity with a shadow effect. Text sprites using distance field fonts are
+ * drawn with their shadow in one pass, instead of being drawn twice.
  *
  * @author Hessan Feghhi
  */
 public class DropShadow extends FilteredEntity {
+    /**
+     * Holds the color of the shadow.
+     */
+    private static final RGB SHADOW_COLOR = new RGB(0, 0, 0);
+
     /**
      * Holds the horizontal distance of the shadow from the renderable entity.
      */
@@ -27,6 +38,11 @@ public class DropShadow extends FilteredEntity {
      */
     private float shadowAlpha;
 
+    /**
+     * Holds the style used to draw a text sprite with a distance field font along with its shadow.
+     */
+    private DistanceFieldShaderProgram textStyle = null;
+
     /**
      * Creates a new drop shadow effect with given parameters.
      *
@@ -80,8 +96,35 @@ public class DropShadow extends FilteredEntity {
         return this;
     }
 
+    /**
+     * Gets the bounding box of the underlying entity, extended to include the shadow.
+     *
+     * @param bounds The object to receive the bounding box
+     *
+     * @return {@code true} if the bounding box was computed, {@code false} otherwise
+     */
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (!super.getBounds(bounds)) {
+            return false;
+        }
+
+        if (dx < 0) bounds.left += dx;
+        else bounds.right += dx;
+
+        if (dy < 0) bounds.top += dy;
+        else bounds.bottom += dy;
+
+        return true;
+    }
+
     @Override
     public void render(RenderingContext context, int flags) {
+        if (target instanceof TextSprite && ((TextSprite) target).getFont().isDistanceField()) {
+            renderText(context, flags, (TextSprite) target);
+            return;
+        }
+
         final ShaderProgram shaderBackup = context.getShader();
         context.setShader(ShadowShaderProgram.getInstance());
         context.pushMatrix();
@@ -92,4 +135,46 @@ public class DropShadow extends FilteredEntity {
         context.setShader(shaderBackup);
         super.render(context, flags);
     }
+
+    /**
+     * Renders a text sprite with a distance field font in one pass, using a style that includes
+     * the shadow. The outline of the text, if any, is preserved.
+     *
+     * @param context The rendering context
+     * @param flags   Rendering flags
+     * @param text    The text sprite
+     */
+    private void renderText(RenderingContext context, int flags, TextSprite text) {
+        if ((flags & Renderable.FLAG_PRESERVE_SHADER_PROGRAM) != 0) {
+            super.render(context, flags);
+            return;
+        }
+
+        final Font font = text.getFont();
+
+        if (textStyle == null || textStyle.getFont() != font) {
+            textStyle = new DistanceFieldShaderProgram(font);
+        }
+
+        final DistanceFieldShaderProgram style = text.getStyle();
+
+        if (style != null && style.getFont() == font) {
+            textStyle.set(style);
+        }
+
+        // The shadow is offset in the coordinate space of the characters, which is scaled by the
+        // font size and rotated along with the text.
+        final float units = font.getCharHeight() / text.getScale().x;
+        final double rot = Math.toRadians(text.getRotation());
+        final float cos = (float) Math.cos(rot), sin = (float) Math.sin(rot);
+        textStyle.setShadow(
+                (dx * cos + dy * sin) * units, (dy * cos - dx * sin) * units,
+                SHADOW_COLOR, shadowAlpha
+        );
+
+        final ShaderProgram shaderBackup = context.getShader();
+        context.setShader(textStyle);
+        super.render(context, flags | Renderable.FLAG_PRESERVE_SHADER_PROGRAM);
+        context.setShader(shaderBackup);
+    }
 }
@@ -21,6 +21,7 @@ package com.annahid.libs.artenus.graphics.effects;
 import android.opengl.GLES20;
 
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
 import com.annahid.libs.artenus.graphics.rendering.ShaderManager;
 
 /**
@@ -64,6 +65,7 @@ final class ShadowShaderProgram extends TextureShaderProgram {
     static {
         ShadowShaderProgram.instance = new ShadowShaderProgram();
         ShaderManager.register(ShadowShaderProgram.instance);
+        GLStateCache.registerClient(ShadowShaderProgram.class);
     }
 
     /**
@@ -71,6 +73,18 @@ final class ShadowShaderProgram extends TextureShaderProgram {
      */
     private int mShadowAlpha;
 
+    /**
+     * Holds the shadow transparency most recently fed to this shader program while deferred. In
+     * deferred mode, it is combined with the alpha component of the color.
+     */
+    private float deferredShadowAlpha = 1;
+
+    /**
+     * Holds the shadow transparency most recently fed to this shader program on the recording
+     * thread.
+     */
+    private float recordingShadowAlpha = 1;
+
     /**
      * Gets the singleton instance of this class.
      *
@@ -92,7 +106,21 @@ final class ShadowShaderProgram extends TextureShaderProgram {
     }
 
     /**
-     * Does nothing. This shader does not support color filtering.
+     * Resets the shadow transparency when the shader program is activated, so that transparency
+     * combined with the color while deferred is not applied twice.
+     */
+    @Override
+    public void activate() {
+        super.activate();
+
+        if (!isDeferred()) {
+            GLStateCache.uniform1f(mShadowAlpha, 1);
+        }
+    }
+
+    /**
+     * Feeds the alpha component of the color filter. This shader does not support color filtering,
+     * so the other components are ignored.
      *
      * @param r Red component (not used)
      * @param g Green component (not used)
@@ -101,8 +129,15 @@ final class ShadowShaderProgram extends TextureShaderProgram {
      */
     @Override
     public void feed(float r, float g, float b, float a) {
+        if (isDeferred()) {
+            // Keep the shadow transparency with the state, as it is fed before the color
+            super.feed(r, g, b, a * (isRecordingThread() ?
+                    recordingShadowAlpha : deferredShadowAlpha));
+            return;
+        }
+
         // We only need the alpha value from the color filter
-        GLES20.glUniform1f(mColorHandle, a);
+        GLStateCache.uniform1f(mColorHandle, a);
     }
 
     /**
@@ -111,6 +146,12 @@ final class ShadowShaderProgram extends TextureShaderProgram {
      * @param shadowAlpha Shadow alpha transparency value
      */
     public void feed(float shadowAlpha) {
-        GLES20.glUniform1f(mShadowAlpha, shadowAlpha);
+        if (isRecordingThread()) {
+            recordingShadowAlpha = shadowAlpha;
+        } else if (isDeferred()) {
+            deferredShadowAlpha = shadowAlpha;
+        } else {
+            GLStateCache.uniform1f(mShadowAlpha, shadowAlpha);
+        }
     }
 }
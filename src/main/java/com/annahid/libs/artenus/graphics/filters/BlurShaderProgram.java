@@ -21,6 +21,7 @@ package com.annahid.libs.artenus.graphics.filters;
 import android.opengl.GLES20;
 
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
 
 import java.nio.FloatBuffer;
 
@@ -99,6 +100,13 @@ final class BlurShaderProgram extends TextureShaderProgram {
      */
     private int mPassHandle;
 
+    /**
+     * Registers this shader program class with the state cache.
+     */
+    static {
+        GLStateCache.registerClient(BlurShaderProgram.class);
+    }
+
     /**
      * Compiles this shader program and gathers all shader variable handles.
      */
@@ -117,15 +125,13 @@ final class BlurShaderProgram extends TextureShaderProgram {
 
     @Override
     public void feed(float[] mat) {
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mat, 0);
+        GLStateCache.uniformMatrix4(mMVPMatrixHandle, mat);
     }
 
     @Override
     public void feed(FloatBuffer vertexBuffer) {
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-        GLES20.glVertexAttribPointer(
-                mPositionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer
-        );
+        GLStateCache.setAttribArray(mPositionHandle, true);
+        GLStateCache.attribPointer(mPositionHandle, 3, 0, vertexBuffer);
     }
 
     /**
@@ -147,7 +153,7 @@ final class BlurShaderProgram extends TextureShaderProgram {
      * @param amount Blur amount
      */
     public void feedAmount(float amount) {
-        GLES20.glUniform1f(mOffsetHandle, amount);
+        GLStateCache.uniform1f(mOffsetHandle, amount);
     }
 
     /**
@@ -157,8 +163,8 @@ final class BlurShaderProgram extends TextureShaderProgram {
      * @param h Frame height
      */
     public void feed(float w, float h) {
-        GLES20.glUniform1f(mRTWidthHandle, w);
-        GLES20.glUniform1f(mRTHeightHandle, h);
+        GLStateCache.uniform1f(mRTWidthHandle, w);
+        GLStateCache.uniform1f(mRTHeightHandle, h);
     }
 
     /**
@@ -167,6 +173,6 @@ final class BlurShaderProgram extends TextureShaderProgram {
      * @param pass Rendering pass (can take either 0 or 1)
      */
     public void feedPass(int pass) {
-        GLES20.glUniform1i(mPassHandle, pass % 2);
+        GLStateCache.uniform1i(mPassHandle, pass % 2);
     }
 }
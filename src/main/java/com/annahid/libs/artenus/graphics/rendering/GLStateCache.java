@@ -0,0 +1,525 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.rendering;
+
+import android.opengl.GLES20;
+import android.util.SparseArray;
+
+import com.annahid.libs.artenus.core.FrameStats;
+
+import java.nio.Buffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps a shadow copy of the OpenGL ES state that is most frequently changed while rendering, and
+ * skips calls that would not change that state. It tracks the current shader program, bound
+ * textures, enabled vertex attribute arrays, vertex attribute pointers, blending, and uniform values
+ * of each shader program. Framework shader programs issue these calls through this class instead of
+ * calling {@code GLES20} directly.
+ * <p/>
+ * The shadow state is only valid as long as all changes to the tracked state go through this class.
+ * Shader programs that call {@code GLES20} directly should not be registered using
+ * {@link #registerClient(Class)}. The rendering context invalidates the shadow state whenever it
+ * switches away from such a shader program.
+ *
+ * @author Hessan Feghhi
+ */
+public final class GLStateCache {
+    /**
+     * Holds the number of texture units tracked.
+     */
+    private static final int TEXTURE_UNITS = 8;
+
+    /**
+     * Holds the number of vertex attributes tracked.
+     */
+    private static final int ATTRIBUTES = 16;
+
+    /**
+     * Indicates an unknown state value.
+     */
+    private static final int UNKNOWN = -1;
+
+    /**
+     * Contains shader program classes known to change tracked state only through this class.
+     */
+    private static final Set<Class<?>> clients = new HashSet<>();
+
+    /**
+     * Holds the current shader program handle.
+     */
+    private static int program = UNKNOWN;
+
+    /**
+     * Holds the active texture unit index.
+     */
+    private static int activeUnit = UNKNOWN;
+
+    /**
+     * Contains the texture bound to each texture unit.
+     */
+    private static final int[] textures = new int[TEXTURE_UNITS];
+
+    /**
+     * Contains the enabled state of each vertex attribute array: 1 if enabled, 0 if disabled, or
+     * {@link #UNKNOWN}.
+     */
+    private static final int[] attribEnabled = new int[ATTRIBUTES];
+
+    /**
+     * Contains the buffer most recently set as the pointer of each vertex attribute.
+     */
+    private static final Buffer[] attribBuffers = new Buffer[ATTRIBUTES];
+
+    /**
+     * Contains the buffer position most recently used as the pointer of each vertex attribute.
+     */
+    private static final int[] attribPositions = new int[ATTRIBUTES];
+
+    /**
+     * Contains the component count, type, and stride of the pointer of each vertex attribute,
+     * packed into one integer.
+     */
+    private static final int[] attribFormats = new int[ATTRIBUTES];
+
+    /**
+     * Holds the blending state: 1 if enabled, 0 if disabled, or {@link #UNKNOWN}.
+     */
+    private static int blend = UNKNOWN;
+
+    /**
+     * Holds the source blending factor.
+     */
+    private static int blendSrc = UNKNOWN;
+
+    /**
+     * Holds the destination blending factor.
+     */
+    private static int blendDst = UNKNOWN;
+
+    /**
+     * Maps shader program and uniform location pairs to the most recent uniform values.
+     */
+    private static final SparseArray<float[]> uniforms = new SparseArray<>();
+
+    /**
+     * Holds the number of calls skipped because they would not change the state.
+     */
+    private static long hits = 0;
+
+    /**
+     * Holds the number of calls passed on to OpenGL.
+     */
+    private static long misses = 0;
+
+    static {
+        invalidate();
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private GLStateCache() {
+    }
+
+    /**
+     * Registers a shader program class whose instances change tracked state only through this
+     * class. Switching away from shader programs of other classes invalidates the shadow state.
+     *
+     * @param programClass The shader program class
+     */
+    public static void registerClient(Class<? extends ShaderProgram> programClass) {
+        clients.add(programClass);
+    }
+
+    /**
+     * Determines whether the given shader program changes tracked state only through this class.
+     *
+     * @param shader The shader program
+     *
+     * @return {@code true} if the shader program is a registered client, {@code false} otherwise
+     *
+     * @see #registerClient(Class)
+     */
+    public static boolean isClient(ShaderProgram shader) {
+        return shader != null && clients.contains(shader.getClass());
+    }
+
+    /**
+     * Forgets all shadow state. This method must be called when the rendering context is created,
+     * and whenever tracked state is changed without going through this class.
+     */
+    public static void invalidate() {
+        program = UNKNOWN;
+        activeUnit = UNKNOWN;
+        blend = UNKNOWN;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            textures[i] = UNKNOWN;
+        }
+
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            attribEnabled[i] = UNKNOWN;
+            attribBuffers[i] = null;
+        }
+
+        uniforms.clear();
+    }
+
+    /**
+     * Gets the number of calls skipped because they would not have changed the state.
+     *
+     * @return Number of cache hits
+     */
+    public static long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of calls passed on to OpenGL.
+     *
+     * @return Number of cache misses
+     */
+    public static long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public static void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Makes the given shader program current.
+     *
+     * @param handle Shader program handle
+     */
+    public static void useProgram(int handle) {
+        if (program == handle) {
+            hits++;
+            return;
+        }
+
+        misses++;
+        program = handle;
+        GLES20.glUseProgram(handle);
+        FrameStats.count(FrameStats.Counter.SHADER_SWITCHES);
+    }
+
+    /**
+     * Deletes the given shader program and forgets its uniform values.
+     *
+     * @param handle Shader program handle
+     */
+    public static void deleteProgram(int handle) {
+        GLES20.glDeleteProgram(handle);
+
+        if (program == handle) {
+            program = UNKNOWN;
+        }
+
+        for (int i = uniforms.size() - 1; i >= 0; i--) {
+            if (uniforms.keyAt(i) >>> 16 == handle) {
+                uniforms.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Binds a 2D texture to the given texture unit.
+     *
+     * @param unit   Texture unit index, starting from 0 for {@code GL_TEXTURE0}
+     * @param handle Texture handle
+     */
+    public static void bindTexture(int unit, int handle) {
+        if (activeUnit == unit) {
+            hits++;
+        } else {
+            misses++;
+            activeUnit = unit;
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        }
+
+        if (unit < TEXTURE_UNITS) {
+            if (textures[unit] == handle) {
+                hits++;
+                return;
+            }
+
+            textures[unit] = handle;
+        }
+
+        misses++;
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle);
+        FrameStats.count(FrameStats.Counter.TEXTURE_BINDS);
+    }
+
+    /**
+     * Deletes the given texture. Texture units it is bound to revert to the default texture.
+     *
+     * @param handle Texture handle
+     */
+    public static void deleteTexture(int handle) {
+        GLES20.glDeleteTextures(1, new int[] { handle }, 0);
+
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            if (textures[i] == handle) {
+                textures[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Enables or disables a vertex attribute array.
+     *
+     * @param index   Vertex attribute index
+     * @param enabled {@code true} to enable, {@code false} to disable
+     */
+    public static void setAttribArray(int index, boolean enabled) {
+        final int state = enabled ? 1 : 0;
+
+        if (index >= 0 && index < ATTRIBUTES) {
+            if (attribEnabled[index] == state) {
+                hits++;
+                return;
+            }
+
+            attribEnabled[index] = state;
+        }
+
+        misses++;
+
+        if (enabled) {
+            GLES20.glEnableVertexAttribArray(index);
+        } else {
+            GLES20.glDisableVertexAttribArray(index);
+        }
+    }
+
+    /**
+     * Sets a vertex attribute pointer to a client-side floating point buffer. The pointer is
+     * considered unchanged if the buffer, its current position, and the format are the same as
+     * the previous call.
+     *
+     * @param index  Vertex attribute index
+     * @param size   Number of components per vertex
+     * @param stride Byte offset between consecutive vertices
+     * @param buffer Vertex data
+     */
+    public static void attribPointer(int index, int size, int stride, Buffer buffer) {
+        final int format = (stride << 8) | size;
+        final int position = buffer.position();
+
+        if (index >= 0 && index < ATTRIBUTES) {
+            if (attribBuffers[index] == buffer && attribPositions[index] == position
+                    && attribFormats[index] == format) {
+                hits++;
+                return;
+            }
+
+            attribBuffers[index] = buffer;
+            attribPositions[index] = position;
+            attribFormats[index] = format;
+        }
+
+        misses++;
+        GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, buffer);
+    }
+
+    /**
+     * Enables or disables blending.
+     *
+     * @param enabled {@code true} to enable, {@code false} to disable
+     */
+    public static void setBlending(boolean enabled) {
+        final int state = enabled ? 1 : 0;
+
+        if (blend == state) {
+            hits++;
+            return;
+        }
+
+        misses++;
+        blend = state;
+
+        if (enabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        } else {
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+    }
+
+    /**
+     * Sets the blending function.
+     *
+     * @param src Source blending factor
+     * @param dst Destination blending factor
+     */
+    public static void blendFunc(int src, int dst) {
+        if (blendSrc == src && blendDst == dst) {
+            hits++;
+            return;
+        }
+
+        misses++;
+        blendSrc = src;
+        blendDst = dst;
+        GLES20.glBlendFunc(src, dst);
+    }
+
+    /**
+     * Sets an integer uniform of the current shader program.
+     *
+     * @param location Uniform location
+     * @param value    Uniform value
+     */
+    public static void uniform1i(int location, int value) {
+        final float[] cached = cached(location, 1);
+
+        if (cached != null) {
+            if (cached[0] == value) {
+                hits++;
+                return;
+            }
+
+            cached[0] = value;
+        }
+
+        misses++;
+        GLES20.glUniform1i(location, value);
+    }
+
+    /**
+     * Sets a float uniform of the current shader program.
+     *
+     * @param location Uniform location
+     * @param value    Uniform value
+     */
+    public static void uniform1f(int location, float value) {
+        final float[] cached = cached(location, 1);
+
+        if (cached != null) {
+            if (cached[0] == value) {
+                hits++;
+                return;
+            }
+
+            cached[0] = value;
+        }
+
+        misses++;
+        GLES20.glUniform1f(location, value);
+    }
+
+    /**
+     * Sets a 4-component vector uniform of the current shader program.
+     *
+     * @param location Uniform location
+     * @param x        First component
+     * @param y        Second component
+     * @param z        Third component
+     * @param w        Fourth component
+     */
+    public static void uniform4f(int location, float x, float y, float z, float w) {
+        final float[] cached = cached(location, 4);
+
+        if (cached != null) {
+            if (cached[0] == x && cached[1] == y && cached[2] == z && cached[3] == w) {
+                hits++;
+                return;
+            }
+
+            cached[0] = x;
+            cached[1] = y;
+            cached[2] = z;
+            cached[3] = w;
+        }
+
+        misses++;
+        GLES20.glUniform4f(location, x, y, z, w);
+    }
+
+    /**
+     * Sets a 4x4 matrix uniform of the current shader program.
+     *
+     * @param location Uniform location
+     * @param mat      Column-major matrix
+     */
+    public static void uniformMatrix4(int location, float[] mat) {
+        final float[] cached = cached(location, 16);
+
+        if (cached != null) {
+            boolean same = true;
+
+            for (int i = 0; i < 16; i++) {
+                if (cached[i] != mat[i]) {
+                    same = false;
+                    break;
+                }
+            }
+
+            if (same) {
+                hits++;
+                return;
+            }
+
+            System.arraycopy(mat, 0, cached, 0, 16);
+        }
+
+        misses++;
+        GLES20.glUniformMatrix4fv(location, 1, false, mat, 0);
+    }
+
+    /**
+     * Gets the shadow values of a uniform of the current shader program. A new entry is created
+     * with values that never compare equal if the uniform has not been set before.
+     *
+     * @param location Uniform location
+     * @param size     Number of values
+     *
+     * @return Shadow values, or {@code null} if the uniform cannot be tracked
+     */
+    private static float[] cached(int location, int size) {
+        if (program == UNKNOWN || location < 0 || location > 0xffff) {
+            return null;
+        }
+
+        final int key = (program << 16) | location;
+        float[] values = uniforms.get(key);
+
+        if (values == null || values.length != size) {
+            values = new float[size];
+
+            for (int i = 0; i < size; i++) {
+                values[i] = Float.NaN;
+            }
+
+            uniforms.put(key, values);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.rendering;
+
+/**
+ * Provides the transformation matrix stack for rendering contexts. Matrices are 2-dimensional
+ * affine transformations, stored as six floats each in a single preallocated array, so that
+ * pushing and popping matrices does not allocate any memory. The layout of each matrix is
+ * {@code a, b, c, d, tx, ty}, which transforms a point as follows:
+ * <pre>
+ * x' = a * x + c * y + tx
+ * y' = b * x + d * y + ty
+ * </pre>
+ * Matrices are only expanded to 4x4 form when they are handed to a shader program.
+ *
+ * @author Hessan Feghhi
+ * @see RenderingContext
+ */
+public final class MatrixStack {
+    /**
+     * Holds the number of floats in each matrix.
+     */
+    public static final int SIZE = 6;
+
+    /**
+     * Holds the initial depth of the stack. The stack grows if this depth is exceeded.
+     */
+    private static final int INITIAL_DEPTH = 32;
+
+    /**
+     * Contains all matrices in the stack, bottom first.
+     */
+    private float[] data = new float[INITIAL_DEPTH * SIZE];
+
+    /**
+     * Holds the offset of the current (top) matrix in {@link #data}.
+     */
+    private int top = 0;
+
+    /**
+     * Creates a new matrix stack containing the identity matrix.
+     */
+    public MatrixStack() {
+        identity();
+    }
+
+    /**
+     * Gets the array containing the matrices. The array may be replaced as the stack grows, so it
+     * should be retrieved again after every push.
+     *
+     * @return Matrix data
+     *
+     * @see #offset()
+     */
+    public float[] data() {
+        return data;
+    }
+
+    /**
+     * Gets the offset of the current matrix in the array returned by {@link #data()}.
+     *
+     * @return Offset of the current matrix
+     */
+    public int offset() {
+        return top;
+    }
+
+    /**
+     * Pushes a copy of the current matrix on top of the stack.
+     */
+    public void push() {
+        if (top + SIZE * 2 > data.length) {
+            final float[] grown = new float[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, data.length);
+            data = grown;
+        }
+
+        System.arraycopy(data, top, data, top + SIZE, SIZE);
+        top += SIZE;
+    }
+
+    /**
+     * Pushes the given 4x4 matrix on top of the stack. Only the 2-dimensional affine part of the
+     * matrix is considered.
+     *
+     * @param mat Column-major 4x4 matrix
+     */
+    public void push(float[] mat) {
+        push();
+        set(mat);
+    }
+
+    /**
+     * Pops the matrix on top of the stack. Nothing happens if there is only one matrix in the
+     * stack.
+     */
+    public void pop() {
+        if (top > 0) {
+            top -= SIZE;
+        }
+    }
+
+    /**
+     * Sets the current matrix to identity.
+     */
+    public void identity() {
+        final float[] m = data;
+        final int o = top;
+        m[o] = 1;
+        m[o + 1] = 0;
+        m[o + 2] = 0;
+        m[o + 3] = 1;
+        m[o + 4] = 0;
+        m[o + 5] = 0;
+    }
+
+    /**
+     * Translates the current matrix.
+     *
+     * @param x The distance along the x axis
+     * @param y The distance along the y axis
+     */
+    public void translate(float x, float y) {
+        final float[] m = data;
+        final int o = top;
+        m[o + 4] += m[o] * x + m[o + 2] * y;
+        m[o + 5] += m[o + 1] * x + m[o + 3] * y;
+    }
+
+    /**
+     * Scales the current matrix.
+     *
+     * @param x Scaling factor along the x axis
+     * @param y Scaling factor along the y axis
+     */
+    public void scale(float x, float y) {
+        final float[] m = data;
+        final int o = top;
+        m[o] *= x;
+        m[o + 1] *= x;
+        m[o + 2] *= y;
+        m[o + 3] *= y;
+    }
+
+    /**
+     * Rotates the current matrix around the z axis.
+     *
+     * @param angle Rotation angle in degrees
+     */
+    public void rotate(float angle) {
+        if (angle == 0) {
+            return;
+        }
+
+        final double rad = Math.toRadians(angle);
+        final float cos = (float) Math.cos(rad), sin = (float) Math.sin(rad);
+        final float[] m = data;
+        final int o = top;
+        final float a = m[o], b = m[o + 1], c = m[o + 2], d = m[o + 3];
+        m[o] = a * cos + c * sin;
+        m[o + 1] = b * cos + d * sin;
+        m[o + 2] = c * cos - a * sin;
+        m[o + 3] = d * cos - b * sin;
+    }
+
+    /**
+     * Replaces the current matrix with the 2-dimensional affine part of the given 4x4 matrix.
+     *
+     * @param mat Column-major 4x4 matrix
+     */
+    public void set(float[] mat) {
+        final float[] m = data;
+        final int o = top;
+        m[o] = mat[0];
+        m[o + 1] = mat[1];
+        m[o + 2] = mat[4];
+        m[o + 3] = mat[5];
+        m[o + 4] = mat[12];
+        m[o + 5] = mat[13];
+    }
+
+    /**
+     * Expands the current matrix into a column-major 4x4 matrix.
+     *
+     * @param mat Array to receive the matrix, which must have at least 16 elements
+     */
+    public void get(float[] mat) {
+        final float[] m = data;
+        final int o = top;
+        mat[0] = m[o];
+        mat[1] = m[o + 1];
+        mat[2] = 0;
+        mat[3] = 0;
+        mat[4] = m[o + 2];
+        mat[5] = m[o + 3];
+        mat[6] = 0;
+        mat[7] = 0;
+        mat[8] = 0;
+        mat[9] = 0;
+        mat[10] = 1;
+        mat[11] = 0;
+        mat[12] = m[o + 4];
+        mat[13] = m[o + 5];
+        mat[14] = 0;
+        mat[15] = 1;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.rendering;
+
+import com.annahid.libs.artenus.graphics.DistanceFieldShaderProgram;
+import com.annahid.libs.artenus.graphics.TextureManager;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+
+import java.nio.FloatBuffer;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>Implements a rendering context that does not use OpenGL, and instead records every operation
+ * into a {@link RenderRecording}. It allows scenes, sprites, and fonts to be rendered on a machine
+ * without a graphics device, to measure the cost of the rendering path on the CPU, count the
+ * commands it produces, or compare its output against a previously captured recording.</p>
+ * <p>Texture shader programs set on this context are put in deferred mode, in which they only keep
+ * track of their state without calling OpenGL. If the context is used on the recording thread
+ * registered with {@link TextureShaderProgram#setRecordingThread(Thread)}, shader programs are
+ * deferred for that thread only, and can be used for drawing on the rendering thread at the same
+ * time. Otherwise, a texture shader program is only deferred while it is the current program of
+ * this context, and its previous mode is restored when the context switches to another program or
+ * is reset. Call {@link #reset()} after the last frame of a recording made on another thread, so
+ * that no shared program is left deferred. The default shader program is a
+ * {@link RecordingShaderProgram}. Other shader programs are recorded, but never activated or fed,
+ * since doing so requires a graphics device.</p>
+ * <p>Distance field font styles are recorded as copies taken when they are set, like colors and
+ * matrices, because their settings are only fed to OpenGL when the recording is replayed. A copy
+ * is never modified, and is reused for as long as the settings of its style do not change.</p>
+ *
+ * @author Hessan Feghhi
+ * @see RenderRecording
+ */
+public class RecordingContext implements RenderingContext {
+    /**
+     * Holds the transformation matrix stack.
+     */
+    private final MatrixStack matrixStack = new MatrixStack();
+
+    /**
+     * Holds the recording that receives the commands.
+     */
+    private final RenderRecording recording;
+
+    /**
+     * Holds the shader program used when no other is set.
+     */
+    private final RecordingShaderProgram defaultShader = new RecordingShaderProgram();
+
+    /**
+     * Contains the most recent color filter.
+     */
+    private final float[] color = {1, 1, 1, 1};
+
+    /**
+     * Holds the logical width of the viewport.
+     */
+    private final float width;
+
+    /**
+     * Holds the logical height of the viewport.
+     */
+    private final float height;
+
+    /**
+     * Holds the width of the simulated screen in pixels.
+     */
+    private final int screenWidth;
+
+    /**
+     * Holds the height of the simulated screen in pixels.
+     */
+    private final int screenHeight;
+
+    /**
+     * Holds the current shader program.
+     */
+    private ShaderProgram shader;
+
+    /**
+     * Holds the texture shader program this context put in deferred mode, or {@code null}.
+     */
+    private TextureShaderProgram deferredProgram;
+
+    /**
+     * Indicates whether {@link #deferredProgram} was already deferred before this context used
+     * it.
+     */
+    private boolean wasDeferred;
+
+    /**
+     * Maps the distance field styles set on this context to their latest captured copies.
+     */
+    private final Map<DistanceFieldShaderProgram, DistanceFieldShaderProgram> styles =
+            new WeakHashMap<>();
+
+    /**
+     * Holds the currently bound render target, or {@code null} for the default output.
+     */
+    private RenderTarget target;
+
+    /**
+     * Creates a new recording context with a new recording.
+     *
+     * @param screenWidth  Width of the simulated screen in pixels
+     * @param screenHeight Height of the simulated screen in pixels
+     */
+    public RecordingContext(int screenWidth, int screenHeight) {
+        this(screenWidth, screenHeight, new RenderRecording());
+    }
+
+    /**
+     * Creates a new recording context that appends to the given recording. The logical viewport is
+     * computed from the screen size the same way as on the device, with the smaller side being 600
+     * units.
+     *
+     * @param screenWidth  Width of the simulated screen in pixels
+     * @param screenHeight Height of the simulated screen in pixels
+     * @param recording    The recording to receive the commands
+     */
+    public RecordingContext(int screenWidth, int screenHeight, RenderRecording recording) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.recording = recording;
+
+        if (screenWidth > screenHeight) {
+            width = screenWidth * 600.0f / screenHeight;
+            height = 600;
+        } else {
+            width = 600;
+            height = screenHeight * 600.0f / screenWidth;
+        }
+
+        shader = defaultShader;
+    }
+
+    /**
+     * Gets the recording that receives the commands of this context.
+     *
+     * @return The recording
+     */
+    public final RenderRecording getRecording() {
+        return recording;
+    }
+
+    /**
+     * Resets the matrix stack, color filter, and shader program, so that the context can record a
+     * new frame. The recording itself is not cleared. Texture shader programs deferred by this
+     * context are returned to their previous mode.
+     */
+    public void reset() {
+        while (matrixStack.offset() > 0) {
+            matrixStack.pop();
+        }
+
+        matrixStack.identity();
+        color[0] = color[1] = color[2] = color[3] = 1;
+        target = null;
+        switchShader(null);
+    }
+
+    @Override
+    public void pushMatrix() {
+        matrixStack.push();
+        recording.append(RenderRecording.Command.PUSH);
+    }
+
+    @Override
+    public void popMatrix() {
+        matrixStack.pop();
+        recording.append(RenderRecording.Command.POP);
+    }
+
+    @Override
+    public void rotate(float angle) {
+        matrixStack.rotate(angle);
+        recording.append(RenderRecording.Command.ROTATE);
+        recording.setFloat(0, angle);
+    }
+
+    @Override
+    public void scale(float x, float y) {
+        matrixStack.scale(x, y);
+        recording.append(RenderRecording.Command.SCALE);
+        recording.setFloat(0, x);
+        recording.setFloat(1, y);
+    }
+
+    @Override
+    public void translate(float x, float y) {
+        matrixStack.translate(x, y);
+        recording.append(RenderRecording.Command.TRANSLATE);
+        recording.setFloat(0, x);
+        recording.setFloat(1, y);
+    }
+
+    @Override
+    public void identity() {
+        matrixStack.identity();
+        recording.append(RenderRecording.Command.IDENTITY);
+    }
+
+    @Override
+    public void setColorFilter(float r, float g, float b, float a) {
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        color[3] = a;
+
+        if (isSafe(shader)) {
+            shader.feed(r, g, b, a);
+        }
+
+        recording.append(RenderRecording.Command.COLOR);
+        recording.setFloat(0, r);
+        recording.setFloat(1, g);
+        recording.setFloat(2, b);
+        recording.setFloat(3, a);
+    }
+
+    @Override
+    public void rect() {
+        final float[] m = matrixStack.data();
+        final int o = matrixStack.offset();
+        recording.append(RenderRecording.Command.RECT);
+
+        for (int i = 0; i < MatrixStack.SIZE; i++) {
+            recording.setFloat(i, m[o + i]);
+        }
+
+        float[] rgba = color;
+        FloatBuffer texCoords = TextureShaderProgram.getDefaultTextureBuffer();
+        int texture = -1;
+
+        if (shader instanceof TextureShaderProgram) {
+            final TextureShaderProgram program = (TextureShaderProgram) shader;
+            rgba = program.getColor();
+            texture = program.getTextureHandle();
+
+            if (program.getTexCoords() != null) {
+                texCoords = program.getTexCoords();
+            }
+        }
+
+        for (int i = 0; i < 4; i++) {
+            recording.setFloat(6 + i, rgba[i]);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            recording.setFloat(10 + i, texCoords.get(i));
+        }
+
+        recording.setInt(0, texture);
+        recording.setInt(1, shader == TextureManager.getShaderProgram() ? 1 : 0);
+    }
+
+    @Override
+    public void rects(float[] mesh, int offset, int count) {
+        final float[] m = matrixStack.data();
+        final int o = matrixStack.offset();
+        recording.append(RenderRecording.Command.MESH, count * 8);
+
+        for (int i = 0; i < MatrixStack.SIZE; i++) {
+            recording.setFloat(i, m[o + i]);
+        }
+
+        float[] rgba = color;
+        int texture = -1;
+
+        if (shader instanceof TextureShaderProgram) {
+            final TextureShaderProgram program = (TextureShaderProgram) shader;
+            rgba = program.getColor();
+            texture = program.getTextureHandle();
+        }
+
+        for (int i = 0; i < 4; i++) {
+            recording.setFloat(6 + i, rgba[i]);
+        }
+
+        recording.setFloats(10, mesh, offset, count * 8);
+        recording.setInt(0, texture);
+        recording.setInt(1, shader == TextureManager.getShaderProgram() ? 1 : 0);
+        recording.setInt(2, count);
+    }
+
+    @Override
+    public void rects(float[] mesh, int offset, int count, float[] colors, int colorOffset) {
+        final float[] m = matrixStack.data();
+        final int o = matrixStack.offset();
+        recording.append(RenderRecording.Command.COLORED_MESH, count * 12);
+
+        for (int i = 0; i < MatrixStack.SIZE; i++) {
+            recording.setFloat(i, m[o + i]);
+        }
+
+        float[] rgba = color;
+        int texture = -1;
+
+        if (shader instanceof TextureShaderProgram) {
+            final TextureShaderProgram program = (TextureShaderProgram) shader;
+            rgba = program.getColor();
+            texture = program.getTextureHandle();
+        }
+
+        for (int i = 0; i < 4; i++) {
+            recording.setFloat(6 + i, rgba[i]);
+        }
+
+        recording.setFloats(10, mesh, offset, count * 8);
+        recording.setFloats(10 + count * 8, colors, colorOffset, count * 4);
+        recording.setInt(0, texture);
+        recording.setInt(1, shader == TextureManager.getShaderProgram() ? 1 : 0);
+        recording.setInt(2, count);
+    }
+
+    @Override
+    public void flush() {
+        recording.append(RenderRecording.Command.FLUSH);
+    }
+
+    @Override
+    public ShaderProgram getShader() {
+        return shader;
+    }
+
+    @Override
+    public void setShader(ShaderProgram shader) {
+        switchShader(shader);
+        recording.append(RenderRecording.Command.SET_SHADER);
+        recording.setReference(shader instanceof DistanceFieldShaderProgram ?
+                captureStyle((DistanceFieldShaderProgram) shader) : shader);
+    }
+
+    @Override
+    public float getWidth() {
+        return width;
+    }
+
+    @Override
+    public float getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    @Override
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    @Override
+    public float[] getMatrix() {
+        final float[] mat = new float[16];
+        matrixStack.get(mat);
+        return mat;
+    }
+
+    @Override
+    public void getMatrix(float[] mat) {
+        matrixStack.get(mat);
+    }
+
+    @Override
+    public void pushMatrix(float[] mat) {
+        matrixStack.push(mat);
+        recording.append(RenderRecording.Command.PUSH_MATRIX);
+        recording.setFloat(0, mat[0]);
+        recording.setFloat(1, mat[1]);
+        recording.setFloat(2, mat[4]);
+        recording.setFloat(3, mat[5]);
+        recording.setFloat(4, mat[12]);
+        recording.setFloat(5, mat[13]);
+    }
+
+    @Override
+    public void clear(float r, float g, float b) {
+        clear(r, g, b, 1);
+    }
+
+    @Override
+    public void clear(float r, float g, float b, float a) {
+        recording.append(RenderRecording.Command.CLEAR);
+        recording.setFloat(0, r);
+        recording.setFloat(1, g);
+        recording.setFloat(2, b);
+        recording.setFloat(3, a);
+    }
+
+    @Override
+    public void bindTarget(RenderTarget target) {
+        this.target = target;
+        recording.append(RenderRecording.Command.BIND_TARGET);
+        recording.setReference(target);
+    }
+
+    @Override
+    public RenderTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * Captures the current settings of a distance field style, reusing the previous copy if they
+     * have not changed.
+     *
+     * @param style The style
+     *
+     * @return The copy
+     */
+    private DistanceFieldShaderProgram captureStyle(DistanceFieldShaderProgram style) {
+        final DistanceFieldShaderProgram copy = style.capture(styles.get(style));
+        styles.put(style, copy);
+        return copy;
+    }
+
+    /**
+     * Makes the given shader program current without recording the change.
+     *
+     * @param next The shader program, or {@code null} for the default shader program
+     */
+    private void switchShader(ShaderProgram next) {
+        if (next == null) {
+            next = defaultShader;
+        }
+
+        if (deferredProgram != null && deferredProgram != next) {
+            deferredProgram.setDeferred(wasDeferred);
+            deferredProgram = null;
+        }
+
+        // Texture shader programs are always deferred on the recording thread
+        if (next instanceof TextureShaderProgram && next != deferredProgram &&
+                !TextureShaderProgram.isRecordingThread()) {
+            deferredProgram = (TextureShaderProgram) next;
+            wasDeferred = deferredProgram.isDeferred();
+            deferredProgram.setDeferred(true);
+        }
+
+        shader = next;
+
+        if (isSafe(shader)) {
+            shader.activate();
+        }
+    }
+
+    /**
+     * Determines whether the given shader program can be used without a graphics device.
+     *
+     * @param program The shader program
+     *
+     * @return {@code true} if the program does not call OpenGL, {@code false} otherwise
+     */
+    private static boolean isSafe(ShaderProgram program) {
+        return program instanceof RecordingShaderProgram ||
+                (program instanceof TextureShaderProgram &&
+                        ((TextureShaderProgram) program).isDeferred());
+    }
+}
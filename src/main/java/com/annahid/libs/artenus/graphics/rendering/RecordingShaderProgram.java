@@ -0,0 +1,124 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.rendering;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Stands in for the default shader program of a {@link RecordingContext}. It does not use OpenGL,
+ * and only keeps track of what is fed to it, so that rendering code can run without a graphics
+ * device.
+ *
+ * @author Hessan Feghhi
+ * @see RecordingContext
+ */
+public final class RecordingShaderProgram implements ShaderProgram {
+    /**
+     * Contains the color components most recently fed to this shader program.
+     */
+    private final float[] color = {1, 1, 1, 1};
+
+    /**
+     * Holds the vertex buffer most recently fed to this shader program.
+     */
+    private FloatBuffer vertexBuffer;
+
+    /**
+     * Holds the number of times this shader program has been activated.
+     */
+    private int activations = 0;
+
+    /**
+     * Holds the number of matrices fed to this shader program.
+     */
+    private int matrices = 0;
+
+    @Override
+    public void compile() {
+    }
+
+    @Override
+    public void feed(float[] mat) {
+        matrices++;
+    }
+
+    @Override
+    public void feed(FloatBuffer buffer) {
+        vertexBuffer = buffer;
+    }
+
+    @Override
+    public void feed(float r, float g, float b, float a) {
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+        color[3] = a;
+    }
+
+    @Override
+    public void activate() {
+        activations++;
+    }
+
+    @Override
+    public void cleanup() {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Gets the color components most recently fed to this shader program, in the order of red,
+     * green, blue and alpha. The returned array is used internally and must not be modified.
+     *
+     * @return Color components
+     */
+    public float[] getColor() {
+        return color;
+    }
+
+    /**
+     * Gets the vertex buffer most recently fed to this shader program.
+     *
+     * @return The vertex buffer, or {@code null} if none has been fed
+     */
+    public FloatBuffer getVertexBuffer() {
+        return vertexBuffer;
+    }
+
+    /**
+     * Gets the number of times this shader program has been activated.
+     *
+     * @return Number of activations
+     */
+    public int getActivationCount() {
+        return activations;
+    }
+
+    /**
+     * Gets the number of matrices fed to this shader program.
+     *
+     * @return Number of matrices
+     */
+    public int getMatrixCount() {
+        return matrices;
+    }
+}
@@ -0,0 +1,759 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.rendering;
+
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Contains a compact stream of rendering commands captured by a {@link RecordingContext}. Commands
+ * are stored in primitive arrays, so recording does not allocate memory once the arrays have grown
+ * to the size of a typical frame. A recording can be replayed onto another rendering context, or
+ * compared with another recording to detect changes in the rendering path.
+ *
+ * @author Hessan Feghhi
+ * @see RecordingContext
+ */
+public final class RenderRecording {
+    /**
+     * Commands that can appear in a recording.
+     */
+    public enum Command {
+        /**
+         * Pushes a copy of the current matrix. No arguments.
+         */
+        PUSH(0, 0),
+        /**
+         * Pushes a given matrix. Arguments are the affine components {@code a, b, c, d, tx, ty}.
+         */
+        PUSH_MATRIX(6, 0),
+        /**
+         * Pops the current matrix. No arguments.
+         */
+        POP(0, 0),
+        /**
+         * Rotates the current matrix. The argument is the angle in degrees.
+         */
+        ROTATE(1, 0),
+        /**
+         * Scales the current matrix. Arguments are the scaling factors along x and y.
+         */
+        SCALE(2, 0),
+        /**
+         * Translates the current matrix. Arguments are the distances along x and y.
+         */
+        TRANSLATE(2, 0),
+        /**
+         * Sets the current matrix to identity. No arguments.
+         */
+        IDENTITY(0, 0),
+        /**
+         * Sets the color filter. Arguments are the red, green, blue and alpha components.
+         */
+        COLOR(4, 0),
+        /**
+         * Draws a rectangle. Float arguments are the affine components of the current matrix, the
+         * color, and eight texture coordinates. Integer arguments are the texture handle, or -1 if
+         * the shader program is not textured, and 1 if the rectangle can be batched or 0 otherwise.
+         */
+        RECT(18, 2),
+        /**
+         * Draws a mesh of quads. Float arguments are the affine components of the current matrix
+         * and the color, followed by eight floats per quad as described in
+         * {@link RenderingContext#rects(float[], int, int)}. Integer arguments are the texture
+         * handle, or -1 if the shader program is not textured, 1 if the mesh can be batched or 0
+         * otherwise, and the number of quads.
+         */
+        MESH(10, 3),
+        /**
+         * Flushes pending drawing. No arguments.
+         */
+        FLUSH(0, 0),
+        /**
+         * Switches the shader program. The integer argument is the index of the shader program
+         * reference, or -1 for the default shader program.
+         */
+        SET_SHADER(0, 1),
+        /**
+         * Clears the render target. Arguments are the red, green, blue and alpha components.
+         */
+        CLEAR(4, 0),
+        /**
+         * Binds a render target. The integer argument is the index of the render target reference,
+         * or -1 for the default output, which is the render target bound when replaying starts.
+         */
+        BIND_TARGET(0, 1),
+        /**
+         * Draws a mesh of quads with individual colors. Arguments are the same as those of
+         * {@link #MESH}, with the mesh followed by four color components per quad, as described in
+         * {@link RenderingContext#rects(float[], int, int, float[], int)}.
+         */
+        COLORED_MESH(10, 3);
+
+        /**
+         * Holds the number of float arguments of the command.
+         */
+        final int floats;
+
+        /**
+         * Holds the number of integer arguments of the command.
+         */
+        final int ints;
+
+        /**
+         * Creates a new command.
+         *
+         * @param floats Number of float arguments
+         * @param ints   Number of integer arguments
+         */
+        Command(int floats, int ints) {
+            this.floats = floats;
+            this.ints = ints;
+        }
+    }
+
+    /**
+     * Contains all commands, cached to avoid allocating a new array for each lookup.
+     */
+    private static final Command[] ALL_COMMANDS = Command.values();
+
+    /**
+     * Holds the initial number of commands the recording can hold before growing.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Contains the command at each position.
+     */
+    private int[] commands = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the offset of the float arguments of each command.
+     */
+    private int[] floatOffsets = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the offset of the integer arguments of each command.
+     */
+    private int[] intOffsets = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains float arguments of all commands.
+     */
+    private float[] floats = new float[INITIAL_CAPACITY * 4];
+
+    /**
+     * Contains integer arguments of all commands.
+     */
+    private int[] ints = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains shader programs and render targets referenced by commands.
+     */
+    private final List<Object> refs = new ArrayList<>();
+
+    /**
+     * Contains the number of occurrences of each command.
+     */
+    private final int[] counts = new int[ALL_COMMANDS.length];
+
+    /**
+     * Holds the number of commands.
+     */
+    private int size = 0;
+
+    /**
+     * Holds the number of float arguments.
+     */
+    private int floatCount = 0;
+
+    /**
+     * Holds the number of integer arguments.
+     */
+    private int intCount = 0;
+
+    /**
+     * Used to feed recorded texture coordinates while replaying.
+     */
+    private FloatBuffer texCoords;
+
+    /**
+     * Used to expand recorded matrices while replaying.
+     */
+    private final float[] replayMatrix = new float[16];
+
+    /**
+     * Removes all commands from the recording. Allocated capacity is kept.
+     */
+    public void clear() {
+        size = floatCount = intCount = 0;
+        refs.clear();
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Gets the number of commands in the recording.
+     *
+     * @return Number of commands
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the command at the given position.
+     *
+     * @param index Position of the command
+     *
+     * @return The command
+     */
+    public Command getCommand(int index) {
+        return ALL_COMMANDS[commands[index]];
+    }
+
+    /**
+     * Gets a float argument of the command at the given position.
+     *
+     * @param index    Position of the command
+     * @param argument Index of the argument
+     *
+     * @return Argument value
+     */
+    public float getFloat(int index, int argument) {
+        return floats[floatOffsets[index] + argument];
+    }
+
+    /**
+     * Gets the number of float arguments of the command at the given position. It is the same for
+     * all occurrences of a command, except for meshes, which have eight floats per quad.
+     *
+     * @param index Position of the command
+     *
+     * @return Number of float arguments
+     */
+    public int getFloatCount(int index) {
+        return (index + 1 < size ? floatOffsets[index + 1] : floatCount) - floatOffsets[index];
+    }
+
+    /**
+     * Gets an integer argument of the command at the given position.
+     *
+     * @param index    Position of the command
+     * @param argument Index of the argument
+     *
+     * @return Argument value
+     */
+    public int getInt(int index, int argument) {
+        return ints[intOffsets[index] + argument];
+    }
+
+    /**
+     * Gets the shader program or render target referenced by the command at the given position.
+     *
+     * @param index Position of the command
+     *
+     * @return The referenced object, or {@code null} if the command references the default shader
+     * program or the screen, or does not reference anything
+     */
+    public Object getReference(int index) {
+        final Command command = getCommand(index);
+
+        if (command != Command.SET_SHADER && command != Command.BIND_TARGET) {
+            return null;
+        }
+
+        final int ref = ints[intOffsets[index]];
+        return ref < 0 ? null : refs.get(ref);
+    }
+
+    /**
+     * Gets the number of times a command occurs in the recording.
+     *
+     * @param command The command
+     *
+     * @return Number of occurrences
+     */
+    public int getCount(Command command) {
+        return counts[command.ordinal()];
+    }
+
+    /**
+     * Estimates the number of draw calls the recording would cause on the OpenGL renderer.
+     * Consecutive batchable rectangles with the same texture are drawn in one call, until the
+     * shader program or render target changes, or pending drawing is flushed.
+     *
+     * @return Number of draw calls
+     */
+    public int getDrawCallCount() {
+        int calls = 0, texture = -1;
+        boolean open = false;
+
+        for (int i = 0; i < size; i++) {
+            switch (ALL_COMMANDS[commands[i]]) {
+                case RECT:
+                case MESH:
+                case COLORED_MESH:
+                    final int handle = ints[intOffsets[i]];
+
+                    if (ints[intOffsets[i] + 1] == 0) {
+                        calls++;
+                        open = false;
+                    } else if (!open || handle != texture) {
+                        calls++;
+                        open = true;
+                        texture = handle;
+                    }
+                    break;
+                case SET_SHADER:
+                case FLUSH:
+                case CLEAR:
+                case BIND_TARGET:
+                    open = false;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return calls;
+    }
+
+    /**
+     * Replays all commands in the recording onto the given rendering context. The texture, texture
+     * coordinates, and color of each rectangle are fed to the current shader program before it is
+     * drawn, if it is a {@link TextureShaderProgram}. Commands that bind the default output of the
+     * recording bind the render target that was bound to the context when replaying started.
+     *
+     * @param ctx The rendering context
+     */
+    public void replay(RenderingContext ctx) {
+        final RenderTarget output = ctx.getTarget();
+
+        for (int i = 0; i < size; i++) {
+            final int f = floatOffsets[i];
+
+            switch (ALL_COMMANDS[commands[i]]) {
+                case PUSH:
+                    ctx.pushMatrix();
+                    break;
+                case PUSH_MATRIX:
+                    expand(f, replayMatrix);
+                    ctx.pushMatrix(replayMatrix);
+                    break;
+                case POP:
+                    ctx.popMatrix();
+                    break;
+                case ROTATE:
+                    ctx.rotate(floats[f]);
+                    break;
+                case SCALE:
+                    ctx.scale(floats[f], floats[f + 1]);
+                    break;
+                case TRANSLATE:
+                    ctx.translate(floats[f], floats[f + 1]);
+                    break;
+                case IDENTITY:
+                    ctx.identity();
+                    break;
+                case COLOR:
+                    ctx.setColorFilter(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
+                    break;
+                case RECT:
+                    final ShaderProgram shader = ctx.getShader();
+
+                    if (shader instanceof TextureShaderProgram) {
+                        final TextureShaderProgram program = (TextureShaderProgram) shader;
+
+                        if (texCoords == null) {
+                            texCoords = ByteBuffer.allocateDirect(8 * 4)
+                                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                        }
+
+                        texCoords.position(0);
+                        texCoords.put(floats, f + 10, 8);
+                        texCoords.position(0);
+                        program.feed(ints[intOffsets[i]]);
+                        program.feedTexCoords(texCoords);
+                        program.feed(floats[f + 6], floats[f + 7], floats[f + 8], floats[f + 9]);
+                    }
+
+                    ctx.rect();
+                    break;
+                case MESH:
+                    final ShaderProgram meshShader = ctx.getShader();
+
+                    if (meshShader instanceof TextureShaderProgram) {
+                        final TextureShaderProgram program = (TextureShaderProgram) meshShader;
+                        program.feed(ints[intOffsets[i]]);
+                        program.feed(floats[f + 6], floats[f + 7], floats[f + 8], floats[f + 9]);
+                    }
+
+                    ctx.rects(floats, f + 10, ints[intOffsets[i] + 2]);
+                    break;
+                case COLORED_MESH:
+                    final ShaderProgram coloredShader = ctx.getShader();
+                    final int quads = ints[intOffsets[i] + 2];
+
+                    if (coloredShader instanceof TextureShaderProgram) {
+                        final TextureShaderProgram program = (TextureShaderProgram) coloredShader;
+                        program.feed(ints[intOffsets[i]]);
+                        program.feed(floats[f + 6], floats[f + 7], floats[f + 8], floats[f + 9]);
+                    }
+
+                    ctx.rects(floats, f + 10, quads, floats, f + 10 + quads * 8);
+                    break;
+                case FLUSH:
+                    ctx.flush();
+                    break;
+                case SET_SHADER:
+                    ctx.setShader((ShaderProgram) getReference(i));
+                    break;
+                case CLEAR:
+                    ctx.clear(floats[f], floats[f + 1], floats[f + 2], floats[f + 3]);
+                    break;
+                case BIND_TARGET:
+                    final RenderTarget target = (RenderTarget) getReference(i);
+                    ctx.bindTarget(target == null ? output : target);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Compares this recording with another one, command by command. Float arguments are considered
+     * equal if they differ by no more than the given tolerance, and references are compared by
+     * identity.
+     *
+     * @param other     The other recording
+     * @param tolerance Maximum difference between equal float arguments
+     *
+     * @return Position of the first command that differs, or -1 if the recordings are equal
+     */
+    public int diff(RenderRecording other, float tolerance) {
+        final int common = Math.min(size, other.size);
+
+        for (int i = 0; i < common; i++) {
+            if (commands[i] != other.commands[i]) {
+                return i;
+            }
+
+            final Command command = ALL_COMMANDS[commands[i]];
+            final int f = floatOffsets[i], of = other.floatOffsets[i];
+            final int length = getFloatCount(i);
+
+            if (length != other.getFloatCount(i)) {
+                return i;
+            }
+
+            for (int j = 0; j < length; j++) {
+                if (Math.abs(floats[f + j] - other.floats[of + j]) > tolerance) {
+                    return i;
+                }
+            }
+
+            if (command == Command.SET_SHADER || command == Command.BIND_TARGET) {
+                if (getReference(i) != other.getReference(i)) {
+                    return i;
+                }
+            } else {
+                final int n = intOffsets[i], on = other.intOffsets[i];
+
+                for (int j = 0; j < command.ints; j++) {
+                    if (ints[n + j] != other.ints[on + j]) {
+                        return i;
+                    }
+                }
+            }
+        }
+
+        return size == other.size ? -1 : common;
+    }
+
+    /**
+     * Replaces the contents of this recording with a copy of another recording.
+     *
+     * @param other The recording to copy
+     */
+    public void set(RenderRecording other) {
+        if (commands.length < other.size) {
+            commands = new int[other.commands.length];
+            floatOffsets = new int[other.commands.length];
+            intOffsets = new int[other.commands.length];
+        }
+
+        if (floats.length < other.floatCount) {
+            floats = new float[other.floats.length];
+        }
+
+        if (ints.length < other.intCount) {
+            ints = new int[other.ints.length];
+        }
+
+        System.arraycopy(other.commands, 0, commands, 0, other.size);
+        System.arraycopy(other.floatOffsets, 0, floatOffsets, 0, other.size);
+        System.arraycopy(other.intOffsets, 0, intOffsets, 0, other.size);
+        System.arraycopy(other.floats, 0, floats, 0, other.floatCount);
+        System.arraycopy(other.ints, 0, ints, 0, other.intCount);
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        refs.clear();
+        refs.addAll(other.refs);
+        size = other.size;
+        floatCount = other.floatCount;
+        intCount = other.intCount;
+    }
+
+    /**
+     * Replaces the contents of this recording with an interpolation between two recordings of
+     * consecutive simulation steps. Transformations and colors are interpolated linearly, and
+     * rotations along the shortest arc. If the recordings do not contain the same sequence of
+     * commands, for example because an entity was added in the latter step, the latter recording
+     * is copied without interpolation.
+     *
+     * @param from  Recording of the earlier step, or {@code null} if there is none
+     * @param to    Recording of the latter step
+     * @param alpha Interpolation factor between 0 (the earlier step) and 1 (the latter step)
+     */
+    public void interpolate(RenderRecording from, RenderRecording to, float alpha) {
+        set(to);
+
+        if (from == null || from.size != to.size || alpha >= 1) {
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (from.commands[i] != commands[i]) {
+                return;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            final int f = floatOffsets[i], ff = from.floatOffsets[i];
+
+            switch (ALL_COMMANDS[commands[i]]) {
+                case ROTATE:
+                    float delta = (floats[f] - from.floats[ff]) % 360;
+
+                    if (delta > 180) delta -= 360;
+                    else if (delta < -180) delta += 360;
+
+                    floats[f] = from.floats[ff] + delta * alpha;
+                    break;
+                case TRANSLATE:
+                case SCALE:
+                case COLOR:
+                case PUSH_MATRIX:
+                    lerp(from.floats, ff, f, ALL_COMMANDS[commands[i]].floats, alpha);
+                    break;
+                case RECT:
+                case MESH:
+                case COLORED_MESH:
+                    // Matrix and color components
+                    lerp(from.floats, ff, f, 10, alpha);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Describes the command at the given position in a human-readable form. This method is
+     * intended for reporting differences between recordings.
+     *
+     * @param index Position of the command
+     *
+     * @return Description of the command
+     */
+    public String describe(int index) {
+        final Command command = getCommand(index);
+        final StringBuilder builder = new StringBuilder(command.name());
+        final int f = floatOffsets[index], n = intOffsets[index];
+        final int length = getFloatCount(index);
+
+        for (int j = 0; j < length; j++) {
+            builder.append(j == 0 ? " " : ", ");
+            builder.append(String.format(Locale.US, "%.3f", floats[f + j]));
+        }
+
+        for (int j = 0; j < command.ints; j++) {
+            builder.append(j == 0 ? " [" : ", ").append(ints[n + j]);
+        }
+
+        if (command.ints > 0) {
+            builder.append(']');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Summarizes the recording in one line, including the number of each command.
+     *
+     * @return The summary
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("RenderRecording{size=").append(size);
+        builder.append(", drawCalls=").append(getDrawCallCount());
+
+        for (Command command : ALL_COMMANDS) {
+            builder.append(", ").append(command.name()).append('=')
+                    .append(counts[command.ordinal()]);
+        }
+
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Appends a command to the recording and reserves space for its arguments.
+     *
+     * @param command The command
+     */
+    void append(Command command) {
+        append(command, 0);
+    }
+
+    /**
+     * Appends a command to the recording and reserves space for its arguments, including a number
+     * of float arguments in addition to those the command always has.
+     *
+     * @param command     The command
+     * @param extraFloats Number of additional float arguments
+     */
+    void append(Command command, int extraFloats) {
+        final int floatArgs = command.floats + extraFloats;
+
+        if (size == commands.length) {
+            final int capacity = size * 2;
+            commands = Arrays.copyOf(commands, capacity);
+            floatOffsets = Arrays.copyOf(floatOffsets, capacity);
+            intOffsets = Arrays.copyOf(intOffsets, capacity);
+        }
+
+        if (floatCount + floatArgs > floats.length) {
+            floats = Arrays.copyOf(floats, Math.max(floats.length * 2, floatCount + floatArgs));
+        }
+
+        if (intCount + command.ints > ints.length) {
+            ints = Arrays.copyOf(ints, Math.max(ints.length * 2, intCount + command.ints));
+        }
+
+        commands[size] = command.ordinal();
+        floatOffsets[size] = floatCount;
+        intOffsets[size] = intCount;
+        floatCount += floatArgs;
+        intCount += command.ints;
+        counts[command.ordinal()]++;
+        size++;
+    }
+
+    /**
+     * Sets a float argument of the most recently appended command.
+     *
+     * @param argument Index of the argument
+     * @param value    Argument value
+     */
+    void setFloat(int argument, float value) {
+        floats[floatOffsets[size - 1] + argument] = value;
+    }
+
+    /**
+     * Copies float arguments of the most recently appended command from an array.
+     *
+     * @param argument Index of the first argument
+     * @param values   Array containing the values
+     * @param offset   Offset of the first value in the array
+     * @param count    Number of values
+     */
+    void setFloats(int argument, float[] values, int offset, int count) {
+        System.arraycopy(values, offset, floats, floatOffsets[size - 1] + argument, count);
+    }
+
+    /**
+     * Sets an integer argument of the most recently appended command.
+     *
+     * @param argument Index of the argument
+     * @param value    Argument value
+     */
+    void setInt(int argument, int value) {
+        ints[intOffsets[size - 1] + argument] = value;
+    }
+
+    /**
+     * Sets the reference of the most recently appended command.
+     *
+     * @param ref The referenced object, or {@code null}
+     */
+    void setReference(Object ref) {
+        int index = -1;
+
+        if (ref != null) {
+            index = refs.indexOf(ref);
+
+            if (index < 0) {
+                index = refs.size();
+                refs.add(ref);
+            }
+        }
+
+        setInt(0, index);
+    }
+
+    /**
+     * Interpolates float arguments of this recording from the given values.
+     *
+     * @param source       Float arguments of the earlier recording
+     * @param sourceOffset Offset of the arguments in the earlier recording
+     * @param offset       Offset of the arguments in this recording
+     * @param count        Number of arguments
+     * @param alpha        Interpolation factor
+     */
+    private void lerp(float[] source, int sourceOffset, int offset, int count, float alpha) {
+        for (int j = 0; j < count; j++) {
+            final float start = source[sourceOffset + j];
+            floats[offset + j] = start + (floats[offset + j] - start) * alpha;
+        }
+    }
+
+    /**
+     * Expands the affine matrix stored at the given offset into a column-major 4x4 matrix.
+     *
+     * @param offset Offset of the matrix in the float arguments
+     * @param mat    Array to receive the matrix
+     */
+    private void expand(int offset, float[] mat) {
+        Arrays.fill(mat, 0);
+        mat[0] = floats[offset];
+        mat[1] = floats[offset + 1];
+        mat[4] = floats[offset + 2];
+        mat[5] = floats[offset + 3];
+        mat[10] = 1;
+        mat[12] = floats[offset + 4];
+        mat[13] = floats[offset + 5];
+        mat[15] = 1;
+    }
+}
@@ -23,6 +23,10 @@ import android.opengl.GLES20;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Represents a graphics output object used for rendering. Artenus does not render frames directly
@@ -32,6 +36,22 @@ import java.nio.FloatBuffer;
  * @author Hessan Feghhi
  */
 public class RenderTarget {
+    /**
+     * Contains render targets waiting to be created on the rendering thread.
+     */
+    private static final Queue<RenderTarget> pendingCreation = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Contains render targets waiting to be disposed on the rendering thread.
+     */
+    private static final Queue<RenderTarget> pendingDisposal = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Contains render targets created using {@link #createLater(int, int)} that have not been
+     * disposed, so that they can be recreated when the rendering context is lost.
+     */
+    private static final List<RenderTarget> managed = new ArrayList<>();
+
     /**
      * Holds OpenGL ES render buffer handle.
      */
@@ -67,6 +87,16 @@ public class RenderTarget {
      */
     private FloatBuffer frameTexCoords;
 
+    /**
+     * Indicates whether the OpenGL objects of this render target have been created.
+     */
+    private volatile boolean created = false;
+
+    /**
+     * Holds the number of times this render target has been bound to the rendering context.
+     */
+    private volatile int bindCount = 0;
+
     /**
      * Creates a new instance of {@code RenderTarget}.
      *
@@ -90,20 +120,135 @@ public class RenderTarget {
      */
     public static RenderTarget create(int width, int height) {
         RenderTarget ret = new RenderTarget(width, height);
+        ret.allocate();
+        ret.created = true;
+        ret.generateTextureCoords();
+        return ret;
+    }
+
+    /**
+     * Creates a new render target with given width and height, whose OpenGL objects are created
+     * later on the rendering thread. This method can be called from any thread. The render target
+     * cannot be used until {@link #isCreated()} returns {@code true}. If the rendering context is
+     * lost, the render target is recreated automatically, and its bind count is reset.
+     *
+     * @param width  Image width
+     * @param height Image height
+     *
+     * @return The rendering target
+     */
+    public static RenderTarget createLater(int width, int height) {
+        RenderTarget ret = new RenderTarget(width, height);
+        ret.generateTextureCoords();
+
+        synchronized (managed) {
+            managed.add(ret);
+        }
+
+        pendingCreation.add(ret);
+        return ret;
+    }
+
+    /**
+     * Creates and disposes the OpenGL objects of render targets requested from other threads.
+     * This method is called by the framework on the rendering thread.
+     *
+     * @see #createLater(int, int)
+     * @see #disposeLater()
+     */
+    public static void processPending() {
+        RenderTarget target;
+
+        while ((target = pendingDisposal.poll()) != null) {
+            if (target.created) {
+                target.created = false;
+                target.dispose();
+            }
+        }
+
+        while ((target = pendingCreation.poll()) != null) {
+            if (!target.created) {
+                target.allocate();
+                target.created = true;
+            }
+        }
+    }
+
+    /**
+     * Schedules all render targets created using {@link #createLater(int, int)} to be recreated.
+     * This method is called by the framework when the rendering context has been lost, and the
+     * OpenGL objects of the render targets are no longer valid.
+     */
+    public static void recreateManaged() {
+        synchronized (managed) {
+            for (RenderTarget target : managed) {
+                target.created = false;
+                target.bindCount = 0;
+                pendingCreation.add(target);
+            }
+        }
+    }
 
+    /**
+     * Determines whether the OpenGL objects of this render target have been created. Render
+     * targets created using {@link #create(int, int)} are always created.
+     *
+     * @return {@code true} if the render target can be used, {@code false} otherwise
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Gets the number of times this render target has been bound to the rendering context on the
+     * rendering thread. It can be used to find out whether drawing commands recorded on another
+     * thread have been executed.
+     *
+     * @return Bind count
+     */
+    public int getBindCount() {
+        return bindCount;
+    }
+
+    /**
+     * Increments the bind count of this render target. This method is called by the rendering
+     * context whenever the render target is bound.
+     */
+    public void notifyBound() {
+        bindCount++;
+    }
+
+    /**
+     * Schedules this render target to be disposed on the rendering thread. This method can be
+     * called from any thread, and should be used for render targets created using
+     * {@link #createLater(int, int)}.
+     */
+    public void disposeLater() {
+        synchronized (managed) {
+            managed.remove(this);
+        }
+
+        pendingCreation.remove(this);
+        pendingDisposal.add(this);
+    }
+
+    /**
+     * Creates the OpenGL objects of this render target.
+     */
+    private void allocate() {
         final int[] temp = new int[1];
         GLES20.glGenFramebuffers(1, temp, 0);
-        ret.frameBufferHandle = temp[0];
+        frameBufferHandle = temp[0];
 
         GLES20.glGenTextures(1, temp, 0);
-        ret.textureHandle = temp[0];
+        textureHandle = temp[0];
 
         GLES20.glGenRenderbuffers(1, temp, 0);
-        ret.renderBufferHandle = temp[0];
+        renderBufferHandle = temp[0];
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, ret.frameBufferHandle);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBufferHandle);
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, ret.textureHandle);
+        GLStateCache.bindTexture(0, textureHandle);
         GLES20.glTexParameteri(
                 GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE
         );
@@ -120,25 +265,23 @@ public class RenderTarget {
                 GLES20.GL_TEXTURE_2D,
                 0,
                 GLES20.GL_RGBA,
-                width,
-                height,
+                fboWidth,
+                fboHeight,
                 0,
                 GLES20.GL_RGBA,
                 GLES20.GL_UNSIGNED_BYTE,
                 null
         );
-        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, ret.renderBufferHandle);
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, renderBufferHandle);
         GLES20.glFramebufferRenderbuffer(
                 GLES20.GL_FRAMEBUFFER,
                 GLES20.GL_DEPTH_ATTACHMENT,
                 GLES20.GL_RENDERBUFFER,
-                ret.renderBufferHandle
+                renderBufferHandle
         );
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLStateCache.bindTexture(0, 0);
         GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        ret.generateTextureCoords();
-        return ret;
     }
 
     /**
@@ -222,8 +365,7 @@ public class RenderTarget {
         GLES20.glDeleteRenderbuffers(1, temp, 0);
         temp[0] = frameBufferHandle;
         GLES20.glDeleteFramebuffers(1, temp, 0);
-        temp[0] = textureHandle;
-        GLES20.glDeleteTextures(1, temp, 0);
+        GLStateCache.deleteTexture(textureHandle);
     }
 
     /**
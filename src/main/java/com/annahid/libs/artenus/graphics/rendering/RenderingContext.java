@@ -96,10 +96,52 @@ public interface RenderingContext {
     /**
      * Draws the default rectangular primitive with the given state of the rendering context. It is
      * up to the shader program to decide where and how this rectangle is drawn, given the state of
-     * the rendering context.
+     * the rendering context. Rectangles drawn with the default texture shader program may be
+     * batched and submitted to the graphics hardware later.
+     *
+     * @see #flush()
      */
     void rect();
 
+    /**
+     * Draws a mesh of axis-aligned quads with the given state of the rendering context. The result
+     * is the same as calling {@link #rect()} once for each quad, with the current matrix translated
+     * and scaled to the quad, and the texture coordinates set to its texture region. Drawing a
+     * pre-computed mesh avoids building the transformation of each quad on every frame.
+     *
+     * @param mesh   Array containing eight floats per quad: the left, top, right and bottom edges
+     *               in the current coordinate space, followed by the left, top, right and bottom
+     *               texture coordinates
+     * @param offset Offset of the first quad in the array
+     * @param count  Number of quads
+     */
+    void rects(float[] mesh, int offset, int count);
+
+    /**
+     * Draws a mesh of axis-aligned quads, each with its own color. The result is the same as
+     * calling {@link #rects(float[], int, int)} once for each quad, with the color filter
+     * multiplied by the color of the quad. Meshes drawn with the default texture shader program
+     * are batched regardless of the colors of their quads, so a large number of differently
+     * colored quads, such as particles, can be drawn at once. Shader programs other than texture
+     * shader programs draw all quads in the color filter, since their color cannot be read back.
+     *
+     * @param mesh        Array containing eight floats per quad, in the format described in
+     *                    {@link #rects(float[], int, int)}
+     * @param offset      Offset of the first quad in the mesh array
+     * @param count       Number of quads
+     * @param colors      Array containing four floats per quad: the red, green, blue and alpha
+     *                    components of its color, with pre-multiplied alpha
+     * @param colorOffset Offset of the color of the first quad in the colors array
+     */
+    void rects(float[] mesh, int offset, int count, float[] colors, int colorOffset);
+
+    /**
+     * Submits all batched drawing operations to the graphics hardware. The rendering context
+     * flushes automatically whenever the shader program or render target changes, so this method
+     * is only needed before calling OpenGL functions directly.
+     */
+    void flush();
+
     /**
      * Gets the shader program currently assigned to the rendering context.
      *
@@ -119,7 +161,7 @@ public interface RenderingContext {
      * </li>
      * <li>If the render method is called with {@link Renderable#FLAG_PRESERVE_SHADER_PROGRAM} filter,
      * no shader program should be applied. The system uses this flag to render objects in
-     * plain graphics, for effects or touch maps. Setting a shader when this flag is on causes
+     * plain graphics, for effects such as shadows. Setting a shader when this flag is on causes
      * instability in the system.
      * </li>
      * <li>As all renderables are required to set their own shader programs in the beginning of
@@ -172,6 +214,15 @@ public interface RenderingContext {
      */
     float[] getMatrix();
 
+    /**
+     * Copies the current transformation matrix that is used for drawing into the given array. This
+     * is the allocation-free equivalent of {@link RenderingContext#getMatrix()}.
+     *
+     * @param mat The array to receive the transformation matrix, which must have at least 16
+     *            elements
+     */
+    void getMatrix(float[] mat);
+
     /**
      * Pushes a pre-computed matrix on top of the transformation matrix stack. The argument can be
      * the return value of {@link RenderingContext#getMatrix()}.
@@ -189,6 +240,17 @@ public interface RenderingContext {
      */
     void clear(float r, float g, float b);
 
+    /**
+     * Clears the the current render target and fills it with the specified color, including
+     * transparency. The color is expected to have pre-multiplied alpha.
+     *
+     * @param r Red component of the clear color
+     * @param g Green component of the clear color
+     * @param b Blue component of the clear color
+     * @param a Alpha component of the clear color
+     */
+    void clear(float r, float g, float b, float a);
+
     /**
      * Binds a render target to this context to receive the output image. If no render target is
      * specified, the target will be set to the screen. Binding render targets is an advanced
@@ -197,4 +259,11 @@ public interface RenderingContext {
      * @param target The render target, or {@code null} to switch to screen rendering
      */
     void bindTarget(RenderTarget target);
+
+    /**
+     * Gets the render target currently bound to this context.
+     *
+     * @return The render target, or {@code null} if the output is the screen
+     */
+    RenderTarget getTarget();
 }
@@ -21,10 +21,17 @@ package com.annahid.libs.artenus.graphics.rendering;
 import java.nio.FloatBuffer;
 
 /**
- * Interface for all shader programs. A shader program is a rendering component that instructs the
- * graphics hardware on how to draw elements on the screen.
+ * <p>Interface for all shader programs. A shader program is a rendering component that instructs
+ * the graphics hardware on how to draw elements on the screen.</p>
+ * <p>Scenes are normally recorded on the advance thread, which has no OpenGL context. Only
+ * {@link com.annahid.libs.artenus.graphics.TextureShaderProgram} and its subclasses keep their
+ * state for the recording; other shader programs are only activated and fed with matrices,
+ * vertices and colors when the recording is replayed on the rendering thread. Custom uniforms set
+ * from {@link com.annahid.libs.artenus.entities.behavior.Renderable#render} are lost, unless the
+ * stage is switched to direct rendering.</p>
  *
  * @author Hessan Feghhi
+ * @see com.annahid.libs.artenus.core.Stage#setDirectRendering(boolean)
  */
 public interface ShaderProgram {
     /**
@@ -18,19 +18,21 @@
 
 package com.annahid.libs.artenus.graphics.sprites;
 
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
 import com.annahid.libs.artenus.graphics.Texture;
 import com.annahid.libs.artenus.graphics.TextureManager;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
 /**
  * <p>Provides a grid of texture blocks. It is intended for platform or map based games. You can
  * create a large grid and add it to the scene as a normal sprite. Only the portion of the grid that
  * is visible will be rendered. Use this sprite for level maps.</p>
+ * <p>The grid is divided into square chunks of {@link #CHUNK_SIZE} blocks, each of which keeps a
+ * pre-computed mesh of its blocks. A chunk is only rebuilt when the frame or transparency of one
+ * of its blocks changes, so drawing an unchanged grid costs a few calls per visible chunk.</p>
  * <p>Note that this class is subject to revision or removal in the future. It is NOT yet
  * deprecated. Support for platform-based games is currently being revised and a faster and more
  * robust framework will be introduced in future versions.</p>
@@ -38,7 +40,12 @@ import java.nio.FloatBuffer;
  * @author Hessan Feghhi
  */
 @SuppressWarnings("unused")
-public final class GridSprite extends SpriteEntity {
+public final class GridSprite extends SpriteEntity implements Bounded {
+    /**
+     * Holds the number of columns and rows of blocks in each chunk.
+     */
+    public static final int CHUNK_SIZE = 16;
+
     /**
      * Holds texture atlas.
      */
@@ -55,9 +62,21 @@ public final class GridSprite extends SpriteEntity {
     private float[][] alphas;
 
     /**
-     * Contains texture buffers for atlas images.
+     * Contains the left, top, right and bottom texture coordinates of each atlas image.
+     */
+    private float[] frameCoords = null;
+
+    /**
+     * Holds the region version of the texture when texture coordinates were computed.
+     *
+     * @see Texture#getRegionVersion()
      */
-    private FloatBuffer[] textureBuffers = null;
+    private int coordsVersion;
+
+    /**
+     * Contains the chunks of the grid, indexed by chunk column and row.
+     */
+    private Chunk[][] chunks;
 
     /**
      * Holds block width.
@@ -75,22 +94,22 @@ public final class GridSprite extends SpriteEntity {
     private float m;
 
     /**
-     * Holds column index of the top-left block in the visible region.
+     * Holds column index of the top-left chunk in the visible region.
      */
     private int vc1;
 
     /**
-     * Holds row index of the top-left block in the visible region.
+     * Holds row index of the top-left chunk in the visible region.
      */
     private int vr1;
 
     /**
-     * Holds column index of the bottom-right block in the visible region.
+     * Holds column index of the chunk after the bottom-right chunk in the visible region.
      */
     private int vc2;
 
     /**
-     * Holds the row index of the bottom-right block in the visible region.
+     * Holds the row index of the chunk after the bottom-right chunk in the visible region.
      */
     private int vr2;
 
@@ -125,6 +144,14 @@ public final class GridSprite extends SpriteEntity {
         blocks = new int[cols][rows];
         alphas = new float[cols][rows];
         m = margin;
+        chunks = new Chunk[(cols + CHUNK_SIZE - 1) / CHUNK_SIZE]
+                [(rows + CHUNK_SIZE - 1) / CHUNK_SIZE];
+
+        for (int i = 0; i < chunks.length; i++) {
+            for (int j = 0; j < chunks[i].length; j++) {
+                chunks[i][j] = new Chunk();
+            }
+        }
     }
 
     /**
@@ -152,7 +179,10 @@ public final class GridSprite extends SpriteEntity {
      */
     public void setAlpha(int col, int row, float alpha) {
         try {
-            alphas[col][row] = alpha;
+            if (alphas[col][row] != alpha) {
+                alphas[col][row] = alpha;
+                chunks[col / CHUNK_SIZE][row / CHUNK_SIZE].dirty = true;
+            }
         } catch (Exception ex) {
             // Do nothing
         }
@@ -184,7 +214,10 @@ public final class GridSprite extends SpriteEntity {
      * @see SpriteEntity
      */
     public void setFrame(int col, int row, int frame) {
-        blocks[col][row] = frame;
+        if (blocks[col][row] != frame) {
+            blocks[col][row] = frame;
+            chunks[col / CHUNK_SIZE][row / CHUNK_SIZE].dirty = true;
+        }
     }
 
     /**
@@ -223,10 +256,25 @@ public final class GridSprite extends SpriteEntity {
         return blocks[0].length * blkH;
     }
 
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        // Blocks overlap their neighbors by the margin, and the grid is only rotated when drawn.
+        final float bw = blkW - m * 2, bh = blkH - m * 2;
+        bounds.set(-m, -m, blocks.length * bw + m, blocks[0].length * bh + m);
+        bounds.transform(0, 0, rotation, 1, 1);
+        return true;
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED || super.hasBehavior(behavior);
+    }
+
     /**
-     * Sets the visible area within the grid block. The renderer will not render anything that lies
+     * Sets the visible area within the grid block. The renderer will not render any chunk that lies
      * outside the rectangular are specified. Use this method to achieve better performance. Note
-     * that there is no guarantee that the contents are clipped by the given area.
+     * that there is no guarantee that the contents are clipped by the given area, as chunks are
+     * drawn entirely if they overlap it.
      *
      * @param startX The x coordinate of the region top-left corner
      * @param startY The y coordinate of the region top-left corner
@@ -234,38 +282,30 @@ public final class GridSprite extends SpriteEntity {
      * @param endY   The y coordinate of the region bottom-right corner
      */
     public void setVisibleRegion(float startX, float startY, float endX, float endY) {
-        this.vc1 = Math.min(blocks.length, Math.max(toGridX(startX) - 1, 0));
-        this.vr1 = Math.min(blocks[0].length, Math.max(toGridY(startY) - 1, 0));
-        this.vc2 = Math.min(blocks.length, Math.max(toGridX(endX) + 1, 0));
-        this.vr2 = Math.min(blocks[0].length, Math.max(toGridY(endY) + 1, 0));
+        final int c1 = Math.min(blocks.length, Math.max(toGridX(startX) - 1, 0));
+        final int r1 = Math.min(blocks[0].length, Math.max(toGridY(startY) - 1, 0));
+        final int c2 = Math.min(blocks.length, Math.max(toGridX(endX) + 1, 0));
+        final int r2 = Math.min(blocks[0].length, Math.max(toGridY(endY) + 1, 0));
+        this.vc1 = c1 / CHUNK_SIZE;
+        this.vr1 = r1 / CHUNK_SIZE;
+        this.vc2 = (c2 + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.vr2 = (r2 + CHUNK_SIZE - 1) / CHUNK_SIZE;
     }
 
     @Override
     public void render(RenderingContext context, int flags) {
-        if (textureBuffers == null) {
-            textureBuffers = new FloatBuffer[(int) (frames.getWidth() / blkW)];
-
-            for (int i = 0; i < textureBuffers.length; i++) {
-                final float x1 = blkW * (float) i / (float) frames.getWidth();
-                final float x2 = (blkW * (float) (i + 1) - 1) / (float) frames.getWidth();
-                final float y2 = blkH / (float) frames.getHeight();
-                final float texture[] = {
-                        x1, 0,
-                        x2, 0,
-                        x1, y2,
-                        x2, y2
-                };
-                final ByteBuffer ibb = ByteBuffer.allocateDirect(texture.length * 4);
-                ibb.order(ByteOrder.nativeOrder());
-                textureBuffers[i] = ibb.asFloatBuffer();
-                textureBuffers[i].put(texture);
-                textureBuffers[i].position(0);
+        if (frameCoords == null || coordsVersion != frames.getRegionVersion()) {
+            coordsVersion = frames.getRegionVersion();
+            frameCoords = new float[(int) (frames.getWidth() / blkW) * 4];
+
+            for (int i = 0; i < frameCoords.length / 4; i++) {
+                frameCoords[i * 4] = frames.mapU(blkW * (float) i);
+                frameCoords[i * 4 + 1] = frames.mapV(0);
+                frameCoords[i * 4 + 2] = frames.mapU(blkW * (float) (i + 1) - 1);
+                frameCoords[i * 4 + 3] = frames.mapV(blkH);
             }
         }
 
-        final float bw = blkW - m * 2, bh = blkH - m * 2;
-        final int[][] blocks = this.blocks;
-
         if ((flags & FLAG_PRESERVE_SHADER_PROGRAM) == 0)
             context.setShader(TextureManager.getShaderProgram());
         final TextureShaderProgram program =
@@ -277,19 +317,69 @@ public final class GridSprite extends SpriteEntity {
 
         for (int i = vc1; i < vc2; i++) {
             for (int j = vr1; j < vr2; j++) {
-                final float a = alpha * alphas[i][j];
-                context.setColorFilter(a, a, a, a);
-                context.pushMatrix();
-                context.translate(((float) i + 0.5f) * bw, ((float) j + 0.5f) * bh);
-                context.scale(blkW, blkH);
-                program.feedTexCoords(textureBuffers[blocks[i][j]]);
-                context.rect();
-                context.popMatrix();
+                final Chunk chunk = chunks[i][j];
+
+                if (chunk.dirty || chunk.version != coordsVersion) {
+                    build(chunk, i, j);
+                }
+
+                for (int k = 0; k < chunk.runCount; k++) {
+                    final float a = alpha * chunk.runAlphas[k];
+                    final int start = chunk.runStarts[k];
+                    context.setColorFilter(a, a, a, a);
+                    context.rects(chunk.mesh, start * 8, chunk.runStarts[k + 1] - start);
+                }
             }
         }
         context.popMatrix();
     }
 
+    /**
+     * Rebuilds the mesh of a chunk from its blocks. Blocks keep their column-major drawing order,
+     * since neighbouring blocks overlap by the margin; consecutive blocks with equal transparency
+     * form a run that can be drawn with one color filter. Fully transparent blocks are left out of
+     * the mesh.
+     *
+     * @param chunk The chunk
+     * @param cc    The column number of the chunk
+     * @param cr    The row number of the chunk
+     */
+    private void build(Chunk chunk, int cc, int cr) {
+        final float bw = blkW - m * 2, bh = blkH - m * 2;
+        final int c1 = cc * CHUNK_SIZE, c2 = Math.min(blocks.length, c1 + CHUNK_SIZE);
+        final int r1 = cr * CHUNK_SIZE, r2 = Math.min(blocks[0].length, r1 + CHUNK_SIZE);
+        final float[] mesh = chunk.mesh;
+        int count = 0;
+        chunk.runCount = 0;
+
+        for (int i = c1; i < c2; i++) {
+            for (int j = r1; j < r2; j++) {
+                final float a = alphas[i][j];
+
+                if (a == 0) {
+                    continue;
+                }
+
+                if (count == 0 || a != chunk.runAlphas[chunk.runCount - 1]) {
+                    chunk.runAlphas[chunk.runCount] = a;
+                    chunk.runStarts[chunk.runCount++] = count;
+                }
+
+                final float x = ((float) i + 0.5f) * bw, y = ((float) j + 0.5f) * bh;
+                final int q = count++ * 8;
+                mesh[q] = x - blkW / 2;
+                mesh[q + 1] = y - blkH / 2;
+                mesh[q + 2] = x + blkW / 2;
+                mesh[q + 3] = y + blkH / 2;
+                System.arraycopy(frameCoords, blocks[i][j] * 4, mesh, q + 4, 4);
+            }
+        }
+
+        chunk.runStarts[chunk.runCount] = count;
+        chunk.version = coordsVersion;
+        chunk.dirty = false;
+    }
+
     /**
      * Converts a pixel coordinate into the corresponding column number on the grid.
      *
@@ -311,4 +401,43 @@ public final class GridSprite extends SpriteEntity {
     private int toGridY(float y) {
         return (int) Math.ceil(y / (blkH - m * 2) - 0.5);
     }
+
+    /**
+     * Contains the pre-computed mesh of a square chunk of the grid.
+     */
+    private static final class Chunk {
+        /**
+         * Contains the mesh of the visible blocks in the chunk.
+         *
+         * @see RenderingContext#rects(float[], int, int)
+         */
+        final float[] mesh = new float[CHUNK_SIZE * CHUNK_SIZE * 8];
+
+        /**
+         * Contains the transparency of each run of blocks.
+         */
+        final float[] runAlphas = new float[CHUNK_SIZE * CHUNK_SIZE];
+
+        /**
+         * Contains the index of the first quad of each run, followed by the total number of quads.
+         */
+        final int[] runStarts = new int[CHUNK_SIZE * CHUNK_SIZE + 1];
+
+        /**
+         * Holds the number of runs in the mesh.
+         */
+        int runCount;
+
+        /**
+         * Holds the region version of the texture when the mesh was built.
+         *
+         * @see Texture#getRegionVersion()
+         */
+        int version;
+
+        /**
+         * Indicates whether a block of the chunk has changed since the mesh was built.
+         */
+        boolean dirty = true;
+    }
 }
@@ -18,6 +18,11 @@
 
 package com.annahid.libs.artenus.graphics.sprites;
 
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.entities.behavior.HitTestable;
+import com.annahid.libs.artenus.graphics.AlphaMask;
 import com.annahid.libs.artenus.graphics.Texture;
 import com.annahid.libs.artenus.graphics.TextureManager;
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
@@ -35,7 +40,7 @@ import java.nio.FloatBuffer;
  * @see SpriteEntity
  */
 @SuppressWarnings("UnusedDeclaration")
-public class ImageSprite extends SpriteEntity {
+public class ImageSprite extends SpriteEntity implements Bounded, HitTestable {
     /**
      * Holds current atlas frame being displayed by the image sprite.
      */
@@ -133,8 +138,8 @@ public class ImageSprite extends SpriteEntity {
 
             context.setShader(program);
 
-            if (!cutout.isGenerated()) {
-                cutout.generate(frames.getWidth(), frames.getHeight());
+            if (!cutout.isGenerated(frames)) {
+                cutout.generate(frames);
             }
             final float width = scale.x * cutout.fw, height = scale.y * cutout.fh;
             frames.prepare(program, cutout.textureBuffers[currentFrame]);
@@ -143,6 +148,72 @@ public class ImageSprite extends SpriteEntity {
         }
     }
 
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (frames == null || cutout == null) {
+            return false;
+        }
+
+        bounds.setRotatedRect(
+                pos.x, pos.y, scale.x * cutout.fw, scale.y * cutout.fh, rotation
+        );
+        return true;
+    }
+
+    /**
+     * Determines whether the given point lies on this sprite. The point is transformed into the
+     * current frame, and tested against the alpha mask of the texture if one is available, so that
+     * transparent areas of the frame do not respond to touch.
+     *
+     * @param x The x coordinate of the point in the coordinate space of the parent
+     * @param y The y coordinate of the point in the coordinate space of the parent
+     *
+     * @return {@code true} if the point lies on a visible part of the sprite, {@code false}
+     * otherwise
+     */
+    @Override
+    public boolean hitTest(float x, float y) {
+        if (frames == null || cutout == null || alpha == 0) {
+            return false;
+        }
+
+        final float width = scale.x * cutout.fw, height = scale.y * cutout.fh;
+
+        if (width == 0 || height == 0) {
+            return false;
+        }
+
+        final double rad = Math.toRadians(rotation);
+        final float cos = (float) Math.cos(rad), sin = (float) Math.sin(rad);
+        final float dx = x - pos.x, dy = y - pos.y;
+
+        // Position within the frame, from -0.5 to 0.5 on each axis
+        final float lx = (dx * cos + dy * sin) / width;
+        final float ly = (dy * cos - dx * sin) / height;
+
+        if (lx < -0.5f || lx > 0.5f || ly < -0.5f || ly > 0.5f) {
+            return false;
+        }
+
+        final AlphaMask mask = frames.getAlphaMask();
+
+        if (mask == null || frames.getWidth() == 0 || frames.getHeight() == 0) {
+            return true;
+        }
+
+        final int column = currentFrame % cutout.fc, row = currentFrame / cutout.fc;
+        final float u = (cutout.sx + cutout.fw * (column + lx + 0.5f)) / frames.getWidth();
+        final float v = (cutout.sy + cutout.fh * (row + ly + 0.5f)) / frames.getHeight();
+        return mask.isOpaque(u, v);
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED
+                || behavior == Behaviors.HIT_TESTABLE
+                || super.hasBehavior(behavior);
+    }
+
     /**
      * Describes how a texture is divided into image blocks for use in an {@code ImageSprite}. By
      * introducing a {@code ImageSprite.Cutout} object to an {@code ImageSprite}, you instruct it
@@ -156,6 +227,18 @@ public class ImageSprite extends SpriteEntity {
          */
         private FloatBuffer[] textureBuffers;
 
+        /**
+         * Holds the texture the texture coordinate buffers were generated for.
+         */
+        private Texture source;
+
+        /**
+         * Holds the region version of the source texture when buffers were generated.
+         *
+         * @see Texture#getRegionVersion()
+         */
+        private int sourceVersion;
+
         /**
          * Holds frame (or block) width.
          */
@@ -254,29 +337,57 @@ public class ImageSprite extends SpriteEntity {
 
         /**
          * Determines whether the texture buffers for this cutout have already
-         * been generated.
+         * been generated for the current region of the given texture.
+         *
+         * @param tex The texture
          *
          * @return {@code true} if buffers are generated or {@code false} otherwise
          */
-        boolean isGenerated() {
-            return textureBuffers != null;
+        boolean isGenerated(Texture tex) {
+            return textureBuffers != null
+                    && source == tex && sourceVersion == tex.getRegionVersion();
+        }
+
+        /**
+         * Computes the left, top, right and bottom texture coordinates of each frame for the given
+         * texture, in the order used for frame indices.
+         *
+         * @param tex The texture
+         *
+         * @return Array containing four texture coordinates per frame
+         */
+        float[] computeFrameCoords(Texture tex) {
+            final float[] coords = new float[fc * fch * 4];
+
+            for (int indexh = 0; indexh < fch; indexh++) {
+                for (int index = 0; index < fc; index++) {
+                    final int o = (indexh * fc + index) * 4;
+                    coords[o] = tex.mapU(sx + fw * (float) index);
+                    coords[o + 1] = tex.mapV(sy + fh * (float) indexh);
+                    coords[o + 2] = tex.mapU(sx + fw * (float) (index + 1));
+                    coords[o + 3] = tex.mapV(sy + fh * (float) (indexh + 1));
+                }
+            }
+
+            return coords;
         }
 
         /**
-         * Generates texture coordinate buffers.
+         * Generates texture coordinate buffers for the given texture.
          *
-         * @param w Perceived texture width
-         * @param h Perceived texture height
+         * @param tex The texture
          */
-        void generate(int w, int h) {
+        void generate(Texture tex) {
+            source = tex;
+            sourceVersion = tex.getRegionVersion();
             textureBuffers = new FloatBuffer[fc * fch];
 
             for (int indexh = 0; indexh < fch; indexh++) {
                 for (int index = 0; index < fc; index++) {
-                    final float x1 = (sx + fw * (float) index) / (float) w;
-                    final float x2 = (sx + fw * (float) (index + 1)) / (float) w;
-                    final float y1 = (sy + fh * (float) indexh) / (float) h;
-                    final float y2 = (sy + fh * (float) (indexh + 1)) / (float) h;
+                    final float x1 = tex.mapU(sx + fw * (float) index);
+                    final float x2 = tex.mapU(sx + fw * (float) (index + 1));
+                    final float y1 = tex.mapV(sy + fh * (float) indexh);
+                    final float y2 = tex.mapV(sy + fh * (float) (indexh + 1));
 
                     final float texture[] = {
                             x1, y1,
@@ -19,6 +19,9 @@
 package com.annahid.libs.artenus.graphics.sprites;
 
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
 import com.annahid.libs.artenus.data.Point2D;
 
 /**
@@ -27,7 +30,7 @@ import com.annahid.libs.artenus.data.Point2D;
  * @author Hessan Feghhi
  */
 @SuppressWarnings("UnusedDeclaration")
-public final class LineSprite extends SpriteEntity {
+public final class LineSprite extends SpriteEntity implements Bounded {
     /**
      * Holds the first point.
      */
@@ -143,6 +146,17 @@ public final class LineSprite extends SpriteEntity {
         context.popMatrix();
     }
 
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        bounds.setRotatedRect(pos.x, pos.y, scale.x, scale.y, rotation);
+        return true;
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED || super.hasBehavior(behavior);
+    }
+
     /**
      * Updates the {@code LineSprite} after changes are made to the properties.
      */
@@ -0,0 +1,723 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.graphics.sprites;
+
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.graphics.Texture;
+import com.annahid.libs.artenus.graphics.TextureManager;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
+
+/**
+ * <p>Emits and displays particles, such as sparks, smoke or debris, that share one frame of an
+ * atlas texture. The state of particles is kept in preallocated arrays, one array per property, and
+ * no object is created per particle. Particles are simulated in tight loops and the whole system
+ * is drawn with a single mesh, so tens of thousands of particles can be displayed at once.</p>
+ * <p>The behavior of particles is configured through three groups of settings. Emission settings
+ * determine the rate, area, direction, speed and lifetime of new particles. Forces, namely gravity,
+ * drag and an optional custom {@link Force}, change their velocities. The color gradient and scale
+ * determine how they look over their lifetime.</p>
+ * <p>Particles are emitted at the position of the emitter and then move independently of it, so
+ * moving the emitter leaves a trail. The emitter rotation turns the emission direction, while its
+ * transparency and color filter apply to all particles.</p>
+ *
+ * @author Hessan Feghhi
+ * @see ImageSprite.Cutout
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class ParticleEmitter extends SpriteEntity implements Bounded {
+    /**
+     * Holds the number of entries in the color table computed from the color gradient.
+     */
+    private static final int COLOR_STEPS = 64;
+
+    /**
+     * Holds the resource identifier of the atlas texture.
+     */
+    private final int resId;
+
+    /**
+     * Holds the cutout that divides the texture into frames.
+     */
+    private final ImageSprite.Cutout cutout;
+
+    /**
+     * Holds the maximum number of particles.
+     */
+    private final int capacity;
+
+    /**
+     * Contains the x coordinates of the particles.
+     */
+    private final float[] xs;
+
+    /**
+     * Contains the y coordinates of the particles.
+     */
+    private final float[] ys;
+
+    /**
+     * Contains the x components of the velocities of the particles.
+     */
+    private final float[] vxs;
+
+    /**
+     * Contains the y components of the velocities of the particles.
+     */
+    private final float[] vys;
+
+    /**
+     * Contains the ages of the particles in seconds.
+     */
+    private final float[] ages;
+
+    /**
+     * Contains the lifetimes of the particles in seconds.
+     */
+    private final float[] lifetimes;
+
+    /**
+     * Contains the mesh of the particles being drawn.
+     */
+    private final float[] mesh;
+
+    /**
+     * Contains the colors of the particles being drawn.
+     */
+    private final float[] colors;
+
+    /**
+     * Contains the pre-multiplied colors of particles at evenly spaced points of their lifetime.
+     */
+    private final float[] colorTable = new float[COLOR_STEPS * 4];
+
+    /**
+     * Holds the atlas texture.
+     */
+    private Texture frames = null;
+
+    /**
+     * Contains the left, top, right and bottom texture coordinates of each frame.
+     */
+    private float[] frameCoords = null;
+
+    /**
+     * Holds the region version of the texture when texture coordinates were computed.
+     *
+     * @see Texture#getRegionVersion()
+     */
+    private int coordsVersion;
+
+    /**
+     * Holds the index of the frame used by all particles.
+     */
+    private int frame = 0;
+
+    /**
+     * Holds the number of live particles.
+     */
+    private int count = 0;
+
+    /**
+     * Indicates whether particles are emitted continuously.
+     */
+    private boolean emitting = true;
+
+    /**
+     * Holds the number of particles emitted per second.
+     */
+    private float rate = 100;
+
+    /**
+     * Holds the fraction of a particle carried over to the next frame.
+     */
+    private float emissionDebt = 0;
+
+    /**
+     * Holds the width of the area particles are emitted from.
+     */
+    private float areaWidth = 0;
+
+    /**
+     * Holds the height of the area particles are emitted from.
+     */
+    private float areaHeight = 0;
+
+    /**
+     * Holds the emission direction in degrees.
+     */
+    private float direction = -90;
+
+    /**
+     * Holds the angle of the emission cone in degrees.
+     */
+    private float spread = 30;
+
+    /**
+     * Holds the minimum initial speed of particles.
+     */
+    private float minSpeed = 50;
+
+    /**
+     * Holds the maximum initial speed of particles.
+     */
+    private float maxSpeed = 100;
+
+    /**
+     * Holds the minimum lifetime of particles in seconds.
+     */
+    private float minLifetime = 1;
+
+    /**
+     * Holds the maximum lifetime of particles in seconds.
+     */
+    private float maxLifetime = 1;
+
+    /**
+     * Holds the scale of particles when they are emitted.
+     */
+    private float startScale = 1;
+
+    /**
+     * Holds the scale of particles at the end of their lifetime.
+     */
+    private float endScale = 1;
+
+    /**
+     * Holds the x component of the acceleration applied to all particles.
+     */
+    private float gravityX = 0;
+
+    /**
+     * Holds the y component of the acceleration applied to all particles.
+     */
+    private float gravityY = 0;
+
+    /**
+     * Holds the drag coefficient, which slows down particles in proportion to their velocity.
+     */
+    private float drag = 0;
+
+    /**
+     * Holds the custom force applied to particles, or {@code null}.
+     */
+    private Force force = null;
+
+    /**
+     * Holds the state of the random number generator.
+     */
+    private int seed = (int) System.nanoTime() | 1;
+
+    /**
+     * Creates a particle emitter that uses the given frame of the given texture and cutout. Make
+     * sure that the texture exists and is loaded beforehand. See {@link TextureManager} for more
+     * details. All memory needed by the particles is allocated here.
+     *
+     * @param resourceId The resource identifier of the atlas texture
+     * @param co         The cutout dividing the texture into frames
+     * @param capacity   The maximum number of live particles
+     */
+    public ParticleEmitter(int resourceId, ImageSprite.Cutout co, int capacity) {
+        super();
+        resId = resourceId;
+        cutout = co;
+        this.capacity = capacity;
+        xs = new float[capacity];
+        ys = new float[capacity];
+        vxs = new float[capacity];
+        vys = new float[capacity];
+        ages = new float[capacity];
+        lifetimes = new float[capacity];
+        mesh = new float[capacity * 8];
+        colors = new float[capacity * 4];
+        setColors(1, 1, 1, 1, 1, 1, 1, 1, 1, 0);
+    }
+
+    /**
+     * Gets the maximum number of live particles.
+     *
+     * @return The capacity of the emitter
+     */
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of live particles.
+     *
+     * @return Number of particles
+     */
+    public final int size() {
+        return count;
+    }
+
+    /**
+     * Removes all live particles.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Gets the frame used by all particles.
+     *
+     * @return The frame index
+     */
+    public final int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Sets the frame used by all particles.
+     *
+     * @param frame The frame index
+     */
+    public final void setFrame(int frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Indicates whether particles are emitted continuously.
+     *
+     * @return {@code true} if the emitter is emitting, {@code false} otherwise
+     */
+    public final boolean isEmitting() {
+        return emitting;
+    }
+
+    /**
+     * Starts or stops emitting particles continuously. Live particles are not affected. Emitters
+     * are emitting by default.
+     *
+     * @param emitting {@code true} to emit particles, {@code false} to stop
+     */
+    public final void setEmitting(boolean emitting) {
+        this.emitting = emitting;
+    }
+
+    /**
+     * Gets the number of particles emitted per second.
+     *
+     * @return The emission rate
+     */
+    public final float getEmissionRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the number of particles emitted per second while the emitter is emitting. The default
+     * rate is 100 particles per second.
+     *
+     * @param rate The emission rate
+     */
+    public final void setEmissionRate(float rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Sets the size of the rectangular area, centered at the position of the emitter, that
+     * particles are emitted from. The default size is zero, which emits all particles from the
+     * same point.
+     *
+     * @param width  Width of the area
+     * @param height Height of the area
+     */
+    public final void setEmissionArea(float width, float height) {
+        areaWidth = width;
+        areaHeight = height;
+    }
+
+    /**
+     * Sets the direction particles are emitted in. The direction of each particle is chosen
+     * randomly in a cone around the given angle, which is relative to the rotation of the emitter.
+     * By default, particles are emitted upwards in a 30 degree cone.
+     *
+     * @param angle  The emission direction in degrees
+     * @param spread The angle of the cone in degrees
+     */
+    public final void setDirection(float angle, float spread) {
+        direction = angle;
+        this.spread = spread;
+    }
+
+    /**
+     * Sets the range of initial speeds of particles, in units per second.
+     *
+     * @param min The minimum speed
+     * @param max The maximum speed
+     */
+    public final void setSpeed(float min, float max) {
+        minSpeed = min;
+        maxSpeed = max;
+    }
+
+    /**
+     * Sets the range of lifetimes of particles. The default lifetime is one second.
+     *
+     * @param min The minimum lifetime in seconds
+     * @param max The maximum lifetime in seconds
+     */
+    public final void setLifetime(float min, float max) {
+        minLifetime = min;
+        maxLifetime = max;
+    }
+
+    /**
+     * Sets the scale of particles over their lifetime, relative to the size of the frame. The
+     * scale changes linearly from the start value to the end value.
+     *
+     * @param start The scale of particles when they are emitted
+     * @param end   The scale of particles at the end of their lifetime
+     */
+    public final void setParticleScale(float start, float end) {
+        startScale = start;
+        endScale = end;
+    }
+
+    /**
+     * Sets the acceleration applied to all particles, in units per second squared.
+     *
+     * @param x The x component of the acceleration
+     * @param y The y component of the acceleration
+     */
+    public final void setGravity(float x, float y) {
+        gravityX = x;
+        gravityY = y;
+    }
+
+    /**
+     * Sets the drag coefficient, which slows down particles in proportion to their velocity. A
+     * value of zero, which is the default, does not slow them down.
+     *
+     * @param drag The drag coefficient
+     */
+    public final void setDrag(float drag) {
+        this.drag = drag;
+    }
+
+    /**
+     * Gets the custom force applied to particles.
+     *
+     * @return The force, or {@code null} if there is none
+     */
+    public final Force getForce() {
+        return force;
+    }
+
+    /**
+     * Sets a custom force to be applied to particles every frame, in addition to gravity and drag.
+     *
+     * @param force The force, or {@code null} to remove it
+     */
+    public final void setForce(Force force) {
+        this.force = force;
+    }
+
+    /**
+     * <p>Sets the color gradient of particles over their lifetime. The gradient is given as a
+     * sequence of stops, with five values per stop: the point in the lifetime of the particle
+     * between 0 and 1, followed by the red, green, blue and alpha components of its color. Stops
+     * must be in ascending order. Colors are interpolated linearly between stops.</p>
+     * <p>The gradient is sampled into a table once, so particles look up their color instead of
+     * interpolating it. By default, particles are white and fade out over their lifetime.</p>
+     *
+     * @param stops The color stops
+     *
+     * @throws IllegalArgumentException The number of values is not a positive multiple of five
+     */
+    public final void setColors(float... stops) {
+        if (stops.length == 0 || stops.length % 5 != 0) {
+            throw new IllegalArgumentException(
+                    "Color stops must have five values each: time, red, green, blue and alpha.");
+        }
+
+        final int last = stops.length - 5;
+        int stop = 0;
+
+        for (int k = 0; k < COLOR_STEPS; k++) {
+            final float t = k / (float) (COLOR_STEPS - 1);
+
+            while (stop < last && stops[stop + 5] <= t) {
+                stop += 5;
+            }
+
+            final int next = Math.min(stop + 5, last);
+            final float t0 = stops[stop], t1 = stops[next];
+            final float f = t1 > t0 ? Math.min(Math.max((t - t0) / (t1 - t0), 0), 1) : 0;
+            final float a = stops[stop + 4] + (stops[next + 4] - stops[stop + 4]) * f;
+
+            for (int c = 0; c < 3; c++) {
+                final float value = stops[stop + 1 + c] +
+                        (stops[next + 1 + c] - stops[stop + 1 + c]) * f;
+                colorTable[k * 4 + c] = value * a;
+            }
+
+            colorTable[k * 4 + 3] = a;
+        }
+    }
+
+    /**
+     * Emits a number of particles at once, in addition to those emitted continuously. Particles
+     * that do not fit in the capacity of the emitter are ignored.
+     *
+     * @param amount The number of particles
+     */
+    public void emit(int amount) {
+        final int end = Math.min(count + amount, capacity);
+
+        for (int i = count; i < end; i++) {
+            final double angle = Math.toRadians(direction + rotation + (random() - 0.5f) * spread);
+            final float speed = minSpeed + (maxSpeed - minSpeed) * random();
+            xs[i] = pos.x + (random() - 0.5f) * areaWidth;
+            ys[i] = pos.y + (random() - 0.5f) * areaHeight;
+            vxs[i] = (float) Math.cos(angle) * speed;
+            vys[i] = (float) Math.sin(angle) * speed;
+            ages[i] = 0;
+            lifetimes[i] = minLifetime + (maxLifetime - minLifetime) * random();
+        }
+
+        count = end;
+    }
+
+    /**
+     * Gets the array containing the x coordinates of the particles. Only the first {@link #size()}
+     * elements are valid.
+     *
+     * @return The array
+     */
+    public final float[] getXs() {
+        return xs;
+    }
+
+    /**
+     * Gets the array containing the y coordinates of the particles. Only the first {@link #size()}
+     * elements are valid.
+     *
+     * @return The array
+     */
+    public final float[] getYs() {
+        return ys;
+    }
+
+    /**
+     * Gets the array containing the ages of the particles in seconds. Only the first
+     * {@link #size()} elements are valid.
+     *
+     * @return The array
+     */
+    public final float[] getAges() {
+        return ages;
+    }
+
+    /**
+     * Gets the array containing the lifetimes of the particles in seconds. Only the first
+     * {@link #size()} elements are valid.
+     *
+     * @return The array
+     */
+    public final float[] getLifetimes() {
+        return lifetimes;
+    }
+
+    /**
+     * Advances the particles. Expired particles are removed, forces are applied, particles are
+     * moved, and new particles are emitted if the emitter is emitting.
+     *
+     * @param elapsedTime The elapsed time since the previous frame
+     */
+    @Override
+    public void advance(float elapsedTime) {
+        super.advance(elapsedTime);
+
+        if (force != null && count > 0) {
+            force.apply(this, vxs, vys, count, elapsedTime);
+        }
+
+        final float gx = gravityX * elapsedTime, gy = gravityY * elapsedTime;
+        final float damping = drag > 0 ? 1 / (1 + drag * elapsedTime) : 1;
+
+        // Iterating backwards, the particle moved into the place of an expired one has already
+        // been advanced.
+        for (int i = count - 1; i >= 0; i--) {
+            final float age = ages[i] + elapsedTime;
+
+            if (age >= lifetimes[i]) {
+                final int last = --count;
+                xs[i] = xs[last];
+                ys[i] = ys[last];
+                vxs[i] = vxs[last];
+                vys[i] = vys[last];
+                ages[i] = ages[last];
+                lifetimes[i] = lifetimes[last];
+                continue;
+            }
+
+            final float vx = (vxs[i] + gx) * damping, vy = (vys[i] + gy) * damping;
+            ages[i] = age;
+            vxs[i] = vx;
+            vys[i] = vy;
+            xs[i] += vx * elapsedTime;
+            ys[i] += vy * elapsedTime;
+        }
+
+        if (emitting && rate > 0) {
+            emissionDebt += rate * elapsedTime;
+            final int amount = (int) emissionDebt;
+            emissionDebt -= amount;
+            emit(amount);
+        }
+    }
+
+    @Override
+    public void render(RenderingContext context, int flags) {
+        if (frames == null) {
+            frames = TextureManager.getTexture(resId);
+            return;
+        }
+
+        if (alpha == 0 || count == 0) {
+            return;
+        }
+
+        if (frameCoords == null || coordsVersion != frames.getRegionVersion()) {
+            coordsVersion = frames.getRegionVersion();
+            frameCoords = cutout.computeFrameCoords(frames);
+        }
+
+        if (frameCoords.length == 0) {
+            return;
+        }
+
+        TextureShaderProgram program = (TextureShaderProgram) TextureManager.getShaderProgram();
+
+        if ((flags & FLAG_PRESERVE_SHADER_PROGRAM) != 0) {
+            if (context.getShader() instanceof TextureShaderProgram) {
+                program = (TextureShaderProgram) context.getShader();
+            }
+        }
+
+        context.setShader(program);
+        program.feed(frames.getTextureHandle());
+        context.setColorFilter(alpha * cf.r, alpha * cf.g, alpha * cf.b, alpha);
+
+        final int f = Math.min(Math.max(frame, 0), frameCoords.length / 4 - 1) * 4;
+        final float u1 = frameCoords[f], v1 = frameCoords[f + 1];
+        final float u2 = frameCoords[f + 2], v2 = frameCoords[f + 3];
+        final float fw = cutout.getFrameWidth() / 2, fh = cutout.getFrameHeight() / 2;
+        final float scaleDelta = endScale - startScale;
+        final float[] m = mesh, c = colors, table = colorTable;
+
+        for (int i = 0; i < count; i++) {
+            final float t = Math.min(ages[i] / lifetimes[i], 1);
+            final float s = startScale + scaleDelta * t;
+            final float hw = fw * s, hh = fh * s;
+            final int o = i * 8, k = (int) (t * (COLOR_STEPS - 1)) * 4, q = i * 4;
+            m[o] = xs[i] - hw;
+            m[o + 1] = ys[i] - hh;
+            m[o + 2] = xs[i] + hw;
+            m[o + 3] = ys[i] + hh;
+            m[o + 4] = u1;
+            m[o + 5] = v1;
+            m[o + 6] = u2;
+            m[o + 7] = v2;
+            c[q] = table[k];
+            c[q + 1] = table[k + 1];
+            c[q + 2] = table[k + 2];
+            c[q + 3] = table[k + 3];
+        }
+
+        context.rects(m, 0, count, c, 0);
+    }
+
+    /**
+     * Gets the bounds of all live particles. Since particles move independently of the emitter,
+     * the bounds are in the coordinate space of the emitter's parent, like its position.
+     *
+     * @param bounds The bounds to be modified
+     *
+     * @return {@code true} if the bounds are available, {@code false} if the texture is not loaded
+     */
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (frames == null) {
+            return false;
+        }
+
+        if (count == 0) {
+            bounds.setEmpty();
+            return true;
+        }
+
+        final float s = Math.max(Math.abs(startScale), Math.abs(endScale));
+        final float hw = cutout.getFrameWidth() / 2 * s, hh = cutout.getFrameHeight() / 2 * s;
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            left = Math.min(left, xs[i]);
+            top = Math.min(top, ys[i]);
+            right = Math.max(right, xs[i]);
+            bottom = Math.max(bottom, ys[i]);
+        }
+
+        bounds.set(left - hw, top - hh, right + hw, bottom + hh);
+        return true;
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED || super.hasBehavior(behavior);
+    }
+
+    /**
+     * Generates a uniformly distributed random number using a xorshift generator, which is
+     * considerably faster than {@link java.util.Random} and does not synchronize.
+     *
+     * @return A random number between 0 (inclusive) and 1 (exclusive)
+     */
+    private float random() {
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return (x >>> 8) * (1.0f / (1 << 24));
+    }
+
+    /**
+     * Interface for custom forces applied to particles, such as wind, attraction or turbulence.
+     * The force is applied to all particles at once, by changing their velocities directly in the
+     * arrays of the emitter.
+     */
+    public interface Force {
+        /**
+         * Applies the force to the particles of an emitter. Positions, ages and lifetimes can be
+         * read through the emitter.
+         *
+         * @param emitter     The particle emitter
+         * @param vxs         Array containing the x components of the velocities of the particles
+         * @param vys         Array containing the y components of the velocities of the particles
+         * @param count       Number of live particles, which are the first elements of the arrays
+         * @param elapsedTime The elapsed time since the previous frame
+         */
+        void apply(ParticleEmitter emitter, float[] vxs, float[] vys, int count, float elapsedTime);
+    }
+}
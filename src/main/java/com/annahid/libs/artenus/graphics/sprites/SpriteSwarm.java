@@ -0,0 +1,766 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.graphics.sprites;
+
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.graphics.Texture;
+import com.annahid.libs.artenus.graphics.TextureManager;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
+
+/**
+ * <p>Displays a large number of similar sprites sharing one atlas texture, such as bullets, crowds
+ * or particles. Instead of one object per sprite, the position, scale, rotation, transparency,
+ * color and frame of all sprites are stored in packed arrays, one array per property. Individual
+ * sprites can be manipulated through lightweight {@link Handle}s, and whole sets can be updated in
+ * tight loops by an {@link Updater} working directly on the arrays.</p>
+ * <p>The swarm itself is a sprite. Its position, rotation, scale, transparency and color filter
+ * apply to all sprites in it. Consecutive unrotated sprites with the same color are drawn with a
+ * single call.</p>
+ *
+ * @author Hessan Feghhi
+ * @see ImageSprite.Cutout
+ */
+@SuppressWarnings("UnusedDeclaration")
+public class SpriteSwarm extends SpriteEntity implements Bounded {
+    /**
+     * Holds the number of sprites the swarm can initially hold before growing.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Holds the resource identifier of the atlas texture.
+     */
+    private final int resId;
+
+    /**
+     * Holds the cutout that divides the texture into frames.
+     */
+    private final ImageSprite.Cutout cutout;
+
+    /**
+     * Holds the atlas texture.
+     */
+    private Texture frames = null;
+
+    /**
+     * Contains the left, top, right and bottom texture coordinates of each frame.
+     */
+    private float[] frameCoords = null;
+
+    /**
+     * Holds the region version of the texture when texture coordinates were computed.
+     *
+     * @see Texture#getRegionVersion()
+     */
+    private int coordsVersion;
+
+    /**
+     * Holds the number of sprites in the swarm.
+     */
+    private int count = 0;
+
+    /**
+     * Contains the x coordinates of the sprites.
+     */
+    private float[] xs = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the y coordinates of the sprites.
+     */
+    private float[] ys = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the horizontal scaling factors of the sprites.
+     */
+    private float[] scaleXs = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the vertical scaling factors of the sprites.
+     */
+    private float[] scaleYs = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the rotation angles of the sprites in degrees.
+     */
+    private float[] rotations = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the alpha transparency values of the sprites.
+     */
+    private float[] alphas = new float[INITIAL_CAPACITY];
+
+    /**
+     * Contains the color filters of the sprites, with three floats per sprite: red, green and
+     * blue.
+     */
+    private float[] colors = new float[INITIAL_CAPACITY * 3];
+
+    /**
+     * Contains the frame indices of the sprites.
+     */
+    private int[] frameIndices = new int[INITIAL_CAPACITY];
+
+    /**
+     * Contains the handles of the sprites.
+     */
+    private Handle[] handles = new Handle[INITIAL_CAPACITY];
+
+    /**
+     * Contains the mesh of a run of sprites being drawn.
+     */
+    private float[] mesh = new float[INITIAL_CAPACITY * 8];
+
+    /**
+     * Holds the object updating the sprites every frame, or {@code null}.
+     */
+    private Updater updater = null;
+
+    /**
+     * Creates an empty swarm of sprites that use the given texture and cutout. Make sure that the
+     * texture exists and is loaded beforehand. See {@link TextureManager} for more details.
+     *
+     * @param resourceId The resource identifier for the texture
+     * @param co         The cutout instructor to generate frames
+     */
+    public SpriteSwarm(int resourceId, ImageSprite.Cutout co) {
+        super();
+        resId = resourceId;
+        cutout = co;
+    }
+
+    /**
+     * Adds a sprite to the swarm at the given position. The sprite is initially unrotated, opaque,
+     * unscaled, and displays the first frame.
+     *
+     * @param x The x coordinate of the sprite
+     * @param y The y coordinate of the sprite
+     *
+     * @return The handle to the new sprite
+     */
+    public Handle add(float x, float y) {
+        if (count == xs.length) {
+            grow(count * 2);
+        }
+
+        final int i = count++;
+        xs[i] = x;
+        ys[i] = y;
+        scaleXs[i] = scaleYs[i] = 1;
+        rotations[i] = 0;
+        alphas[i] = 1;
+        colors[i * 3] = colors[i * 3 + 1] = colors[i * 3 + 2] = 1;
+        frameIndices[i] = 0;
+        final Handle handle = new Handle(this, i);
+        handles[i] = handle;
+        return handle;
+    }
+
+    /**
+     * Removes a sprite from the swarm. The last sprite takes the place of the removed one, so the
+     * order of the sprites is not preserved. The handle becomes invalid after this call.
+     *
+     * @param handle The handle to the sprite
+     */
+    public void remove(Handle handle) {
+        if (handle.swarm != this || handle.index < 0) {
+            return;
+        }
+
+        final int i = handle.index, last = --count;
+
+        if (i != last) {
+            xs[i] = xs[last];
+            ys[i] = ys[last];
+            scaleXs[i] = scaleXs[last];
+            scaleYs[i] = scaleYs[last];
+            rotations[i] = rotations[last];
+            alphas[i] = alphas[last];
+            System.arraycopy(colors, last * 3, colors, i * 3, 3);
+            frameIndices[i] = frameIndices[last];
+            handles[i] = handles[last];
+            handles[i].index = i;
+        }
+
+        handles[last] = null;
+        handle.index = -1;
+    }
+
+    /**
+     * Removes all sprites from the swarm. All handles become invalid.
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            handles[i].index = -1;
+            handles[i] = null;
+        }
+
+        count = 0;
+    }
+
+    /**
+     * Gets the number of sprites in the swarm. Only this many elements of the property arrays are
+     * in use.
+     *
+     * @return Number of sprites
+     */
+    public final int size() {
+        return count;
+    }
+
+    /**
+     * Gets the handle of the sprite at the given index in the property arrays.
+     *
+     * @param index Index of the sprite, from 0 to {@code size() - 1}
+     *
+     * @return The handle
+     */
+    public final Handle getHandle(int index) {
+        return handles[index];
+    }
+
+    /**
+     * Gets the array containing the x coordinates of the sprites. The array is replaced when the
+     * swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getXs() {
+        return xs;
+    }
+
+    /**
+     * Gets the array containing the y coordinates of the sprites. The array is replaced when the
+     * swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getYs() {
+        return ys;
+    }
+
+    /**
+     * Gets the array containing the horizontal scaling factors of the sprites. The array is
+     * replaced when the swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getScaleXs() {
+        return scaleXs;
+    }
+
+    /**
+     * Gets the array containing the vertical scaling factors of the sprites. The array is replaced
+     * when the swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getScaleYs() {
+        return scaleYs;
+    }
+
+    /**
+     * Gets the array containing the rotation angles of the sprites in degrees. The array is
+     * replaced when the swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getRotations() {
+        return rotations;
+    }
+
+    /**
+     * Gets the array containing the alpha transparency values of the sprites. The array is replaced
+     * when the swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getAlphas() {
+        return alphas;
+    }
+
+    /**
+     * Gets the array containing the color filters of the sprites, with the red, green and blue
+     * multipliers of each sprite in consecutive elements. The array is replaced when the swarm
+     * grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final float[] getColors() {
+        return colors;
+    }
+
+    /**
+     * Gets the array containing the frame indices of the sprites. The array is replaced when the
+     * swarm grows, so it should be retrieved again after adding sprites.
+     *
+     * @return The array
+     */
+    public final int[] getFrameIndices() {
+        return frameIndices;
+    }
+
+    /**
+     * Gets the object updating the sprites every frame.
+     *
+     * @return The updater, or {@code null} if there is none
+     */
+    public final Updater getUpdater() {
+        return updater;
+    }
+
+    /**
+     * Sets the object updating the sprites every frame. The updater is called after the animation
+     * of the swarm as a whole is advanced.
+     *
+     * @param updater The updater, or {@code null} to remove it
+     */
+    public final void setUpdater(Updater updater) {
+        this.updater = updater;
+    }
+
+    @Override
+    public void advance(float elapsedTime) {
+        super.advance(elapsedTime);
+
+        if (updater != null) {
+            updater.update(this, elapsedTime);
+        }
+    }
+
+    @Override
+    public void render(RenderingContext context, int flags) {
+        if (frames == null) {
+            frames = TextureManager.getTexture(resId);
+            return;
+        }
+
+        if (alpha == 0 || count == 0) {
+            return;
+        }
+
+        if (frameCoords == null || coordsVersion != frames.getRegionVersion()) {
+            coordsVersion = frames.getRegionVersion();
+            frameCoords = cutout.computeFrameCoords(frames);
+        }
+
+        if (frameCoords.length == 0) {
+            return;
+        }
+
+        TextureShaderProgram program = (TextureShaderProgram) TextureManager.getShaderProgram();
+
+        if ((flags & FLAG_PRESERVE_SHADER_PROGRAM) != 0) {
+            if (context.getShader() instanceof TextureShaderProgram) {
+                program = (TextureShaderProgram) context.getShader();
+            }
+        }
+
+        context.setShader(program);
+        program.feed(frames.getTextureHandle());
+        context.pushMatrix();
+        context.translate(pos.x, pos.y);
+        context.rotate(rotation);
+        context.scale(scale.x, scale.y);
+
+        final float fw = cutout.getFrameWidth(), fh = cutout.getFrameHeight();
+        final int frameCount = frameCoords.length / 4;
+        float runR = 0, runG = 0, runB = 0, runA = 0;
+        int run = 0;
+
+        for (int i = 0; i < count; i++) {
+            final float a = alpha * alphas[i];
+
+            if (a == 0) {
+                continue;
+            }
+
+            final float r = a * cf.r * colors[i * 3];
+            final float g = a * cf.g * colors[i * 3 + 1];
+            final float b = a * cf.b * colors[i * 3 + 2];
+            final float hw = fw * scaleXs[i] / 2, hh = fh * scaleYs[i] / 2;
+            final int frame = Math.min(Math.max(frameIndices[i], 0), frameCount - 1);
+
+            if (run > 0 && (rotations[i] != 0 || r != runR || g != runG || b != runB ||
+                    a != runA)) {
+                context.setColorFilter(runR, runG, runB, runA);
+                context.rects(mesh, 0, run);
+                run = 0;
+            }
+
+            if (rotations[i] != 0) {
+                // Rotated sprites are drawn one at a time, centered at the origin
+                putQuad(0, -hw, -hh, hw, hh, frame);
+                context.pushMatrix();
+                context.translate(xs[i], ys[i]);
+                context.rotate(rotations[i]);
+                context.setColorFilter(r, g, b, a);
+                context.rects(mesh, 0, 1);
+                context.popMatrix();
+                continue;
+            }
+
+            putQuad(run++, xs[i] - hw, ys[i] - hh, xs[i] + hw, ys[i] + hh, frame);
+            runR = r;
+            runG = g;
+            runB = b;
+            runA = a;
+        }
+
+        if (run > 0) {
+            context.setColorFilter(runR, runG, runB, runA);
+            context.rects(mesh, 0, run);
+        }
+
+        context.popMatrix();
+    }
+
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (frames == null) {
+            return false;
+        }
+
+        if (count == 0) {
+            bounds.setEmpty();
+            return true;
+        }
+
+        final float fw = cutout.getFrameWidth() / 2, fh = cutout.getFrameHeight() / 2;
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            float hw = Math.abs(fw * scaleXs[i]), hh = Math.abs(fh * scaleYs[i]);
+
+            if (rotations[i] != 0) {
+                // The enclosing circle covers the sprite at any angle
+                hw = hh = (float) Math.sqrt(hw * hw + hh * hh);
+            }
+
+            left = Math.min(left, xs[i] - hw);
+            top = Math.min(top, ys[i] - hh);
+            right = Math.max(right, xs[i] + hw);
+            bottom = Math.max(bottom, ys[i] + hh);
+        }
+
+        bounds.set(left, top, right, bottom);
+        bounds.transform(pos, rotation, scale);
+        return true;
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED || super.hasBehavior(behavior);
+    }
+
+    /**
+     * Writes a quad into the mesh, growing it if necessary.
+     *
+     * @param quad   Index of the quad in the mesh
+     * @param left   Left edge of the quad
+     * @param top    Top edge of the quad
+     * @param right  Right edge of the quad
+     * @param bottom Bottom edge of the quad
+     * @param frame  Frame index providing the texture coordinates
+     */
+    private void putQuad(int quad, float left, float top, float right, float bottom, int frame) {
+        final int o = quad * 8;
+
+        if (o + 8 > mesh.length) {
+            final float[] grown = new float[mesh.length * 2];
+            System.arraycopy(mesh, 0, grown, 0, o);
+            mesh = grown;
+        }
+
+        mesh[o] = left;
+        mesh[o + 1] = top;
+        mesh[o + 2] = right;
+        mesh[o + 3] = bottom;
+        System.arraycopy(frameCoords, frame * 4, mesh, o + 4, 4);
+    }
+
+    /**
+     * Grows the property arrays to the given capacity.
+     *
+     * @param capacity The new capacity
+     */
+    private void grow(int capacity) {
+        xs = copyOf(xs, capacity);
+        ys = copyOf(ys, capacity);
+        scaleXs = copyOf(scaleXs, capacity);
+        scaleYs = copyOf(scaleYs, capacity);
+        rotations = copyOf(rotations, capacity);
+        alphas = copyOf(alphas, capacity);
+        colors = copyOf(colors, capacity * 3);
+        final int[] grownFrames = new int[capacity];
+        System.arraycopy(frameIndices, 0, grownFrames, 0, count);
+        frameIndices = grownFrames;
+        final Handle[] grownHandles = new Handle[capacity];
+        System.arraycopy(handles, 0, grownHandles, 0, count);
+        handles = grownHandles;
+    }
+
+    /**
+     * Copies a float array into a larger one.
+     *
+     * @param array  The array
+     * @param length The new length
+     *
+     * @return The new array
+     */
+    private static float[] copyOf(float[] array, int length) {
+        final float[] grown = new float[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Interface for objects that update all sprites in a swarm at once, by working directly on its
+     * property arrays.
+     *
+     * @author Hessan Feghhi
+     */
+    public interface Updater {
+        /**
+         * Updates the sprites in the swarm. This method is called when the swarm is advanced.
+         *
+         * @param swarm       The swarm
+         * @param elapsedTime The time elapsed since the previous frame
+         */
+        void update(SpriteSwarm swarm, float elapsedTime);
+    }
+
+    /**
+     * Refers to a single sprite in a {@link SpriteSwarm}. Reading and writing the properties of a
+     * handle reads and writes the arrays of the swarm. A handle stays valid until its sprite is
+     * removed, even if other sprites are removed and the sprite changes place in the arrays.
+     *
+     * @author Hessan Feghhi
+     */
+    public static final class Handle {
+        /**
+         * Holds the swarm containing the sprite.
+         */
+        private final SpriteSwarm swarm;
+
+        /**
+         * Holds the index of the sprite in the arrays of the swarm, or -1 if it is removed.
+         */
+        private int index;
+
+        /**
+         * Creates a new handle.
+         *
+         * @param swarm The swarm containing the sprite
+         * @param index The index of the sprite
+         */
+        private Handle(SpriteSwarm swarm, int index) {
+            this.swarm = swarm;
+            this.index = index;
+        }
+
+        /**
+         * Determines whether this handle still refers to a sprite.
+         *
+         * @return {@code true} if the sprite has not been removed, {@code false} otherwise
+         */
+        public boolean isValid() {
+            return index >= 0;
+        }
+
+        /**
+         * Gets the index of the sprite in the property arrays of the swarm. The index changes when
+         * other sprites are removed.
+         *
+         * @return The index, or -1 if the sprite has been removed
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Removes the sprite from the swarm.
+         */
+        public void remove() {
+            swarm.remove(this);
+        }
+
+        /**
+         * Gets the x coordinate of the sprite.
+         *
+         * @return The x coordinate
+         */
+        public float getX() {
+            return swarm.xs[index];
+        }
+
+        /**
+         * Gets the y coordinate of the sprite.
+         *
+         * @return The y coordinate
+         */
+        public float getY() {
+            return swarm.ys[index];
+        }
+
+        /**
+         * Sets the position of the sprite.
+         *
+         * @param x The x coordinate
+         * @param y The y coordinate
+         */
+        public void setPosition(float x, float y) {
+            swarm.xs[index] = x;
+            swarm.ys[index] = y;
+        }
+
+        /**
+         * Moves the sprite the given distance.
+         *
+         * @param amountX The horizontal translation
+         * @param amountY The vertical translation
+         */
+        public void move(float amountX, float amountY) {
+            swarm.xs[index] += amountX;
+            swarm.ys[index] += amountY;
+        }
+
+        /**
+         * Gets the horizontal scaling factor of the sprite.
+         *
+         * @return The scaling factor
+         */
+        public float getScaleX() {
+            return swarm.scaleXs[index];
+        }
+
+        /**
+         * Gets the vertical scaling factor of the sprite.
+         *
+         * @return The scaling factor
+         */
+        public float getScaleY() {
+            return swarm.scaleYs[index];
+        }
+
+        /**
+         * Sets the scaling factor of the sprite in both dimensions.
+         *
+         * @param scaleValue The scaling factor
+         */
+        public void setScale(float scaleValue) {
+            swarm.scaleXs[index] = swarm.scaleYs[index] = scaleValue;
+        }
+
+        /**
+         * Sets the scaling factor of the sprite, specifying different values horizontally and
+         * vertically.
+         *
+         * @param scaleX Horizontal scaling factor
+         * @param scaleY Vertical scaling factor
+         */
+        public void setScale(float scaleX, float scaleY) {
+            swarm.scaleXs[index] = scaleX;
+            swarm.scaleYs[index] = scaleY;
+        }
+
+        /**
+         * Gets the rotation angle of the sprite.
+         *
+         * @return The angle in degrees
+         */
+        public float getRotation() {
+            return swarm.rotations[index];
+        }
+
+        /**
+         * Sets the rotation angle of the sprite.
+         *
+         * @param angle The angle in degrees
+         */
+        public void setRotation(float angle) {
+            swarm.rotations[index] = angle;
+        }
+
+        /**
+         * Rotates the sprite the given number of degrees, relative to its current angle.
+         *
+         * @param angle The angle in degrees
+         */
+        public void rotate(float angle) {
+            swarm.rotations[index] += angle % 360;
+        }
+
+        /**
+         * Gets the alpha transparency value of the sprite.
+         *
+         * @return The alpha value
+         */
+        public float getAlpha() {
+            return swarm.alphas[index];
+        }
+
+        /**
+         * Sets the alpha transparency value of the sprite.
+         *
+         * @param alpha The alpha value, from 0 (invisible) to 1 (opaque)
+         */
+        public void setAlpha(float alpha) {
+            swarm.alphas[index] = alpha;
+        }
+
+        /**
+         * Sets the color filter of the sprite. The original colors will be multiplied by this
+         * color when rendering.
+         *
+         * @param r The red multiplier
+         * @param g The green multiplier
+         * @param b The blue multiplier
+         */
+        public void setColorFilter(float r, float g, float b) {
+            final int o = index * 3;
+            swarm.colors[o] = r;
+            swarm.colors[o + 1] = g;
+            swarm.colors[o + 2] = b;
+        }
+
+        /**
+         * Gets the frame displayed by the sprite.
+         *
+         * @return The frame index
+         */
+        public int getFrame() {
+            return swarm.frameIndices[index];
+        }
+
+        /**
+         * Sets the frame displayed by the sprite. Frames are determined by the cutout of the
+         * swarm.
+         *
+         * @param frame The frame index
+         */
+        public void gotoFrame(int frame) {
+            swarm.frameIndices[index] = frame;
+        }
+    }
+}
@@ -18,6 +18,10 @@
 
 package com.annahid.libs.artenus.graphics.sprites;
 
+import com.annahid.libs.artenus.data.Bounds2D;
+import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.graphics.DistanceFieldShaderProgram;
 import com.annahid.libs.artenus.graphics.TextureManager;
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
@@ -34,22 +38,103 @@ import com.annahid.libs.artenus.graphics.Font;
  * @see Font
  */
 @SuppressWarnings("UnusedDeclaration")
-public final class TextSprite extends SpriteEntity {
+public final class TextSprite extends SpriteEntity implements Bounded {
     /**
      * Holds the current font used to draw the text.
      */
     private Font myFont;
 
     /**
-     * Contains characters to be drawn.
+     * Contains characters to be drawn. The array can be longer than the text, to be reused when
+     * the text changes. It is guarded by the lock on this sprite, since the text can be changed on
+     * one thread while another one renders it.
      */
-    private char[] ca;
+    private char[] ca = new char[0];
+
+    /**
+     * Holds the number of characters in the text.
+     */
+    private int length = 0;
 
     /**
      * Indicates whether the text should be rendered in right-to-left order.
      */
     private boolean rtl = false;
 
+    /**
+     * Holds the style used to draw the text if the font is a distance field font.
+     */
+    private DistanceFieldShaderProgram style = null;
+
+    /**
+     * Indicates whether the text is currently showing the number in {@link #number}.
+     */
+    private boolean showsNumber = false;
+
+    /**
+     * Holds the number last set using {@link #setNumber(long)}.
+     */
+    private long number;
+
+    /**
+     * Indicates whether the text has changed since the metrics and the mesh were computed.
+     */
+    private boolean textChanged = true;
+
+    /**
+     * Holds the font the metrics were computed for.
+     */
+    private Font metricsFont;
+
+    /**
+     * Holds the font size the metrics were computed for.
+     */
+    private float metricsSize;
+
+    /**
+     * Holds the cached width of the text.
+     */
+    private float textWidth;
+
+    /**
+     * Holds the cached height of the text.
+     */
+    private float textHeight;
+
+    /**
+     * Contains the cached mesh of the text, relative to its position.
+     *
+     * @see Font#buildMesh(char[], int, float, boolean, float[])
+     */
+    private float[] mesh = new float[0];
+
+    /**
+     * Holds the number of quads in the cached mesh.
+     */
+    private int quadCount;
+
+    /**
+     * Indicates whether the cached mesh is out of date, regardless of the text.
+     */
+    private boolean meshChanged = true;
+
+    /**
+     * Holds the font the mesh was built for.
+     */
+    private Font meshFont;
+
+    /**
+     * Holds the font size the mesh was built for.
+     */
+    private float meshSize;
+
+    /**
+     * Holds the region version of the font when the mesh was built.
+     *
+     * @see com.annahid.libs.artenus.graphics.Texture#getRegionVersion()
+     */
+    private int meshVersion;
+
     /**
      * Creates a {@code TextSprite} using the given font and font size.
      *
@@ -83,7 +168,10 @@ public final class TextSprite extends SpriteEntity {
      *              it left-to-right
      */
     public void setRTL(boolean isRtl) {
-        rtl = isRtl;
+        if (rtl != isRtl) {
+            rtl = isRtl;
+            meshChanged = true;
+        }
     }
 
     /**
@@ -102,7 +190,9 @@ public final class TextSprite extends SpriteEntity {
      * @param y The y coordinate of the center point
      */
     public void centerAt(float x, float y) {
-        final float w = myFont.getTextWidth(ca, scale.x) / (rtl ? -2 : 2);
+        updateMetrics();
+
+        final float w = textWidth / (rtl ? -2 : 2);
         final double rot = Math.toRadians(rotation);
         setPosition(x - w * (float) Math.cos(rot), y - w * (float) Math.sin(rot));
     }
@@ -125,6 +215,28 @@ public final class TextSprite extends SpriteEntity {
         myFont = font;
     }
 
+    /**
+     * Gets the style used to draw the text if the font is a distance field font.
+     *
+     * @return The style, or {@code null} if the default style of the font is used
+     */
+    public final DistanceFieldShaderProgram getStyle() {
+        return style;
+    }
+
+    /**
+     * Sets the style used to draw the text if the font is a distance field font. The style allows
+     * drawing an outline and a shadow around the characters. It is ignored if it is intended for a
+     * font other than the one assigned to this {@code TextSprite}.
+     *
+     * @param style The style, or {@code null} to use the default style of the font
+     *
+     * @see Font#isDistanceField()
+     */
+    public final void setStyle(DistanceFieldShaderProgram style) {
+        this.style = style;
+    }
+
     /**
      * Determines whether this {@code TextSprite} represents an empty text. This is a faster
      * method than to retrieve the text and examine it manually.
@@ -132,7 +244,7 @@ public final class TextSprite extends SpriteEntity {
      * @return {@code true} if the text is an empty string, and {@code false} otherwise
      */
     public final boolean isTextEmpty() {
-        return ca.length == 0;
+        return length == 0;
     }
 
     /**
@@ -141,24 +253,74 @@ public final class TextSprite extends SpriteEntity {
      *
      * @return The string representation of the current text
      */
-    public final String getText() {
-        return new String(ca);
+    public final synchronized String getText() {
+        return new String(ca, 0, length);
     }
 
     /**
-     * Sets the text on this {@code TextSprite}. Changes will take effect immediately.
+     * Sets the text on this {@code TextSprite}. Changes will take effect immediately. This method
+     * can be called from any thread.
      *
      * @param value The string representation of the new text
      */
-    public final void setText(String value) {
-        if (value != null)
-            ca = Font.processText(value).toCharArray();
-        else ca = new char[0];
+    public final synchronized void setText(String value) {
+        final String text = value == null ? "" : Font.processText(value);
+        reserve(text.length());
+        text.getChars(0, text.length(), ca, 0);
+        length = text.length();
+        showsNumber = false;
+        textChanged = true;
+    }
+
+    /**
+     * Sets the text on this {@code TextSprite} to the decimal representation of the given number.
+     * Unlike {@link #setText(String)}, this method does not allocate memory once the text has grown
+     * to the number of digits, and does nothing if the number has not changed. It is intended for
+     * score counters and other numbers that are updated on every frame.
+     *
+     * @param value The number
+     */
+    public final synchronized void setNumber(long value) {
+        if (showsNumber && number == value) {
+            return;
+        }
+
+        int digits = 1;
+
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+
+        final int size = value < 0 ? digits + 1 : digits;
+        reserve(size);
+        long v = value;
+
+        for (int i = size - 1; i >= size - digits; i--) {
+            ca[i] = (char) ('0' + Math.abs(v % 10));
+            v /= 10;
+        }
+
+        if (value < 0) {
+            ca[0] = '-';
+        }
+
+        length = size;
+        number = value;
+        showsNumber = true;
+        textChanged = true;
     }
 
     @Override
     public final void render(RenderingContext ctx, int flags) {
-        TextureShaderProgram program = (TextureShaderProgram) TextureManager.getShaderProgram();
+        TextureShaderProgram program;
+
+        if (!myFont.isDistanceField()) {
+            program = (TextureShaderProgram) TextureManager.getShaderProgram();
+        } else if (style != null && style.getFont() == myFont) {
+            program = style;
+        } else {
+            program = myFont.getDefaultStyle();
+        }
 
         if ((flags & FLAG_PRESERVE_SHADER_PROGRAM) != 0) {
             if (ctx.getShader() instanceof TextureShaderProgram) {
@@ -169,9 +331,84 @@ public final class TextSprite extends SpriteEntity {
         // Change or reset the state of the shader program (depending on the flag).
         ctx.setShader(program);
 
-        if (alpha != 0) {
+        if (alpha != 0 && length > 0) {
             ctx.setColorFilter(alpha * cf.r, alpha * cf.g, alpha * cf.b, alpha);
-            myFont.draw(ctx, program, ca, pos.x, pos.y, scale.x, rotation, rtl);
+            updateMesh();
+            program.feed(myFont.getTextureHandle());
+            ctx.pushMatrix();
+            ctx.translate(pos.x, pos.y);
+            ctx.rotate(rotation);
+            ctx.rects(mesh, 0, quadCount);
+            ctx.popMatrix();
+        }
+    }
+
+    @Override
+    public boolean getBounds(Bounds2D bounds) {
+        if (myFont == null) {
+            return false;
+        }
+
+        // Characters are centered vertically on the first line, and flow from the position.
+        updateMetrics();
+
+        final float h = scale.x, w = textWidth;
+        final float bottom = textHeight - h / 2;
+        bounds.set(rtl ? -w : 0, -h / 2, rtl ? 0 : w, bottom);
+        bounds.transform(pos.x, pos.y, rotation, 1, 1);
+        return true;
+    }
+
+    @Override
+    public boolean hasBehavior(Behaviors behavior) {
+        return behavior == Behaviors.BOUNDED || super.hasBehavior(behavior);
+    }
+
+    /**
+     * Makes sure the character array can hold the given number of characters. The contents of the
+     * array are not preserved if it grows.
+     *
+     * @param size Number of characters
+     */
+    private void reserve(int size) {
+        if (ca.length < size) {
+            ca = new char[Math.max(size, ca.length * 2)];
+        }
+    }
+
+    /**
+     * Recomputes the cached width and height of the text if the text, the font, or the font size
+     * has changed since they were last computed.
+     */
+    private synchronized void updateMetrics() {
+        if (textChanged || metricsFont != myFont || metricsSize != scale.x) {
+            textWidth = myFont.getTextWidth(ca, length, scale.x);
+            textHeight = myFont.getTextHeight(ca, length, scale.x);
+            metricsFont = myFont;
+            metricsSize = scale.x;
+            meshChanged |= textChanged;
+            textChanged = false;
+        }
+    }
+
+    /**
+     * Rebuilds the cached mesh if the text, the font, the font size, the text direction, or the
+     * region of the font texture has changed since it was last built.
+     */
+    private synchronized void updateMesh() {
+        updateMetrics();
+
+        if (meshChanged || meshFont != myFont || meshSize != scale.x
+                || meshVersion != myFont.getRegionVersion()) {
+            if (mesh.length < length * 8) {
+                mesh = new float[Math.max(length * 8, mesh.length * 2)];
+            }
+
+            quadCount = myFont.buildMesh(ca, length, scale.x, rtl, mesh);
+            meshFont = myFont;
+            meshSize = scale.x;
+            meshVersion = myFont.getRegionVersion();
+            meshChanged = false;
         }
     }
 }
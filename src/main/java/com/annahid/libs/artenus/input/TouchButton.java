@@ -18,7 +18,10 @@
 
 package com.annahid.libs.artenus.input;
 
+import com.annahid.libs.artenus.data.Bounds2D;
 import com.annahid.libs.artenus.entities.behavior.Behaviors;
+import com.annahid.libs.artenus.entities.behavior.Bounded;
+import com.annahid.libs.artenus.entities.behavior.HitTestable;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.core.Scene;
 import com.annahid.libs.artenus.entities.behavior.Renderable;
@@ -47,7 +50,46 @@ public class TouchButton extends FilteredEntity implements Button, Touchable {
     /**
      * Holds the state of the transformation matrix for the latest render call.
      */
-    private float[] latestMatrix = null;
+    private final float[] latestMatrix = new float[16];
+
+    /**
+     * Holds the bounds used to hit-test targets that are not {@link HitTestable}.
+     */
+    private final Bounds2D bounds = new Bounds2D();
+
+    /**
+     * Holds the touch map this button is registered with, or {@code null} if it is detached.
+     */
+    private TouchMap map = null;
+
+    /**
+     * Holds the touch map frame in which this button was last rendered.
+     */
+    int frame = -1;
+
+    /**
+     * Holds the drawing order of this button within the frame in which it was last rendered.
+     * Buttons rendered later are on top of those rendered earlier.
+     */
+    int order = -1;
+
+    /**
+     * Holds the transformation matrix of the latest completed frame, used for hit-testing. Guarded
+     * by the touch map.
+     */
+    private final float[] publishedMatrix = new float[16];
+
+    /**
+     * Holds the touch map frame of the latest completed frame in which this button was rendered.
+     * Guarded by the touch map.
+     */
+    int publishedFrame = -1;
+
+    /**
+     * Holds the drawing order of this button in the latest completed frame in which it was
+     * rendered. Guarded by the touch map.
+     */
+    int publishedOrder = -1;
 
     /**
      * Indicates whether the button is currently in pressed state.
@@ -71,10 +113,7 @@ public class TouchButton extends FilteredEntity implements Button, Touchable {
      */
     public TouchButton(Entity target) {
         super(target);
-        id = (int) (byte) (idStore.incrementAndGet() % 256);
-
-        if (id == 0)
-            id++;
+        id = idStore.incrementAndGet();
 
         if (!target.hasBehavior(Behaviors.TRANSFORMABLE)) {
             throw new IllegalArgumentException("Target entity is not transformable.");
@@ -95,13 +134,15 @@ public class TouchButton extends FilteredEntity implements Button, Touchable {
     @Override
     public void onAttach(Scene scene) {
         super.onAttach(scene);
-        scene.getTouchMap().registerButton(this);
+        map = scene.getTouchMap();
+        map.registerButton(this);
     }
 
     @Override
     public void onDetach(Scene scene) {
         super.onDetach(scene);
         scene.getTouchMap().unregisterButton(this);
+        map = null;
     }
 
     @Override
@@ -148,20 +189,63 @@ public class TouchButton extends FilteredEntity implements Button, Touchable {
     }
 
     /**
-     * Returns the state of the transformation matrix for the last render call, and removes it
-     * from memory.
+     * Determines whether the given point lies on this button, as it was drawn in the latest render
+     * call. The point is transformed back into the coordinate space the underlying entity was
+     * rendered in, and tested against the entity itself if it is {@link HitTestable}, or against
+     * its bounding box if it is {@link Bounded}.
      *
-     * @return Transformation matrix
+     * @param x        The x coordinate of the point in logical screen units
+     * @param y        The y coordinate of the point in logical screen units
+     * @param mapFrame The latest completed frame of the touch map
+     *
+     * @return {@code true} if the button was rendered in the current frame, directly or through
+     * the cached image of a {@link com.annahid.libs.artenus.graphics.effects.CachedLayer}, and the
+     * point lies on it, {@code false} otherwise
      */
-    float[] popLatestMatrix() {
-        float[] ret = latestMatrix;
-        latestMatrix = null;
-        return ret;
+    boolean hitTest(float x, float y, int mapFrame) {
+        if (publishedFrame != mapFrame) {
+            return false;
+        }
+
+        final float[] m = publishedMatrix;
+        final float a = m[0], b = m[1], c = m[4], d = m[5];
+        final float det = a * d - b * c;
+
+        if (det == 0) {
+            return false;
+        }
+
+        final float dx = x - m[12], dy = y - m[13];
+        final float px = (d * dx - c * dy) / det, py = (a * dy - b * dx) / det;
+
+        if (target.hasBehavior(Behaviors.HIT_TESTABLE)) {
+            return ((HitTestable) target).hitTest(px, py);
+        }
+
+        return target.hasBehavior(Behaviors.BOUNDED) && ((Bounded) target).getBounds(bounds)
+                && bounds.contains(px, py);
+    }
+
+    /**
+     * Copies the state recorded while rendering the current frame to the state used for
+     * hit-testing. This method is called by the touch map, while holding its lock, when the frame
+     * is complete.
+     */
+    void publish() {
+        System.arraycopy(latestMatrix, 0, publishedMatrix, 0, 16);
+        publishedFrame = frame;
+        publishedOrder = order;
     }
 
     @Override
     public void render(RenderingContext ctx, int flags) {
-        latestMatrix = ctx.getMatrix();
+        final TouchMap map = this.map;
+        ctx.getMatrix(latestMatrix);
+
+        if (map != null) {
+            map.markRendered(this);
+        }
+
         if (target.hasBehavior(Behaviors.RENDERABLE)) {
             ((Renderable) target).render(ctx, flags);
         }
@@ -18,169 +18,264 @@
 
 package com.annahid.libs.artenus.input;
 
-import android.opengl.GLES20;
-import android.os.Debug;
-import android.util.Pair;
-
-import com.annahid.libs.artenus.graphics.rendering.RenderTarget;
-import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
-import com.annahid.libs.artenus.graphics.rendering.ShaderManager;
-import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
-import com.annahid.libs.artenus.entities.behavior.Renderable;
-import com.annahid.libs.artenus.graphics.TextureManager;
-import com.annahid.libs.artenus.graphics.TextureShaderProgram;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import com.annahid.libs.artenus.core.FrameStats;
+import com.annahid.libs.artenus.entities.Entity;
+import com.annahid.libs.artenus.entities.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Used internally by the framework to handle bitmapped hit testing for touch buttons.
- * It is highly recommended not to use this class directly, as it might interfere with the default
- * rendering pipeline. The only member of this class that can be used from outside the framework is
- * {@link TouchMap#showMap(boolean)}.
+ * Used internally by the framework to find the touch buttons under touch events. Each touch button
+ * records its transformation and drawing order whenever it is rendered, and queued touch events are
+ * hit-tested against the buttons drawn in the latest frame on the CPU, before the scene is
+ * advanced. Hit-testing only reads the state published when a frame is complete, so the scene can
+ * be rendered on another thread while touch events are dispatched. The topmost button containing the touch point receives the event. If the scene has a
+ * {@link SpatialIndex}, only the indexed buttons whose bounding boxes contain the touch point are
+ * tested, along with the buttons that are not indexed. It is highly
+ * recommended not to use this class directly, as it might interfere with the default touch
+ * pipeline.
  *
  * @author Hessan Feghhi
+ * @see TouchButton
  */
 public final class TouchMap {
     /**
-     * Holds the shader program used to draw the touch map from sprites.
+     * Queues events that need to be processed.
      */
-    private static TouchMapShaderProgram shader = null;
+    private Queue<TouchEvent> processQueue = new ConcurrentLinkedQueue<>();
 
     /**
-     * Holds the render target for the touch map.
+     * Contains buttons registered with this touch map.
      */
-    private static RenderTarget target;
+    private Map<Integer, TouchButton> buttons = new ConcurrentHashMap<>(24);
 
     /**
-     * Holds the buffer used to read pixels from the touch map.
+     * Receives the candidate entities under a touch point from the spatial index.
      */
-    private ByteBuffer pixelBuffer =
-            ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+    private final List<Entity> candidates = new ArrayList<>();
 
     /**
-     * Indicates whether to show the touch map.
+     * Holds the spatial index of the scene, or {@code null} if the scene has none.
      */
-    private boolean show = true;
+    private SpatialIndex index = null;
 
     /**
-     * Queues events that need to be processed.
+     * Holds the number of frames rendered since the touch map was created. Buttons that were not
+     * rendered in the latest frame are not considered for hit-testing.
      */
-    private Queue<TouchEvent> processQueue = new ConcurrentLinkedQueue<>();
+    int frame = 0;
 
     /**
-     * Queues processed events that need to be dispatched.
+     * Holds the drawing order assigned to the next button rendered in the current frame.
      */
-    private Queue<Pair<TouchButton, TouchEvent>> dispatchQueue = new ConcurrentLinkedQueue<>();
+    int order = 0;
 
     /**
-     * Contains buttons registered with this touch map.
+     * Holds the latest completed frame, whose buttons are considered for hit-testing. Guarded by
+     * the touch map itself.
      */
-    private Map<Integer, TouchButton> buttons = new ConcurrentHashMap<>(24);
+    private int publishedFrame = 0;
 
     /**
-     * Initializes the touch map and creates necessary resources. If the touch map is already
-     * initialized, the old resources are freed first.
+     * Holds the list receiving the buttons rendered while a cached layer is redrawn, or
+     * {@code null} if no cached layer is being redrawn.
+     */
+    private List<TouchButton> capture = null;
+
+    /**
+     * Called internally by the scene before it is rendered, to start collecting the buttons drawn
+     * in a new frame.
+     */
+    public void beginFrame() {
+        frame++;
+        order = 0;
+    }
+
+    /**
+     * Called internally by the scene after it is rendered, to publish the buttons drawn in the
+     * frame for hit-testing.
+     */
+    public synchronized void endFrame() {
+        publishedFrame = frame;
+
+        for (TouchButton button : buttons.values()) {
+            if (button.frame == frame) {
+                button.publish();
+            }
+        }
+    }
+
+    /**
+     * Called internally by cached layers before their content is redrawn, to collect the buttons
+     * drawn into the cached image. Captures can be nested, in which case the buttons collected by
+     * the inner capture are also added to the outer one when it ends.
+     *
+     * @param buttons The list to receive the buttons, which is cleared first
+     *
+     * @return The list of the enclosing capture, to be passed to {@link #endCapture(List)}
+     *
+     * @see com.annahid.libs.artenus.graphics.effects.CachedLayer
+     */
+    public List<TouchButton> beginCapture(List<TouchButton> buttons) {
+        final List<TouchButton> previous = capture;
+        buttons.clear();
+        capture = buttons;
+        return previous;
+    }
+
+    /**
+     * Called internally by cached layers after their content is redrawn, to stop collecting the
+     * buttons drawn into the cached image.
      *
-     * @param fboWidth  The logical width of the screen
-     * @param fboHeight The logical height of the screen
+     * @param previous The value returned by the matching call to {@link #beginCapture(List)}
      */
-    public static void update(int fboWidth, int fboHeight) {
-        if (target != null) {
-            target.dispose();
+    public void endCapture(List<TouchButton> previous) {
+        if (previous != null && capture != null) {
+            previous.addAll(capture);
         }
-        target = RenderTarget.create(fboWidth >> 1, fboHeight >> 1);
-        shader = new TouchMapShaderProgram();
-        ShaderManager.register(shader);
-        shader.compile();
+
+        capture = previous;
     }
 
     /**
-     * Called internally by the stage to render the touch map and process queued touch events.
+     * Called internally by cached layers that draw their cached image instead of their content.
+     * The buttons collected by the latest capture are marked as rendered in the current frame, at
+     * the current drawing order, with the transformations they were last rendered with.
      *
-     * @param context The rendering context
+     * @param buttons The buttons collected by the latest capture
      */
-    public void process(RenderingContext context) {
-        if (target == null) {
-            return;
+    public void replay(List<TouchButton> buttons) {
+        for (int i = 0, count = buttons.size(); i < count; i++) {
+            markRendered(buttons.get(i));
         }
-        context.bindTarget(target);
-        context.clear(0, 0, 1);
-        ShaderProgram shaderBackup = context.getShader();
-        context.setShader(shader);
-        for (Map.Entry<Integer, TouchButton> entry : buttons.entrySet()) {
-            final TouchButton button = entry.getValue();
-            shader.feedObjectId((entry.getKey() + 256) % 256);
-            context.pushMatrix(button.popLatestMatrix());
-            button.render(context, Renderable.FLAG_PRESERVE_SHADER_PROGRAM);
-            context.popMatrix();
+    }
+
+    /**
+     * Marks a button as rendered in the current frame and assigns it the next drawing order.
+     *
+     * @param button The button
+     */
+    void markRendered(TouchButton button) {
+        button.frame = frame;
+        button.order = order++;
+
+        if (capture != null) {
+            capture.add(button);
         }
-        while (!processQueue.isEmpty()) {
-            final TouchEvent event = processQueue.poll();
-            pixelBuffer.position(0);
-            GLES20.glReadPixels(
-                    (int) event.x >> 1, target.getHeight() - ((int) event.y >> 1), 1, 1,
-                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuffer
-            );
-            dispatchQueue.offer(new Pair<>(buttons.get((int) pixelBuffer.get(0)), event));
+    }
+
+    /**
+     * Finds the topmost touch button under the given point, among the buttons rendered in the
+     * latest completed frame.
+     *
+     * @param x The x coordinate of the point in logical screen units
+     * @param y The y coordinate of the point in logical screen units
+     *
+     * @return The button, or {@code null} if there is no button under the point
+     */
+    public synchronized TouchButton hitTest(float x, float y) {
+        final SpatialIndex index = this.index;
+        TouchButton result = null;
+
+        if (index != null) {
+            candidates.clear();
+            index.queryPoint(x, y, candidates);
+
+            for (int i = 0; i < candidates.size(); i++) {
+                final Entity entity = candidates.get(i);
+
+                if (entity instanceof TouchButton) {
+                    final TouchButton button = (TouchButton) entity;
+
+                    if (buttons.get(button.id) == button && isAbove(button, result)
+                            && button.hitTest(x, y, publishedFrame)) {
+                        result = button;
+                    }
+                }
+            }
+
+            candidates.clear();
         }
-        context.bindTarget(null);
-        if (show && Debug.isDebuggerConnected()) {
-            TextureShaderProgram program = (TextureShaderProgram) TextureManager.getShaderProgram();
-            context.setShader(program);
-            context.setColorFilter(0.75f, 0.75f, 0.75f, 0.75f);
-            context.pushMatrix();
-            context.identity();
-            program.feed(target.getTextureHandle());
-            program.feedTexCoords(TextureShaderProgram.getDefaultTextureBuffer());
-            context.translate(520, 280);
-            context.rotate(0);
-            context.scale(1000, -600);
-            context.rect();
-            context.popMatrix();
+
+        for (TouchButton button : buttons.values()) {
+            if ((index == null || !index.contains(button)) && isAbove(button, result)
+                    && button.hitTest(x, y, publishedFrame)) {
+                result = button;
+            }
         }
-        GLES20.glViewport(0, 0, context.getScreenWidth(), context.getScreenHeight());
-        context.setShader(shaderBackup);
+
+        return result;
     }
 
     /**
-     * Called internally to dispatch all processed touch events to their corresponding buttons.
+     * Sets the spatial index used to narrow down the buttons tested against touch events. This
+     * method is called by the scene when its spatial index is created.
+     *
+     * @param index The spatial index, or {@code null} to test all buttons
+     */
+    public void setSpatialIndex(SpatialIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Called internally to hit-test all queued touch events and dispatch them to their
+     * corresponding buttons.
      */
     public void dispatch() {
-        while (!dispatchQueue.isEmpty()) {
-            Pair<TouchButton, TouchEvent> item = dispatchQueue.poll();
-            TouchEvent event = item.second;
+        if (processQueue.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        TouchEvent event;
+
+        while ((event = processQueue.poll()) != null) {
+            final TouchButton target = hitTest(event.x, event.y);
 
-            if (item.first != null)
-                item.first.internalTouch(event.action, event.pointerId);
+            if (target != null)
+                target.internalTouch(event.action, event.pointerId);
 
             if (event.action == TouchEvent.EVENT_UP) {
-                for (Map.Entry<Integer, TouchButton> entry : buttons.entrySet()) {
-                    final TouchButton btn = entry.getValue();
-                    entry.getValue().internalTouch(
-                            btn == item.first ? TouchEvent.EVENT_UP : TouchEvent.EVENT_LEAVE,
+                for (TouchButton btn : buttons.values()) {
+                    btn.internalTouch(
+                            btn == target ? TouchEvent.EVENT_UP : TouchEvent.EVENT_LEAVE,
                             event.pointerId
                     );
                 }
             }
         }
+
+        FrameStats.time(FrameStats.Timer.TOUCH_MAP, System.nanoTime() - start);
     }
 
     /**
-     * Shows or hides the touch map. By default, Artenus shows the touch map on the corner of the
-     * screen when a debugger is attached. You can use this method to override this behavior. Note
-     * that the map is not displayed in the absence of a debugger session, even when running a debug
-     * build.
+     * Previously showed or hid the bitmapped touch map when a debugger was attached. Touch buttons
+     * are now hit-tested without rendering a touch map, so this method has no effect.
      *
      * @param visible A value indicating whether to show the touch map
+     *
+     * @deprecated There is no longer a touch map to display.
      */
+    @Deprecated
     @SuppressWarnings("unused")
     public void showMap(boolean visible) {
-        show = visible;
+    }
+
+    /**
+     * Determines whether a button was drawn above the current result of a hit-test.
+     *
+     * @param button The button
+     * @param result The current result, or {@code null}
+     *
+     * @return {@code true} if there is no result yet or the button was drawn above it
+     */
+    private static boolean isAbove(TouchButton button, TouchButton result) {
+        return result == null || button.publishedOrder > result.publishedOrder;
     }
 
     /**
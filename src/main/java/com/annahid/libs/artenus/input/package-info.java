@@ -18,8 +18,8 @@
 
 /**
  * Provides classes and interfaces for the user input framework. This includes ordinary touch inputs
- * (which correspond to the handleTouch behavior of all entities), touch map (bitmap-based touch
- * detection), and non-touch/general-purpose input handlers.
+ * (which correspond to the handleTouch behavior of all entities), touch map (hit-testing for touch
+ * buttons), and non-touch/general-purpose input handlers.
  *
  * @author Hessan Feghhi
  */
@@ -20,6 +20,7 @@ package com.annahid.libs.artenus.internal.core;
 
 import android.opengl.GLES20;
 
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
 import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
 
 import java.nio.FloatBuffer;
@@ -80,6 +81,13 @@ class BasicShaderProgram implements ShaderProgram {
      */
     private int mFragmentShader;
 
+    /**
+     * Registers this shader program class with the state cache.
+     */
+    static {
+        GLStateCache.registerClient(BasicShaderProgram.class);
+    }
+
     /**
      * Compiles the shader program.
      */
@@ -99,37 +107,35 @@ class BasicShaderProgram implements ShaderProgram {
 
     @Override
     public void feed(float[] mat) {
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mat, 0);
+        GLStateCache.uniformMatrix4(mMVPMatrixHandle, mat);
     }
 
     @Override
     public void feed(FloatBuffer vertexBuffer) {
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-        GLES20.glVertexAttribPointer(
-                mPositionHandle, 3, GLES20.GL_FLOAT, false, 12, vertexBuffer
-        );
+        GLStateCache.setAttribArray(mPositionHandle, true);
+        GLStateCache.attribPointer(mPositionHandle, 3, 12, vertexBuffer);
     }
 
     @Override
     public void feed(float r, float g, float b, float a) {
-        GLES20.glUniform4f(mColorHandle, r, g, b, a);
+        GLStateCache.uniform4f(mColorHandle, r, g, b, a);
     }
 
     @Override
     public void activate() {
-        GLES20.glUseProgram(mProgram);
+        GLStateCache.useProgram(mProgram);
     }
 
     @Override
     public void cleanup() {
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLStateCache.setAttribArray(mPositionHandle, false);
     }
 
     @Override
     public void destroy() {
         GLES20.glDeleteShader(mFragmentShader);
         GLES20.glDeleteShader(mVertexShader);
-        GLES20.glDeleteProgram(mProgram);
+        GLStateCache.deleteProgram(mProgram);
     }
 
     /**
@@ -0,0 +1,214 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.internal.core;
+
+import android.opengl.GLES20;
+
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
+import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Represents the shader program used to draw sprite batches. Unlike other shader programs, it takes
+ * vertex positions that are already transformed, and receives texture coordinates and colors as
+ * vertex attributes rather than uniforms.
+ *
+ * @author Hessan Feghhi
+ * @see SpriteBatch
+ */
+final class BatchShaderProgram implements ShaderProgram {
+    /**
+     * Holds vertex shader code.
+     */
+    private static final String vertexShaderCode =
+            "uniform mat4 uMVPMatrix;" +
+            "attribute vec4 vPosition;" +
+            "attribute vec2 aTexCoord;" +
+            "attribute vec4 aColor;" +
+            "varying vec2 vTexCoord;" +
+            "varying vec4 vColor;" +
+            "void main() {" +
+            "  vTexCoord = aTexCoord;" +
+            "  vColor = aColor;" +
+            "  gl_Position = uMVPMatrix * vPosition;" +
+            '}';
+
+    /**
+     * Holds fragment shader code.
+     */
+    private static final String fragmentShaderCode =
+            "precision mediump float;" +
+            "uniform sampler2D uTex;" +
+            "varying vec2 vTexCoord;" +
+            "varying vec4 vColor;" +
+            "void main() {" +
+            "  gl_FragColor = vColor * texture2D( uTex, vTexCoord );" +
+            '}';
+
+    /**
+     * Holds OpenGL shader program handle.
+     */
+    private int mProgram;
+
+    /**
+     * Holds a handle to the MVP matrix variable in the shader program.
+     */
+    private int mMVPMatrixHandle;
+
+    /**
+     * Holds a handle to the position variable in the shader program.
+     */
+    private int mPositionHandle;
+
+    /**
+     * Holds a handle to the texture coordinates variable in the shader program.
+     */
+    private int mTexCoordsHandle;
+
+    /**
+     * Holds a handle to the color variable in the shader program.
+     */
+    private int mColorHandle;
+
+    /**
+     * Holds a handle to the sampler variable in the shader program.
+     */
+    private int mSamplerHandle;
+
+    /**
+     * Holds the handle to the vertex shader.
+     */
+    private int mVertexShader;
+
+    /**
+     * Holds the handle to the fragment shader.
+     */
+    private int mFragmentShader;
+
+    /**
+     * Registers this shader program class with the state cache.
+     */
+    static {
+        GLStateCache.registerClient(BatchShaderProgram.class);
+    }
+
+    /**
+     * Compiles the shader program.
+     */
+    @Override
+    public void compile() {
+        mVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        mFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, mVertexShader);
+        GLES20.glAttachShader(mProgram, mFragmentShader);
+        GLES20.glLinkProgram(mProgram);
+
+        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        mTexCoordsHandle = GLES20.glGetAttribLocation(mProgram, "aTexCoord");
+        mColorHandle = GLES20.glGetAttribLocation(mProgram, "aColor");
+        mSamplerHandle = GLES20.glGetUniformLocation(mProgram, "uTex");
+    }
+
+    @Override
+    public void feed(float[] mat) {
+        GLStateCache.uniformMatrix4(mMVPMatrixHandle, mat);
+    }
+
+    /**
+     * Feeds an interleaved vertex buffer to this shader program. Each vertex consists of
+     * {@link SpriteBatch#VERTEX_SIZE} floats: position (x, y), texture coordinates (u, v), and
+     * color (r, g, b, a).
+     *
+     * @param vertexBuffer The interleaved vertex buffer
+     */
+    @Override
+    public void feed(FloatBuffer vertexBuffer) {
+        final int stride = SpriteBatch.VERTEX_SIZE * 4;
+        GLStateCache.setAttribArray(mPositionHandle, true);
+        vertexBuffer.position(0);
+        GLStateCache.attribPointer(mPositionHandle, 2, stride, vertexBuffer);
+        GLStateCache.setAttribArray(mTexCoordsHandle, true);
+        vertexBuffer.position(2);
+        GLStateCache.attribPointer(mTexCoordsHandle, 2, stride, vertexBuffer);
+        GLStateCache.setAttribArray(mColorHandle, true);
+        vertexBuffer.position(4);
+        GLStateCache.attribPointer(mColorHandle, 4, stride, vertexBuffer);
+        vertexBuffer.position(0);
+    }
+
+    /**
+     * Does nothing. Colors are fed to this shader program per vertex.
+     *
+     * @param r Red component (not used)
+     * @param g Green component (not used)
+     * @param b Blue component (not used)
+     * @param a Alpha component (not used)
+     */
+    @Override
+    public void feed(float r, float g, float b, float a) {
+    }
+
+    /**
+     * Feeds a texture to this shader program.
+     *
+     * @param textureDataHandle Texture data handle
+     */
+    void feed(int textureDataHandle) {
+        GLStateCache.bindTexture(0, textureDataHandle);
+        GLStateCache.uniform1i(mSamplerHandle, 0);
+    }
+
+    @Override
+    public void activate() {
+        GLStateCache.useProgram(mProgram);
+    }
+
+    @Override
+    public void cleanup() {
+        GLStateCache.setAttribArray(mPositionHandle, false);
+        GLStateCache.setAttribArray(mTexCoordsHandle, false);
+        GLStateCache.setAttribArray(mColorHandle, false);
+    }
+
+    @Override
+    public void destroy() {
+        GLES20.glDeleteShader(mFragmentShader);
+        GLES20.glDeleteShader(mVertexShader);
+        GLStateCache.deleteProgram(mProgram);
+    }
+
+    /**
+     * Compiles a shader code and returns the handle to the compiled code.
+     *
+     * @param type       Shader type
+     * @param shaderCode Shader code
+     *
+     * @return Handle to the compiled shader
+     */
+    private int loadShader(int type, String shaderCode) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, shaderCode);
+        GLES20.glCompileShader(shader);
+        return shader;
+    }
+}
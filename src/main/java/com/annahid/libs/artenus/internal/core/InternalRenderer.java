@@ -22,25 +22,29 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 
+import com.annahid.libs.artenus.core.FrameStats;
 import com.annahid.libs.artenus.core.StageEvents;
+import com.annahid.libs.artenus.entities.EntityCollection;
 import com.annahid.libs.artenus.graphics.TextureShaderProgram;
 import com.annahid.libs.artenus.graphics.filters.FilterPassSetup;
 import com.annahid.libs.artenus.graphics.filters.PostProcessingFilter;
+import com.annahid.libs.artenus.graphics.rendering.GLStateCache;
+import com.annahid.libs.artenus.graphics.rendering.MatrixStack;
 import com.annahid.libs.artenus.graphics.rendering.ShaderManager;
 import com.annahid.libs.artenus.graphics.rendering.Viewport;
+import com.annahid.libs.artenus.graphics.rendering.RenderRecording;
 import com.annahid.libs.artenus.graphics.rendering.RenderTarget;
 import com.annahid.libs.artenus.graphics.rendering.RenderingContext;
 import com.annahid.libs.artenus.graphics.rendering.ShaderProgram;
 import com.annahid.libs.artenus.graphics.TextureManager;
-import com.annahid.libs.artenus.input.TouchMap;
 import com.annahid.libs.artenus.data.RGB;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -69,17 +73,17 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
     /**
      * Holds the real width of the rendering area.
      */
-    int screenWidth;
+    volatile int screenWidth;
 
     /**
      * Holds the real height of the rendering area.
      */
-    int screenHeight;
+    volatile int screenHeight;
 
     /**
      * Holds the transformation matrix stack used to comply with rendering context requirement.
      */
-    private final Stack<float[]> matrixStack = new Stack<>();
+    private final MatrixStack matrixStack = new MatrixStack();
 
     /**
      * Holds the projection matrix, which will be multipled with the transformation matrix.
@@ -87,20 +91,51 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
     private final float[] mvpMatrix = new float[16];
 
     /**
-     * Holds current transformation matrix.
+     * Holds the horizontal scaling factor of the projection matrix.
      */
-    private float[] currentMatrix;
+    private float projectionX;
 
     /**
-     * Holds the scratch matrix, used for computations.
+     * Holds the vertical scaling factor of the projection matrix.
      */
-    private float[] scratch;
+    private float projectionY;
+
+    /**
+     * Holds the scratch matrix, used to upload the combined transformation to shader programs.
+     */
+    private final float[] scratch = new float[16];
+
+    /**
+     * Contains the color of the texture shader program while quads with individual colors are
+     * drawn without batching.
+     */
+    private final float[] meshColor = new float[4];
 
     /**
      * Holds the vertex buffer for the default rectangular primitive.
      */
     private FloatBuffer vertexBuffer = null;
 
+    /**
+     * Contains vertex positions of the mesh being drawn by a shader program that is not batched.
+     */
+    private float[] meshPositions = new float[0];
+
+    /**
+     * Contains texture coordinates of the mesh being drawn by a shader program that is not batched.
+     */
+    private float[] meshUVs = new float[0];
+
+    /**
+     * Holds the native buffer mesh vertex positions are copied to before drawing.
+     */
+    private FloatBuffer meshPositionBuffer = null;
+
+    /**
+     * Holds the native buffer mesh texture coordinates are copied to before drawing.
+     */
+    private FloatBuffer meshTexCoords = null;
+
     /**
      * Holds the current shader program.
      */
@@ -111,6 +146,17 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
      */
     private ShaderProgram basicShader;
 
+    /**
+     * Holds the sprite batch collecting rectangles drawn with the default texture shader program.
+     */
+    private SpriteBatch batch;
+
+    /**
+     * Holds the texture shader program currently in deferred mode, or {@code null} if the current
+     * shader program is not batched.
+     */
+    private TextureShaderProgram deferredShader = null;
+
     /**
      * Holds the parent stage.
      */
@@ -126,6 +172,11 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
      */
     private RenderTarget[] targets = new RenderTarget[2];
 
+    /**
+     * Holds the currently bound render target, or {@code null} if the output is the screen.
+     */
+    private RenderTarget currentTarget = null;
+
     /**
      * Used to delay texture loading a bit to let the loading screen appear first. It holds the
      * start time for delay calculation.
@@ -154,31 +205,29 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
             vertexBuffer.position(0);
         }
 
-        currentMatrix = new float[] {
-                1, 0, 0, 0,
-                0, 1, 0, 0,
-                0, 0, 1, 0,
-                0, 0, 0, 1
-        };
-
-        scratch = new float[16];
+        Matrix.setIdentityM(scratch, 0);
         basicShader = new BasicShaderProgram();
         ShaderManager.register(basicShader);
         shader = basicShader;
+
+        final BatchShaderProgram batchShader = new BatchShaderProgram();
+        ShaderManager.register(batchShader);
+        batch = new SpriteBatch(batchShader);
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        GLES20.glEnable(GLES20.GL_ALPHA);
-        GLES20.glEnable(GLES20.GL_BLEND);
+        GLStateCache.invalidate();
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-        GLES20.glBlendFunc(GLES20.GL_ONE, GL10.GL_ONE_MINUS_SRC_ALPHA);
+        GLStateCache.setBlending(true);
+        GLStateCache.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
         if (stage.handler != null) {
             stage.handler.onEvent(stage, StageEvents.DISPLAY);
         }
         ShaderManager.loadAll();
         TextureManager.unloadTextures();
+        RenderTarget.recreateManaged();
     }
 
     @Override
@@ -200,6 +249,8 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         );
 
         Matrix.orthoM(mvpMatrix, 0, 0, vw, vh, 0, -1, 1);
+        projectionX = 2 / vw;
+        projectionY = -2 / vh;
 
         for (int i = 0; i < targets.length; i++) {
             if (targets[i] != null) {
@@ -207,8 +258,6 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
             }
             targets[i] = RenderTarget.create(width, height);
         }
-
-        TouchMap.update((int) vw, (int) vh);
     }
 
     @Override
@@ -217,6 +266,7 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         if (ts != TextureManager.States.LOADED) {
             if (IntroScene.introShown) {
                 loading.render(this);
+                flush();
             }
             if (loadingDelay == 0) {
                 loadingDelay = System.currentTimeMillis();
@@ -228,7 +278,9 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
             return;
         }
         loadingDelay = 0;
+        RenderTarget.processPending();
 
+        final long frameStart = System.nanoTime();
         final Viewport defaultViewport = new Viewport(screenWidth, screenHeight);
         RenderTarget renderTarget = targets[0], inputTarget = targets[1];
         renderTarget.setViewport(defaultViewport);
@@ -237,7 +289,9 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         renderRaw();
         PostProcessingFilter[] filters =
                 this.filters.toArray(new PostProcessingFilter[this.filters.size()]);
-        for (PostProcessingFilter filter : filters) {
+        for (int i = 0; i < filters.length; i++) {
+            final PostProcessingFilter filter = filters[i];
+            final long filterStart = System.nanoTime();
             boolean hasMorePasses = true;
             int pass = 0;
             while (hasMorePasses) {
@@ -260,6 +314,9 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
                 filter.render(pass, this, inputTarget);
                 pass++;
             }
+
+            flush();
+            FrameStats.timeFilter(i, System.nanoTime() - filterStart);
         }
 
         bindTarget(null);
@@ -277,48 +334,39 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         rect();
         popMatrix();
 
-        if (stage.currentScene != null) {
-            if (stage.currentScene.getDialog() != null) {
-                stage.currentScene.getDialog().getTouchMap().process(this);
-            } else {
-                stage.currentScene.getTouchMap().process(this);
-            }
-            shader.cleanup();
-        }
+        flush();
+        FrameStats.time(FrameStats.Timer.RENDER, System.nanoTime() - frameStart);
+        FrameStats.commitRender(filters.length);
     }
 
     @Override
     public void pushMatrix() {
-        float[] newMatrix = currentMatrix.clone();
-        matrixStack.push(currentMatrix);
-        currentMatrix = newMatrix;
+        matrixStack.push();
     }
 
     @Override
     public void popMatrix() {
-        if (matrixStack.size() > 0) {
-            currentMatrix = matrixStack.pop();
-        }
+        matrixStack.pop();
     }
 
     @Override
     public void rotate(float angle) {
-        Matrix.rotateM(currentMatrix, 0, angle, 0, 0, 1);
+        matrixStack.rotate(angle);
     }
 
     @Override
     public void scale(float x, float y) {
-        Matrix.scaleM(currentMatrix, 0, x, y, 1);
+        matrixStack.scale(x, y);
     }
 
     @Override
     public void translate(float x, float y) {
-        Matrix.translateM(currentMatrix, 0, x, y, 0);
+        matrixStack.translate(x, y);
     }
 
     @Override
     public void identity() {
-        Matrix.setIdentityM(currentMatrix, 0);
+        matrixStack.identity();
     }
 
     @Override
@@ -328,9 +376,140 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
 
     @Override
     public void rect() {
-        Matrix.multiplyMM(scratch, 0, mvpMatrix, 0, currentMatrix, 0);
-        shader.feed(scratch);
+        final float[] m = matrixStack.data();
+        final int o = matrixStack.offset();
+
+        if (deferredShader != null) {
+            batch.add(m, o, mvpMatrix, deferredShader);
+            return;
+        }
+
+        feedMatrix();
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        FrameStats.count(FrameStats.Counter.DRAW_CALLS);
+    }
+
+    /**
+     * Feeds the current transformation matrix, combined with the projection, to the current
+     * shader program.
+     */
+    private void feedMatrix() {
+        final float[] m = matrixStack.data();
+        final int o = matrixStack.offset();
+
+        // The projection is an axis-aligned orthographic transformation, so only the affine
+        // entries of the scratch matrix need to be updated.
+        scratch[0] = projectionX * m[o];
+        scratch[1] = projectionY * m[o + 1];
+        scratch[4] = projectionX * m[o + 2];
+        scratch[5] = projectionY * m[o + 3];
+        scratch[12] = projectionX * m[o + 4] - 1;
+        scratch[13] = projectionY * m[o + 5] + 1;
+        shader.feed(scratch);
+    }
+
+    @Override
+    public void rects(float[] mesh, int offset, int count) {
+        if (deferredShader != null) {
+            batch.add(matrixStack.data(), matrixStack.offset(), mvpMatrix, deferredShader, mesh,
+                    offset, count);
+            return;
+        }
+
+        if (!(shader instanceof TextureShaderProgram)) {
+            // Without texture coordinates, quads can be drawn as default rectangles.
+            for (int q = 0; q < count; q++) {
+                final int m = offset + q * 8;
+                matrixStack.push();
+                matrixStack.translate(
+                        (mesh[m] + mesh[m + 2]) * 0.5f, (mesh[m + 1] + mesh[m + 3]) * 0.5f
+                );
+                matrixStack.scale(mesh[m + 2] - mesh[m], mesh[m + 3] - mesh[m + 1]);
+                rect();
+                matrixStack.pop();
+            }
+
+            return;
+        }
+
+        final TextureShaderProgram program = (TextureShaderProgram) shader;
+        final FloatBuffer texCoords = program.getTexCoords();
+        feedMatrix();
+
+        for (int first = 0; first < count; first += SpriteBatch.MAX_QUADS) {
+            final int quads = Math.min(count - first, SpriteBatch.MAX_QUADS);
+
+            if (meshPositions.length < quads * 12) {
+                meshPositions = new float[quads * 12];
+                meshUVs = new float[quads * 8];
+                meshPositionBuffer = ByteBuffer.allocateDirect(quads * 12 * 4)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                meshTexCoords = ByteBuffer.allocateDirect(quads * 8 * 4)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+
+            int p = 0, t = 0;
+
+            for (int q = 0; q < quads; q++) {
+                final int m = offset + (first + q) * 8;
+
+                // Corners of the quad, in the same order as the default rectangle.
+                for (int i = 0; i < 4; i++) {
+                    meshPositions[p++] = mesh[m + ((i & 1) == 0 ? 0 : 2)];
+                    meshPositions[p++] = mesh[m + ((i & 2) == 0 ? 1 : 3)];
+                    meshPositions[p++] = 0;
+                    meshUVs[t++] = mesh[m + ((i & 1) == 0 ? 4 : 6)];
+                    meshUVs[t++] = mesh[m + ((i & 2) == 0 ? 5 : 7)];
+                }
+            }
+
+            meshPositionBuffer.position(0);
+            meshPositionBuffer.put(meshPositions, 0, p).position(0);
+            meshTexCoords.position(0);
+            meshTexCoords.put(meshUVs, 0, t).position(0);
+            program.feed(meshPositionBuffer);
+            program.feedTexCoords(meshTexCoords);
+
+            final ShortBuffer indices = batch.getIndexBuffer();
+            indices.position(0);
+            GLES20.glDrawElements(
+                    GLES20.GL_TRIANGLES, quads * 6, GLES20.GL_UNSIGNED_SHORT, indices
+            );
+            FrameStats.count(FrameStats.Counter.DRAW_CALLS);
+        }
+
+        program.feed(vertexBuffer);
+        program.feedTexCoords(texCoords);
+    }
+
+    @Override
+    public void rects(float[] mesh, int offset, int count, float[] colors, int colorOffset) {
+        if (deferredShader != null) {
+            batch.add(matrixStack.data(), matrixStack.offset(), mvpMatrix, deferredShader, mesh,
+                    offset, count, colors, colorOffset);
+            return;
+        }
+
+        // The color of other shader programs cannot be read back, so it is used for all quads
+        if (!(shader instanceof TextureShaderProgram)) {
+            rects(mesh, offset, count);
+            return;
+        }
+
+        // The program has only one color, which may have been fed directly by a replay, so quads
+        // are drawn one at a time and the color is restored afterwards.
+        final TextureShaderProgram program = (TextureShaderProgram) shader;
+        final float[] color = meshColor;
+        System.arraycopy(program.getColor(), 0, color, 0, 4);
+
+        for (int q = 0; q < count; q++) {
+            final int c = colorOffset + q * 4;
+            program.feed(color[0] * colors[c], color[1] * colors[c + 1],
+                    color[2] * colors[c + 2], color[3] * colors[c + 3]);
+            rects(mesh, offset + q * 8, 1);
+        }
+
+        program.feed(color[0], color[1], color[2], color[3]);
     }
 
     @Override
@@ -338,9 +517,33 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         return shader;
     }
 
+    @Override
+    public void flush() {
+        batch.flush(mvpMatrix);
+    }
+
     @Override
     public void setShader(ShaderProgram shader) {
-        this.shader = shader == null ? basicShader : shader;
+        final ShaderProgram next = shader == null ? basicShader : shader;
+
+        // Shader programs that change OpenGL state directly leave the state cache out of date.
+        if (next != this.shader && !GLStateCache.isClient(this.shader)) {
+            GLStateCache.invalidate();
+        }
+
+        if (next == TextureManager.getShaderProgram()) {
+            deferredShader = (TextureShaderProgram) next;
+            deferredShader.setDeferred(true);
+        } else {
+            flush();
+
+            if (deferredShader != null) {
+                deferredShader.setDeferred(false);
+                deferredShader = null;
+            }
+        }
+
+        this.shader = next;
         this.shader.activate();
         this.shader.feed(vertexBuffer);
     }
@@ -367,31 +570,47 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
 
     @Override
     public float[] getMatrix() {
-        if (currentMatrix == null)
-            return null;
+        final float[] mat = new float[16];
+        matrixStack.get(mat);
+        return mat;
+    }
 
-        return currentMatrix.clone();
+    @Override
+    public void getMatrix(float[] mat) {
+        matrixStack.get(mat);
     }
 
     @Override
     public void pushMatrix(float[] mat) {
-        matrixStack.push(currentMatrix);
-        currentMatrix = mat;
+        matrixStack.push(mat);
     }
 
     @Override
     public void clear(float r, float g, float b) {
-        GLES20.glClearColor(r, g, b, 1);
+        clear(r, g, b, 1);
+    }
+
+    @Override
+    public void clear(float r, float g, float b, float a) {
+        flush();
+        GLES20.glClearColor(r, g, b, a);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
     }
 
     @Override
     public void bindTarget(RenderTarget target) {
+        flush();
+        FrameStats.count(FrameStats.Counter.TARGET_BINDS);
+        currentTarget = target;
+
         if (target == null) {
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            GLES20.glViewport(0, 0, screenWidth, screenHeight);
             return;
         }
 
+        target.notifyBound();
+
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.getFrameBufferHandle());
         GLES20.glFramebufferTexture2D(
                 GLES20.GL_FRAMEBUFFER,
@@ -404,6 +623,11 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
         GLES20.glViewport(0, 0, setup.getWidth(), setup.getHeight());
     }
 
+    @Override
+    public RenderTarget getTarget() {
+        return currentTarget;
+    }
+
     /**
      * Gets the loading graphics.
      *
@@ -425,7 +649,18 @@ final class InternalRenderer implements GLSurfaceView.Renderer, RenderingContext
             if (!stage.currentScene.isLoaded()) {
                 stage.currentScene.onLoaded();
             }
-            stage.currentScene.render(this);
+
+            if (stage.isDirectRendering()) {
+                EntityCollection.beginFrame();
+                stage.currentScene.render(this);
+            } else {
+                // The scene is recorded on the advance thread and only replayed here
+                final RenderRecording renderList = stage.renderList.acquire();
+
+                if (renderList != null) {
+                    renderList.replay(this);
+                }
+            }
         }
 
         shader.cleanup();
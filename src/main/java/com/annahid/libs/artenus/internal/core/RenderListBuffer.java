@@ -0,0 +1,218 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.internal.core;
+
+import com.annahid.libs.artenus.core.Scene;
+import com.annahid.libs.artenus.entities.EntityCollection;
+import com.annahid.libs.artenus.graphics.rendering.RecordingContext;
+import com.annahid.libs.artenus.graphics.rendering.RenderRecording;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes render lists from the advance thread to the rendering thread using triple buffering. After
+ * each tick, the advance thread renders the scene into a {@link RecordingContext}, and publishes
+ * the recording. The rendering thread replays the most recently published recording, without ever
+ * reading entity state that the advance thread may be changing. Neither thread waits for the
+ * other: the advance thread always has a free buffer to record into, and the rendering thread
+ * always has a complete one to replay.
+ * <p/>
+ * With a fixed timestep, the scene is recorded after each of the last two simulation steps, and
+ * the published recording is an interpolation between them.
+ *
+ * @author Hessan Feghhi
+ * @see InternalRenderer
+ */
+final class RenderListBuffer {
+    /**
+     * Indicates that the buffer in the ready slot has not been acquired by the rendering thread.
+     */
+    private static final int FRESH = 4;
+
+    /**
+     * Holds the mask that extracts the buffer index from the ready slot.
+     */
+    private static final int INDEX_MASK = 3;
+
+    /**
+     * Contains the recording contexts of the three buffers.
+     */
+    private final RecordingContext[] contexts = new RecordingContext[3];
+
+    /**
+     * Holds the index of the buffer the advance thread records into.
+     */
+    private int writeIndex = 0;
+
+    /**
+     * Holds the index of the buffer the rendering thread replays.
+     */
+    private int readIndex = 1;
+
+    /**
+     * Holds the index of the most recently published buffer, combined with the {@link #FRESH}
+     * flag.
+     */
+    private final AtomicInteger ready = new AtomicInteger(2);
+
+    /**
+     * Indicates whether any buffer has been published since the last reset.
+     */
+    private volatile boolean published = false;
+
+    /**
+     * Holds the recording context of the earlier of the last two simulation steps.
+     */
+    private RecordingContext previousStep;
+
+    /**
+     * Holds the recording context of the latter of the last two simulation steps.
+     */
+    private RecordingContext currentStep;
+
+    /**
+     * Records the given scene into the write buffer and publishes it. This method is called on the
+     * advance thread.
+     *
+     * @param scene        The scene to record
+     * @param screenWidth  Width of the screen in pixels
+     * @param screenHeight Height of the screen in pixels
+     */
+    void record(Scene scene, int screenWidth, int screenHeight) {
+        final RecordingContext ctx = fit(contexts[writeIndex], screenWidth, screenHeight);
+        contexts[writeIndex] = ctx;
+        render(scene, ctx);
+        publish();
+    }
+
+    /**
+     * Records the given scene after a fixed simulation step, without publishing it. The recording
+     * of the previous step is kept for interpolation. This method is called on the advance thread.
+     *
+     * @param scene        The scene to record
+     * @param screenWidth  Width of the screen in pixels
+     * @param screenHeight Height of the screen in pixels
+     *
+     * @see #publishInterpolated(float)
+     */
+    void recordStep(Scene scene, int screenWidth, int screenHeight) {
+        final RecordingContext last = currentStep;
+        currentStep = fit(previousStep, screenWidth, screenHeight);
+        previousStep = last != null && last.getScreenWidth() == screenWidth &&
+                last.getScreenHeight() == screenHeight ? last : null;
+        render(scene, currentStep);
+    }
+
+    /**
+     * Publishes an interpolation between the recordings of the last two simulation steps. This
+     * method does nothing if no step has been recorded. This method is called on the advance
+     * thread.
+     *
+     * @param alpha Interpolation factor between 0 (the earlier step) and 1 (the latter step)
+     */
+    void publishInterpolated(float alpha) {
+        if (currentStep == null) {
+            return;
+        }
+
+        final RecordingContext ctx = fit(contexts[writeIndex],
+                currentStep.getScreenWidth(), currentStep.getScreenHeight());
+        contexts[writeIndex] = ctx;
+        ctx.getRecording().interpolate(
+                previousStep == null ? null : previousStep.getRecording(),
+                currentStep.getRecording(),
+                alpha
+        );
+        publish();
+    }
+
+    /**
+     * Gets the most recently published recording. If no new recording has been published since
+     * the last call, the same recording is returned again. This method is called on the rendering
+     * thread.
+     *
+     * @return The recording, or {@code null} if nothing has been published yet
+     */
+    RenderRecording acquire() {
+        if (!published) {
+            return null;
+        }
+
+        if ((ready.get() & FRESH) != 0) {
+            readIndex = ready.getAndSet(readIndex) & INDEX_MASK;
+        }
+
+        final RecordingContext ctx = contexts[readIndex];
+        return ctx == null ? null : ctx.getRecording();
+    }
+
+    /**
+     * Discards published recordings, so that the rendering thread does not replay stale content.
+     * This method must be called on the advance thread, like the methods that record and publish,
+     * so that it never runs concurrently with them. The rendering thread only reads the volatile
+     * {@link #published} flag and may acquire one last stale recording before it observes the
+     * reset.
+     */
+    void reset() {
+        published = false;
+        previousStep = null;
+        currentStep = null;
+    }
+
+    /**
+     * Makes the write buffer available to the rendering thread, and takes over the buffer it
+     * replaced as the new write buffer.
+     */
+    private void publish() {
+        writeIndex = ready.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+        published = true;
+    }
+
+    /**
+     * Clears the recording of the given context and renders the scene into it.
+     *
+     * @param scene The scene to render
+     * @param ctx   The recording context
+     */
+    private static void render(Scene scene, RecordingContext ctx) {
+        ctx.getRecording().clear();
+        ctx.reset();
+        EntityCollection.beginFrame();
+        scene.render(ctx);
+    }
+
+    /**
+     * Returns the given recording context if it matches the screen size, or a new one otherwise.
+     *
+     * @param ctx          The recording context, or {@code null}
+     * @param screenWidth  Width of the screen in pixels
+     * @param screenHeight Height of the screen in pixels
+     *
+     * @return A recording context matching the screen size
+     */
+    private static RecordingContext fit(RecordingContext ctx, int screenWidth, int screenHeight) {
+        if (ctx == null || ctx.getScreenWidth() != screenWidth ||
+                ctx.getScreenHeight() != screenHeight) {
+            return new RecordingContext(screenWidth, screenHeight);
+        }
+
+        return ctx;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.annahid.libs.artenus.internal.core;
+
+import android.opengl.GLES20;
+
+import com.annahid.libs.artenus.core.FrameStats;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
+import com.annahid.libs.artenus.graphics.rendering.MatrixStack;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects textured rectangles drawn through the rendering context and submits them to OpenGL in
+ * as few draw calls as possible. Rectangle vertices are transformed on the CPU and accumulated in a
+ * growing vertex buffer, which is only flushed when the texture changes, the shader program is
+ * switched, or the rendering context requires all pending drawing to be complete.
+ *
+ * @author Hessan Feghhi
+ * @see InternalRenderer
+ */
+final class SpriteBatch {
+    /**
+     * Holds the number of floats per vertex: position (2), texture coordinates (2), and color (4).
+     */
+    static final int VERTEX_SIZE = 8;
+
+    /**
+     * Holds the maximum number of rectangles in one batch. Indices are 16-bit, so a batch cannot
+     * address more than 65536 vertices.
+     */
+    static final int MAX_QUADS = 8192;
+
+    /**
+     * Holds the number of rectangles the batch can initially hold before growing.
+     */
+    private static final int INITIAL_QUADS = 128;
+
+    /**
+     * Holds the shader program used to draw batches.
+     */
+    private final BatchShaderProgram program;
+
+    /**
+     * Contains vertex data for the rectangles in the current batch.
+     */
+    private float[] vertices = new float[INITIAL_QUADS * 4 * VERTEX_SIZE];
+
+    /**
+     * Holds the native buffer vertex data is copied to before drawing.
+     */
+    private FloatBuffer vertexBuffer;
+
+    /**
+     * Holds the index buffer shared by all batches.
+     */
+    private ShortBuffer indexBuffer;
+
+    /**
+     * Holds the number of rectangles in the current batch.
+     */
+    private int quadCount = 0;
+
+    /**
+     * Holds the texture used by the current batch.
+     */
+    private int texture = -1;
+
+    /**
+     * Creates a new sprite batch that draws with the given shader program.
+     *
+     * @param program Batch shader program
+     */
+    SpriteBatch(BatchShaderProgram program) {
+        this.program = program;
+        vertexBuffer = allocate(vertices.length);
+        indexBuffer = ByteBuffer.allocateDirect(MAX_QUADS * 6 * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        for (int i = 0; i < MAX_QUADS; i++) {
+            final short base = (short) (i * 4);
+            indexBuffer.put(base);
+            indexBuffer.put((short) (base + 1));
+            indexBuffer.put((short) (base + 2));
+            indexBuffer.put((short) (base + 2));
+            indexBuffer.put((short) (base + 1));
+            indexBuffer.put((short) (base + 3));
+        }
+
+        indexBuffer.position(0);
+    }
+
+    /**
+     * Adds the default rectangular primitive to the batch, using the state of the given texture
+     * shader program. If the texture differs from that of the current batch, the current batch is
+     * flushed first.
+     *
+     * @param matrix     Array containing the affine transformation matrix (without projection)
+     * @param mo         Offset of the matrix in the array
+     * @param projection Projection matrix, used if a flush is required
+     * @param source     The texture shader program holding the texture, texture coordinates and
+     *                   color for the rectangle
+     *
+     * @see MatrixStack
+     */
+    void add(float[] matrix, int mo, float[] projection, TextureShaderProgram source) {
+        final int tex = source.getTextureHandle();
+
+        if (tex != texture || quadCount == MAX_QUADS) {
+            flush(projection);
+            texture = tex;
+        }
+
+        final int offset = quadCount * 4 * VERTEX_SIZE;
+
+        if (offset + 4 * VERTEX_SIZE > vertices.length) {
+            final float[] grown = new float[vertices.length * 2];
+            System.arraycopy(vertices, 0, grown, 0, offset);
+            vertices = grown;
+        }
+
+        FloatBuffer texCoords = source.getTexCoords();
+
+        if (texCoords == null) {
+            texCoords = TextureShaderProgram.getDefaultTextureBuffer();
+        }
+
+        final float[] color = source.getColor();
+        final float a = matrix[mo], b = matrix[mo + 1], c = matrix[mo + 2], d = matrix[mo + 3];
+        final float tx = matrix[mo + 4], ty = matrix[mo + 5];
+        final float[] v = vertices;
+        int index = offset;
+
+        // Corners of the default rectangle, in triangle strip order.
+        for (int i = 0; i < 4; i++) {
+            final float x = (i & 1) == 0 ? -0.5f : 0.5f;
+            final float y = (i & 2) == 0 ? -0.5f : 0.5f;
+            v[index++] = a * x + c * y + tx;
+            v[index++] = b * x + d * y + ty;
+            v[index++] = texCoords.get(i * 2);
+            v[index++] = texCoords.get(i * 2 + 1);
+            v[index++] = color[0];
+            v[index++] = color[1];
+            v[index++] = color[2];
+            v[index++] = color[3];
+        }
+
+        quadCount++;
+    }
+
+    /**
+     * Adds a mesh of axis-aligned quads to the batch, using the texture and color of the given
+     * texture shader program. If the texture differs from that of the current batch, the current
+     * batch is flushed first.
+     *
+     * @param matrix     Array containing the affine transformation matrix (without projection)
+     * @param mo         Offset of the matrix in the array
+     * @param projection Projection matrix, used if a flush is required
+     * @param source     The texture shader program holding the texture and color for the mesh
+     * @param mesh       Array containing the quads, in the format described in
+     *                   {@link com.annahid.libs.artenus.graphics.rendering.RenderingContext#rects}
+     * @param offset     Offset of the first quad in the mesh array
+     * @param count      Number of quads
+     */
+    void add(float[] matrix, int mo, float[] projection, TextureShaderProgram source,
+             float[] mesh, int offset, int count) {
+        add(matrix, mo, projection, source, mesh, offset, count, null, 0);
+    }
+
+    /**
+     * Adds a mesh of axis-aligned quads to the batch, using the texture and color of the given
+     * texture shader program, with the color of each quad multiplied by its own color. If the
+     * texture differs from that of the current batch, the current batch is flushed first.
+     *
+     * @param matrix      Array containing the affine transformation matrix (without projection)
+     * @param mo          Offset of the matrix in the array
+     * @param projection  Projection matrix, used if a flush is required
+     * @param source      The texture shader program holding the texture and color for the mesh
+     * @param mesh        Array containing the quads, in the format described in
+     *                    {@link com.annahid.libs.artenus.graphics.rendering.RenderingContext#rects}
+     * @param offset      Offset of the first quad in the mesh array
+     * @param count       Number of quads
+     * @param colors      Array containing four color components per quad, or {@code null} to use
+     *                    the color of the shader program for all quads
+     * @param colorOffset Offset of the color of the first quad in the colors array
+     */
+    void add(float[] matrix, int mo, float[] projection, TextureShaderProgram source,
+             float[] mesh, int offset, int count, float[] colors, int colorOffset) {
+        final int tex = source.getTextureHandle();
+
+        if (tex != texture) {
+            flush(projection);
+            texture = tex;
+        }
+
+        final float[] color = source.getColor();
+        final float a = matrix[mo], b = matrix[mo + 1], c = matrix[mo + 2], d = matrix[mo + 3];
+        final float tx = matrix[mo + 4], ty = matrix[mo + 5];
+
+        for (int q = 0; q < count; q++) {
+            if (quadCount == MAX_QUADS) {
+                flush(projection);
+            }
+
+            int index = quadCount * 4 * VERTEX_SIZE;
+
+            if (index + 4 * VERTEX_SIZE > vertices.length) {
+                final float[] grown = new float[vertices.length * 2];
+                System.arraycopy(vertices, 0, grown, 0, index);
+                vertices = grown;
+            }
+
+            final float[] v = vertices;
+            final int m = offset + q * 8;
+            float red = color[0], green = color[1], blue = color[2], alpha = color[3];
+
+            if (colors != null) {
+                final int k = colorOffset + q * 4;
+                red *= colors[k];
+                green *= colors[k + 1];
+                blue *= colors[k + 2];
+                alpha *= colors[k + 3];
+            }
+
+            // Corners of the quad, in the same order as the default rectangle.
+            for (int i = 0; i < 4; i++) {
+                final float x = mesh[m + ((i & 1) == 0 ? 0 : 2)];
+                final float y = mesh[m + ((i & 2) == 0 ? 1 : 3)];
+                v[index++] = a * x + c * y + tx;
+                v[index++] = b * x + d * y + ty;
+                v[index++] = mesh[m + ((i & 1) == 0 ? 4 : 6)];
+                v[index++] = mesh[m + ((i & 2) == 0 ? 5 : 7)];
+                v[index++] = red;
+                v[index++] = green;
+                v[index++] = blue;
+                v[index++] = alpha;
+            }
+
+            quadCount++;
+        }
+    }
+
+    /**
+     * Gets the index buffer shared by all batches. It holds the indices of two triangles for each
+     * of {@link #MAX_QUADS} rectangles, with four vertices per rectangle.
+     *
+     * @return The index buffer
+     */
+    ShortBuffer getIndexBuffer() {
+        return indexBuffer;
+    }
+
+    /**
+     * Draws all rectangles in the current batch and empties it. This method does nothing if the
+     * batch is empty.
+     *
+     * @param projection Projection matrix
+     */
+    void flush(float[] projection) {
+        if (quadCount == 0) {
+            return;
+        }
+
+        final int length = quadCount * 4 * VERTEX_SIZE;
+
+        if (vertexBuffer.capacity() < length) {
+            vertexBuffer = allocate(vertices.length);
+        }
+
+        vertexBuffer.position(0);
+        vertexBuffer.put(vertices, 0, length);
+        program.activate();
+        program.feed(projection);
+        program.feed(texture);
+        program.feed(vertexBuffer);
+        indexBuffer.position(0);
+        GLES20.glDrawElements(
+                GLES20.GL_TRIANGLES, quadCount * 6, GLES20.GL_UNSIGNED_SHORT, indexBuffer
+        );
+        program.cleanup();
+        FrameStats.count(FrameStats.Counter.DRAW_CALLS);
+        quadCount = 0;
+    }
+
+    /**
+     * Allocates a native float buffer with the given capacity.
+     *
+     * @param capacity Number of floats
+     *
+     * @return The buffer
+     */
+    private static FloatBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+}
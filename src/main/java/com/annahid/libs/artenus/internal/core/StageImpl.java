@@ -29,6 +29,7 @@ import android.view.MotionEvent;
 import com.annahid.libs.artenus.Artenus;
 import com.annahid.libs.artenus.R;
 import com.annahid.libs.artenus.core.Dialog;
+import com.annahid.libs.artenus.core.FrameStats;
 import com.annahid.libs.artenus.core.Scene;
 import com.annahid.libs.artenus.core.Stage;
 import com.annahid.libs.artenus.core.StageEvents;
@@ -37,6 +38,7 @@ import com.annahid.libs.artenus.graphics.filters.PostProcessingFilter;
 import com.annahid.libs.artenus.input.TouchEvent;
 import com.annahid.libs.artenus.data.RGB;
 import com.annahid.libs.artenus.graphics.TextureManager;
+import com.annahid.libs.artenus.graphics.TextureShaderProgram;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -69,6 +71,27 @@ public final class StageImpl extends GLSurfaceView implements Stage {
      */
     float stPhase;
 
+    /**
+     * Holds the fixed simulation step in seconds, or 0 to advance by the real elapsed time.
+     */
+    private volatile float fixedStep = 0;
+
+    /**
+     * Holds the maximum number of fixed simulation steps per frame.
+     */
+    private volatile int maxCatchUpSteps = 5;
+
+    /**
+     * Indicates whether the scene is rendered directly on the rendering thread instead of being
+     * recorded on the advance thread.
+     */
+    private volatile boolean directRendering = false;
+
+    /**
+     * Holds the render lists passed from the animation loop to the renderer.
+     */
+    final RenderListBuffer renderList = new RenderListBuffer();
+
     /**
      * Holds the thread running the main animation loop.
      */
@@ -281,6 +304,41 @@ public final class StageImpl extends GLSurfaceView implements Stage {
         handler = stageManager;
     }
 
+    @Override
+    public FrameStats getFrameStats() {
+        return FrameStats.getInstance();
+    }
+
+    @Override
+    public void setFixedTimestep(float step) {
+        fixedStep = Math.max(0, step);
+    }
+
+    @Override
+    public float getFixedTimestep() {
+        return fixedStep;
+    }
+
+    @Override
+    public void setMaxCatchUpSteps(int steps) {
+        maxCatchUpSteps = Math.max(1, steps);
+    }
+
+    @Override
+    public int getMaxCatchUpSteps() {
+        return maxCatchUpSteps;
+    }
+
+    @Override
+    public void setDirectRendering(boolean direct) {
+        directRendering = direct;
+    }
+
+    @Override
+    public boolean isDirectRendering() {
+        return directRendering;
+    }
+
     /**
      * Handles motion events for this {@code Stage} and passes them on to the input manager and
      * current scene or dialog.
@@ -372,13 +430,24 @@ public final class StageImpl extends GLSurfaceView implements Stage {
     }
 
     /**
-     * Handles the main game loop.
+     * Handles the main game loop. After advancing the current scene, it records the scene into the
+     * render list buffer, which the renderer replays on the rendering thread.
      */
     private final class StageAdvanceTask extends Thread {
         private long mLastTime;
 
         private int tid;
 
+        /**
+         * Holds the simulation time not yet consumed by fixed steps, in seconds.
+         */
+        private float accumulator = 0;
+
+        /**
+         * Indicates whether the scene was rendered directly in the previous tick.
+         */
+        private boolean direct = false;
+
         private StageAdvanceTask() {
             mLastTime = System.nanoTime();
             tid = advanceThreadId.incrementAndGet();
@@ -386,44 +455,143 @@ public final class StageImpl extends GLSurfaceView implements Stage {
 
         @Override
         public void run() {
+            TextureShaderProgram.setRecordingThread(this);
+
             while (true) {
                 if (advanceThread == null || tid != advanceThreadId.get())
                     return;
 
                 final long time = System.nanoTime();
                 final long diff = time - mLastTime;
+                final float step = fixedStep;
 
-                if (diff < 64000000) {
-                    if (nextScene != null) {
-                        stPhase = Math.min(1, stPhase + diff / 250000000.0f);
-
-                        if (stPhase == 1) {
-                            TextureManager.unloadLocal();
-                            nextScene.onLocalLoad();
-                            currentScene = nextScene;
-                            nextScene = null;
-                            mRenderer.getLoadingGraphics().renew();
-                        }
-                    } else if (stPhase > 0) {
-                        stPhase = Math.max(0, stPhase - diff / 250000000.0f);
-                    }
-                    if (currentScene != null) {
-                        if (currentScene.isLoaded())
-                            currentScene.advance(diff / 1000000000.0f);
-                    }
-                    requestRender();
+                // Recordings published before direct rendering was turned on are stale
+                if (direct != directRendering) {
+                    direct = !direct;
+                    renderList.reset();
                 }
+                final long sleep = step > 0 ? tickFixed(diff, step) : tickVariable(time, diff);
 
                 mLastTime = time;
 
-                if (diff < 17000000) {
+                if (sleep > 0) {
                     try {
-                        Thread.sleep(20 - diff / 1000000);
+                        Thread.sleep(sleep);
                     } catch (InterruptedException e) {
                         // Do nothing
                     }
                 }
             }
         }
+
+        /**
+         * Advances the current scene by the real time elapsed since the previous frame. Frames that
+         * take too long are skipped.
+         *
+         * @param time Current time in nanoseconds
+         * @param diff Time elapsed since the previous frame in nanoseconds
+         *
+         * @return Time to sleep before the next frame in milliseconds
+         */
+        private long tickVariable(long time, long diff) {
+            if (diff < 64000000) {
+                updateTransition(diff);
+
+                if (currentScene != null) {
+                    if (currentScene.isLoaded()) {
+                        currentScene.advance(diff / 1000000000.0f);
+                        FrameStats.time(FrameStats.Timer.ADVANCE, System.nanoTime() - time);
+
+                        if (!direct && mRenderer.screenWidth > 0) {
+                            renderList.record(currentScene,
+                                    mRenderer.screenWidth, mRenderer.screenHeight);
+                        }
+
+                        // Recording counts rendered entities, so the tick is committed after it
+                        FrameStats.commitAdvance();
+                    }
+                }
+                requestRender();
+            }
+
+            return diff < 17000000 ? 20 - diff / 1000000 : 0;
+        }
+
+        /**
+         * Advances the current scene in fixed steps to consume the time elapsed since the previous
+         * frame, and publishes a render list interpolated between the last two steps.
+         *
+         * @param diff Time elapsed since the previous frame in nanoseconds
+         * @param step Simulation step in seconds
+         *
+         * @return Time to sleep before the next frame in milliseconds
+         */
+        private long tickFixed(long diff, float step) {
+            final int maxSteps = maxCatchUpSteps;
+            updateTransition(Math.min(diff, 64000000));
+
+            if (currentScene == null || !currentScene.isLoaded()) {
+                accumulator = 0;
+                requestRender();
+                return (long) (step * 1000);
+            }
+
+            accumulator = Math.min(accumulator + diff / 1000000000.0f, step * (maxSteps + 1));
+
+            final int steps = Math.min((int) (accumulator / step), maxSteps);
+            final boolean record = !direct && mRenderer.screenWidth > 0;
+
+            for (int i = 0; i < steps; i++) {
+                final long start = System.nanoTime();
+                currentScene.advance(step);
+                FrameStats.time(FrameStats.Timer.ADVANCE, System.nanoTime() - start);
+
+                // Only the last two steps are needed for interpolation
+                if (record && i >= steps - 2) {
+                    renderList.recordStep(currentScene,
+                            mRenderer.screenWidth, mRenderer.screenHeight);
+                }
+
+                FrameStats.commitAdvance();
+            }
+
+            accumulator -= steps * step;
+
+            // Drop time the simulation could not catch up with
+            if (accumulator >= step) {
+                accumulator = 0;
+            }
+
+            if (record) {
+                renderList.publishInterpolated(accumulator / step);
+            }
+
+            requestRender();
+            return (long) ((step - accumulator) * 1000);
+        }
+
+        /**
+         * Advances the scene transition effect, and switches to the next scene when the current
+         * scene has faded out.
+         *
+         * @param diff Time elapsed since the previous frame in nanoseconds
+         */
+        private void updateTransition(long diff) {
+            if (nextScene != null) {
+                stPhase = Math.min(1, stPhase + diff / 250000000.0f);
+
+                if (stPhase == 1) {
+                    TextureManager.unloadLocal();
+                    nextScene.onLocalLoad();
+                    currentScene = nextScene;
+                    nextScene = null;
+                    renderList.reset();
+                    accumulator = 0;
+                    mRenderer.getLoadingGraphics().renew();
+                }
+            } else if (stPhase > 0) {
+                stPhase = Math.max(0, stPhase - diff / 250000000.0f);
+            }
+        }
     }
 }
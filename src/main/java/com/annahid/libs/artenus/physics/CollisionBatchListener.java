@@ -0,0 +1,41 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.physics;
+
+import java.util.List;
+
+/**
+ * Interface for classes that process physical collision events in batches. Instances of this
+ * interface are registered with a {@link PhysicsSimulator} using its
+ * {@code addCollisionListener} method, and receive all collisions of a frame in one call,
+ * optionally restricted to certain event types and body categories.
+ *
+ * @author Hessan Feghhi
+ * @see CollisionInfo
+ */
+public interface CollisionBatchListener {
+    /**
+     * Called once per frame with the collisions that happened in the physical world, if there was
+     * at least one. The list and its records are reused by the simulator, and must not be modified
+     * or kept after this method returns.
+     *
+     * @param collisions The collisions
+     */
+    void onCollisions(List<CollisionInfo> collisions);
+}
@@ -18,15 +18,45 @@
 
 package com.annahid.libs.artenus.physics;
 
+import org.jbox2d.common.Settings;
+
 /**
  * Contains information about a collision. An instance of this class is passed to the
  * {@code onCollision} method of the {@link CollisionListener} interface per each pair of colliding
- * bodies.
+ * bodies, and batches of them are passed to {@link CollisionBatchListener} instances. Collision
+ * records are pooled by the simulator and reused once they are delivered, so listeners must copy
+ * any information they need to keep after returning.
  *
  * @author Hessan Feghhi
  */
 @SuppressWarnings("UnusedDeclaration")
 public final class CollisionInfo {
+    /**
+     * Defines the event type reported when two bodies start touching.
+     */
+    public static final int BEGIN_CONTACT = 1;
+
+    /**
+     * Defines the event type reported after the collision of two touching bodies has been solved
+     * in a step. Impulses are only available for this type of event.
+     */
+    public static final int POST_SOLVE = 2;
+
+    /**
+     * Defines the event type reported when two bodies stop touching.
+     */
+    public static final int END_CONTACT = 4;
+
+    /**
+     * Defines the combination of all event types.
+     */
+    public static final int ALL = BEGIN_CONTACT | POST_SOLVE | END_CONTACT;
+
+    /**
+     * Holds the type of this collision event. It is one of {@link #BEGIN_CONTACT},
+     * {@link #POST_SOLVE} or {@link #END_CONTACT}.
+     */
+    public int type;
     /**
      * Holds the first body involved in the collision.
      */
@@ -38,17 +68,20 @@ public final class CollisionInfo {
     public PhysicalBody body2;
 
     /**
-     * Contains normal impulses for the collision.
+     * Contains normal impulses for the collision. Only the first {@link #impulseCount} elements are
+     * valid.
      */
-    public float[] normalImpulses;
+    public final float[] normalImpulses = new float[Settings.maxManifoldPoints];
 
     /**
-     * Contains tangent impulses for the collision.
+     * Contains tangent impulses for the collision. Only the first {@link #impulseCount} elements
+     * are valid.
      */
-    public float[] tangentImpulses;
+    public final float[] tangentImpulses = new float[Settings.maxManifoldPoints];
 
     /**
-     * Holds the number of impulses included in this collision.
+     * Holds the number of impulses included in this collision. It is zero for events other than
+     * {@link #POST_SOLVE}.
      */
     public int impulseCount;
 
@@ -22,7 +22,9 @@ package com.annahid.libs.artenus.physics;
  * Interface for classes that process physical collision events. An instance of this interface is
  * assigned to a {@link com.annahid.libs.artenus.physics.PhysicsSimulator} using the
  * {@code setCollisionListener} method and on each collision, the {@code onCollision} method is
- * called on the listener with information relating to the collision.
+ * called on the listener with information relating to the collision. Only
+ * {@link CollisionInfo#POST_SOLVE} events are delivered to this listener. To receive other events,
+ * or all collisions of a frame at once, use a {@link CollisionBatchListener}.
  *
  * @author Hessan Feghhi
  */
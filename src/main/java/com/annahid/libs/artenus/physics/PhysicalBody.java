@@ -28,6 +28,7 @@ import com.annahid.libs.artenus.core.Scene;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.FixtureDef;
 
 import java.util.ArrayList;
@@ -36,7 +37,8 @@ import java.util.List;
 /**
  * Represents a physical body in physics simulation. As the physical body represented by this entity
  * moves and rotates due to physical simulation, this entity will modify the position and rotation
- * of the underlying {@code Entity}, depending on connection preferences.
+ * of the underlying {@code Entity}, depending on connection preferences. The simulator updates the
+ * underlying entities of all moving bodies in a single pass after each step.
  *
  * @author Hessan Feghhi
  */
@@ -56,6 +58,51 @@ public class PhysicalBody extends FilteredEntity {
      */
     public static final int ROTATION = 2;
 
+    /**
+     * Defines the deferred command that moves the body to the position given by its arguments.
+     */
+    static final int COMMAND_POSITION = 0;
+
+    /**
+     * Defines the deferred command that rotates the body to the angle given by its first argument.
+     */
+    static final int COMMAND_ROTATION = 1;
+
+    /**
+     * Defines the deferred command that sets the linear velocity of the body.
+     */
+    static final int COMMAND_LINEAR_VELOCITY = 2;
+
+    /**
+     * Defines the deferred command that sets the angular velocity of the body.
+     */
+    static final int COMMAND_ANGULAR_VELOCITY = 3;
+
+    /**
+     * Defines the deferred command that applies a force to the center of the body.
+     */
+    static final int COMMAND_FORCE = 4;
+
+    /**
+     * Defines the deferred command that applies an impulse to the center of the body.
+     */
+    static final int COMMAND_IMPULSE = 5;
+
+    /**
+     * Defines the deferred command that applies a force to a given point of the body.
+     */
+    static final int COMMAND_FORCE_AT = 6;
+
+    /**
+     * Defines the deferred command that applies an impulse to a given point of the body.
+     */
+    static final int COMMAND_IMPULSE_AT = 7;
+
+    /**
+     * Defines a deferred task that is not specific to a body.
+     */
+    static final int COMMAND_TASK = 8;
+
     /**
      * Holds the Box2D body associated with this physical body.
      */
@@ -66,6 +113,42 @@ public class PhysicalBody extends FilteredEntity {
      */
     Descriptor desc;
 
+    /**
+     * Holds the simulator this body is attached to.
+     */
+    PhysicsSimulator simulator;
+
+    /**
+     * Holds the way this body is throttled by the simulator, or {@code null} if it is not.
+     */
+    PhysicsSimulator.Throttling throttling;
+
+    /**
+     * Holds the x component of the linear velocity of the body when it was frozen.
+     */
+    float frozenVelocityX;
+
+    /**
+     * Holds the y component of the linear velocity of the body when it was frozen.
+     */
+    float frozenVelocityY;
+
+    /**
+     * Holds the angular velocity of the body when it was frozen.
+     */
+    float frozenAngularVelocity;
+
+    /**
+     * Indicates whether the body was awake when the simulator last synchronized its target.
+     */
+    boolean wasAwake = true;
+
+    /**
+     * Holds the stamp of the last world query that reported this body, used to report bodies with
+     * several fixtures only once.
+     */
+    int queryStamp;
+
     /**
      * Contains joints currently constraining this physical body.
      */
@@ -96,6 +179,62 @@ public class PhysicalBody extends FilteredEntity {
      */
     private int connections = POSITION | ROTATION;
 
+    /**
+     * Holds the category bits of the body.
+     */
+    private int category = 1;
+
+    /**
+     * Holds the bits of the categories this body collides with.
+     */
+    private int collisionMask = 0xFFFF;
+
+    /**
+     * Holds the combination of collision event types this body reports.
+     */
+    private int collisionEvents = CollisionInfo.ALL;
+
+    /**
+     * Used to pass vectors to JBox2D without allocating them.
+     */
+    private final Vec2 vector = new Vec2();
+
+    /**
+     * Used to pass points to JBox2D without allocating them.
+     */
+    private final Vec2 point = new Vec2();
+
+    /**
+     * Holds the published x position of the body in meters. Published values are used instead of
+     * the state of the world when the simulator is asynchronous.
+     */
+    private float publishedX;
+
+    /**
+     * Holds the published y position of the body in meters.
+     */
+    private float publishedY;
+
+    /**
+     * Holds the published angle of the body in radians.
+     */
+    private float publishedAngle;
+
+    /**
+     * Holds the x component of the published linear velocity.
+     */
+    private float publishedVelocityX;
+
+    /**
+     * Holds the y component of the published linear velocity.
+     */
+    private float publishedVelocityY;
+
+    /**
+     * Holds the published angular velocity.
+     */
+    private float publishedAngularVelocity;
+
     public PhysicalBody(Entity entity) {
         this(entity, null);
     }
@@ -135,8 +274,21 @@ public class PhysicalBody extends FilteredEntity {
      * @param force The force given in the SI unit
      */
     public final void applyForce(Point2D force) {
-        if (body != null)
-            body.applyForce(new Vec2(force.x, force.y), body.getWorldCenter());
+        applyForce(force.x, force.y);
+    }
+
+    /**
+     * Applies a 2-dimensional force to the center of the {@code PhysicalBody}. This method does
+     * not allocate any objects.
+     *
+     * @param fx The x component of the force given in the SI unit
+     * @param fy The y component of the force given in the SI unit
+     */
+    public final void applyForce(float fx, float fy) {
+        if (isDeferred())
+            simulator.post(COMMAND_FORCE, this, fx, fy);
+        else if (body != null)
+            body.applyForce(vector.set(fx, fy), body.getWorldCenter());
     }
 
     /**
@@ -146,8 +298,23 @@ public class PhysicalBody extends FilteredEntity {
      * @param center The effective point of the force on the {@code PhysicalBody}
      */
     public final void applyForce(Point2D force, Point2D center) {
-        if (body != null)
-            body.applyForce(new Vec2(force.x, force.y), new Vec2(center.x, center.y));
+        applyForce(force.x, force.y, center.x, center.y);
+    }
+
+    /**
+     * Applies a 2-dimensional force to the {@code PhysicalBody}. This method does not allocate
+     * any objects.
+     *
+     * @param fx The x component of the force given in the SI unit
+     * @param fy The y component of the force given in the SI unit
+     * @param cx The x component of the effective point of the force on the {@code PhysicalBody}
+     * @param cy The y component of the effective point of the force on the {@code PhysicalBody}
+     */
+    public final void applyForce(float fx, float fy, float cx, float cy) {
+        if (isDeferred())
+            simulator.post(COMMAND_FORCE_AT, this, fx, fy, cx, cy);
+        else if (body != null)
+            body.applyForce(vector.set(fx, fy), point.set(cx, cy));
     }
 
     /**
@@ -156,8 +323,21 @@ public class PhysicalBody extends FilteredEntity {
      * @param impulse The impulse to be applied in SI unit
      */
     public final void applyLinearImpulse(Point2D impulse) {
-        if (body != null)
-            body.applyLinearImpulse(new Vec2(impulse.x, impulse.y), body.getWorldCenter());
+        applyLinearImpulse(impulse.x, impulse.y);
+    }
+
+    /**
+     * Applies a 2-dimensional impulse to the center of the {@code PhysicalBody}. This method does
+     * not allocate any objects.
+     *
+     * @param ix The x component of the impulse to be applied in SI unit
+     * @param iy The y component of the impulse to be applied in SI unit
+     */
+    public final void applyLinearImpulse(float ix, float iy) {
+        if (isDeferred())
+            simulator.post(COMMAND_IMPULSE, this, ix, iy);
+        else if (body != null)
+            body.applyLinearImpulse(vector.set(ix, iy), body.getWorldCenter());
     }
 
     /**
@@ -167,8 +347,25 @@ public class PhysicalBody extends FilteredEntity {
      * @param center  The effective point of the impulse on the {@code PhysicalBody}
      */
     public void applyLinearImpulse(Point2D impulse, Point2D center) {
-        if (body != null)
-            body.applyLinearImpulse(new Vec2(impulse.x, impulse.y), new Vec2(center.x, center.y));
+        applyLinearImpulse(impulse.x, impulse.y, center.x, center.y);
+    }
+
+    /**
+     * Applies a 2-dimensional impulse to the {@code PhysicalBody}. This method does not allocate
+     * any objects.
+     *
+     * @param ix The x component of the impulse to be applied in SI unit
+     * @param iy The y component of the impulse to be applied in SI unit
+     * @param cx The x component of the effective point of the impulse on the
+     *           {@code PhysicalBody}
+     * @param cy The y component of the effective point of the impulse on the
+     *           {@code PhysicalBody}
+     */
+    public void applyLinearImpulse(float ix, float iy, float cx, float cy) {
+        if (isDeferred())
+            simulator.post(COMMAND_IMPULSE_AT, this, ix, iy, cx, cy);
+        else if (body != null)
+            body.applyLinearImpulse(vector.set(ix, iy), point.set(cx, cy));
     }
 
     /**
@@ -192,7 +389,14 @@ public class PhysicalBody extends FilteredEntity {
     public final void setShape(Shape s) {
         shape = s;
 
-        if (body != null)
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    createFixture();
+                }
+            });
+        } else if (body != null)
             createFixture();
     }
 
@@ -216,8 +420,15 @@ public class PhysicalBody extends FilteredEntity {
      *
      * @see Behavior
      */
-    public final void setType(Behavior type) {
-        if (body != null) {
+    public final void setType(final Behavior type) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setType(type);
+                }
+            });
+        } else if (body != null) {
             switch (type) {
                 case DYNAMIC:
                     body.m_type = BodyType.DYNAMIC;
@@ -238,7 +449,9 @@ public class PhysicalBody extends FilteredEntity {
      * @return The current angular velocity
      */
     public final float getAngularVelocity() {
-        if (body != null)
+        if (isBuffered())
+            return publishedAngularVelocity;
+        else if (body != null)
             return body.m_angularVelocity;
         else return desc.angularVelocity;
     }
@@ -250,7 +463,12 @@ public class PhysicalBody extends FilteredEntity {
      * @param velocity The new angular velocity
      */
     public final void setAngularVelocity(float velocity) {
-        if (body != null)
+        if (isBuffered())
+            publishedAngularVelocity = velocity;
+
+        if (isDeferred())
+            simulator.post(COMMAND_ANGULAR_VELOCITY, this, velocity, 0);
+        else if (body != null)
             body.setAngularVelocity(velocity);
         else desc.angularVelocity = velocity;
     }
@@ -261,12 +479,33 @@ public class PhysicalBody extends FilteredEntity {
      * @return The current linear velocity
      */
     public final Point2D getLinearVelocity() {
-        if (body != null) {
+        if (isBuffered())
+            return new Point2D(publishedVelocityX, publishedVelocityY);
+        else if (body != null) {
             final Vec2 v = body.m_linearVelocity;
             return new Point2D(v.x, v.y);
         } else return desc.linearVelocity;
     }
 
+    /**
+     * Copies the linear velocity of the body into the given point. This is the allocation-free
+     * equivalent of {@link #getLinearVelocity()}.
+     *
+     * @param velocity The point to receive the current linear velocity
+     */
+    public final void getLinearVelocity(Point2D velocity) {
+        if (isBuffered()) {
+            velocity.x = publishedVelocityX;
+            velocity.y = publishedVelocityY;
+        } else if (body != null) {
+            velocity.x = body.m_linearVelocity.x;
+            velocity.y = body.m_linearVelocity.y;
+        } else {
+            velocity.x = desc.linearVelocity.x;
+            velocity.y = desc.linearVelocity.y;
+        }
+    }
+
     /**
      * Sets the current linear velocity of the object. If the object is active in simulation,
      * its current linear velocity is replaced with the new value.
@@ -285,8 +524,15 @@ public class PhysicalBody extends FilteredEntity {
      * @param vy The y component of the new linear velocity
      */
     public final void setLinearVelocity(float vx, float vy) {
-        if (body != null)
-            body.setLinearVelocity(new Vec2(vx, vy));
+        if (isBuffered()) {
+            publishedVelocityX = vx;
+            publishedVelocityY = vy;
+        }
+
+        if (isDeferred())
+            simulator.post(COMMAND_LINEAR_VELOCITY, this, vx, vy);
+        else if (body != null)
+            body.setLinearVelocity(vector.set(vx, vy));
         else {
             desc.linearVelocity.x = vx;
             desc.linearVelocity.y = vy;
@@ -309,8 +555,15 @@ public class PhysicalBody extends FilteredEntity {
      *
      * @param damping The new linear damping
      */
-    public final void setLinearDamping(float damping) {
-        if (body != null)
+    public final void setLinearDamping(final float damping) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setLinearDamping(damping);
+                }
+            });
+        } else if (body != null)
             body.setLinearDamping(damping);
         else desc.linearDamping = damping;
     }
@@ -327,15 +580,39 @@ public class PhysicalBody extends FilteredEntity {
         else return desc.active;
     }
 
+    /**
+     * Indicates whether the body is throttled by the simulator for being outside the region of
+     * interest. Deactivated bodies are also reported as inactive by {@link #isActive()}.
+     *
+     * @return {@code true} if the body is throttled, {@code false} otherwise
+     *
+     * @see PhysicsSimulator#setThrottling(PhysicsSimulator.Throttling)
+     */
+    public final boolean isThrottled() {
+        return throttling != null;
+    }
+
     /**
      * Modifies the active state of the body kin simulation. If the body is not active,
-     * it is not accounted for in collision detection and physics simulation.
+     * it is not accounted for in collision detection and physics simulation. Bodies deactivated
+     * this way are never reactivated by region of interest throttling.
      *
      * @param active A value indicating whether the body should be active
      */
-    public final void setActive(boolean active) {
-        if (body != null)
+    public final void setActive(final boolean active) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setActive(active);
+                }
+            });
+        } else if (body != null) {
+            if (throttling != null)
+                simulator.release(this);
+
             body.setActive(active);
+        }
         else desc.active = active;
     }
 
@@ -355,8 +632,15 @@ public class PhysicalBody extends FilteredEntity {
      *
      * @param damping The new angular damping
      */
-    public final void setAngularDamping(float damping) {
-        if (body != null)
+    public final void setAngularDamping(final float damping) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setAngularDamping(damping);
+                }
+            });
+        } else if (body != null)
             body.setAngularDamping(damping);
         else desc.angularDamping = damping;
     }
@@ -378,8 +662,15 @@ public class PhysicalBody extends FilteredEntity {
      *
      * @param bullet A new value indicating whether the body is a bullet
      */
-    public void setBullet(boolean bullet) {
-        if (body != null)
+    public void setBullet(final boolean bullet) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setBullet(bullet);
+                }
+            });
+        } else if (body != null)
             body.setBullet(bullet);
         else desc.bullet = bullet;
     }
@@ -400,8 +691,15 @@ public class PhysicalBody extends FilteredEntity {
      *
      * @param flag A value indicating whether the body's rotation angle should remain fixed
      */
-    public void setFixedRotation(boolean flag) {
-        if (body != null)
+    public void setFixedRotation(final boolean flag) {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    setFixedRotation(flag);
+                }
+            });
+        } else if (body != null)
             body.setFixedRotation(flag);
         else desc.fixedRotation = flag;
     }
@@ -477,12 +775,38 @@ public class PhysicalBody extends FilteredEntity {
      */
     @Override
     public final Point2D getPosition() {
-        if (body != null) {
+        if (isBuffered()) {
+            return new Point2D(
+                    publishedX * PhysicsSimulator.pixelsPerMeter,
+                    publishedY * PhysicsSimulator.pixelsPerMeter);
+        } else if (body != null) {
             final Vec2 pos = body.getPosition();
             return new Point2D(pos.x * PhysicsSimulator.pixelsPerMeter, pos.y * PhysicsSimulator.pixelsPerMeter);
         } else return desc.position;
     }
 
+    /**
+     * Copies the current position of the body in pixels into the given point. This is the
+     * allocation-free equivalent of {@link #getPosition()}.
+     *
+     * @param position The point to receive the position
+     */
+    public final void getPosition(Point2D position) {
+        final float ppm = PhysicsSimulator.pixelsPerMeter;
+
+        if (isBuffered()) {
+            position.x = publishedX * ppm;
+            position.y = publishedY * ppm;
+        } else if (body != null) {
+            final Vec2 pos = body.getPosition();
+            position.x = pos.x * ppm;
+            position.y = pos.y * ppm;
+        } else {
+            position.x = desc.position.x;
+            position.y = desc.position.y;
+        }
+    }
+
     /**
      * Modifies the position of the body. The values are given in pixels, but internally stored in metric format.
      *
@@ -491,8 +815,17 @@ public class PhysicalBody extends FilteredEntity {
      */
     @Override
     public void setPosition(float x, float y) {
-        if (body != null)
-            body.setTransform(new Vec2(x / PhysicsSimulator.pixelsPerMeter, y / PhysicsSimulator.pixelsPerMeter), body.getAngle());
+        if (isBuffered()) {
+            publishedX = x / PhysicsSimulator.pixelsPerMeter;
+            publishedY = y / PhysicsSimulator.pixelsPerMeter;
+        }
+
+        if (isDeferred())
+            simulator.post(COMMAND_POSITION, this, publishedX, publishedY);
+        else if (body != null)
+            body.setTransform(vector.set(
+                    x / PhysicsSimulator.pixelsPerMeter,
+                    y / PhysicsSimulator.pixelsPerMeter), body.getAngle());
         else {
             desc.position.x = x;
             desc.position.y = y;
@@ -509,7 +842,9 @@ public class PhysicalBody extends FilteredEntity {
      */
     @Override
     public final float getRotation() {
-        if (body != null)
+        if (isBuffered())
+            return publishedAngle * 57.29579143f;
+        else if (body != null)
             return body.getAngle() * 57.29579143f;
         else return desc.angle * 57.29579143f;
     }
@@ -522,7 +857,12 @@ public class PhysicalBody extends FilteredEntity {
      */
     @Override
     public final void setRotation(float rotation) {
-        if (body != null)
+        if (isBuffered())
+            publishedAngle = rotation * 0.0174532889f;
+
+        if (isDeferred())
+            simulator.post(COMMAND_ROTATION, this, publishedAngle, 0);
+        else if (body != null)
             body.setTransform(body.getPosition(), rotation * 0.0174532889f);
         else desc.angle = rotation * 0.0174532889f;
 
@@ -545,28 +885,72 @@ public class PhysicalBody extends FilteredEntity {
     }
 
     /**
-     * Updates this physical body to its new state provided by the physics simulator. The underlying
-     * entity may also be modified, depending on selected connections.
+     * Gets the category bits of this body.
      *
-     * @param elapsedTime Elapsed time in seconds since the last frame
+     * @return The category bits
      *
-     * @see com.annahid.libs.artenus.physics.PhysicalBody#setConnections(int)
+     * @see #setCategory(int)
      */
-    @Override
-    public void advance(float elapsedTime) {
-        super.advance(elapsedTime);
-        final Vec2 pos = body.getPosition();
-        final Transformable trans = ((Transformable) target);
+    public int getCategory() {
+        return category;
+    }
 
-        if ((connections & POSITION) != 0) {
-            trans.setPosition(
-                    pos.x * PhysicsSimulator.pixelsPerMeter,
-                    pos.y * PhysicsSimulator.pixelsPerMeter);
-        }
+    /**
+     * Sets the category bits of this body. Categories determine which bodies collide with each
+     * other, along with collision masks. They are also used to filter collision events delivered
+     * to {@link CollisionBatchListener} instances. The default category is 1.
+     *
+     * @param category The category bits, normally with a single bit set
+     *
+     * @see #setCollisionMask(int)
+     */
+    public void setCategory(int category) {
+        this.category = category;
+        updateFilter();
+    }
 
-        if ((connections & ROTATION) != 0)
-            trans.setRotation(getRotation());
+    /**
+     * Gets the bits of the categories this body collides with.
+     *
+     * @return The collision mask
+     */
+    public int getCollisionMask() {
+        return collisionMask;
+    }
+
+    /**
+     * Sets the bits of the categories this body collides with. Two bodies collide only if the
+     * category of each is included in the collision mask of the other. By default, bodies collide
+     * with all categories.
+     *
+     * @param mask The collision mask
+     */
+    public void setCollisionMask(int mask) {
+        collisionMask = mask;
+        updateFilter();
+    }
+
+    /**
+     * Gets the collision event types this body reports.
+     *
+     * @return The combination of event types
+     *
+     * @see #setCollisionEvents(int)
+     */
+    public int getCollisionEvents() {
+        return collisionEvents;
+    }
 
+    /**
+     * Sets the collision event types this body reports. A collision event is only recorded if one
+     * of the bodies involved reports its type, so bodies whose collisions are of no interest, such
+     * as debris, can set this to zero to avoid producing events. All event types are reported by
+     * default.
+     *
+     * @param events The combination of event types, such as {@link CollisionInfo#BEGIN_CONTACT}
+     */
+    public void setCollisionEvents(int events) {
+        collisionEvents = events;
     }
 
     /**
@@ -588,15 +972,104 @@ public class PhysicalBody extends FilteredEntity {
         connections = conn;
     }
 
+    /**
+     * Copies the current state of the body in the world to its published buffer. This method is
+     * called by the simulator when the world is not being stepped.
+     */
+    final void publish() {
+        final Vec2 pos = body.getPosition();
+        final Vec2 v = body.m_linearVelocity;
+        publishedX = pos.x;
+        publishedY = pos.y;
+        publishedAngle = body.getAngle();
+        publishedVelocityX = v.x;
+        publishedVelocityY = v.y;
+        publishedAngularVelocity = body.m_angularVelocity;
+    }
+
+    /**
+     * Writes the position and rotation of this body to the underlying entity, depending on
+     * selected connections. This method is called by the simulator after each step.
+     */
+    final void syncTarget() {
+        if (connections == 0)
+            return;
+
+        final Transformable trans = ((Transformable) target);
+        final float x, y, angle;
+
+        if (simulator.isAsynchronous()) {
+            x = publishedX;
+            y = publishedY;
+            angle = publishedAngle;
+        } else {
+            final Vec2 pos = body.getPosition();
+            x = pos.x;
+            y = pos.y;
+            angle = body.getAngle();
+        }
+
+        if ((connections & POSITION) != 0)
+            trans.setPosition(
+                    x * PhysicsSimulator.pixelsPerMeter,
+                    y * PhysicsSimulator.pixelsPerMeter);
+
+        if ((connections & ROTATION) != 0)
+            trans.setRotation(angle * 57.29579143f);
+    }
+
+    /**
+     * Indicates whether the state of this body is read from its published buffer, which is the
+     * case when it is attached to an asynchronous simulator.
+     *
+     * @return {@code true} if published values are used, {@code false} otherwise
+     */
+    private boolean isBuffered() {
+        return body != null && simulator.isAsynchronous();
+    }
+
+    /**
+     * Indicates whether changes to this body must be deferred, because the simulator it is attached
+     * to is running an asynchronous step.
+     *
+     * @return {@code true} if changes must be deferred, {@code false} otherwise
+     */
+    private boolean isDeferred() {
+        return body != null && simulator.isStepping();
+    }
+
     final void createFixture() {
         final FixtureDef def = new FixtureDef();
         def.density = density;
         def.friction = friction;
         def.restitution = restitution;
         def.shape = (org.jbox2d.collision.shapes.Shape) shape.createInternal();
+        def.filter.categoryBits = category;
+        def.filter.maskBits = collisionMask;
         body.createFixture(def);
     }
 
+    /**
+     * Applies the category and collision mask of this body to its fixtures.
+     */
+    private void updateFilter() {
+        if (isDeferred()) {
+            simulator.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateFilter();
+                }
+            });
+        } else if (body != null) {
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                 fixture = fixture.getNext()) {
+                fixture.m_filter.categoryBits = category;
+                fixture.m_filter.maskBits = collisionMask;
+                fixture.refilter();
+            }
+        }
+    }
+
     /**
      * The Behavior specifies how a physical body is simulated. The default is DYNAMIC.
      */
@@ -22,11 +22,15 @@ import com.annahid.libs.artenus.data.Point2D;
 
 import org.jbox2d.callbacks.ContactImpulse;
 import org.jbox2d.callbacks.ContactListener;
+import org.jbox2d.callbacks.QueryCallback;
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.collision.AABB;
 import org.jbox2d.collision.Manifold;
 import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyDef;
 import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
 import org.jbox2d.dynamics.World;
 import org.jbox2d.dynamics.contacts.Contact;
 import org.jbox2d.dynamics.joints.RevoluteJointDef;
@@ -66,8 +70,50 @@ public final class PhysicsSimulator {
      */
     private World world;
 
+    /**
+     * Contains collisions reported by the step in progress, or the most recent step.
+     */
     private List<CollisionInfo> collisions = new ArrayList<>();
 
+    /**
+     * Contains collisions published for delivery to the collision listener.
+     */
+    private List<CollisionInfo> published = new ArrayList<>();
+
+    /**
+     * Contains collision records that have been delivered and can be reused.
+     */
+    private final List<CollisionInfo> collisionPool = new ArrayList<>();
+
+    /**
+     * Contains collision records delivered since the last step, to be returned to the pool when the
+     * world is not being stepped.
+     */
+    private final List<CollisionInfo> releasedCollisions = new ArrayList<>();
+
+    /**
+     * Used to pass a filtered batch of collisions to a batch listener.
+     */
+    private final List<CollisionInfo> collisionBatch = new ArrayList<>();
+
+    /**
+     * Contains the registered batch listeners. The array is replaced whenever a listener is added
+     * or removed, so that listeners can be removed while collisions are delivered.
+     */
+    private BatchRegistration[] batchListeners = new BatchRegistration[0];
+
+    /**
+     * Holds the combination of collision event types requested by any listener. Events of other
+     * types are not recorded.
+     */
+    private volatile int reportedTypes = 0;
+
+    /**
+     * Holds the combination of body categories requested by any listener. Collisions between
+     * bodies outside these categories are not recorded.
+     */
+    private volatile int reportedCategories = 0;
+
     private CollisionListener collisionListener = null;
 
     /**
@@ -75,6 +121,149 @@ public final class PhysicsSimulator {
      */
     private boolean paused = false;
 
+    /**
+     * Indicates whether the world is stepped on the physics worker thread.
+     */
+    private boolean asynchronous = false;
+
+    /**
+     * Indicates whether a step has been submitted to the worker thread and its results are not
+     * published yet. This field is only used on the advance thread.
+     */
+    private boolean stepping = false;
+
+    /**
+     * Used to wait for the worker thread to finish a step.
+     */
+    private final Object stepLock = new Object();
+
+    /**
+     * Indicates whether the worker thread is still running the submitted step. Guarded by
+     * {@link #stepLock}.
+     */
+    private boolean stepRunning = false;
+
+    /**
+     * Holds the exception or error thrown by the last asynchronous step, to be re-thrown on the
+     * advance thread. Guarded by {@link #stepLock}.
+     */
+    private Throwable stepFailure = null;
+
+    /**
+     * Holds the scaled time of the submitted step.
+     */
+    private float stepTime;
+
+    /**
+     * Holds the number of velocity iterations of the submitted step.
+     */
+    private int stepVelocityIterations;
+
+    /**
+     * Holds the number of position iterations of the submitted step.
+     */
+    private int stepPositionIterations;
+
+    /**
+     * Contains the types of commands deferred while a step is in progress.
+     */
+    private int[] commands = new int[16];
+
+    /**
+     * Contains the physical body, or the task, of each deferred command.
+     */
+    private Object[] commandTargets = new Object[16];
+
+    /**
+     * Contains the arguments of deferred commands, four for each command.
+     */
+    private float[] commandArgs = new float[64];
+
+    /**
+     * Holds the number of deferred commands.
+     */
+    private int commandCount = 0;
+
+    /**
+     * Used to pass vectors to JBox2D when applying deferred commands.
+     */
+    private final Vec2 commandVector = new Vec2();
+
+    /**
+     * Used to pass points to JBox2D when applying deferred commands.
+     */
+    private final Vec2 commandPoint = new Vec2();
+
+    /**
+     * Holds the way bodies outside the region of interest are throttled.
+     */
+    private Throttling throttling = Throttling.NONE;
+
+    /**
+     * Indicates whether a rectangular region of interest is set.
+     */
+    private boolean hasRegion = false;
+
+    /**
+     * Holds the left edge of the region of interest in pixels.
+     */
+    private float regionLeft;
+
+    /**
+     * Holds the top edge of the region of interest in pixels.
+     */
+    private float regionTop;
+
+    /**
+     * Holds the right edge of the region of interest in pixels.
+     */
+    private float regionRight;
+
+    /**
+     * Holds the bottom edge of the region of interest in pixels.
+     */
+    private float regionBottom;
+
+    /**
+     * Holds the margin around the rectangular region of interest in pixels.
+     */
+    private float regionMargin = 200;
+
+    /**
+     * Contains the focus points of the region of interest.
+     */
+    private final List<Point2D> focusPoints = new ArrayList<>();
+
+    /**
+     * Holds the radius of the region of interest around each focus point in pixels.
+     */
+    private float focusRadius = 600;
+
+    /**
+     * Holds the number of bodies currently throttled.
+     */
+    private int throttledCount = 0;
+
+    /**
+     * Receives fixtures reported by world queries.
+     */
+    private final QueryHandler queryHandler = new QueryHandler();
+
+    /**
+     * Used to pass the bounding box of queries to JBox2D.
+     */
+    private final AABB queryBox = new AABB();
+
+    /**
+     * Used to pass the start point of raycasts to JBox2D.
+     */
+    private final Vec2 rayStart = new Vec2();
+
+    /**
+     * Used to pass the end point of raycasts to JBox2D.
+     */
+    private final Vec2 rayEnd = new Vec2();
+
     /**
      * Creates a new instance of {@code PhysicsSimulator}.
      */
@@ -84,23 +273,24 @@ public final class PhysicsSimulator {
         world.setContactListener(new ContactListener() {
             @Override
             public void postSolve(Contact contact, ContactImpulse impulse) {
-                final Body body1 = contact.m_fixtureA.m_body;
-                final Body body2 = contact.m_fixtureB.m_body;
-                final CollisionInfo info = new CollisionInfo();
-                info.body1 = (PhysicalBody) body1.m_userData;
-                info.body2 = (PhysicalBody) body2.m_userData;
-                info.impulseCount = impulse.count;
-                info.normalImpulses = impulse.normalImpulses;
-                info.tangentImpulses = impulse.tangentImpulses;
-                collisions.add(info);
+                final CollisionInfo info = record(contact, CollisionInfo.POST_SOLVE);
+
+                if (info != null) {
+                    final int count = Math.min(impulse.count, info.normalImpulses.length);
+                    info.impulseCount = count;
+                    System.arraycopy(impulse.normalImpulses, 0, info.normalImpulses, 0, count);
+                    System.arraycopy(impulse.tangentImpulses, 0, info.tangentImpulses, 0, count);
+                }
             }
 
             @Override
-            public void beginContact(Contact arg0) {
+            public void beginContact(Contact contact) {
+                record(contact, CollisionInfo.BEGIN_CONTACT);
             }
 
             @Override
-            public void endContact(Contact arg0) {
+            public void endContact(Contact contact) {
+                record(contact, CollisionInfo.END_CONTACT);
             }
 
             @Override
@@ -125,8 +315,15 @@ public final class PhysicsSimulator {
      * @param xFactor The x factor of gravity
      * @param yFactor The y factor of gravity
      */
-    public void setGravity(float xFactor, float yFactor) {
-        world.setGravity(new Vec2(xFactor, yFactor));
+    public void setGravity(final float xFactor, final float yFactor) {
+        if (stepping) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    setGravity(xFactor, yFactor);
+                }
+            });
+        } else world.setGravity(new Vec2(xFactor, yFactor));
     }
 
     /**
@@ -149,6 +346,62 @@ public final class PhysicsSimulator {
      */
     public void setCollisionListener(CollisionListener listener) {
         collisionListener = listener;
+        updateReporting();
+    }
+
+    /**
+     * Registers a listener to receive all collisions of each frame in a batch.
+     *
+     * @param listener The batch listener
+     *
+     * @see #addCollisionListener(CollisionBatchListener, int, int)
+     */
+    public void addCollisionListener(CollisionBatchListener listener) {
+        addCollisionListener(listener, CollisionInfo.ALL, -1);
+    }
+
+    /**
+     * Registers a listener to receive the collisions of each frame in a batch, restricted to the
+     * given event types and body categories. Collisions that are not requested by any listener are
+     * never recorded, so restricting listeners to begin and end contact events avoids recording
+     * every contact of every step.
+     *
+     * @param listener   The batch listener
+     * @param types      The combination of event types to deliver, such as
+     *                   {@link CollisionInfo#BEGIN_CONTACT} and {@link CollisionInfo#END_CONTACT}
+     * @param categories The combination of body categories to deliver. A collision is delivered if
+     *                   the category of either body is included
+     *
+     * @see PhysicalBody#setCategory(int)
+     */
+    public void addCollisionListener(CollisionBatchListener listener, int types, int categories) {
+        final BatchRegistration[] registrations =
+                new BatchRegistration[batchListeners.length + 1];
+        System.arraycopy(batchListeners, 0, registrations, 0, batchListeners.length);
+        registrations[batchListeners.length] =
+                new BatchRegistration(listener, types, categories);
+        batchListeners = registrations;
+        updateReporting();
+    }
+
+    /**
+     * Unregisters a batch listener. This method does nothing if the listener is not registered.
+     *
+     * @param listener The batch listener
+     */
+    public void removeCollisionListener(CollisionBatchListener listener) {
+        for (int i = 0; i < batchListeners.length; i++) {
+            if (batchListeners[i].listener == listener) {
+                final BatchRegistration[] registrations =
+                        new BatchRegistration[batchListeners.length - 1];
+                System.arraycopy(batchListeners, 0, registrations, 0, i);
+                System.arraycopy(batchListeners, i + 1, registrations, i,
+                        registrations.length - i);
+                batchListeners = registrations;
+                updateReporting();
+                return;
+            }
+        }
     }
 
     /**
@@ -161,8 +414,487 @@ public final class PhysicsSimulator {
      * @param positionIterations The number of position points to interpolate between
      */
     public void step(float elapsedTime, int velocityIterations, int positionIterations) {
-        if (!paused)
+        sync();
+        recycleCollisions();
+
+        if (!paused) {
+            throttle();
             world.step(elapsedTime * timeScale, velocityIterations, positionIterations);
+            syncTargets();
+        }
+    }
+
+    /**
+     * <p>Publishes the results of the previous asynchronous step and starts the next one on the
+     * physics worker thread. This method is called internally by the scene before advancing its
+     * entities, so that the world is stepped while the rest of the scene is animated. You do not
+     * need to directly invoke it.</p>
+     * <p>Physical bodies report the transforms published by the previous step until the next call
+     * to this method, so the simulation is presented one step behind. Changes made to physical
+     * bodies in the meantime are buffered and applied before the next step.</p>
+     *
+     * @param elapsedTime        The time passed since last frame. This value will be scaled using
+     *                           {@link #timeScale}
+     * @param velocityIterations The number of velocity points to interpolate between
+     * @param positionIterations The number of position points to interpolate between
+     *
+     * @see #setAsynchronous(boolean)
+     */
+    public void stepAsync(float elapsedTime, int velocityIterations, int positionIterations) {
+        sync();
+        recycleCollisions();
+
+        if (!paused) {
+            throttle();
+            stepTime = elapsedTime * timeScale;
+            stepVelocityIterations = velocityIterations;
+            stepPositionIterations = positionIterations;
+            stepping = true;
+
+            synchronized (stepLock) {
+                stepRunning = true;
+            }
+
+            PhysicsWorker.getInstance().submit(this);
+        }
+    }
+
+    /**
+     * Waits for the asynchronous step in progress, if any, to finish. Changes made to physical
+     * bodies while the step was running are then applied to the world, before body transforms and
+     * collisions are published, so that buffered changes are visible immediately. This method is
+     * called internally by the simulator, and it returns immediately if no step is in progress.
+     */
+    public void sync() {
+        if (!stepping) {
+            return;
+        }
+
+        final Throwable failure;
+
+        // Restarts the worker thread if it has died, so that queued steps are still run
+        PhysicsWorker.getInstance();
+
+        synchronized (stepLock) {
+            boolean interrupted = false;
+
+            while (stepRunning) {
+                try {
+                    stepLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            failure = stepFailure;
+            stepFailure = null;
+        }
+
+        stepping = false;
+
+        if (failure != null) {
+            commandCount = 0;
+
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+
+            if (failure instanceof Error)
+                throw (Error) failure;
+
+            throw new IllegalStateException("Asynchronous physics step failed.", failure);
+        }
+
+        // Buffered changes are applied first, or publishing would revert them for a whole step
+        applyCommands();
+        publishBodies();
+        syncTargets();
+        publishCollisions();
+    }
+
+    /**
+     * Indicates whether the world is stepped asynchronously on the physics worker thread.
+     *
+     * @return {@code true} if the simulator is asynchronous, {@code false} otherwise
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Changes whether the world is stepped asynchronously on the physics worker thread. In
+     * asynchronous mode, the scene overlaps each physics step with the advancing of its entities,
+     * and physical bodies report the transforms published at the end of the previous step. This
+     * mode is off by default.
+     *
+     * @param asynchronous {@code true} to step the world asynchronously, {@code false} to step it
+     *                     on the advance thread
+     *
+     * @see #stepAsync(float, int, int)
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        if (!asynchronous) {
+            sync();
+        } else if (!this.asynchronous) {
+            publishBodies();
+        }
+
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Runs the submitted step. This method is called on the physics worker thread. Anything thrown
+     * by the step, including errors, is forwarded to the advance thread, and the step is always
+     * marked as finished so that {@link #sync()} cannot block forever.
+     */
+    void runStep() {
+        Throwable failure = null;
+
+        try {
+            world.step(stepTime, stepVelocityIterations, stepPositionIterations);
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            synchronized (stepLock) {
+                stepFailure = failure;
+                stepRunning = false;
+                stepLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether an asynchronous step is in progress. While this is the case, the world
+     * must not be accessed, and changes to it have to be deferred using {@code post} methods.
+     *
+     * @return {@code true} if a step is in progress, {@code false} otherwise
+     */
+    boolean isStepping() {
+        return stepping;
+    }
+
+    /**
+     * Defers a command on a physical body until the asynchronous step in progress is finished.
+     *
+     * @param command The command, one of the {@code COMMAND_*} constants of {@link PhysicalBody}
+     * @param body    The physical body
+     * @param a       The first argument of the command
+     * @param b       The second argument of the command
+     */
+    void post(int command, PhysicalBody body, float a, float b) {
+        post(command, body, a, b, 0, 0);
+    }
+
+    /**
+     * Defers a command with four arguments on a physical body until the asynchronous step in
+     * progress is finished.
+     *
+     * @param command The command, one of the {@code COMMAND_*} constants of {@link PhysicalBody}
+     * @param body    The physical body
+     * @param a       The first argument of the command
+     * @param b       The second argument of the command
+     * @param c       The third argument of the command
+     * @param d       The fourth argument of the command
+     */
+    void post(int command, PhysicalBody body, float a, float b, float c, float d) {
+        if (commandCount == commands.length) {
+            final int capacity = commandCount * 2;
+            final int[] grownCommands = new int[capacity];
+            final Object[] grownTargets = new Object[capacity];
+            final float[] grownArgs = new float[capacity * 4];
+            System.arraycopy(commands, 0, grownCommands, 0, commandCount);
+            System.arraycopy(commandTargets, 0, grownTargets, 0, commandCount);
+            System.arraycopy(commandArgs, 0, grownArgs, 0, commandCount * 4);
+            commands = grownCommands;
+            commandTargets = grownTargets;
+            commandArgs = grownArgs;
+        }
+
+        commands[commandCount] = command;
+        commandTargets[commandCount] = body;
+        final int args = commandCount * 4;
+        commandArgs[args] = a;
+        commandArgs[args + 1] = b;
+        commandArgs[args + 2] = c;
+        commandArgs[args + 3] = d;
+        commandCount++;
+    }
+
+    /**
+     * Defers a task until the asynchronous step in progress is finished. Deferred tasks and
+     * commands are executed in the order they were posted.
+     *
+     * @param task The task
+     */
+    void post(Runnable task) {
+        post(PhysicalBody.COMMAND_TASK, null, 0, 0);
+        commandTargets[commandCount - 1] = task;
+    }
+
+    /**
+     * Executes all deferred commands and tasks.
+     */
+    private void applyCommands() {
+        final Vec2 v = commandVector;
+
+        for (int i = 0; i < commandCount; i++) {
+            final Object target = commandTargets[i];
+            final int args = i * 4;
+            final float a = commandArgs[args], b = commandArgs[args + 1];
+            commandTargets[i] = null;
+
+            if (commands[i] == PhysicalBody.COMMAND_TASK) {
+                ((Runnable) target).run();
+                continue;
+            }
+
+            final Body body = ((PhysicalBody) target).body;
+
+            // The body may have been detached by an earlier command
+            if (body == null || body.m_userData != target) {
+                continue;
+            }
+
+            switch (commands[i]) {
+                case PhysicalBody.COMMAND_POSITION:
+                    body.setTransform(v.set(a, b), body.getAngle());
+                    // Moving a sleeping body does not wake it, so its target is synced explicitly
+                    ((PhysicalBody) target).wasAwake = true;
+                    break;
+                case PhysicalBody.COMMAND_ROTATION:
+                    body.setTransform(body.getPosition(), a);
+                    ((PhysicalBody) target).wasAwake = true;
+                    break;
+                case PhysicalBody.COMMAND_LINEAR_VELOCITY:
+                    body.setLinearVelocity(v.set(a, b));
+                    break;
+                case PhysicalBody.COMMAND_ANGULAR_VELOCITY:
+                    body.setAngularVelocity(a);
+                    break;
+                case PhysicalBody.COMMAND_FORCE:
+                    body.applyForce(v.set(a, b), body.getWorldCenter());
+                    break;
+                case PhysicalBody.COMMAND_IMPULSE:
+                    body.applyLinearImpulse(v.set(a, b), body.getWorldCenter());
+                    break;
+                case PhysicalBody.COMMAND_FORCE_AT:
+                    body.applyForce(v.set(a, b), commandPoint.set(
+                            commandArgs[args + 2], commandArgs[args + 3]));
+                    break;
+                case PhysicalBody.COMMAND_IMPULSE_AT:
+                    body.applyLinearImpulse(v.set(a, b), commandPoint.set(
+                            commandArgs[args + 2], commandArgs[args + 3]));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        commandCount = 0;
+    }
+
+    /**
+     * Records a collision event if it is requested by a listener and one of the bodies involved.
+     * This method is called by the world during a step, possibly on the physics worker thread.
+     *
+     * @param contact The contact between the bodies
+     * @param type    The event type
+     *
+     * @return The collision record, or {@code null} if the event is not requested
+     */
+    private CollisionInfo record(Contact contact, int type) {
+        if ((reportedTypes & type) == 0)
+            return null;
+
+        final PhysicalBody body1 = (PhysicalBody) contact.m_fixtureA.m_body.m_userData;
+        final PhysicalBody body2 = (PhysicalBody) contact.m_fixtureB.m_body.m_userData;
+
+        // Bodies being detached are no longer reported
+        if (body1 == null || body2 == null)
+            return null;
+
+        if (((body1.getCollisionEvents() | body2.getCollisionEvents()) & type) == 0 ||
+                ((body1.getCategory() | body2.getCategory()) & reportedCategories) == 0)
+            return null;
+
+        final int pooled = collisionPool.size();
+        final CollisionInfo info =
+                pooled > 0 ? collisionPool.remove(pooled - 1) : new CollisionInfo();
+        info.type = type;
+        info.body1 = body1;
+        info.body2 = body2;
+        info.impulseCount = 0;
+        info.tangentSpeed = contact.m_tangentSpeed;
+        collisions.add(info);
+        return info;
+    }
+
+    /**
+     * Returns delivered collision records to the pool. This method is only called when the world
+     * is not being stepped, since the pool is used by the world during a step.
+     */
+    private void recycleCollisions() {
+        final int count = releasedCollisions.size();
+
+        for (int i = 0; i < count; i++) {
+            final CollisionInfo info = releasedCollisions.get(i);
+            info.body1 = info.body2 = null;
+            collisionPool.add(info);
+        }
+
+        releasedCollisions.clear();
+    }
+
+    /**
+     * Recomputes the event types and body categories that need to be recorded, based on the
+     * registered listeners.
+     */
+    private void updateReporting() {
+        int types = collisionListener != null ? CollisionInfo.POST_SOLVE : 0;
+        int categories = collisionListener != null ? -1 : 0;
+
+        for (BatchRegistration registration : batchListeners) {
+            types |= registration.types;
+            categories |= registration.categories;
+        }
+
+        reportedTypes = types;
+        reportedCategories = categories;
+    }
+
+    /**
+     * Throttles dynamic and kinematic bodies outside the region of interest, and releases throttled
+     * bodies that are back inside it. This method is called before each step, when the world is
+     * not being stepped.
+     */
+    private void throttle() {
+        final boolean hasFocus = !focusPoints.isEmpty();
+
+        if (throttledCount == 0 && (throttling == Throttling.NONE || !(hasRegion || hasFocus)))
+            return;
+
+        final float ppm = pixelsPerMeter;
+        final float l = regionLeft - regionMargin, r = regionRight + regionMargin;
+        final float t = regionTop - regionMargin, b = regionBottom + regionMargin;
+        final float radiusSquared = focusRadius * focusRadius;
+        final int focusCount = focusPoints.size();
+
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            final PhysicalBody physicalBody = (PhysicalBody) body.m_userData;
+
+            if (physicalBody == null || body.m_type == BodyType.STATIC)
+                continue;
+
+            boolean inside = throttling == Throttling.NONE || !(hasRegion || hasFocus);
+
+            if (!inside) {
+                final float x = body.m_xf.p.x * ppm, y = body.m_xf.p.y * ppm;
+                inside = hasRegion && x >= l && x <= r && y >= t && y <= b;
+
+                for (int i = 0; i < focusCount && !inside; i++) {
+                    final Point2D focus = focusPoints.get(i);
+                    final float dx = x - focus.x, dy = y - focus.y;
+                    inside = dx * dx + dy * dy <= radiusSquared;
+                }
+            }
+
+            if (physicalBody.throttling != null) {
+                if (inside)
+                    release(physicalBody);
+                else if (physicalBody.throttling == Throttling.FREEZE && body.isAwake())
+                    // Woken up by a contact; freeze again with its new velocity
+                    freeze(physicalBody);
+            } else if (!inside && body.isActive()) {
+                if (throttling == Throttling.FREEZE) {
+                    freeze(physicalBody);
+                } else {
+                    body.setActive(false);
+                }
+
+                physicalBody.throttling = throttling;
+                throttledCount++;
+            }
+        }
+    }
+
+    /**
+     * Puts a body to sleep, keeping its velocities so that they can be restored when it is
+     * released.
+     *
+     * @param physicalBody The physical body
+     */
+    private void freeze(PhysicalBody physicalBody) {
+        final Body body = physicalBody.body;
+        physicalBody.frozenVelocityX = body.m_linearVelocity.x;
+        physicalBody.frozenVelocityY = body.m_linearVelocity.y;
+        physicalBody.frozenAngularVelocity = body.m_angularVelocity;
+        body.setAwake(false);
+    }
+
+    /**
+     * Releases a throttled body, restoring its state. This method is also called when a throttled
+     * body is activated or deactivated explicitly.
+     *
+     * @param physicalBody The physical body
+     */
+    void release(PhysicalBody physicalBody) {
+        final Body body = physicalBody.body;
+
+        if (physicalBody.throttling == Throttling.FREEZE) {
+            body.setAwake(true);
+            body.setLinearVelocity(commandVector.set(
+                    physicalBody.frozenVelocityX, physicalBody.frozenVelocityY));
+            body.setAngularVelocity(physicalBody.frozenAngularVelocity);
+        } else {
+            body.setActive(true);
+        }
+
+        physicalBody.throttling = null;
+        physicalBody.publish();
+        throttledCount--;
+    }
+
+    /**
+     * Writes the positions and rotations of moving bodies to their underlying entities. Bodies
+     * that were asleep since the previous pass have not moved and are skipped. This method is
+     * called after each step, when the world is not being stepped.
+     */
+    private void syncTargets() {
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            final PhysicalBody physicalBody = (PhysicalBody) body.m_userData;
+
+            if (physicalBody == null)
+                continue;
+
+            final boolean awake = body.isAwake();
+
+            if (awake || physicalBody.wasAwake)
+                physicalBody.syncTarget();
+
+            physicalBody.wasAwake = awake;
+        }
+    }
+
+    /**
+     * Copies the state of every attached body to its published buffer.
+     */
+    private void publishBodies() {
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            if (body.m_userData != null) {
+                ((PhysicalBody) body.m_userData).publish();
+            }
+        }
+    }
+
+    /**
+     * Moves the collisions reported by the world to the published collision batch.
+     */
+    private void publishCollisions() {
+        published.addAll(collisions);
+        collisions.clear();
     }
 
     /**
@@ -173,10 +905,288 @@ public final class PhysicsSimulator {
      * manually if you are using physics simulation through a scene.
      */
     public void handleCollisions() {
-        if (collisionListener != null)
-            for (CollisionInfo info : collisions)
-                collisionListener.onCollision(info);
-        collisions.clear();
+        // Collisions of an asynchronous step are published when it is synchronized
+        if (!stepping)
+            publishCollisions();
+
+        final int count = published.size();
+
+        if (count == 0)
+            return;
+
+        if (collisionListener != null) {
+            for (int i = 0; i < count; i++) {
+                final CollisionInfo info = published.get(i);
+
+                if (info.type == CollisionInfo.POST_SOLVE)
+                    collisionListener.onCollision(info);
+            }
+        }
+
+        final BatchRegistration[] registrations = batchListeners;
+
+        for (BatchRegistration registration : registrations) {
+            if (registration.types == CollisionInfo.ALL && registration.categories == -1) {
+                registration.listener.onCollisions(published);
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                final CollisionInfo info = published.get(i);
+
+                if ((info.type & registration.types) != 0 &&
+                        ((info.body1.getCategory() | info.body2.getCategory()) &
+                                registration.categories) != 0)
+                    collisionBatch.add(info);
+            }
+
+            if (!collisionBatch.isEmpty()) {
+                registration.listener.onCollisions(collisionBatch);
+                collisionBatch.clear();
+            }
+        }
+
+        releasedCollisions.addAll(published);
+        published.clear();
+    }
+
+    /**
+     * Gets the way bodies outside the region of interest are throttled.
+     *
+     * @return The throttling mode
+     */
+    public Throttling getThrottling() {
+        return throttling;
+    }
+
+    /**
+     * <p>Sets the way bodies outside the region of interest are throttled. The region of interest
+     * is made of a rectangle, normally the visible part of the level, extended by a margin, and
+     * circles around focus points, such as the player. Dynamic and kinematic bodies whose position
+     * falls outside this region are throttled before each step, and released with their velocities
+     * intact once they are back in the region, so the cost of a step depends on the part of the
+     * level being played rather than its size.</p>
+     * <p>Throttling only takes effect when a region or at least one focus point is set. Setting the
+     * mode to {@link Throttling#NONE} releases all throttled bodies on the next step.</p>
+     *
+     * @param throttling The throttling mode
+     *
+     * @see #setRegion(float, float, float, float)
+     * @see #addFocusPoint(Point2D)
+     */
+    public void setThrottling(Throttling throttling) {
+        this.throttling = throttling;
+    }
+
+    /**
+     * Sets the rectangular region of interest, normally the area of the level visible on the
+     * screen. The region is extended by the region margin on each side.
+     *
+     * @param left   Left edge of the region in pixels
+     * @param top    Top edge of the region in pixels
+     * @param right  Right edge of the region in pixels
+     * @param bottom Bottom edge of the region in pixels
+     *
+     * @see #setThrottling(Throttling)
+     * @see #setRegionMargin(float)
+     */
+    public void setRegion(float left, float top, float right, float bottom) {
+        regionLeft = left;
+        regionTop = top;
+        regionRight = right;
+        regionBottom = bottom;
+        hasRegion = true;
+    }
+
+    /**
+     * Removes the rectangular region of interest. If there are no focus points either, no body is
+     * throttled.
+     */
+    public void clearRegion() {
+        hasRegion = false;
+    }
+
+    /**
+     * Gets the margin around the rectangular region of interest.
+     *
+     * @return The margin in pixels
+     */
+    public float getRegionMargin() {
+        return regionMargin;
+    }
+
+    /**
+     * Sets the margin around the rectangular region of interest. Bodies are throttled based on their
+     * positions, so the margin should be large enough for bodies to be released before any part of
+     * them becomes visible. The default margin is 200 pixels.
+     *
+     * @param margin The margin in pixels
+     */
+    public void setRegionMargin(float margin) {
+        regionMargin = margin;
+    }
+
+    /**
+     * Adds a focus point to the region of interest. Bodies within the focus radius of any focus
+     * point are not throttled. The point is referenced rather than copied, so it can be moved
+     * without adding it again.
+     *
+     * @param point The focus point in pixels
+     *
+     * @see #setFocusRadius(float)
+     */
+    public void addFocusPoint(Point2D point) {
+        focusPoints.add(point);
+    }
+
+    /**
+     * Removes a focus point from the region of interest.
+     *
+     * @param point The focus point
+     */
+    public void removeFocusPoint(Point2D point) {
+        focusPoints.remove(point);
+    }
+
+    /**
+     * Gets the radius of the region of interest around each focus point.
+     *
+     * @return The radius in pixels
+     */
+    public float getFocusRadius() {
+        return focusRadius;
+    }
+
+    /**
+     * Sets the radius of the region of interest around each focus point. The default radius is 600
+     * pixels.
+     *
+     * @param radius The radius in pixels
+     */
+    public void setFocusRadius(float radius) {
+        focusRadius = radius;
+    }
+
+    /**
+     * Casts a ray through the world and finds the first body it hits. If the simulator is
+     * asynchronous, this method waits for the step in progress to finish.
+     *
+     * @param x1         The x coordinate of the start point of the ray in pixels
+     * @param y1         The y coordinate of the start point of the ray in pixels
+     * @param x2         The x coordinate of the end point of the ray in pixels
+     * @param y2         The y coordinate of the end point of the ray in pixels
+     * @param categories The combination of body categories to consider, or -1 for all bodies
+     * @param hit        The object to receive the closest hit, which is only modified if the ray
+     *                   hits a body
+     *
+     * @return {@code true} if the ray hits a body, {@code false} otherwise
+     *
+     * @see PhysicalBody#setCategory(int)
+     */
+    public boolean raycast(float x1, float y1, float x2, float y2, int categories,
+                           RaycastHit hit) {
+        sync();
+
+        // JBox2D cannot cast rays of zero length
+        if (x1 == x2 && y1 == y2)
+            return false;
+
+        final float ppm = pixelsPerMeter;
+        queryHandler.begin(categories, null);
+        queryHandler.hit = hit;
+        rayStart.set(x1 / ppm, y1 / ppm);
+        rayEnd.set(x2 / ppm, y2 / ppm);
+        world.raycast(queryHandler, rayStart, rayEnd);
+        queryHandler.hit = null;
+        return queryHandler.found;
+    }
+
+    /**
+     * Finds the bodies whose bounding boxes overlap the given rectangle. Each body is reported
+     * once, even if it has several fixtures. If the simulator is asynchronous, this method waits
+     * for the step in progress to finish.
+     *
+     * @param left       Left edge of the rectangle in pixels
+     * @param top        Top edge of the rectangle in pixels
+     * @param right      Right edge of the rectangle in pixels
+     * @param bottom     Bottom edge of the rectangle in pixels
+     * @param categories The combination of body categories to consider, or -1 for all bodies
+     * @param results    The list to receive the bodies, which is not cleared beforehand
+     *
+     * @return The number of bodies added to the list
+     */
+    public int query(float left, float top, float right, float bottom, int categories,
+                     List<PhysicalBody> results) {
+        sync();
+        final float ppm = pixelsPerMeter;
+        queryBox.lowerBound.set(left / ppm, top / ppm);
+        queryBox.upperBound.set(right / ppm, bottom / ppm);
+        queryHandler.begin(categories, results);
+        world.queryAABB(queryHandler, queryBox);
+        return queryHandler.finish();
+    }
+
+    /**
+     * Finds the bodies containing the given point, based on their exact shapes. Each body is
+     * reported once, even if it has several fixtures. If the simulator is asynchronous, this
+     * method waits for the step in progress to finish.
+     *
+     * @param x          The x coordinate of the point in pixels
+     * @param y          The y coordinate of the point in pixels
+     * @param categories The combination of body categories to consider, or -1 for all bodies
+     * @param results    The list to receive the bodies, which is not cleared beforehand
+     *
+     * @return The number of bodies added to the list
+     */
+    public int queryPoint(float x, float y, int categories, List<PhysicalBody> results) {
+        sync();
+        final float ppm = pixelsPerMeter;
+        queryBox.lowerBound.set(x / ppm, y / ppm);
+        queryBox.upperBound.set(x / ppm, y / ppm);
+        queryHandler.begin(categories, results);
+        queryHandler.point = true;
+        world.queryAABB(queryHandler, queryBox);
+        return queryHandler.finish();
+    }
+
+    /**
+     * <p>Writes a compact binary snapshot of the given bodies, including their fixtures, joints,
+     * transforms, velocities and sleep states. The snapshot can be stored, for example when the
+     * activity is saving its state, and restored later using
+     * {@link #restore(byte[], PhysicalBody[])}.</p>
+     * <p>Bodies are identified by their index in the array. Entries that are {@code null} or not
+     * attached to this simulator are saved as empty. Joints are saved if both of their bodies are.
+     * If the simulator is asynchronous, this method waits for the step in progress to finish.</p>
+     *
+     * @param bodies The bodies to save
+     *
+     * @return The snapshot
+     */
+    public byte[] save(PhysicalBody[] bodies) {
+        sync();
+        return PhysicsSnapshot.write(bodies);
+    }
+
+    /**
+     * <p>Restores a snapshot written by {@link #save(PhysicalBody[])}. The bodies must be given in
+     * the same order as when the snapshot was saved.</p>
+     * <p>Bodies that are already attached to this simulator, such as when a level is restarted,
+     * have their state restored in place, keeping their fixtures and joints. Other bodies, such as
+     * those newly created for the same entities after the process has been restarted, are created
+     * directly from the snapshot along with their fixtures and joints, without going through their
+     * shapes or descriptors. They can then be added to the scene as usual, and are not attached
+     * again. If the simulator is asynchronous, this method waits for the step in progress to
+     * finish.</p>
+     *
+     * @param data   The snapshot
+     * @param bodies The bodies to restore
+     *
+     * @throws IllegalArgumentException The data is not a valid snapshot or does not match the
+     *                                  number of bodies
+     */
+    public void restore(byte[] data, PhysicalBody[] bodies) {
+        sync();
+        PhysicsSnapshot.read(this, world, data, bodies);
     }
 
     /**
@@ -206,7 +1216,17 @@ public final class PhysicsSimulator {
      *
      * @see com.annahid.libs.artenus.physics.PhysicalBody
      */
-    public void attach(PhysicalBody body) {
+    public void attach(final PhysicalBody body) {
+        if (stepping) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    attach(body);
+                }
+            });
+            return;
+        }
+
         if (body.body == null) {
             final PhysicalBody.Descriptor bodyDesc = body.desc;
             final BodyDef def = new BodyDef();
@@ -231,12 +1251,14 @@ public final class PhysicsSimulator {
 
             body.body = world.createBody(def);
             body.body.m_userData = body;
+            body.simulator = this;
             body.createFixture();
             body.setPosition(bodyDesc.position.x, bodyDesc.position.y);
             body.setRotation(bodyDesc.angle);
             body.body.setLinearVelocity(new Vec2(bodyDesc.linearVelocity.x, bodyDesc.linearVelocity.y));
-            body.body.setActive(def.active);
+            body.body.setActive(bodyDesc.active);
             body.desc = null;
+            body.publish();
 
             for (JointDescriptor joint : body.joints) {
                 if (joint.jointObject == null && joint.body1.body != null && joint.body2.body != null) {
@@ -264,8 +1286,23 @@ public final class PhysicsSimulator {
      *
      * @see com.annahid.libs.artenus.physics.PhysicalBody
      */
-    public void detach(PhysicalBody body) {
+    public void detach(final PhysicalBody body) {
+        if (stepping) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    detach(body);
+                }
+            });
+            return;
+        }
+
         if (body.body != null) {
+            if (body.throttling != null) {
+                body.throttling = null;
+                throttledCount--;
+            }
+
             body.body.m_userData = null;
 
             for (JointDescriptor joint : body.joints)
@@ -277,4 +1314,176 @@ public final class PhysicsSimulator {
             world.destroyBody(body.body);
         }
     }
+
+    /**
+     * Specifies how bodies outside the region of interest are throttled.
+     *
+     * @see PhysicsSimulator#setThrottling(Throttling)
+     */
+    public enum Throttling {
+        /**
+         * Defines no throttling. All bodies are simulated regardless of their position.
+         */
+        NONE,
+
+        /**
+         * Defines freezing. Bodies are put to sleep, but other bodies can still collide with them,
+         * which wakes them up for a single step before they are frozen again.
+         */
+        FREEZE,
+
+        /**
+         * Defines deactivation. Bodies are removed from simulation and collision detection
+         * entirely, which is cheaper than freezing, but other bodies pass through them.
+         */
+        DEACTIVATE
+    }
+
+    /**
+     * Receives fixtures reported by JBox2D for raycasts and bounding box queries, and converts them
+     * to query results. A single instance is reused for all queries.
+     */
+    private final class QueryHandler implements QueryCallback, RayCastCallback {
+        /**
+         * Holds the combination of body categories to consider.
+         */
+        int categories;
+
+        /**
+         * Holds the list receiving bodies found by a bounding box query.
+         */
+        List<PhysicalBody> results;
+
+        /**
+         * Holds the number of bodies found by the current query.
+         */
+        int count;
+
+        /**
+         * Holds the stamp marking bodies already reported by the current query.
+         */
+        int stamp;
+
+        /**
+         * Indicates whether the current bounding box query is a point query.
+         */
+        boolean point;
+
+        /**
+         * Holds the object receiving the closest hit of the current raycast.
+         */
+        RaycastHit hit;
+
+        /**
+         * Indicates whether the current raycast has hit a body.
+         */
+        boolean found;
+
+        /**
+         * Prepares the handler for a new query.
+         *
+         * @param categories The combination of body categories to consider
+         * @param results    The list to receive the bodies, or {@code null} for a raycast
+         */
+        void begin(int categories, List<PhysicalBody> results) {
+            this.categories = categories;
+            this.results = results;
+            count = 0;
+            point = false;
+            found = false;
+            stamp++;
+        }
+
+        /**
+         * Finishes a bounding box query.
+         *
+         * @return The number of bodies found
+         */
+        int finish() {
+            results = null;
+            return count;
+        }
+
+        /**
+         * Gets the physical body of a fixture if it is included in the current query.
+         *
+         * @param fixture The fixture
+         *
+         * @return The physical body, or {@code null} if the fixture is to be ignored
+         */
+        private PhysicalBody accept(Fixture fixture) {
+            final PhysicalBody body = (PhysicalBody) fixture.m_body.m_userData;
+
+            if (body == null || (body.getCategory() & categories) == 0)
+                return null;
+
+            return body;
+        }
+
+        @Override
+        public boolean reportFixture(Fixture fixture) {
+            final PhysicalBody body = accept(fixture);
+
+            if (body != null && body.queryStamp != stamp &&
+                    (!point || fixture.testPoint(queryBox.lowerBound))) {
+                body.queryStamp = stamp;
+                results.add(body);
+                count++;
+            }
+
+            return true;
+        }
+
+        @Override
+        public float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
+            final PhysicalBody body = accept(fixture);
+
+            // Returning -1 ignores the fixture, and the fraction clips the ray to the hit point
+            if (body == null)
+                return -1;
+
+            final float ppm = pixelsPerMeter;
+            hit.body = body;
+            hit.x = point.x * ppm;
+            hit.y = point.y * ppm;
+            hit.normalX = normal.x;
+            hit.normalY = normal.y;
+            hit.fraction = fraction;
+            found = true;
+            return fraction;
+        }
+    }
+
+    /**
+     * Holds a registered batch listener along with its filters.
+     */
+    private static final class BatchRegistration {
+        /**
+         * Holds the listener.
+         */
+        final CollisionBatchListener listener;
+
+        /**
+         * Holds the combination of event types delivered to the listener.
+         */
+        final int types;
+
+        /**
+         * Holds the combination of body categories delivered to the listener.
+         */
+        final int categories;
+
+        /**
+         * Creates a new registration.
+         *
+         * @param listener   The listener
+         * @param types      The combination of event types
+         * @param categories The combination of body categories
+         */
+        BatchRegistration(CollisionBatchListener listener, int types, int categories) {
+            this.listener = listener;
+            this.types = types;
+            this.categories = categories;
+        }
+    }
 }
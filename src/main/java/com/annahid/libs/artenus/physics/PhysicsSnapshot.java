@@ -0,0 +1,546 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.physics;
+
+import com.annahid.libs.artenus.data.Point2D;
+
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.collision.shapes.ShapeType;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.BodyType;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureDef;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.RevoluteJoint;
+import org.jbox2d.dynamics.joints.RevoluteJointDef;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes and reads the binary snapshots of {@link PhysicsSimulator}. A snapshot contains, for each
+ * body in the order given by the caller, its type, flags, transform, velocities, sleep state and
+ * fixtures in the internal metric format, followed by the joints between the bodies. Values are
+ * copied as they are stored in JBox2D, so restoring a snapshot does not go through body
+ * descriptors or {@link Shape} instances.
+ *
+ * @author Hessan Feghhi
+ * @see PhysicsSimulator#save(PhysicalBody[])
+ * @see PhysicsSimulator#restore(byte[], PhysicalBody[])
+ */
+final class PhysicsSnapshot {
+    /**
+     * Holds the value identifying physics snapshots.
+     */
+    private static final int MAGIC = 0x41525053;
+
+    /**
+     * Holds the version of the snapshot format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Defines the flag indicating an awake body.
+     */
+    private static final int FLAG_AWAKE = 1;
+
+    /**
+     * Defines the flag indicating an active body.
+     */
+    private static final int FLAG_ACTIVE = 2;
+
+    /**
+     * Defines the flag indicating a bullet body.
+     */
+    private static final int FLAG_BULLET = 4;
+
+    /**
+     * Defines the flag indicating a body with fixed rotation.
+     */
+    private static final int FLAG_FIXED_ROTATION = 8;
+
+    /**
+     * Defines the flag indicating a body that is allowed to sleep.
+     */
+    private static final int FLAG_SLEEPING_ALLOWED = 16;
+
+    /**
+     * Defines the flag indicating a sensor fixture.
+     */
+    private static final int FLAG_SENSOR = 1;
+
+    /**
+     * Defines the flag indicating a joint with limits enabled.
+     */
+    private static final int FLAG_LIMIT = 1;
+
+    /**
+     * Defines the flag indicating a joint with its motor enabled.
+     */
+    private static final int FLAG_MOTOR = 2;
+
+    /**
+     * Defines the flag indicating a joint whose bodies collide with each other.
+     */
+    private static final int FLAG_COLLIDE_CONNECTED = 4;
+
+    /**
+     * Prevents instantiation.
+     */
+    private PhysicsSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given bodies. Bodies that are {@code null} or not attached are
+     * written as empty entries, so that the indices of the other bodies are preserved.
+     *
+     * @param bodies The bodies
+     *
+     * @return The snapshot
+     */
+    static byte[] write(PhysicalBody[] bodies) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(bodies.length * 96 + 16);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<PhysicalBody, Integer> indices = new IdentityHashMap<>(bodies.length * 2);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(bodies.length);
+
+            for (int i = 0; i < bodies.length; i++) {
+                final PhysicalBody body = bodies[i];
+
+                if (body == null || body.body == null || body.body.m_userData != body) {
+                    out.writeByte(0);
+                    continue;
+                }
+
+                indices.put(body, i);
+                out.writeByte(1);
+                writeBody(out, body);
+            }
+
+            int jointCount = 0;
+
+            for (PhysicalBody body : indices.keySet())
+                for (JointDescriptor joint : body.joints)
+                    if (isSaved(joint, body, indices))
+                        jointCount++;
+
+            out.writeInt(jointCount);
+
+            for (PhysicalBody body : indices.keySet())
+                for (JointDescriptor joint : body.joints)
+                    if (isSaved(joint, body, indices))
+                        writeJoint(out, joint, indices);
+
+            out.flush();
+        } catch (IOException e) {
+            // Writing to a byte array does not fail
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores a snapshot to the given bodies in the given world. Bodies that are attached to the
+     * world have their state restored in place, keeping their fixtures and joints. Other bodies
+     * are created in the world along with their fixtures, and joints are created if at least one
+     * of their bodies is created.
+     *
+     * @param simulator The simulator owning the world
+     * @param world     The world
+     * @param data      The snapshot
+     * @param bodies    The bodies, in the same order as when the snapshot was written
+     *
+     * @throws IllegalArgumentException The snapshot is invalid or does not match the bodies
+     */
+    static void read(PhysicsSimulator simulator, World world, byte[] data,
+                     PhysicalBody[] bodies) {
+        final ByteBuffer in = ByteBuffer.wrap(data);
+
+        try {
+            if (in.getInt() != MAGIC || in.getShort() != VERSION)
+                throw new IllegalArgumentException("The data is not a physics snapshot.");
+
+            final int count = in.getInt();
+
+            if (count != bodies.length)
+                throw new IllegalArgumentException(
+                        "The snapshot contains " + count + " bodies, but " + bodies.length +
+                                " were given.");
+
+            final boolean[] created = new boolean[count];
+            final Vec2[] vertices = new Vec2[Settings.maxPolygonVertices];
+
+            for (int i = 0; i < vertices.length; i++)
+                vertices[i] = new Vec2();
+
+            for (int i = 0; i < count; i++) {
+                if (in.get() == 0)
+                    continue;
+
+                final PhysicalBody body = bodies[i];
+
+                if (body == null)
+                    throw new IllegalArgumentException("Missing body at index " + i + ".");
+
+                created[i] = readBody(simulator, world, in, body, vertices);
+            }
+
+            final int jointCount = in.getInt();
+
+            for (int i = 0; i < jointCount; i++)
+                readJoint(world, in, bodies, created);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The physics snapshot is truncated.");
+        }
+    }
+
+    /**
+     * Writes a body along with its fixtures.
+     *
+     * @param out  The output
+     * @param body The physical body
+     *
+     * @throws IOException Never thrown when writing to a byte array
+     */
+    private static void writeBody(DataOutputStream out, PhysicalBody body) throws IOException {
+        final Body b = body.body;
+        float vx = b.m_linearVelocity.x, vy = b.m_linearVelocity.y, omega = b.m_angularVelocity;
+        boolean awake = b.isAwake(), active = b.isActive();
+
+        // Throttled bodies are saved as released, and throttled again after restoring if needed
+        if (body.throttling == PhysicsSimulator.Throttling.FREEZE) {
+            vx = body.frozenVelocityX;
+            vy = body.frozenVelocityY;
+            omega = body.frozenAngularVelocity;
+            awake = true;
+        } else if (body.throttling == PhysicsSimulator.Throttling.DEACTIVATE) {
+            active = true;
+        }
+
+        int flags = 0;
+
+        if (awake)
+            flags |= FLAG_AWAKE;
+
+        if (active)
+            flags |= FLAG_ACTIVE;
+
+        if (b.isBullet())
+            flags |= FLAG_BULLET;
+
+        if (b.isFixedRotation())
+            flags |= FLAG_FIXED_ROTATION;
+
+        if (b.isSleepingAllowed())
+            flags |= FLAG_SLEEPING_ALLOWED;
+
+        out.writeByte(b.m_type.ordinal());
+        out.writeByte(flags);
+        out.writeFloat(b.m_xf.p.x);
+        out.writeFloat(b.m_xf.p.y);
+        out.writeFloat(b.getAngle());
+        out.writeFloat(vx);
+        out.writeFloat(vy);
+        out.writeFloat(omega);
+        out.writeFloat(b.m_linearDamping);
+        out.writeFloat(b.m_angularDamping);
+        out.writeFloat(b.m_gravityScale);
+        out.writeFloat(b.m_sleepTime);
+        out.writeInt(body.getCategory());
+        out.writeInt(body.getCollisionMask());
+        out.writeByte(body.getCollisionEvents());
+        out.writeByte(body.getConnections());
+        out.writeFloat(body.getDensity());
+        out.writeFloat(body.getFriction());
+        out.writeFloat(body.getRestitution());
+
+        int fixtureCount = 0;
+
+        for (Fixture f = b.getFixtureList(); f != null; f = f.getNext())
+            if (isSupported(f))
+                fixtureCount++;
+
+        out.writeShort(fixtureCount);
+
+        for (Fixture f = b.getFixtureList(); f != null; f = f.getNext()) {
+            if (!isSupported(f))
+                continue;
+
+            out.writeByte(f.getType().ordinal());
+            out.writeByte(f.isSensor() ? FLAG_SENSOR : 0);
+            out.writeFloat(f.m_density);
+            out.writeFloat(f.m_friction);
+            out.writeFloat(f.m_restitution);
+            out.writeInt(f.m_filter.categoryBits);
+            out.writeInt(f.m_filter.maskBits);
+            out.writeShort(f.m_filter.groupIndex);
+
+            if (f.getType() == ShapeType.CIRCLE) {
+                final CircleShape circle = (CircleShape) f.getShape();
+                out.writeFloat(circle.m_radius);
+                out.writeFloat(circle.m_p.x);
+                out.writeFloat(circle.m_p.y);
+            } else {
+                final PolygonShape polygon = (PolygonShape) f.getShape();
+                out.writeByte(polygon.m_count);
+
+                for (int i = 0; i < polygon.m_count; i++) {
+                    out.writeFloat(polygon.m_vertices[i].x);
+                    out.writeFloat(polygon.m_vertices[i].y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a body, restoring it in place if it is attached to the world, or creating it
+     * otherwise.
+     *
+     * @param simulator The simulator owning the world
+     * @param world     The world
+     * @param in        The input
+     * @param body      The physical body
+     * @param vertices  Array used to pass polygon vertices to JBox2D
+     *
+     * @return {@code true} if the body was created, {@code false} if it was restored in place
+     */
+    private static boolean readBody(PhysicsSimulator simulator, World world, ByteBuffer in,
+                                    PhysicalBody body, Vec2[] vertices) {
+        final BodyType type = BodyType.values()[in.get()];
+        final int flags = in.get();
+        final float x = in.getFloat(), y = in.getFloat(), angle = in.getFloat();
+        final float vx = in.getFloat(), vy = in.getFloat(), omega = in.getFloat();
+        final float linearDamping = in.getFloat(), angularDamping = in.getFloat();
+        final float gravityScale = in.getFloat(), sleepTime = in.getFloat();
+        final int category = in.getInt(), mask = in.getInt();
+        final int events = in.get(), connections = in.get();
+        final float density = in.getFloat(), friction = in.getFloat();
+        final float restitution = in.getFloat();
+        final boolean attached = body.body != null && body.body.m_userData == body &&
+                body.simulator == simulator;
+        Body b = body.body;
+
+        if (attached) {
+            // The body is released first, so that its saved state is not overridden later
+            if (body.throttling != null)
+                simulator.release(body);
+
+            b.setType(type);
+        } else {
+            final BodyDef def = new BodyDef();
+            def.type = type;
+            def.position.set(x, y);
+            def.angle = angle;
+            b = world.createBody(def);
+            b.m_userData = body;
+            body.body = b;
+            body.simulator = simulator;
+            body.desc = null;
+        }
+
+        body.setDensity(density);
+        body.setFriction(friction);
+        body.setRestitution(restitution);
+        body.setCollisionEvents(events);
+        body.setConnections(connections);
+        body.setCategory(category);
+        body.setCollisionMask(mask);
+        b.setTransform(new Vec2(x, y), angle);
+        b.setLinearDamping(linearDamping);
+        b.setAngularDamping(angularDamping);
+        b.setGravityScale(gravityScale);
+        b.setBullet((flags & FLAG_BULLET) != 0);
+        b.setFixedRotation((flags & FLAG_FIXED_ROTATION) != 0);
+        b.setSleepingAllowed((flags & FLAG_SLEEPING_ALLOWED) != 0);
+        b.setActive((flags & FLAG_ACTIVE) != 0);
+        final int fixtureCount = in.getShort();
+
+        for (int i = 0; i < fixtureCount; i++)
+            readFixture(in, attached ? null : b, vertices);
+
+        // Velocities are only kept by awake bodies, so they are restored after the sleep state
+        b.setAwake((flags & FLAG_AWAKE) != 0);
+        b.setLinearVelocity(new Vec2(vx, vy));
+        b.setAngularVelocity(omega);
+        b.m_sleepTime = sleepTime;
+        body.publish();
+        body.syncTarget();
+        return !attached;
+    }
+
+    /**
+     * Reads a fixture and creates it on the given body.
+     *
+     * @param in       The input
+     * @param b        The body, or {@code null} to skip the fixture
+     * @param vertices Array used to pass polygon vertices to JBox2D
+     */
+    private static void readFixture(ByteBuffer in, Body b, Vec2[] vertices) {
+        final ShapeType type = ShapeType.values()[in.get()];
+        final FixtureDef def = new FixtureDef();
+        def.isSensor = (in.get() & FLAG_SENSOR) != 0;
+        def.density = in.getFloat();
+        def.friction = in.getFloat();
+        def.restitution = in.getFloat();
+        def.filter.categoryBits = in.getInt();
+        def.filter.maskBits = in.getInt();
+        def.filter.groupIndex = in.getShort();
+
+        if (type == ShapeType.CIRCLE) {
+            final CircleShape circle = new CircleShape();
+            circle.m_radius = in.getFloat();
+            circle.m_p.set(in.getFloat(), in.getFloat());
+            def.shape = circle;
+        } else {
+            final PolygonShape polygon = new PolygonShape();
+            final int count = in.get();
+
+            for (int i = 0; i < count; i++)
+                vertices[i].set(in.getFloat(), in.getFloat());
+
+            polygon.set(vertices, count);
+            def.shape = polygon;
+        }
+
+        if (b != null)
+            b.createFixture(def);
+    }
+
+    /**
+     * Writes a joint.
+     *
+     * @param out     The output
+     * @param joint   The joint descriptor
+     * @param indices Map of the saved bodies to their indices
+     *
+     * @throws IOException Never thrown when writing to a byte array
+     */
+    private static void writeJoint(DataOutputStream out, JointDescriptor joint,
+                                   Map<PhysicalBody, Integer> indices) throws IOException {
+        final RevoluteJoint revolute = (RevoluteJoint) joint.jointObject;
+        int flags = 0;
+
+        if (revolute.isLimitEnabled())
+            flags |= FLAG_LIMIT;
+
+        if (revolute.isMotorEnabled())
+            flags |= FLAG_MOTOR;
+
+        if (revolute.getCollideConnected())
+            flags |= FLAG_COLLIDE_CONNECTED;
+
+        out.writeByte(joint.jointType);
+        out.writeByte(flags);
+        out.writeInt(indices.get(joint.body1));
+        out.writeInt(indices.get(joint.body2));
+        out.writeFloat(revolute.getLocalAnchorA().x);
+        out.writeFloat(revolute.getLocalAnchorA().y);
+        out.writeFloat(revolute.getLocalAnchorB().x);
+        out.writeFloat(revolute.getLocalAnchorB().y);
+        out.writeFloat(revolute.getReferenceAngle());
+        out.writeFloat(revolute.getLowerLimit());
+        out.writeFloat(revolute.getUpperLimit());
+        out.writeFloat(revolute.getMotorSpeed());
+        out.writeFloat(revolute.getMaxMotorTorque());
+    }
+
+    /**
+     * Reads a joint, and creates it if at least one of its bodies was created by the restore.
+     *
+     * @param world   The world
+     * @param in      The input
+     * @param bodies  The bodies
+     * @param created Array indicating which bodies were created
+     */
+    private static void readJoint(World world, ByteBuffer in, PhysicalBody[] bodies,
+                                  boolean[] created) {
+        in.get();
+        final int flags = in.get();
+        final int index1 = in.getInt(), index2 = in.getInt();
+        final RevoluteJointDef def = new RevoluteJointDef();
+        def.localAnchorA.set(in.getFloat(), in.getFloat());
+        def.localAnchorB.set(in.getFloat(), in.getFloat());
+        def.referenceAngle = in.getFloat();
+        def.lowerAngle = in.getFloat();
+        def.upperAngle = in.getFloat();
+        def.motorSpeed = in.getFloat();
+        def.maxMotorTorque = in.getFloat();
+        def.enableLimit = (flags & FLAG_LIMIT) != 0;
+        def.enableMotor = (flags & FLAG_MOTOR) != 0;
+        def.collideConnected = (flags & FLAG_COLLIDE_CONNECTED) != 0;
+
+        if (!created[index1] && !created[index2])
+            return;
+
+        final PhysicalBody body1 = bodies[index1], body2 = bodies[index2];
+        def.bodyA = body1.body;
+        def.bodyB = body2.body;
+        final Vec2 anchor = new Vec2();
+        final RevoluteJointDescriptor joint =
+                new RevoluteJointDescriptor(body1, body2, new Point2D(0, 0));
+        joint.jointObject = world.createJoint(def);
+        joint.jointObject.getAnchorA(anchor);
+        joint.anchorPoint.x = anchor.x * PhysicsSimulator.pixelsPerMeter;
+        joint.anchorPoint.y = anchor.y * PhysicsSimulator.pixelsPerMeter;
+        body1.joints.add(joint);
+        body2.joints.add(joint);
+    }
+
+    /**
+     * Indicates whether a joint of a body is written to the snapshot. Each joint is written once,
+     * by its first body, and only if both of its bodies are saved.
+     *
+     * @param joint   The joint descriptor
+     * @param body    The body whose joints are being written
+     * @param indices Map of the saved bodies to their indices
+     *
+     * @return {@code true} if the joint is written, {@code false} otherwise
+     */
+    private static boolean isSaved(JointDescriptor joint, PhysicalBody body,
+                                   Map<PhysicalBody, Integer> indices) {
+        return joint.body1 == body && joint.jointObject instanceof RevoluteJoint &&
+                indices.containsKey(joint.body2);
+    }
+
+    /**
+     * Indicates whether the shape of a fixture can be written to a snapshot. Only circles and
+     * polygons are created by the framework.
+     *
+     * @param fixture The fixture
+     *
+     * @return {@code true} if the fixture is supported, {@code false} otherwise
+     */
+    private static boolean isSupported(Fixture fixture) {
+        return fixture.getType() == ShapeType.CIRCLE || fixture.getType() == ShapeType.POLYGON;
+    }
+}
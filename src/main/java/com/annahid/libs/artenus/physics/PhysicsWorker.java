@@ -0,0 +1,107 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.physics;
+
+import java.util.ArrayDeque;
+
+/**
+ * Steps physics simulators running in asynchronous mode. A single daemon thread is shared by all
+ * simulators, since only one scene and its dialog are advanced at a time. Simulators are queued and
+ * stepped in the order they were submitted.
+ *
+ * @author Hessan Feghhi
+ * @see PhysicsSimulator#setAsynchronous(boolean)
+ */
+final class PhysicsWorker implements Runnable {
+    /**
+     * Holds the shared instance, created when the first asynchronous step is submitted.
+     */
+    private static PhysicsWorker instance;
+
+    /**
+     * Contains the simulators waiting to be stepped.
+     */
+    private final ArrayDeque<PhysicsSimulator> queue = new ArrayDeque<>();
+
+    /**
+     * Holds the thread running this worker.
+     */
+    private Thread thread;
+
+    /**
+     * Creates the worker. Use {@link #getInstance()} instead.
+     */
+    private PhysicsWorker() {
+    }
+
+    /**
+     * Gets the shared physics worker, starting its thread if necessary. If the thread has died,
+     * for example because of an error it could not recover from, a new thread is started to take
+     * over the queued simulators.
+     *
+     * @return The physics worker
+     */
+    static synchronized PhysicsWorker getInstance() {
+        if (instance == null) {
+            instance = new PhysicsWorker();
+        }
+
+        if (instance.thread == null || !instance.thread.isAlive()) {
+            instance.thread = new Thread(instance, "Artenus Physics");
+            instance.thread.setDaemon(true);
+            instance.thread.start();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Queues a simulator to be stepped on the worker thread. The simulator must have its step
+     * parameters set before calling this method.
+     *
+     * @param simulator The simulator
+     */
+    void submit(PhysicsSimulator simulator) {
+        synchronized (queue) {
+            queue.add(simulator);
+            queue.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final PhysicsSimulator simulator;
+
+            synchronized (queue) {
+                while (queue.isEmpty()) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                simulator = queue.poll();
+            }
+
+            simulator.runStep();
+        }
+    }
+}
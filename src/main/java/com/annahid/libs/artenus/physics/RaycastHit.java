@@ -0,0 +1,60 @@
+/*
+ *  This file is part of the Artenus 2D Framework.
+ *  Copyright (C) 2015  Hessan Feghhi
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Foobar is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.annahid.libs.artenus.physics;
+
+/**
+ * Receives the result of a raycast performed by {@link PhysicsSimulator}. Instances of this class
+ * are supplied by the caller and can be reused for any number of raycasts, so that casting rays
+ * does not produce garbage. All distances are in pixels.
+ *
+ * @author Hessan Feghhi
+ * @see PhysicsSimulator#raycast(float, float, float, float, int, RaycastHit)
+ */
+@SuppressWarnings("UnusedDeclaration")
+public final class RaycastHit {
+    /**
+     * Holds the body hit by the ray.
+     */
+    public PhysicalBody body;
+
+    /**
+     * Holds the x coordinate of the point where the ray hit the body.
+     */
+    public float x;
+
+    /**
+     * Holds the y coordinate of the point where the ray hit the body.
+     */
+    public float y;
+
+    /**
+     * Holds the x component of the surface normal at the hit point.
+     */
+    public float normalX;
+
+    /**
+     * Holds the y component of the surface normal at the hit point.
+     */
+    public float normalY;
+
+    /**
+     * Holds the fraction of the ray from its start point to the hit point, between 0 and 1.
+     */
+    public float fraction;
+}